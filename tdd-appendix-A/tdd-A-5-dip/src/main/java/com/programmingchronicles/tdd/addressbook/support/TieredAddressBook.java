@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Agenda global con dos niveles de caché delante de un almacenamiento.
+ *
+ * <p>
+ * La caché de nivel 1 (L1) es pequeña y guarda los contactos más usados,
+ * la de nivel 2 (L2) es mayor y recoge los contactos que salen de L1. Los
+ * datos reales están en el almacenamiento, otro GlobalAddressBook que
+ * se recibe en el constructor (Direct Injection), TieredAddressBook no
+ * sabe si es una agenda en memoria o en base de datos.</p>
+ *
+ * <p>
+ * Las cachés no son agendas, son simples mapas por id. Solo el
+ * almacenamiento genera ids, así un contacto tiene el mismo id en todos
+ * los niveles.</p>
+ *
+ * <pre>
+ * - Lectura: se busca en L1, después en L2 y por último en el almacenamiento.
+ *   Un acierto en L2 promociona el contacto a L1, y lo leído del
+ *   almacenamiento también entra en L1.
+ * - Escritura: se añade al almacenamiento, que asigna el id, y el contacto
+ *   entra en L1.
+ * - Cuando L1 se llena el contacto menos usado se degrada a L2, y cuando L2
+ *   se llena el contacto menos usado se descarta (sigue en el almacenamiento).
+ * </pre>
+ *
+ * <p>
+ * Las cachés guardan copias de los contactos y cada lectura entrega una
+ * copia nueva, así los clientes pueden modificar los Contacts que entregan
+ * o reciben sin cambiar lo que hay en caché.</p>
+ *
+ * <p>
+ * Se cuentan los aciertos de cada nivel para poder ajustar los tamaños.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TieredAddressBook implements GlobalAddressBook {
+
+    public static final int DEFAULT_L1_CAPACITY = 16;
+
+    public static final int DEFAULT_L2_CAPACITY = 256;
+
+    // Almacenamiento real de los contactos.
+    private final GlobalAddressBook addressBook;
+
+    private int l1Capacity = DEFAULT_L1_CAPACITY;
+
+    private int l2Capacity = DEFAULT_L2_CAPACITY;
+
+    // LinkedHashMap ordenado por acceso, el primero es el menos usado.
+    private final Map<String, Contact> l1Cache = new LinkedHashMap<String, Contact>(16, 0.75f, true);
+
+    private final Map<String, Contact> l2Cache = new LinkedHashMap<String, Contact>(16, 0.75f, true);
+
+    private long l1Hits;
+    private long l2Hits;
+    private long storeReads;
+    private long promotions;
+    private long demotions;
+
+    // Direct Injection basado en constructor, se debe entregar
+    // el almacenamiento real de los contactos.
+    public TieredAddressBook(GlobalAddressBook addressBook) {
+        this.addressBook = addressBook;
+    }
+
+    public GlobalAddressBook getAddressBook() {
+        return addressBook;
+    }
+
+    public synchronized int getL1Capacity() {
+        return l1Capacity;
+    }
+
+    /**
+     * Número máximo de contactos en la caché de nivel 1.
+     */
+    public synchronized void setL1Capacity(int l1Capacity) {
+        if (l1Capacity < 1) {
+            throw new IllegalArgumentException("L1 capacity must be positive");
+        }
+        this.l1Capacity = l1Capacity;
+        while (l1Cache.size() > l1Capacity) {
+            demoteEldest();
+        }
+    }
+
+    public synchronized int getL2Capacity() {
+        return l2Capacity;
+    }
+
+    /**
+     * Número máximo de contactos en la caché de nivel 2. Con 0 no hay
+     * nivel 2 y lo que sale de L1 se descarta.
+     */
+    public synchronized void setL2Capacity(int l2Capacity) {
+        if (l2Capacity < 0) {
+            throw new IllegalArgumentException("L2 capacity must not be negative");
+        }
+        this.l2Capacity = l2Capacity;
+        trimL2();
+    }
+
+    /**
+     * Añade el contacto al almacenamiento, que asigna el id, y lo deja
+     * en L1 como contacto más reciente.
+     */
+    @Override
+    public synchronized String addContact(Contact contact) {
+        String id = addressBook.addContact(contact);
+        putL1(id, copy(id, contact));
+        return id;
+    }
+
+    /**
+     * Busca el contacto en L1, L2 y el almacenamiento, en ese orden. Si
+     * no existe el almacenamiento lanza InvalidIdException.
+     */
+    @Override
+    public synchronized Contact getContact(String contactId) {
+        Contact contact = l1Cache.get(contactId);
+        if (contact != null) {
+            l1Hits++;
+            return copy(contactId, contact);
+        }
+
+        contact = l2Cache.remove(contactId);
+        if (contact != null) {
+            l2Hits++;
+            promotions++;
+            putL1(contactId, contact);
+            return copy(contactId, contact);
+        }
+
+        storeReads++;
+        contact = addressBook.getContact(contactId);
+        putL1(contactId, copy(contactId, contact));
+        return contact;
+    }
+
+    /**
+     * Las cachés no saben si tienen todos los contactos, el listado
+     * siempre se lee del almacenamiento.
+     */
+    @Override
+    public List<Contact> getAll() {
+        return addressBook.getAll();
+    }
+
+    public synchronized long getL1Hits() {
+        return l1Hits;
+    }
+
+    public synchronized long getL2Hits() {
+        return l2Hits;
+    }
+
+    /**
+     * Lecturas de getContact que fallaron en ambas cachés.
+     */
+    public synchronized long getStoreReads() {
+        return storeReads;
+    }
+
+    public synchronized long getPromotions() {
+        return promotions;
+    }
+
+    public synchronized long getDemotions() {
+        return demotions;
+    }
+
+    public synchronized int getL1Size() {
+        return l1Cache.size();
+    }
+
+    public synchronized int getL2Size() {
+        return l2Cache.size();
+    }
+
+    /**
+     * Vacía ambas cachés, el almacenamiento no se modifica.
+     */
+    public synchronized void clear() {
+        l1Cache.clear();
+        l2Cache.clear();
+    }
+
+    private static Contact copy(String id, Contact contact) {
+        Contact copy = new Contact(contact.getName());
+        copy.setId(id);
+        return copy;
+    }
+
+    private void putL1(String id, Contact contact) {
+        // Un contacto solo puede estar en un nivel.
+        l2Cache.remove(id);
+        l1Cache.put(id, contact);
+        if (l1Cache.size() > l1Capacity) {
+            demoteEldest();
+        }
+    }
+
+    private void demoteEldest() {
+        Iterator<Map.Entry<String, Contact>> it = l1Cache.entrySet().iterator();
+        Map.Entry<String, Contact> eldest = it.next();
+        String id = eldest.getKey();
+        Contact contact = eldest.getValue();
+        it.remove();
+
+        if (l2Capacity > 0) {
+            demotions++;
+            l2Cache.put(id, contact);
+            trimL2();
+        }
+    }
+
+    private void trimL2() {
+        Iterator<String> it = l2Cache.keySet().iterator();
+        while (l2Cache.size() > l2Capacity) {
+            it.next();
+            it.remove();
+        }
+    }
+}
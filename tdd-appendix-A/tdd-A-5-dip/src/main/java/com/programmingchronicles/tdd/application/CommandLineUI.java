@@ -21,11 +21,10 @@
 
 package com.programmingchronicles.tdd.application;
 
-import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
-import com.programmingchronicles.tdd.addressbook.support.DbAddressBook;
+import com.programmingchronicles.tdd.addressbook.InvalidIdException;
 import com.programmingchronicles.tdd.addressbook.support.IncrementIdGenerator;
 import com.programmingchronicles.tdd.addressbook.support.MemAddressBook;
-import com.programmingchronicles.tdd.addressbook.support.RandomIdGenerator;
+import com.programmingchronicles.tdd.addressbook.support.TieredAddressBook;
 import com.programmingchronicles.tdd.domain.Contact;
 import java.util.List;
 
@@ -36,32 +35,22 @@ import java.util.List;
  * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
  */
 public class CommandLineUI {
-    
-    GlobalAddressBook addressBookL2Cache;
-    GlobalAddressBook addressBookL1Cache;
-    GlobalAddressBook addressBook;
+
+    TieredAddressBook addressBook;
 
     public CommandLineUI() {
-        // Creamos un addressbook basado en memoria para la caché
+        // Almacenamiento real de los contactos, es el único que genera
+        // ids. DbAddressBook todavía no está implementado, usamos un
+        // addressbook en memoria; al tener la misma interfaz cambiarlo
+        // no afecta al resto de la aplicación.
         MemAddressBook memAddressBook = new MemAddressBook();
-        // Se configura con un generador de ids aleatorio.
-        memAddressBook.setIdGenerator(new RandomIdGenerator());
-
-        addressBookL2Cache = memAddressBook;
-
-        // Creamos un addressbook de nivel 1 basado en memoria
-        memAddressBook = new MemAddressBook();
-        // Estamos usando la misma implementación, pero ahora decidimos
-        // usar un generador no aletario, el cliente decide que
-        // implementación de las dependencias interesa más.
         memAddressBook.setIdGenerator(new IncrementIdGenerator());
 
-        addressBookL1Cache = memAddressBook;
-
-        // Creamos un addressbook basado en base de datos, usamos
-        // exactamente la misma interfaz, pero con otra implementación que
-        // no requiere configurar un IdGenerator.
-        addressBook = new DbAddressBook();
+        // Las cachés L1 y L2 van delante del almacenamiento, el cliente
+        // decide sus tamaños.
+        addressBook = new TieredAddressBook(memAddressBook);
+        addressBook.setL1Capacity(16);
+        addressBook.setL2Capacity(256);
     }
 
 
@@ -72,24 +61,28 @@ public class CommandLineUI {
 
         if(args.length == 2 && "add".equals(args[0]) && args[1] != null && args[1].length() > 0) {
             cli.add(new Contact(args[1]));
+            cli.printStats();
             return;
         } else if(args.length == 1 && "read".equals(args[0])) {
             cli.printAll();
+            cli.printStats();
+            return;
+        } else if(args.length == 2 && "get".equals(args[0])) {
+            cli.print(args[1]);
+            cli.printStats();
             return;
-        } 
+        }
         cli.printUsage();
     }
 
     private void add(Contact contact) {
-        addressBookL2Cache.addContact(contact);
-        addressBookL1Cache.addContact(contact);
-   //     addressBook.addContact(contact);
-        System.out.println(contact.getName() + " added." );
+        String id = addressBook.addContact(contact);
+        System.out.println(contact.getName() + " added with id " + id + "." );
         System.out.println();
     }
 
     private void printAll() {
-        List<Contact> contacts = addressBookL1Cache.getAll();
+        List<Contact> contacts = addressBook.getAll();
         if(contacts.size() == 0) {
           System.out.println("Wikiagenda is Empty" );
           System.out.println();
@@ -105,10 +98,31 @@ public class CommandLineUI {
         System.out.println();
     }
 
+    private void print(String contactId) {
+        try {
+            Contact contact = addressBook.getContact(contactId);
+            System.out.println(contact.getId() + ": " + contact.getName());
+        } catch(InvalidIdException ex) {
+            System.out.println("Contact " + contactId + " not found");
+        }
+        System.out.println();
+    }
+
+    private void printStats() {
+        System.out.println("Cache L1: " + addressBook.getL1Size() + "/" + addressBook.getL1Capacity()
+                + " contacts, " + addressBook.getL1Hits() + " hits");
+        System.out.println("Cache L2: " + addressBook.getL2Size() + "/" + addressBook.getL2Capacity()
+                + " contacts, " + addressBook.getL2Hits() + " hits");
+        System.out.println("Store: " + addressBook.getStoreReads() + " reads, "
+                + addressBook.getPromotions() + " promotions, "
+                + addressBook.getDemotions() + " demotions");
+    }
+
     private void printUsage() {
         System.out.println("Usage:");
         System.out.println();
         System.out.println("CommandLineUI add name");
+        System.out.println("CommandLineUI get id");
         System.out.println("CommandLineUI read");
     }
 }
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.IdGenerator;
+import com.programmingchronicles.tdd.addressbook.InvalidIdException;
+import com.programmingchronicles.tdd.domain.Contact;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests de TieredAddressBook.
+ *
+ * El almacenamiento es un MemAddressBook con un IdGenerator de test, así
+ * los ids son previsibles y no dependemos de IncrementIdGenerator.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestTieredAddressBook {
+
+    private MemAddressBook store;
+
+    private TieredAddressBook addressBook;
+
+    @Before
+    public void setUp() {
+        store = new MemAddressBook(new IdGenerator() {
+            private int nextId = 0;
+
+            @Override
+            public String newId() {
+                return Integer.toString(nextId++);
+            }
+        });
+
+        addressBook = new TieredAddressBook(store);
+        addressBook.setL1Capacity(2);
+        addressBook.setL2Capacity(2);
+    }
+
+    /**
+     * El id lo asigna el almacenamiento y es el mismo en todos los niveles.
+     */
+    @Test
+    public void testAddContact() {
+        Contact contact = new Contact("Pedro");
+
+        String id = addressBook.addContact(contact);
+
+        assertEquals("0", id);
+        assertSame(contact, store.getContact(id));
+        assertEquals("Pedro", addressBook.getContact(id).getName());
+        assertEquals(id, addressBook.getContact(id).getId());
+        assertEquals(2, addressBook.getL1Hits());
+        assertEquals(0, addressBook.getStoreReads());
+    }
+
+    /**
+     * Las cachés guardan copias, modificar el contacto entregado al añadir
+     * o el devuelto por getContact no cambia lo que hay en caché.
+     */
+    @Test
+    public void testCachedContactsAreCopies() {
+        Contact contact = new Contact("Pedro");
+        String id = addressBook.addContact(contact);
+        contact.setName("Changed");
+
+        Contact read = addressBook.getContact(id);
+        assertNotSame(contact, read);
+        assertEquals("Pedro", read.getName());
+
+        read.setName("Changed");
+        assertEquals("Pedro", addressBook.getContact(id).getName());
+        assertEquals(0, addressBook.getStoreReads());
+    }
+
+    /**
+     * Lo que no está en las cachés se lee del almacenamiento y entra en L1.
+     */
+    @Test
+    public void testGetContactFromStore() {
+        String id = store.addContact(new Contact("Pedro"));
+
+        addressBook.getContact(id);
+        addressBook.getContact(id);
+
+        assertEquals(1, addressBook.getStoreReads());
+        assertEquals(1, addressBook.getL1Hits());
+        assertEquals(1, addressBook.getL1Size());
+    }
+
+    /**
+     * Al llenarse L1 el menos usado se degrada a L2, y un acierto en L2
+     * lo promociona de nuevo a L1.
+     */
+    @Test
+    public void testDemotionAndPromotion() {
+        String id0 = addressBook.addContact(new Contact("A"));
+        addressBook.addContact(new Contact("B"));
+        addressBook.addContact(new Contact("C"));
+
+        assertEquals(2, addressBook.getL1Size());
+        assertEquals(1, addressBook.getL2Size());
+        assertEquals(1, addressBook.getDemotions());
+
+        // id0 está en L2, pasa a L1 y degrada al menos usado (id1).
+        assertEquals("A", addressBook.getContact(id0).getName());
+
+        assertEquals(1, addressBook.getL2Hits());
+        assertEquals(1, addressBook.getPromotions());
+        assertEquals(2, addressBook.getDemotions());
+        assertEquals(2, addressBook.getL1Size());
+        assertEquals(1, addressBook.getL2Size());
+
+        // Ahora es un acierto en L1.
+        addressBook.getContact(id0);
+        assertEquals(1, addressBook.getL1Hits());
+        assertEquals(0, addressBook.getStoreReads());
+    }
+
+    /**
+     * Lo que sale de L2 se descarta pero sigue en el almacenamiento.
+     */
+    @Test
+    public void testEvictionFromL2() {
+        String id0 = addressBook.addContact(new Contact("A"));
+        for (int i = 1; i < 5; i++) {
+            addressBook.addContact(new Contact("Contact" + i));
+        }
+
+        assertEquals(2, addressBook.getL1Size());
+        assertEquals(2, addressBook.getL2Size());
+
+        assertEquals("A", addressBook.getContact(id0).getName());
+        assertEquals(1, addressBook.getStoreReads());
+    }
+
+    /**
+     * Sin nivel 2 lo que sale de L1 no se degrada.
+     */
+    @Test
+    public void testWithoutL2() {
+        addressBook.setL2Capacity(0);
+
+        String id0 = addressBook.addContact(new Contact("A"));
+        addressBook.addContact(new Contact("B"));
+        addressBook.addContact(new Contact("C"));
+
+        assertEquals(0, addressBook.getL2Size());
+        assertEquals(0, addressBook.getDemotions());
+
+        addressBook.getContact(id0);
+        assertEquals(1, addressBook.getStoreReads());
+    }
+
+    @Test
+    public void testGetAll() {
+        addressBook.addContact(new Contact("A"));
+        store.addContact(new Contact("B"));
+
+        // El listado siempre viene del almacenamiento.
+        assertEquals(2, addressBook.getAll().size());
+    }
+
+    @Test(expected = InvalidIdException.class)
+    public void testGetContactInvalidId() {
+        addressBook.getContact("INVALID");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidL1Capacity() {
+        addressBook.setL1Capacity(0);
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.horoscope;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Operaciones de calendario con números de días desde el 1/1/1970, sin
+ * crear objetos Calendar. Se usan desde varios threads a la vez, así que
+ * no guardan estado.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+final class CalendarMath {
+
+    static final long MILLIS_PER_HOUR = 60L * 60 * 1000;
+    static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    /**
+     * Días de un año bisiesto, ver {@link #dayOfYear(int, int)}.
+     */
+    static final int DAYS_IN_YEAR = 366;
+
+    private static final int[] DAYS_BEFORE_MONTH = {
+        0, 31, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335
+    };
+
+    private CalendarMath() {
+    }
+
+    /**
+     * Días desde el 1/1/1970 del calendario gregoriano. Los meses y días
+     * fuera de rango pasan al año o mes siguiente, como en un Calendar
+     * lenient.
+     */
+    static long toEpochDay(int year, int month, int day) {
+        long y = year + floorDiv(month - 1, 12);
+        int m = (int) floorMod(month - 1, 12) + 1;
+
+        // Se cuentan los años desde marzo, así el 29 de febrero es el
+        // último día del año y no desplaza el resto de meses.
+        if (m <= 2) {
+            y--;
+        }
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (m + (m > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Año, mes (de 1 a 12) y día del día entregado en días desde el 1/1/1970.
+     */
+    static int[] toCivil(long epochDay) {
+        long z = epochDay + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        return new int[] { year, month, day };
+    }
+
+    /**
+     * Número del día del año contado como en un año bisiesto: el 1 de enero
+     * es el 1, el 29 de febrero el 60 y el 31 de diciembre el 366.
+     *
+     * @param month Mes, de 1 a 12.
+     * @param day Día del mes, de 1 a 31.
+     * @return Día de 1 a 366.
+     */
+    static int dayOfYear(int month, int day) {
+        return DAYS_BEFORE_MONTH[month - 1] + day;
+    }
+
+    /**
+     * Día del año (ver {@link #dayOfYear(int, int)}) del día entregado en
+     * días desde el 1/1/1970. No crea objetos, se usa en los bucles.
+     */
+    static int dayOfYear(long epochDay) {
+        long z = epochDay + 719468;
+        long dayOfEra = z - floorDiv(z, 146097) * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        return DAYS_BEFORE_MONTH[month - 1] + day;
+    }
+
+    /**
+     * Día de la semana con las constantes de Calendar, de
+     * {@link Calendar#SUNDAY} a {@link Calendar#SATURDAY}.
+     */
+    static int dayOfWeek(long epochDay) {
+        // El 1/1/1970 fue jueves.
+        return (int) floorMod(epochDay + 4, 7) + Calendar.SUNDAY;
+    }
+
+    /**
+     * Día, en días desde el 1/1/1970, del instante entregado en la zona
+     * horaria entregada.
+     */
+    static long toEpochDay(long millis, TimeZone timeZone) {
+        return floorDiv(millis + timeZone.getOffset(millis), MILLIS_PER_DAY);
+    }
+
+    // Math.floorDiv y Math.floorMod no existen en Java 7.
+    static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+
+    static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
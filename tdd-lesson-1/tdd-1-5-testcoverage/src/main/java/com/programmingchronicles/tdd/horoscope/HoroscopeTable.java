@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.horoscope;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Predicciones del {@link Horoscope} precalculadas en una tabla, para
+ * predecir muchas fechas ya parseadas sin evaluar las reglas cada vez.
+ *
+ * <p>
+ * La suerte solo depende del día del año y del día de la semana, así que
+ * la tabla tiene 366 x 7 combinaciones. Se rellena una sola vez, al cargar
+ * la clase, preguntando al propio Horoscope por fechas de un ciclo de 28
+ * años (en el que se repiten todas las combinaciones, también la del 29 de
+ * febrero). Las reglas solo están en Horoscope, y sus tests de valores
+ * frontera son los que las validan.</p>
+ *
+ * <p>
+ * Es una clase aparte para no ejecutar todas las ramas de Horoscope al
+ * cargarlo: así los informes de cobertura de TestHoroscope siguen
+ * mostrando las ramas que sus tests no prueban.</p>
+ *
+ * <p>
+ * No guarda estado entre llamadas: una instancia se puede usar desde
+ * varios threads a la vez.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class HoroscopeTable {
+
+    /**
+     * Día sin fecha en los métodos de días desde el 1/1/1970.
+     */
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
+    /**
+     * Suerte de las fechas nulas o {@link #NO_DATE}.
+     */
+    public static final int NO_LUCK = 0;
+
+    // Años de un ciclo en el que cada día del año cae en todos los días
+    // de la semana.
+    private static final int CYCLE_YEARS = 28;
+
+    // Suerte de cada día del año (ver CalendarMath.dayOfYear) y día de la
+    // semana: LUCK[(dayOfYear - 1) * 7 + weekDay - 1].
+    private static final byte[] LUCK = buildLuckTable();
+
+    private final TimeZone timeZone;
+
+    /**
+     * Tabla con las fechas en la zona horaria por defecto.
+     */
+    public HoroscopeTable() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * Tabla con las fechas en la zona horaria entregada.
+     *
+     * @param timeZone Se guarda una copia, TimeZone no es inmutable.
+     */
+    public HoroscopeTable(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+    }
+
+    /**
+     * Suerte de la fecha de nacimiento.
+     *
+     * @param birthday fecha de nacimiento
+     * @return suerte de 1 a 10, o {@link #NO_LUCK} si la fecha es null.
+     */
+    public int predict(Date birthday) {
+        if (birthday == null) {
+            return NO_LUCK;
+        }
+        return predictEpochDay(CalendarMath.toEpochDay(birthday.getTime(), timeZone));
+    }
+
+    /**
+     * Suerte de todas las fechas de nacimiento, en una sola pasada.
+     *
+     * @param birthdays fechas de nacimiento, puede haber nulls.
+     * @return suerte de cada fecha, {@link #NO_LUCK} en las nulas.
+     */
+    public int[] predictAll(Date[] birthdays) {
+        int[] result = new int[birthdays.length];
+        for (int i = 0; i < birthdays.length; i++) {
+            result[i] = predict(birthdays[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Suerte de la fecha de nacimiento.
+     *
+     * @param epochDay fecha de nacimiento en días desde el 1/1/1970.
+     * @return suerte de 1 a 10, o {@link #NO_LUCK} si es {@link #NO_DATE}.
+     */
+    public static int predictEpochDay(long epochDay) {
+        if (epochDay == NO_DATE) {
+            return NO_LUCK;
+        }
+        int dayOfYear = CalendarMath.dayOfYear(epochDay);
+        int weekDay = CalendarMath.dayOfWeek(epochDay);
+        return LUCK[(dayOfYear - 1) * 7 + weekDay - Calendar.SUNDAY];
+    }
+
+    /**
+     * Suerte de un rango de fechas de nacimiento, en una sola pasada. Se
+     * puede dividir el array en rangos y procesarlos en paralelo.
+     *
+     * @param epochDays fechas de nacimiento en días desde el 1/1/1970,
+     *        puede haber {@link #NO_DATE}.
+     * @param from primera posición, incluida.
+     * @param to última posición, excluida.
+     * @param luck recibe la suerte de cada fecha en la misma posición.
+     */
+    public static void predictEpochDays(int[] epochDays, int from, int to, int[] luck) {
+        if (from < 0 || to > epochDays.length || to > luck.length || from > to) {
+            throw new IllegalArgumentException("Invalid range: " + from + ", " + to);
+        }
+        for (int i = from; i < to; i++) {
+            luck[i] = predictEpochDay(epochDays[i]);
+        }
+    }
+
+    // Pregunta al horoscopo la suerte de cada día de un ciclo de años.
+    // Las combinaciones ya rellenas se saltan, la suerte nunca es 0.
+    private static byte[] buildLuckTable() {
+        byte[] table = new byte[CalendarMath.DAYS_IN_YEAR * 7];
+        Horoscope horoscope = new Horoscope();
+        long firstDay = CalendarMath.toEpochDay(2000, 1, 1);
+        long lastDay = CalendarMath.toEpochDay(2000 + CYCLE_YEARS, 1, 1);
+        for (long epochDay = firstDay; epochDay < lastDay; epochDay++) {
+            int index = (CalendarMath.dayOfYear(epochDay) - 1) * 7
+                    + CalendarMath.dayOfWeek(epochDay) - Calendar.SUNDAY;
+            if (table[index] == NO_LUCK) {
+                int[] date = CalendarMath.toCivil(epochDay);
+                horoscope.makePretictions(date[2] + "/" + date[1] + "/" + date[0]);
+                table[index] = (byte) horoscope.getLuck();
+            }
+        }
+        return table;
+    }
+}
@@ -21,11 +21,9 @@
 
 package com.programmingchronicles.tdd.horoscope;
 
-import java.text.DateFormat;
-import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
-import java.util.Locale;
+import java.util.TimeZone;
 
 /**
  * Parseador de fechas. Acepta los siguientes formatos:<br/>
@@ -35,12 +33,67 @@ import java.util.Locale;
  *  - "10" día del mes y año actual
  * </pre>
  *
+ * <p>
+ * El texto se recorre una sola vez: la primera cifra decide el formato
+ * ("/" corto, espacio largo, fin de texto día del mes) y cada formato se
+ * lee sin lanzar excepciones. Solo se lanza DateParserException si la
+ * fecha es inválida.</p>
+ *
+ * <p>
+ * Las fechas se interpretan como los DateFormat de la versión anterior:</p>
+ * <pre>
+ *  - Los días y meses fuera de rango pasan al mes o año siguiente
+ *    (31/2/2010 es el 3/3/2010).
+ *  - Los años de dos cifras son los de los 80 años anteriores o los 20
+ *    siguientes a la creación del parseador.
+ *  - Los meses del formato largo admiten el nombre completo o abreviado,
+ *    en mayúsculas o minúsculas.
+ *  - En el formato de día se conserva la hora actual, solo se ponen a
+ *    cero los minutos, segundos y milisegundos.
+ * </pre>
+ *
+ * <p>
+ * No guarda estado entre llamadas: una instancia se puede usar desde
+ * varios threads a la vez.</p>
+ *
  * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
  */
 public class SmartDateParser {
-    private static DateFormat shortFormat = DateFormat.getDateInstance(DateFormat.SHORT, new Locale("es"));
-    private static DateFormat longFormat = DateFormat.getDateInstance(DateFormat.LONG, new Locale("es"));
-    private static Calendar calendar = Calendar.getInstance(new Locale("es"));
+    // Número máximo de cifras de un campo, evita desbordar el int.
+    private static final int MAX_DIGITS = 9;
+
+    // Fechas de más de un millón de años, desbordarían los milisegundos.
+    private static final long MAX_EPOCH_DAY = 366L * 1000000;
+
+    // Resultado de los métodos de parseo si el texto no es válido.
+    private static final long INVALID = Long.MIN_VALUE;
+
+    private static final String[] MONTHS = {
+        "enero", "febrero", "marzo", "abril", "mayo", "junio", "julio",
+        "agosto", "septiembre", "octubre", "noviembre", "diciembre"
+    };
+
+    private final TimeZone timeZone;
+    private final int twoDigitYearStart;
+
+    /**
+     * Crea un parseador con la zona horaria por defecto.
+     */
+    public SmartDateParser() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * Crea un parseador con la zona horaria de las fechas devueltas.
+     *
+     * @param timeZone Se guarda una copia, TimeZone no es inmutable.
+     */
+    public SmartDateParser(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+
+        Calendar calendar = Calendar.getInstance(timeZone);
+        twoDigitYearStart = calendar.get(Calendar.YEAR) - 80;
+    }
 
     /**
      * Convierte en una fecha el texto entregado según los formatos admitidos.
@@ -50,58 +103,199 @@ public class SmartDateParser {
      * @throws DateParserException fecha inválida
      */
     public Date parse(String text) {
-        Date result;
+        if (text == null) {
+            throw new DateParserException();
+        }
+        Cursor cursor = new Cursor(text.trim());
+
+        int day = cursor.readNumber();
+        if (day < 0) {
+            throw new DateParserException();
+        }
+
+        long millis;
+        if (cursor.atEnd()) {
+            millis = currentMonthDay(day);
+        } else if (cursor.skip('/')) {
+            millis = parseShort(cursor, day);
+        } else if (cursor.skipSpaces()) {
+            millis = parseLong(cursor, day);
+        } else {
+            millis = INVALID;
+        }
+        if (millis == INVALID || !cursor.atEnd()) {
+            throw new DateParserException();
+        }
+        return new Date(millis);
+    }
+
+    // Resto del formato "10/12/2010" tras el día.
+    private long parseShort(Cursor cursor, int day) {
+        int month = cursor.readNumber();
+        if (month < 0 || !cursor.skip('/')) {
+            return INVALID;
+        }
+        int year = readYear(cursor);
+        if (year < 0) {
+            return INVALID;
+        }
+        return dayMillis(CalendarMath.toEpochDay(year, month, day));
+    }
 
-        result = parseShort(text);
-        if(result != null) {
-           return result;
-        } 
+    // Resto del formato "10 de diciembre de 2010" tras el día.
+    private long parseLong(Cursor cursor, int day) {
+        if (!cursor.skipWord("de") || !cursor.skipSpaces()) {
+            return INVALID;
+        }
+        int month = cursor.readMonth();
+        if (month < 0 || !cursor.skipSpaces()
+                || !cursor.skipWord("de") || !cursor.skipSpaces()) {
+            return INVALID;
+        }
+        int year = readYear(cursor);
+        if (year < 0) {
+            return INVALID;
+        }
+        return dayMillis(CalendarMath.toEpochDay(year, month, day));
+    }
 
-        result = parseLong(text);
-        if(result != null) {
-           return result;
+    // Año de cualquier número de cifras. Los de dos cifras se sitúan en el
+    // siglo que empieza en twoDigitYearStart, como en SimpleDateFormat.
+    private int readYear(Cursor cursor) {
+        int start = cursor.pos;
+        int year = cursor.readNumber();
+        if (year >= 0 && cursor.pos - start == 2) {
+            year += twoDigitYearStart / 100 * 100;
+            if (year < twoDigitYearStart) {
+                year += 100;
+            }
         }
+        return year;
+    }
+
+    // El día del mes y año actual, con la hora actual sin minutos.
+    private long currentMonthDay(int day) {
+        long now = System.currentTimeMillis();
+        long localNow = now + timeZone.getOffset(now);
+        long today = CalendarMath.floorDiv(localNow, CalendarMath.MILLIS_PER_DAY);
+        long hour = CalendarMath.floorMod(localNow, CalendarMath.MILLIS_PER_DAY) / CalendarMath.MILLIS_PER_HOUR;
 
-        result = parseCurrentMonthDay(text);
-        if(result != null) {
-           return result;
-        } 
-      
-        throw new DateParserException();
+        int[] date = CalendarMath.toCivil(today);
+        long epochDay = CalendarMath.toEpochDay(date[0], date[1], day);
+        if (Math.abs(epochDay) > MAX_EPOCH_DAY) {
+            return INVALID;
+        }
+        return toMillis(epochDay * CalendarMath.MILLIS_PER_DAY + hour * CalendarMath.MILLIS_PER_HOUR);
     }
 
-    private Date parseShort(String text) {
-        Date result;
-        try {
-            result = shortFormat.parse(text);
-        } catch (ParseException ex) {
-            return null;
-        } 
-        return result;
+    // Las 00:00 del día entregado.
+    private long dayMillis(long epochDay) {
+        if (Math.abs(epochDay) > MAX_EPOCH_DAY) {
+            return INVALID;
+        }
+        return toMillis(epochDay * CalendarMath.MILLIS_PER_DAY);
     }
 
-    private Date parseLong(String text) {
-        Date result;
-        try {
-            result = longFormat.parse(text);
-        } catch (ParseException ex) {
-            return null;
+    // Milisegundos UTC de una hora local de la zona del parseador.
+    //
+    // Normalmente la zona tiene el mismo offset durante todo el día. Si hay
+    // un cambio de hora se prueban los offsets de antes y de después, y se
+    // elige como Calendar: si la hora existe dos veces la última, y si no
+    // existe (el reloj salta por encima) la hora siguiente.
+    private long toMillis(long local) {
+        int before = timeZone.getOffset(local - CalendarMath.MILLIS_PER_DAY);
+        int after = timeZone.getOffset(local + CalendarMath.MILLIS_PER_DAY);
+        if (before == after) {
+            return local - before;
         }
-        return result;
+
+        long early = local - before;
+        long late = local - after;
+        boolean earlyValid = timeZone.getOffset(early) == before;
+        boolean lateValid = timeZone.getOffset(late) == after;
+        if (earlyValid != lateValid) {
+            return earlyValid ? early : late;
+        }
+        return Math.max(early, late);
     }
 
-    private Date parseCurrentMonthDay(String text) {
-        calendar.setTime(new Date());
-        calendar.clear(Calendar.HOUR);
-        calendar.clear(Calendar.MINUTE);
-        calendar.clear(Calendar.SECOND);
-        calendar.clear(Calendar.MILLISECOND);
+    /**
+     * Posición de lectura en el texto. Se crea uno en cada parse, así el
+     * parseador no guarda estado.
+     */
+    private static class Cursor {
+        private final String text;
+        private int pos;
+
+        Cursor(String text) {
+            this.text = text;
+        }
+
+        boolean atEnd() {
+            return pos == text.length();
+        }
+
+        // Lee un número sin signo, o devuelve -1 si no hay cifras.
+        int readNumber() {
+            int start = pos;
+            int value = 0;
+            while (pos < text.length() && pos - start < MAX_DIGITS) {
+                char c = text.charAt(pos);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + (c - '0');
+                pos++;
+            }
+            return pos > start ? value : -1;
+        }
+
+        boolean skip(char c) {
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        // Salta uno o más espacios.
+        boolean skipSpaces() {
+            int start = pos;
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            return pos > start;
+        }
+
+        boolean skipWord(String word) {
+            if (text.regionMatches(true, pos, word, 0, word.length())) {
+                pos += word.length();
+                return true;
+            }
+            return false;
+        }
 
-        try {
-            calendar.set(Calendar.DATE, Integer.parseInt(text));
-        } catch(NumberFormatException ex) {
-            return null;
+        // Lee el nombre de un mes, completo o abreviado a tres letras (o
+        // "sept") con o sin punto, y devuelve su número de 1 a 12, o -1.
+        int readMonth() {
+            for (int i = 0; i < MONTHS.length; i++) {
+                String month = MONTHS[i];
+                if (text.regionMatches(true, pos, month, 0, month.length())) {
+                    pos += month.length();
+                    return i + 1;
+                }
+            }
+            for (int i = 0; i < MONTHS.length; i++) {
+                if (text.regionMatches(true, pos, MONTHS[i], 0, 3)) {
+                    pos += 3;
+                    if (i == 8 && !skip('t')) {
+                        skip('T');
+                    }
+                    skip('.');
+                    return i + 1;
+                }
+            }
+            return -1;
         }
-        return calendar.getTime();
     }
 }
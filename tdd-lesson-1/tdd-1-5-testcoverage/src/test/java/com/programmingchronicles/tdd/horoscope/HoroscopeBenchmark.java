@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.horoscope;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Medición de las predicciones por segundo con las reglas evaluadas sobre
+ * un Calendar (como en Horoscope) y con la tabla precalculada
+ * ({@link HoroscopeTable}).
+ *
+ * <p>
+ * Las fechas ya vienen parseadas, así que solo se mide la predicción.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class HoroscopeBenchmark {
+
+    private static final int BIRTHDAYS = 1000000;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        Date[] dates = new Date[BIRTHDAYS];
+        int[] epochDays = new int[BIRTHDAYS];
+        for (int i = 0; i < BIRTHDAYS; i++) {
+            // Cumpleaños entre 1920 y 2019
+            epochDays[i] = random.nextInt(36500) - 18262;
+            dates[i] = new Date(epochDays[i] * 24L * 60 * 60 * 1000);
+        }
+
+        HoroscopeTable table = new HoroscopeTable();
+        int[] luck = new int[BIRTHDAYS];
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 3; round++) {
+            long begin = System.nanoTime();
+            long legacySum = 0;
+            for (Date date : dates) {
+                legacySum += legacyPredict(date);
+            }
+            long legacy = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            long dateSum = 0;
+            for (int value : table.predictAll(dates)) {
+                dateSum += value;
+            }
+            long predictDates = System.nanoTime() - begin;
+
+            begin = System.nanoTime();
+            HoroscopeTable.predictEpochDays(epochDays, 0, BIRTHDAYS, luck);
+            long predictDays = System.nanoTime() - begin;
+
+            if (round > 0) {
+                System.out.printf("Calendar (Horoscope): %,11d/s  (suma %d)%n",
+                                  rate(legacy), legacySum);
+                System.out.printf("predictAll(Date[]):  %,12d/s  (suma %d)%n",
+                                  rate(predictDates), dateSum);
+                System.out.printf("predictEpochDays:    %,12d/s%n", rate(predictDays));
+            }
+        }
+    }
+
+    private static long rate(long nanos) {
+        return BIRTHDAYS * 1000000000L / nanos;
+    }
+
+    /**
+     * Predicciones de Horoscope con las fechas ya parseadas.
+     */
+    private static final Calendar calendar = Calendar.getInstance(new Locale("es"));
+
+    private static int legacyPredict(Date date) {
+        calendar.setTime(date);
+        int day = calendar.get(Calendar.DATE);
+        int month = calendar.get(Calendar.MONTH) + 1;
+        int weekDay = calendar.get(Calendar.DAY_OF_WEEK);
+
+        if (month >= 6 && month <= 8) {
+            return weekDay == Calendar.SUNDAY ? 10 : 8;
+        } else if (month == 12 || month <= 2) {
+            return (month == 12 && day >= 25) || (month == 1 && day <= 6) ? 9 : 6;
+        }
+        return 1;
+    }
+}
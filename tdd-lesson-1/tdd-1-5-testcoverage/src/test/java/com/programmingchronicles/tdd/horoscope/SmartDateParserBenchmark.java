@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.horoscope;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Medición de las fechas parseadas por segundo con SmartDateParser y con
+ * la implementación anterior, para cada uno de los formatos.
+ *
+ * <p>
+ * La implementación anterior probaba los formatos en orden y usaba las
+ * excepciones para pasar al siguiente, así que el formato largo paga una
+ * excepción y el de día dos.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class SmartDateParserBenchmark {
+
+    private static final int ITERATIONS = 500000;
+
+    private static final String[][] INPUTS = {
+        { "Corto", "12/10/2010" },
+        { "Largo", "12 de octubre de 2010" },
+        { "Dia", "10" },
+        { "Invalido", "fecha invalida" }
+    };
+
+    public static void main(String[] args) {
+        SmartDateParser parser = new SmartDateParser();
+        LegacySmartDateParser legacy = new LegacySmartDateParser();
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 2; round++) {
+            for (String[] input : INPUTS) {
+                long legacyRate = runLegacy(legacy, input[1]);
+                long rate = run(parser, input[1]);
+                if (round > 0) {
+                    System.out.printf("%-9s anterior: %,11d/s   SmartDateParser: %,11d/s%n",
+                                      input[0], legacyRate, rate);
+                }
+            }
+        }
+    }
+
+    private static long run(SmartDateParser parser, String text) {
+        long begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            try {
+                parser.parse(text);
+            } catch (DateParserException ex) {
+                // Se mide también el coste del error.
+            }
+        }
+        return ITERATIONS * 1000000000L / (System.nanoTime() - begin);
+    }
+
+    private static long runLegacy(LegacySmartDateParser parser, String text) {
+        long begin = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            try {
+                parser.parse(text);
+            } catch (DateParserException ex) {
+                // Se mide también el coste del error.
+            }
+        }
+        return ITERATIONS * 1000000000L / (System.nanoTime() - begin);
+    }
+
+    /**
+     * Implementación anterior de SmartDateParser.
+     */
+    private static class LegacySmartDateParser {
+        private static DateFormat shortFormat = DateFormat.getDateInstance(DateFormat.SHORT, new Locale("es"));
+        private static DateFormat longFormat = DateFormat.getDateInstance(DateFormat.LONG, new Locale("es"));
+        private static Calendar calendar = Calendar.getInstance(new Locale("es"));
+
+        public Date parse(String text) {
+            try {
+                return shortFormat.parse(text);
+            } catch (ParseException ex) {
+                // Siguiente formato.
+            }
+            try {
+                return longFormat.parse(text);
+            } catch (ParseException ex) {
+                // Siguiente formato.
+            }
+            calendar.setTime(new Date());
+            calendar.clear(Calendar.HOUR);
+            calendar.clear(Calendar.MINUTE);
+            calendar.clear(Calendar.SECOND);
+            calendar.clear(Calendar.MILLISECOND);
+            try {
+                calendar.set(Calendar.DATE, Integer.parseInt(text));
+            } catch (NumberFormatException ex) {
+                throw new DateParserException();
+            }
+            return calendar.getTime();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.horoscope;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Test de la tabla de predicciones del horoscopo.
+ *
+ * <p>
+ * Las reglas ya las prueba TestHoroscope con los valores frontera, aquí
+ * solo se comprueba que la tabla predice lo mismo que Horoscope.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestHoroscopeTable {
+    private HoroscopeTable table = new HoroscopeTable();
+
+    /**
+     * Todos los días de un año bisiesto y de uno que no lo es, que caen
+     * en días de la semana distintos, deben dar lo mismo que Horoscope.
+     */
+    @Test
+    public void testPredictSameAsHoroscope() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        HoroscopeTable utcTable = new HoroscopeTable(utc);
+        Horoscope horoscope = new Horoscope();
+        Calendar calendar = Calendar.getInstance(utc);
+        calendar.clear();
+        calendar.set(2012, Calendar.JANUARY, 1);
+
+        for (int i = 0; i < 366 + 365; i++) {
+            String birthday = calendar.get(Calendar.DATE) + "/"
+                    + (calendar.get(Calendar.MONTH) + 1) + "/" + calendar.get(Calendar.YEAR);
+            horoscope.makePretictions(birthday);
+
+            assertEquals(birthday, horoscope.getLuck(), utcTable.predict(calendar.getTime()));
+            calendar.add(Calendar.DATE, 1);
+        }
+    }
+
+    @Test
+    public void testPredictNull() {
+        assertEquals(HoroscopeTable.NO_LUCK, table.predict(null));
+        assertEquals(HoroscopeTable.NO_LUCK, HoroscopeTable.predictEpochDay(HoroscopeTable.NO_DATE));
+    }
+
+    /**
+     * Las consultas deben dar lo mismo con Date y con días desde el
+     * 1/1/1970.
+     */
+    @Test
+    public void testPredictEpochDay() {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        HoroscopeTable utcTable = new HoroscopeTable(utc);
+        Calendar calendar = Calendar.getInstance(utc);
+        calendar.clear();
+        calendar.set(2012, Calendar.JANUARY, 1);
+
+        for (int i = 0; i < 366; i++) {
+            Date birthday = calendar.getTime();
+            long epochDay = birthday.getTime() / (24 * 60 * 60 * 1000L);
+
+            assertEquals(utcTable.predict(birthday), HoroscopeTable.predictEpochDay(epochDay));
+            calendar.add(Calendar.DATE, 1);
+        }
+    }
+
+    @Test
+    public void testPredictAll() {
+        Date[] birthdays = { new Date(), null, new Date(0) };
+
+        int[] luck = table.predictAll(birthdays);
+
+        assertEquals(table.predict(birthdays[0]), luck[0]);
+        assertEquals(HoroscopeTable.NO_LUCK, luck[1]);
+        assertEquals(table.predict(birthdays[2]), luck[2]);
+    }
+
+    @Test
+    public void testPredictEpochDays() {
+        // 1/8/2010 domingo, 26/12/2010 y 4/4/2010.
+        int[] epochDays = { 14822, HoroscopeTable.NO_DATE, 14969, 14703 };
+        int[] luck = new int[epochDays.length];
+
+        HoroscopeTable.predictEpochDays(epochDays, 0, epochDays.length, luck);
+
+        assertArrayEquals(new int[] { 10, HoroscopeTable.NO_LUCK, 9, 1 }, luck);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPredictEpochDaysInvalidRange() {
+        HoroscopeTable.predictEpochDays(new int[2], 1, 3, new int[2]);
+    }
+
+    /**
+     * La misma instancia se puede usar desde varios threads.
+     */
+    @Test
+    public void testPredictConcurrent() throws Exception {
+        // 1/8/2010, 11/8/2010, 26/12/2010, 2/1/2010, 23/12/2010, 8/1/2010
+        // y 4/4/2010 a mediodía UTC.
+        final HoroscopeTable utcTable = new HoroscopeTable(TimeZone.getTimeZone("UTC"));
+        int[] epochDays = { 14822, 14832, 14969, 14611, 14966, 14617, 14703 };
+        final int[] expected = { 10, 8, 9, 9, 6, 6, 1 };
+        final Date[] birthdays = new Date[epochDays.length];
+        for (int i = 0; i < epochDays.length; i++) {
+            birthdays[i] = new Date((epochDays[i] * 24L + 12) * 60 * 60 * 1000);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int t = 0; t < 4; t++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() {
+                        for (int i = 0; i < 10000; i++) {
+                            int n = i % birthdays.length;
+                            if (utcTable.predict(birthdays[n]) != expected[n]) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
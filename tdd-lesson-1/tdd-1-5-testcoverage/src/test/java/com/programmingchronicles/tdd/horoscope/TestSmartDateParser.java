@@ -23,9 +23,13 @@ package com.programmingchronicles.tdd.horoscope;
 
 import com.programmingchronicles.tdd.horoscope.DateParserException;
 import com.programmingchronicles.tdd.horoscope.SmartDateParser;
+import java.text.DateFormat;
+import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -96,4 +100,120 @@ public class TestSmartDateParser {
     public void testParseInvalidDate() {
         dateParser.parse("invaliddate");
     }
+
+    @Test
+    public void testParseLongFormatMonthNames() {
+        calendar.set(2010, 9 - 1, 2);
+        Date expected = calendar.getTime();
+
+        assertEquals(expected, dateParser.parse("2 de Septiembre de 2010"));
+        assertEquals(expected, dateParser.parse("2 de sep de 2010"));
+        assertEquals(expected, dateParser.parse("2 de sept. de 2010"));
+        assertEquals(expected, dateParser.parse("  02  de  SEPTIEMBRE  de  2010  "));
+    }
+
+    @Test
+    public void testParseTwoDigitYear() {
+        calendar.set(2010, 4 - 1, 2);
+        Date expected = calendar.getTime();
+
+        assertEquals(expected, dateParser.parse("2/4/10"));
+        assertEquals(expected, dateParser.parse("2 de abril de 10"));
+    }
+
+    /**
+     * Los días y meses fuera de rango pasan al mes o año siguiente, como
+     * con los DateFormat de la versión anterior.
+     */
+    @Test
+    public void testParseOutOfRange() {
+        calendar.set(2010, 3 - 1, 3);
+        assertEquals(calendar.getTime(), dateParser.parse("31/2/2010"));
+
+        calendar.set(2011, 1 - 1, 2);
+        assertEquals(calendar.getTime(), dateParser.parse("2/13/2010"));
+
+        calendar.set(2010, 3 - 1, 31);
+        assertEquals(calendar.getTime(), dateParser.parse("0/4/2010"));
+    }
+
+    /**
+     * Los formatos corto y largo dan el mismo resultado que los DateFormat
+     * de la versión anterior para todos los días de varios años.
+     */
+    @Test
+    public void testParseSameAsDateFormat() throws ParseException {
+        Locale es = new Locale("es");
+        DateFormat shortFormat = DateFormat.getDateInstance(DateFormat.SHORT, es);
+        DateFormat longFormat = DateFormat.getDateInstance(DateFormat.LONG, es);
+
+        calendar.set(1995, 0, 1);
+        for (int i = 0; i < 366 * 20; i++) {
+            Date date = calendar.getTime();
+            String shortText = shortFormat.format(date);
+            String longText = longFormat.format(date);
+
+            assertEquals(shortText, shortFormat.parse(shortText), dateParser.parse(shortText));
+            assertEquals(longText, longFormat.parse(longText), dateParser.parse(longText));
+            calendar.add(Calendar.DATE, 1);
+        }
+    }
+
+    @Test
+    public void testParseInvalidFormats() {
+        String[] dates = { null, "", "10/12", "10/12/", "/12/2010", "10-12-2010",
+                           "10/12/2010 abc", "10 de diciembre", "10 de dic 2010",
+                           "10 de nada de 2010", "10 diciembre de 2010", "-3",
+                           "1/1/1000000000" };
+        for (String date : dates) {
+            try {
+                dateParser.parse(date);
+                fail("Expected DateParserException: " + date);
+            } catch (DateParserException ex) {
+            }
+        }
+    }
+
+    /**
+     * Una sola instancia compartida por varios threads devuelve siempre
+     * la fecha correcta.
+     */
+    @Test
+    public void testConcurrentParse() throws InterruptedException {
+        final int threads = 8;
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final int year = 2000 + t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Calendar expected = Calendar.getInstance(new Locale("es"));
+                        start.await();
+                        for (int i = 0; i < 10000; i++) {
+                            int day = 1 + i % 28;
+                            int month = 1 + i % 12;
+                            expected.clear();
+                            expected.set(year, month - 1, day);
+                            Date date = dateParser.parse(day + "/" + month + "/" + year);
+                            if (!expected.getTime().equals(date)) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        end.await();
+        assertEquals(0, failures.get());
+    }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook;
+
+/**
+ * Notificación del resultado de una operación de {@link AsyncGlobalAddressBook}.
+ *
+ * <p>
+ * Se invoca desde el thread que ha ejecutado la operación, en cuanto
+ * termina. No debe bloquearse ni hacer trabajo largo, ocuparía uno de los
+ * threads de la agenda; lo normal es entregar el resultado a quien lo
+ * espera o lanzar la siguiente operación.</p>
+ *
+ * @param <T> Tipo del resultado de la operación.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public interface AsyncCallback<T> {
+
+    /**
+     * La operación ha terminado correctamente.
+     *
+     * @param result Resultado de la operación, null si no devuelve nada.
+     */
+    void onSuccess(T result);
+
+    /**
+     * La operación ha terminado con una excepción.
+     *
+     * @param cause La excepción lanzada por la agenda, por ejemplo
+     *        {@link InvalidContactException} o {@link InvalidIdException}.
+     */
+    void onFailure(Throwable cause);
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook;
+
+import com.programmingchronicles.tdd.domain.Contact;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Versión asíncrona de las operaciones principales de {@link GlobalAddressBook}.
+ *
+ * <p>
+ * Las operaciones no bloquean al cliente: se ejecutan en otros threads y
+ * devuelven inmediatamente un {@link Future} con el resultado. Además se
+ * puede entregar un {@link AsyncCallback} que se invoca al terminar, así
+ * el cliente puede encadenar operaciones o responder una petición sin
+ * esperar, por ejemplo con el procesamiento asíncrono de los servlets.</p>
+ *
+ * <p>
+ * Los errores son los mismos que en GlobalAddressBook, pero se entregan
+ * al terminar: {@link Future#get()} los lanza envueltos en una
+ * {@link java.util.concurrent.ExecutionException}, y el callback los recibe
+ * en {@link AsyncCallback#onFailure(Throwable)}.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public interface AsyncGlobalAddressBook {
+
+    /**
+     * Añade un nuevo contacto.
+     *
+     * @param contact Datos del contacto a añadir
+     * @param callback Recibe el id asignado al contacto, puede ser null.
+     * @return Id asignado al contacto.
+     * @throws RejectedExecutionException Si la agenda está saturada y no
+     *         admite más operaciones pendientes.
+     */
+    Future<String> addContact(Contact contact, AsyncCallback<String> callback);
+
+    /**
+     * Añade un contacto ya normalizado y validado, ver
+     * {@link GlobalAddressBook#addContact(ValidContact)}.
+     *
+     * @param contact Datos del contacto a añadir
+     * @param callback Recibe el id asignado al contacto, puede ser null.
+     * @return Id asignado al contacto.
+     * @throws RejectedExecutionException Si la agenda está saturada.
+     */
+    Future<String> addContact(ValidContact contact, AsyncCallback<String> callback);
+
+    /**
+     * Obtiene el contacto asociado al id entregado.
+     *
+     * @param contactId id del contacto
+     * @param callback Recibe el contacto, puede ser null.
+     * @return El contacto.
+     * @throws RejectedExecutionException Si la agenda está saturada.
+     */
+    Future<Contact> getContact(String contactId, AsyncCallback<Contact> callback);
+
+    /**
+     * Obtiene todos los contactos del sistema.
+     *
+     * @param callback Recibe los contactos, puede ser null.
+     * @return Los contactos.
+     * @throws RejectedExecutionException Si la agenda está saturada.
+     */
+    Future<List<Contact>> getAll(AsyncCallback<List<Contact>> callback);
+
+    /**
+     * Obtiene una página de contactos ordenados por id, igual que
+     * {@link GlobalAddressBook#getPage(String, int)}.
+     *
+     * @param afterId Id del último contacto de la página anterior, o null
+     *        para obtener la primera página.
+     * @param pageSize Número máximo de contactos de la página.
+     * @param callback Recibe los contactos de la página, puede ser null.
+     * @return Los contactos de la página.
+     * @throws RejectedExecutionException Si la agenda está saturada.
+     */
+    Future<List<Contact>> getPage(String afterId, int pageSize, AsyncCallback<List<Contact>> callback);
+
+    /**
+     * Elimina el contacto con el id entregado.
+     *
+     * @param id
+     * @param callback Recibe null al terminar, puede ser null.
+     * @return Future que termina al eliminar el contacto.
+     * @throws RejectedExecutionException Si la agenda está saturada.
+     */
+    Future<Void> deleteContact(String id, AsyncCallback<Void> callback);
+}
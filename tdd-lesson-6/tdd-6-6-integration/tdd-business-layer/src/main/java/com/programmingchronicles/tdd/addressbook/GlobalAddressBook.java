@@ -21,7 +21,9 @@
 
 package com.programmingchronicles.tdd.addressbook;
 
+import com.programmingchronicles.tdd.data.CloseableIterator;
 import com.programmingchronicles.tdd.domain.Contact;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -39,6 +41,36 @@ public interface GlobalAddressBook {
      */
     String addContact(Contact contact);
 
+    /**
+     * Añade un contacto ya normalizado y validado devolviendo el id
+     * generado.
+     *
+     * <p>
+     * Es el camino de {@link #addContact(Contact)} sin la validación: la
+     * agenda confía en el comando y solo comprueba los duplicados.</p>
+     *
+     * @param contact Datos del contacto a añadir
+     * @return Devuelve el id asignado al contacto
+     * @throws InvalidContactException Si ya existe un contacto con el
+     *         mismo nombre.
+     */
+    String addContact(ValidContact contact);
+
+    /**
+     * Añade todos los contactos entregados, devolviendo los ids generados
+     * en el mismo orden.
+     *
+     * <p>
+     * Se aplican las mismas validaciones que en {@link #addContact(Contact)},
+     * y además no puede haber contactos duplicados dentro de la colección. Si
+     * algún contacto es inválido no se añade ninguno.</p>
+     *
+     * @param contacts Datos de los contactos a añadir
+     * @return Ids asignados a los contactos, en el orden de la colección.
+     * @throws InvalidContactException Si algún contacto es inválido.
+     */
+    List<String> addContacts(Collection<Contact> contacts);
+
     /**
      * Elimina el contacto con el id entregado.
      *
@@ -53,6 +85,76 @@ public interface GlobalAddressBook {
      */
     List<Contact> getAll();
 
+    /**
+     * Recorre todos los contactos del sistema sin copiarlos en una lista.
+     *
+     * <p>
+     * Útil para listados grandes, en los que {@link #getAll()} obliga a tener
+     * todos los contactos en memoria a la vez. El iterador puede mantener
+     * recursos abiertos, el cliente debe cerrarlo siempre al terminar.</p>
+     *
+     * @return Iterador de contactos, que se debe cerrar.
+     */
+    CloseableIterator<Contact> iterateAll();
+
+    /**
+     * Obtiene una página de contactos ordenados por id.
+     *
+     * <p>
+     * Para obtener la página siguiente se entrega como <i>afterId</i> el id
+     * del último contacto de la página actual. Al contrario que con un
+     * desplazamiento (<i>offset</i>), el coste de cada página no crece con
+     * su posición, y los contactos añadidos o eliminados entre peticiones
+     * no desplazan las páginas.</p>
+     *
+     * @param afterId Id del último contacto de la página anterior, o null
+     *        para obtener la primera página.
+     * @param pageSize Número máximo de contactos de la página.
+     * @return Contactos de la página, vacía si no hay más contactos.
+     * @throws IllegalArgumentException Si el tamaño de página no es positivo.
+     */
+    List<Contact> getPage(String afterId, int pageSize);
+
+    /**
+     * Busca los contactos cuyo nombre o apellido empieza por el texto
+     * entregado, sin distinguir mayúsculas/minúsculas y sin tener en cuenta
+     * los espacios al principio y al final.
+     *
+     * <p>
+     * Los contactos se devuelven ordenados por el nombre o apellido que
+     * coincide, y con el mismo nombre por id. Un contacto se devuelve una
+     * sola vez aunque coincidan su nombre y su apellido. La búsqueda se
+     * resuelve con un índice, no recorre todos los contactos.</p>
+     *
+     * @param prefix Texto por el que empieza el nombre o el apellido, no
+     *        puede ser null. Si es vacío coinciden todos los contactos.
+     * @param limit Número máximo de contactos devueltos.
+     * @return Contactos encontrados, vacía si no hay ninguno.
+     * @throws IllegalArgumentException Si el límite no es positivo.
+     */
+    List<Contact> search(String prefix, int limit);
+
+    /**
+     * Obtiene los contactos que cumplen años entre los dos días entregados,
+     * ambos incluidos, sea cual sea su año de nacimiento.
+     *
+     * <p>
+     * Los días se cuentan como en un año bisiesto (ver
+     * {@link com.programmingchronicles.tdd.domain.ContactValue#dayOfYear(int, int)}):
+     * el 1 es el 1 de enero, el 60 el 29 de febrero y el 366 el 31 de
+     * diciembre. Si el primer día es posterior al último el intervalo pasa
+     * por el fin de año, por ejemplo de 360 a 5 son los cumpleaños del 25 de
+     * diciembre al 5 de enero. La consulta se resuelve con un índice, no
+     * recorre todos los contactos.</p>
+     *
+     * @param fromDay Primer día del intervalo, de 1 a 366.
+     * @param toDay Último día del intervalo, de 1 a 366.
+     * @return Contactos ordenados por el día del cumpleaños, empezando por
+     *         <i>fromDay</i>, y con el mismo día por id.
+     * @throws IllegalArgumentException Si algún día no está entre 1 y 366.
+     */
+    List<Contact> getByBirthday(int fromDay, int toDay);
+
     /**
      * Obtiene el contacto asociado al id entregado.
      *
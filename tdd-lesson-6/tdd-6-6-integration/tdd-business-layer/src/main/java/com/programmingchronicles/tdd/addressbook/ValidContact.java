@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook;
+
+import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.Date;
+
+/**
+ * Datos de un nuevo contacto ya normalizados y validados.
+ *
+ * <p>
+ * Es el comando que produce la etapa de validación de la entrada. La
+ * normalización y la validación se hacen una sola vez, al crearlo, y las
+ * implementaciones de {@link GlobalAddressBook} confían en él: no vuelven
+ * a validar ni a eliminar espacios, solo comprueban los duplicados.</p>
+ *
+ * <p>
+ * Normalización:</p>
+ * <pre>
+ *   - Se eliminan los espacios al principio y al final del nombre y
+ *     del apellido. El teléfono se guarda tal cual.
+ *   - El nombre es obligatorio.
+ *   - El cumpleaños se guarda como días desde el 1/1/1970.
+ *   - La clave del nombre para los duplicados se calcula una vez.
+ * </pre>
+ *
+ * <p>
+ * Es inmutable, se puede compartir entre threads.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public final class ValidContact {
+
+    // Separadores de la clave del nombre, no pueden aparecer en un nombre
+    // normal.
+    private static final char SEPARATOR = '\u0000';
+    private static final char NULL_SURNAME = '\u0001';
+
+    private final String firstName;
+    private final String surname;
+    private final String phone;
+    private final int birthday;
+    private final String nameKey;
+
+    private ValidContact(String firstName, String surname, String phone, int birthday) {
+        this.firstName = firstName;
+        this.surname = surname;
+        this.phone = phone;
+        this.birthday = birthday;
+        this.nameKey = nameKey(firstName, surname);
+    }
+
+    /**
+     * Normaliza y valida los datos de un nuevo contacto.
+     *
+     * <p>
+     * Si los nombres ya vienen sin espacios, como los que entrega un
+     * conversor de formularios, no se copian (String.trim devuelve el
+     * mismo objeto).</p>
+     *
+     * @param firstName Nombre, obligatorio.
+     * @param surname Apellido, puede ser null.
+     * @param phone Teléfono, puede ser null.
+     * @param birthday Cumpleaños en días desde el 1/1/1970, o
+     *        {@link ContactValue#NO_BIRTHDAY}.
+     * @return
+     * @throws InvalidContactException Si el contacto no tiene nombre.
+     */
+    public static ValidContact of(String firstName, String surname, String phone, int birthday) {
+        if (firstName == null) {
+            throw new InvalidContactException();
+        }
+        String trimmedFirstName = firstName.trim();
+        if (trimmedFirstName.length() == 0) {
+            throw new InvalidContactException();
+        }
+        return new ValidContact(trimmedFirstName, surname == null ? null : surname.trim(),
+                                phone, birthday);
+    }
+
+    /**
+     * Normaliza y valida los datos del contacto entregado, que no se
+     * modifica.
+     *
+     * @param contact
+     * @return
+     * @throws InvalidContactException Si el contacto no tiene nombre.
+     */
+    public static ValidContact valueOf(Contact contact) {
+        return of(contact.getFirstName(), contact.getSurname(), contact.getPhone(),
+                  ContactValue.toEpochDay(contact.getBirthday()));
+    }
+
+    /**
+     * Devuelve la clave normalizada del nombre y apellido entregados, con la
+     * que se detectan los contactos duplicados.
+     *
+     * <p>
+     * Dos contactos son duplicados si tienen el mismo nombre y el mismo
+     * apellido, ignorando espacios al principio y al final y
+     * mayúsculas/minúsculas. Un apellido null solo es duplicado de otro
+     * apellido null.</p>
+     *
+     * @param firstName Nombre del contacto, no puede ser null.
+     * @param surname Apellido del contacto, puede ser null.
+     * @return
+     */
+    public static String nameKey(String firstName, String surname) {
+        return foldedNameKey(foldName(firstName), surname == null ? null : foldName(surname));
+    }
+
+    /**
+     * Devuelve la clave del nombre a partir del nombre y el apellido ya
+     * normalizados con {@link #foldName(String)}.
+     *
+     * @param foldedFirstName Nombre normalizado, no puede ser null.
+     * @param foldedSurname Apellido normalizado, puede ser null.
+     * @return La misma clave que {@link #nameKey(String, String)}.
+     */
+    public static String foldedNameKey(String foldedFirstName, String foldedSurname) {
+        StringBuilder key = new StringBuilder(foldedFirstName.length() + 2
+                + (foldedSurname == null ? 0 : foldedSurname.length()));
+        key.append(foldedFirstName).append(SEPARATOR);
+        if (foldedSurname == null) {
+            key.append(NULL_SURNAME);
+        } else {
+            key.append(foldedSurname);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Normaliza un nombre o apellido para compararlo: elimina los espacios
+     * al principio y al final e ignora las mayúsculas/minúsculas.
+     *
+     * <p>
+     * La normalización de cada carácter es la misma que utiliza
+     * {@link String#equalsIgnoreCase(String)}, dos nombres normalizados son
+     * iguales si y solo si son iguales con equalsIgnoreCase una vez
+     * eliminados los espacios.</p>
+     *
+     * @param name
+     * @return
+     */
+    public static String foldName(String name) {
+        name = name.trim();
+        StringBuilder folded = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            folded.append(Character.toLowerCase(Character.toUpperCase(name.charAt(i))));
+        }
+        return folded.toString();
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getSurname() {
+        return surname;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    /**
+     * @return Días desde el 1/1/1970, o {@link ContactValue#NO_BIRTHDAY}.
+     */
+    public int getBirthdayEpochDay() {
+        return birthday;
+    }
+
+    /**
+     * @return Fecha del cumpleaños, o null si no tiene.
+     */
+    public Date getBirthday() {
+        return ContactValue.toDate(birthday);
+    }
+
+    /**
+     * Clave normalizada del nombre, ver {@link #nameKey(String, String)}.
+     *
+     * @return
+     */
+    public String getNameKey() {
+        return nameKey;
+    }
+
+    /**
+     * Valor a almacenar con el id asignado por la agenda.
+     *
+     * @param id
+     * @return
+     */
+    public ContactValue toValue(String id) {
+        return new ContactValue(id, firstName, surname, phone, birthday);
+    }
+
+    /**
+     * Nuevo Contact con los datos normalizados, sin id.
+     *
+     * @return
+     */
+    public Contact toContact() {
+        Contact contact = new Contact();
+        contact.setFirstName(firstName);
+        contact.setSurname(surname);
+        contact.setPhone(phone);
+        contact.setBirthday(getBirthday());
+        return contact;
+    }
+
+    @Override
+    public String toString() {
+        return "ValidContact{firstName=" + firstName + ", surname=" + surname
+                + ", phone=" + phone + ", birthday=" + getBirthday() + "}";
+    }
+}
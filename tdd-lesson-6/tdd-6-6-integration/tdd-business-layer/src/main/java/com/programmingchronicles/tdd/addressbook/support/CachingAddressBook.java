@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decorador de un GlobalAddressBook que mantiene en memoria los contactos y
+ * páginas leídos recientemente, normalmente delante de un {@link DbAddressBook}.
+ *
+ * <p>
+ * <b>CACHE</b><br/>
+ * Se cachean por separado los contactos por id ({@link #getContact(String)}) y
+ * las páginas ({@link #getPage(String, int)}). Ambas cachés están limitadas a
+ * <i>maxEntries</i> entradas, al superarlo se expulsa la menos usada
+ * recientemente (LRU). Además cada entrada caduca pasado el tiempo
+ * <i>timeToLive</i>, lo que limita lo desactualizada que puede estar si otra
+ * aplicación modifica la base de datos.</p>
+ *
+ * <p>
+ * El listado completo ({@link #getAll()}) no se cachea: sería una única
+ * entrada con todos los contactos, y <i>maxEntries</i> no limitaría la
+ * memoria ocupada.</p>
+ *
+ * <p>
+ * Las escrituras pasan directamente a la agenda decorada (<i>write-through</i>)
+ * e invalidan lo que dejan obsoleto: cualquier alta o baja invalida todas las
+ * páginas, y la baja además el contacto eliminado. Las altas son poco
+ * frecuentes comparadas con las lecturas, por lo que invalidar todas las
+ * páginas es más sencillo y barato que actualizarlas.</p>
+ *
+ * <p>
+ * Los contactos se guardan como {@link ContactValue}, inmutables y más
+ * compactos que Contact, y se entregan siempre Contacts nuevos para que un
+ * cliente no pueda modificar el contenido de la caché.</p>
+ *
+ * <p>
+ * <b>CONCURRENCIA</b><br/>
+ * Es thread-safe. Las lecturas de la agenda decorada se realizan fuera del
+ * lock, por lo que dos threads pueden leer a la vez el mismo dato. Para que
+ * una lectura lenta no guarde un dato ya invalidado por una escritura
+ * posterior, cada escritura incrementa una versión y solo se guardan en la
+ * caché las lecturas iniciadas en la versión actual.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class CachingAddressBook implements GlobalAddressBook {
+
+    /**
+     * Número máximo de entradas por defecto de cada caché.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    /**
+     * Tiempo de vida por defecto de las entradas.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 60000;
+
+    private GlobalAddressBook addressBook;
+
+    private volatile long timeToLiveMillis = DEFAULT_TIME_TO_LIVE_MILLIS;
+
+    // Cachés y estadísticas, protegidas por el lock de la instancia.
+    private LruCache<String, ContactValue> contacts = new LruCache<String, ContactValue>(DEFAULT_MAX_ENTRIES);
+    private LruCache<String, List<ContactValue>> pages = new LruCache<String, List<ContactValue>>(DEFAULT_MAX_ENTRIES);
+    private long version;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    @Override
+    public String addContact(Contact contact) {
+        try {
+            return addressBook.addContact(contact);
+        } finally {
+            // Aunque falle puede haber modificado la agenda decorada.
+            invalidatePages();
+        }
+    }
+
+    @Override
+    public String addContact(ValidContact contact) {
+        try {
+            return addressBook.addContact(contact);
+        } finally {
+            invalidatePages();
+        }
+    }
+
+    @Override
+    public List<String> addContacts(Collection<Contact> contacts) {
+        try {
+            return addressBook.addContacts(contacts);
+        } finally {
+            invalidatePages();
+        }
+    }
+
+    @Override
+    public void deleteContact(String id) {
+        try {
+            addressBook.deleteContact(id);
+        } finally {
+            synchronized (this) {
+                contacts.remove(id);
+                invalidatePages();
+            }
+        }
+    }
+
+    @Override
+    public Contact getContact(String contactId) {
+        long readVersion;
+        synchronized (this) {
+            ContactValue cached = lookup(contacts, contactId);
+            if (cached != null) {
+                return cached.toContact();
+            }
+            readVersion = version;
+        }
+
+        // Si no existe la agenda decorada lanza InvalidIdException, los
+        // ids inexistentes no se cachean.
+        ContactValue contact = ContactValue.valueOf(addressBook.getContact(contactId));
+
+        synchronized (this) {
+            if (readVersion == version) {
+                store(contacts, contactId, contact);
+            }
+        }
+        return contact.toContact();
+    }
+
+    /**
+     * El listado completo no se cachea, ver la documentación de la clase.
+     */
+    @Override
+    public List<Contact> getAll() {
+        return addressBook.getAll();
+    }
+
+    @Override
+    public List<Contact> getPage(String afterId, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        // El tamaño va primero, la clave no es ambigua aunque el id
+        // contenga el separador.
+        String key = pageSize + ":" + afterId;
+
+        long readVersion;
+        synchronized (this) {
+            List<ContactValue> cached = lookup(pages, key);
+            if (cached != null) {
+                return toContacts(cached);
+            }
+            readVersion = version;
+        }
+
+        List<ContactValue> page = toValues(addressBook.getPage(afterId, pageSize));
+
+        synchronized (this) {
+            if (readVersion == version) {
+                store(pages, key, page);
+            }
+        }
+        return toContacts(page);
+    }
+
+    /**
+     * Las búsquedas no se cachean, cada prefijo y límite sería una entrada
+     * distinta y la agenda ya las resuelve con un índice.
+     */
+    @Override
+    public List<Contact> search(String prefix, int limit) {
+        return addressBook.search(prefix, limit);
+    }
+
+    /**
+     * Las consultas por cumpleaños tampoco se cachean, igual que las
+     * búsquedas.
+     */
+    @Override
+    public List<Contact> getByBirthday(int fromDay, int toDay) {
+        return addressBook.getByBirthday(fromDay, toDay);
+    }
+
+    /**
+     * El recorrido de contactos no se cachea, se usa precisamente para
+     * no tener todos los contactos en memoria.
+     */
+    @Override
+    public CloseableIterator<Contact> iterateAll() {
+        return addressBook.iterateAll();
+    }
+
+    private synchronized void invalidatePages() {
+        version++;
+        pages.clear();
+    }
+
+    /**
+     * Busca una entrada vigente, eliminando la entrada si ha caducado.
+     * Se debe invocar con el lock.
+     */
+    private <V> V lookup(LruCache<String, V> cache, String key) {
+        CacheEntry<V> entry = cache.get(key);
+        if (entry != null && entry.expiresAt <= currentTimeMillis()) {
+            cache.remove(key);
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    /**
+     * Guarda una entrada, se debe invocar con el lock.
+     */
+    private <V> void store(LruCache<String, V> cache, String key, V value) {
+        cache.put(key, new CacheEntry<V>(value, currentTimeMillis() + timeToLiveMillis));
+        evictions += cache.takeEvictions();
+    }
+
+    private static List<ContactValue> toValues(List<Contact> contacts) {
+        List<ContactValue> result = new ArrayList<ContactValue>(contacts.size());
+        for (Contact contact : contacts) {
+            result.add(ContactValue.valueOf(contact));
+        }
+        return result;
+    }
+
+    private static List<Contact> toContacts(List<ContactValue> values) {
+        List<Contact> result = new ArrayList<Contact>(values.size());
+        for (ContactValue value : values) {
+            result.add(value.toContact());
+        }
+        return result;
+    }
+
+    /**
+     * Hora actual, se puede sobreescribir en los tests.
+     *
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Devuelve la agenda decorada.
+     *
+     * @return
+     */
+    public GlobalAddressBook getAddressBook() {
+        return addressBook;
+    }
+
+    /**
+     * Configura la agenda decorada, que se configurará mediante Direct
+     * Injection (una forma de IoC).
+     *
+     * @param addressBook
+     */
+    public void setAddressBook(GlobalAddressBook addressBook) {
+        this.addressBook = addressBook;
+    }
+
+    /**
+     * Configura el número máximo de entradas de cada caché. Al reconfigurar
+     * se vacían las cachés.
+     *
+     * @param maxEntries
+     * @throws IllegalArgumentException Si no es positivo.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("Invalid max entries: " + maxEntries);
+        }
+        version++;
+        contacts = new LruCache<String, ContactValue>(maxEntries);
+        pages = new LruCache<String, List<ContactValue>>(maxEntries);
+    }
+
+    public synchronized int getMaxEntries() {
+        return contacts.maxEntries;
+    }
+
+    /**
+     * Configura el tiempo de vida de las entradas de la caché.
+     *
+     * @param timeToLiveMillis
+     */
+    public void setTimeToLive(long timeToLiveMillis) {
+        this.timeToLiveMillis = timeToLiveMillis;
+    }
+
+    public long getTimeToLive() {
+        return timeToLiveMillis;
+    }
+
+    /**
+     * Número de lecturas servidas desde la caché.
+     *
+     * @return
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * Número de lecturas que han tenido que ir a la agenda decorada.
+     *
+     * @return
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * Proporción de lecturas servidas desde la caché, entre 0 y 1.
+     *
+     * @return
+     */
+    public synchronized double getHitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * Número de entradas expulsadas por superar el tamaño de la caché.
+     *
+     * @return
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Número de entradas descartadas por superar su tiempo de vida.
+     *
+     * @return
+     */
+    public synchronized long getExpirationCount() {
+        return expirations;
+    }
+
+    /**
+     * Entrada de la caché con su instante de caducidad.
+     */
+    private static class CacheEntry<V> {
+        final V value;
+        final long expiresAt;
+
+        CacheEntry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Mapa en orden de acceso que expulsa la entrada menos usada
+     * recientemente al superar el máximo.
+     */
+    private static class LruCache<K, V> extends LinkedHashMap<K, CacheEntry<V>> {
+
+        final int maxEntries;
+        private int evictions;
+
+        LruCache(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, CacheEntry<V>> eldest) {
+            if (size() > maxEntries) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Devuelve y reinicia el número de expulsiones.
+         */
+        int takeEvictions() {
+            int result = evictions;
+            evictions = 0;
+            return result;
+        }
+    }
+}
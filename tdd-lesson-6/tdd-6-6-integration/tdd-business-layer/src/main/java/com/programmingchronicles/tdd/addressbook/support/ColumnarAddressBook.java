@@ -0,0 +1,719 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.addressbook.InvalidContactException;
+import com.programmingchronicles.tdd.addressbook.InvalidIdException;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Implementación de un servicio Agenda de Contactos Global en memoria para
+ * agendas muy grandes, que guarda los contactos por columnas fuera del heap.
+ *
+ * <p>
+ * <b>MEMORIA</b><br/>
+ * En {@link MemAddressBook} cada contacto son varios objetos (el valor, sus
+ * Strings y los nodos del mapa), cientos de bytes en cabeceras y punteros, y
+ * con decenas de millones de contactos las pausas del GC son muy largas.
+ * Aquí cada dato se guarda en una columna, un {@link ByteBuffer} directo
+ * fuera del heap que el GC no recorre:</p>
+ *
+ * <ul>
+ *   <li><i>ids</i>: el id de cada fila como long.</li>
+ *   <li><i>birthdays</i>: la fecha de nacimiento como int, en días desde el
+ *       1/1/1970 (ver {@link ContactValue#getBirthdayEpochDay()}).</li>
+ *   <li><i>names</i>: posición y longitud del nombre, apellido y teléfono
+ *       en el área de textos.</li>
+ *   <li><i>strings</i>: los textos codificados en UTF-8, uno detrás de
+ *       otro.</li>
+ * </ul>
+ *
+ * <p>
+ * Los índices por id y por nombre son mapas de tipos primitivos
+ * ({@link LongIntHashMap}) que devuelven la fila. Los Contacts solo se crean
+ * al leerlos, y son del cliente, modificarlos no afecta a la agenda.</p>
+ *
+ * <p>
+ * Los ids son números consecutivos asignados por la propia agenda, no se
+ * configura un IdGenerator. Las filas se añaden en orden de id, por lo que
+ * los listados y las páginas salen ordenados por id sin índices adicionales.</p>
+ *
+ * <p>
+ * <b>LIMITACIONES</b><br/>
+ * No hay un índice ordenado por nombre, {@link #search(String, int)}
+ * recorre todas las filas. Tampoco hay un índice por cumpleaños,
+ * {@link #getByBirthday(int, int)} recorre la columna <i>birthdays</i>, que
+ * al ser un array de ints contiguo se recorre muy rápido. Al eliminar un
+ * contacto su fila y sus textos no se reutilizan, solo se marca como
+ * eliminada. La memoria fuera del heap se libera cuando el GC recoge los
+ * ByteBuffers, no al eliminar contactos.</p>
+ *
+ * <p>
+ * <b>CONCURRENCIA</b><br/>
+ * Es thread-safe. Las lecturas comparten un read lock y las escrituras
+ * usan el write lock.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class ColumnarAddressBook implements GlobalAddressBook {
+
+    /**
+     * Número de filas reservadas inicialmente.
+     */
+    public static final int DEFAULT_INITIAL_CAPACITY = 1024;
+
+    // Bytes por fila de cada columna.
+    private static final int ID_BYTES = 8;
+    private static final int BIRTHDAY_BYTES = 4;
+    private static final int NAMES_BYTES = 6 * 4;
+
+    // Bytes de texto reservados inicialmente por fila.
+    private static final int STRING_BYTES_PER_ROW = 24;
+
+    // Longitud de los textos null.
+    private static final int NULL_LENGTH = -1;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private ByteBuffer ids;
+    private ByteBuffer birthdays;
+    private ByteBuffer names;
+    private ByteBuffer strings;
+
+    private int rows;
+    private int deletedRows;
+    private int stringsEnd;
+    private long nextId;
+
+    private final LongIntHashMap rowsById;
+
+    // Índice de duplicados: hash de 64 bits del nombre normalizado a fila.
+    // Los nombres distintos con el mismo hash, muy improbables, se guardan
+    // por nombre completo.
+    private final LongIntHashMap rowsByNameHash;
+    private final Map<String, Integer> collidingNames = new HashMap<String, Integer>();
+
+    public ColumnarAddressBook() {
+        this(DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity Número de filas que se reservan inicialmente.
+     */
+    public ColumnarAddressBook(int initialCapacity) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + initialCapacity);
+        }
+        ids = allocate(initialCapacity * ID_BYTES);
+        birthdays = allocate(initialCapacity * BIRTHDAY_BYTES);
+        names = allocate(initialCapacity * NAMES_BYTES);
+        strings = allocate(initialCapacity * STRING_BYTES_PER_ROW);
+        rowsById = new LongIntHashMap(initialCapacity);
+        rowsByNameHash = new LongIntHashMap(initialCapacity);
+    }
+
+    /**
+     * Añade un nuevo contacto devolviendo el id generado.
+     *
+     * @param contact Datos del contacto a añadir
+     * @return Devuelve el id asignado al contacto
+     */
+    @Override
+    public String addContact(Contact contact) {
+        String id = addContact(ValidContact.valueOf(contact));
+        contact.setId(id);
+        return id;
+    }
+
+    /**
+     * Añade un contacto ya validado devolviendo el id generado.
+     *
+     * @param contact Datos del contacto a añadir
+     * @return Devuelve el id asignado al contacto
+     */
+    @Override
+    public String addContact(ValidContact contact) {
+        lock.writeLock().lock();
+        try {
+            if (containsName(contact.getNameKey())) {
+                throw new InvalidContactException();
+            }
+            return append(contact);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Añade todos los contactos entregados, devolviendo los ids generados
+     * en el mismo orden. Si alguno no es válido no se añade ninguno.
+     *
+     * @param contacts Datos de los contactos a añadir
+     * @return Ids asignados a los contactos, en el orden de la colección.
+     */
+    @Override
+    public List<String> addContacts(Collection<Contact> contacts) {
+        List<ValidContact> validContacts = new ArrayList<ValidContact>(contacts.size());
+        Set<String> batchNames = new HashSet<String>();
+        for (Contact contact : contacts) {
+            ValidContact validContact = ValidContact.valueOf(contact);
+            if (!batchNames.add(validContact.getNameKey())) {
+                throw new InvalidContactException();
+            }
+            validContacts.add(validContact);
+        }
+
+        List<String> ids = new ArrayList<String>(contacts.size());
+        lock.writeLock().lock();
+        try {
+            for (ValidContact contact : validContacts) {
+                if (containsName(contact.getNameKey())) {
+                    throw new InvalidContactException();
+                }
+            }
+            for (ValidContact contact : validContacts) {
+                ids.add(append(contact));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        int i = 0;
+        for (Contact contact : contacts) {
+            contact.setId(ids.get(i++));
+        }
+        return ids;
+    }
+
+    /**
+     * Obtiene el contacto asociado al id entregado.
+     *
+     * @param contactId id del contacto
+     * @return Devuelve el contacto
+     */
+    @Override
+    public Contact getContact(String contactId) {
+        long id = parseId(contactId);
+        lock.readLock().lock();
+        try {
+            int row = rowsById.get(id);
+            if (row == LongIntHashMap.NO_VALUE) {
+                throw new InvalidIdException();
+            }
+            return contactAt(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Obtiene todos los contactos del sistema.
+     *
+     * @return
+     */
+    @Override
+    public List<Contact> getAll() {
+        lock.readLock().lock();
+        try {
+            List<Contact> contacts = new ArrayList<Contact>(rows - deletedRows);
+            for (int row = 0; row < rows; row++) {
+                if (!isDeleted(row)) {
+                    contacts.add(contactAt(row));
+                }
+            }
+            return contacts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Contact> getPage(String afterId, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+
+        List<Contact> page = new ArrayList<Contact>();
+        long after = afterId == null ? -1 : parseId(afterId);
+        if (afterId != null && after < 0) {
+            // Un cursor que no es un id de esta agenda.
+            return page;
+        }
+
+        lock.readLock().lock();
+        try {
+            // El cursor no tiene por que existir (puede haberse eliminado),
+            // la página empieza en la primera fila con un id mayor.
+            for (int row = firstRowAfter(after); row < rows && page.size() < pageSize; row++) {
+                if (!isDeleted(row)) {
+                    page.add(contactAt(row));
+                }
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Busca recorriendo todas las filas, sin índice. Solo se mantienen los
+     * <i>limit</i> mejores resultados encontrados hasta el momento.
+     */
+    @Override
+    public List<Contact> search(String prefix, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid search limit: " + limit);
+        }
+
+        String key = ContactPrefixIndex.searchKey(prefix);
+        // Montículo con el peor resultado en la cima. Las filas están en
+        // orden de id, con el mismo nombre gana la fila menor.
+        PriorityQueue<Match> matches = new PriorityQueue<Match>(limit, Collections.reverseOrder());
+
+        lock.readLock().lock();
+        try {
+            for (int row = 0; row < rows; row++) {
+                if (isDeleted(row)) {
+                    continue;
+                }
+                int base = row * NAMES_BYTES;
+                String matchKey = matchKey(key, stringAt(base), null);
+                matchKey = matchKey(key, stringAt(base + 8), matchKey);
+                if (matchKey == null) {
+                    continue;
+                }
+                if (matches.size() < limit) {
+                    matches.add(new Match(matchKey, row));
+                } else if (matchKey.compareTo(matches.peek().key) < 0) {
+                    matches.poll();
+                    matches.add(new Match(matchKey, row));
+                }
+            }
+
+            List<Match> sorted = new ArrayList<Match>(matches);
+            Collections.sort(sorted);
+            List<Contact> result = new ArrayList<Contact>(sorted.size());
+            for (Match match : sorted) {
+                result.add(contactAt(match.row));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Contact> getByBirthday(int fromDay, int toDay) {
+        ContactBirthdayIndex.checkRange(fromDay, toDay);
+
+        // Posición de cada día dentro del intervalo, que puede pasar por el
+        // fin de año. Las filas de cada día quedan en orden de id.
+        int days = ContactValue.DAYS_IN_YEAR;
+        int span = (toDay - fromDay + days) % days;
+        List<List<Integer>> rowsByPosition = new ArrayList<List<Integer>>(span + 1);
+        for (int i = 0; i <= span; i++) {
+            rowsByPosition.add(new ArrayList<Integer>());
+        }
+
+        lock.readLock().lock();
+        try {
+            for (int row = 0; row < rows; row++) {
+                int birthday = birthdays.getInt(row * BIRTHDAY_BYTES);
+                if (birthday == ContactValue.NO_BIRTHDAY || isDeleted(row)) {
+                    continue;
+                }
+                int position = (ContactValue.toDayOfYear(birthday) - fromDay + days) % days;
+                if (position <= span) {
+                    rowsByPosition.get(position).add(row);
+                }
+            }
+
+            List<Contact> result = new ArrayList<Contact>();
+            for (List<Integer> dayRows : rowsByPosition) {
+                for (Integer row : dayRows) {
+                    result.add(contactAt(row));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recorre los contactos fila a fila, creando cada Contact solo cuando se
+     * pide. Como en {@link MemAddressBook} no falla si se modifica la agenda
+     * durante el recorrido.
+     */
+    @Override
+    public CloseableIterator<Contact> iterateAll() {
+        return new CloseableIterator<Contact>() {
+            private int row = 0;
+            private Contact next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    lock.readLock().lock();
+                    try {
+                        while (row < rows && isDeleted(row)) {
+                            row++;
+                        }
+                        if (row < rows) {
+                            next = contactAt(row++);
+                        }
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Contact next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Contact result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void deleteContact(String contactId) {
+        long id = parseId(contactId);
+        if (id < 0) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            int row = rowsById.remove(id);
+            if (row == LongIntHashMap.NO_VALUE) {
+                return;
+            }
+            removeName(nameKeyAt(row), row);
+            // La fila se marca como eliminada con el id en negativo, así la
+            // columna sigue ordenada para la búsqueda de páginas.
+            ids.putLong(row * ID_BYTES, -(id + 1));
+            deletedRows++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Número de contactos de la agenda.
+     *
+     * @return
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return rows - deletedRows;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Memoria reservada fuera del heap por las columnas, en bytes.
+     *
+     * @return
+     */
+    public long getOffHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) ids.capacity() + birthdays.capacity()
+                    + names.capacity() + strings.capacity();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Memoria de los índices, que están en el heap, en bytes.
+     *
+     * @return
+     */
+    public long getIndexBytes() {
+        lock.readLock().lock();
+        try {
+            return rowsById.memoryBytes() + rowsByNameHash.memoryBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Añade una fila, se debe invocar con el write lock.
+     */
+    private String append(ValidContact contact) {
+        ensureRowCapacity();
+
+        long id = nextId++;
+        int row = rows++;
+        ids.putLong(row * ID_BYTES, id);
+        birthdays.putInt(row * BIRTHDAY_BYTES, contact.getBirthdayEpochDay());
+
+        int base = row * NAMES_BYTES;
+        putString(base, contact.getFirstName());
+        putString(base + 8, contact.getSurname());
+        putString(base + 16, contact.getPhone());
+
+        rowsById.put(id, row);
+        addName(contact.getNameKey(), row);
+        return Long.toString(id);
+    }
+
+    private void putString(int index, String value) {
+        if (value == null) {
+            names.putInt(index, 0);
+            names.putInt(index + 4, NULL_LENGTH);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensureStringCapacity(bytes.length);
+        ByteBuffer target = strings.duplicate();
+        target.position(stringsEnd);
+        target.put(bytes);
+
+        names.putInt(index, stringsEnd);
+        names.putInt(index + 4, bytes.length);
+        stringsEnd += bytes.length;
+    }
+
+    private String stringAt(int index) {
+        int length = names.getInt(index + 4);
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        // Cada lectura usa su propia vista, la posición del buffer
+        // compartido no se modifica.
+        ByteBuffer source = strings.duplicate();
+        source.position(names.getInt(index));
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Contact contactAt(int row) {
+        int base = row * NAMES_BYTES;
+        Contact contact = new Contact();
+        contact.setId(Long.toString(ids.getLong(row * ID_BYTES)));
+        contact.setFirstName(stringAt(base));
+        contact.setSurname(stringAt(base + 8));
+        contact.setPhone(stringAt(base + 16));
+        contact.setBirthday(ContactValue.toDate(birthdays.getInt(row * BIRTHDAY_BYTES)));
+        return contact;
+    }
+
+    private String nameKeyAt(int row) {
+        int base = row * NAMES_BYTES;
+        return ContactNameIndex.nameKey(stringAt(base), stringAt(base + 8));
+    }
+
+    /**
+     * Devuelve la menor clave entre la actual y el nombre normalizado, si
+     * el nombre empieza por el prefijo.
+     */
+    private static String matchKey(String prefixKey, String name, String current) {
+        if (name == null) {
+            return current;
+        }
+        String key = ContactPrefixIndex.searchKey(name);
+        if (!key.startsWith(prefixKey)) {
+            return current;
+        }
+        return current == null || key.compareTo(current) < 0 ? key : current;
+    }
+
+    private boolean isDeleted(int row) {
+        return ids.getLong(row * ID_BYTES) < 0;
+    }
+
+    /**
+     * Búsqueda binaria de la primera fila con un id mayor que el entregado.
+     * Las filas eliminadas tienen el id en negativo, -(id + 1).
+     */
+    private int firstRowAfter(long after) {
+        int low = 0;
+        int high = rows;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            long id = ids.getLong(mid * ID_BYTES);
+            if (id < 0) {
+                id = -id - 1;
+            }
+            if (id <= after) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private boolean containsName(String nameKey) {
+        int row = rowsByNameHash.get(hash(nameKey));
+        if (row != LongIntHashMap.NO_VALUE && nameKey.equals(nameKeyAt(row))) {
+            return true;
+        }
+        return collidingNames.containsKey(nameKey);
+    }
+
+    private void addName(String nameKey, int row) {
+        long hash = hash(nameKey);
+        if (rowsByNameHash.containsKey(hash)) {
+            collidingNames.put(nameKey, row);
+        } else {
+            rowsByNameHash.put(hash, row);
+        }
+    }
+
+    private void removeName(String nameKey, int row) {
+        long hash = hash(nameKey);
+        if (rowsByNameHash.get(hash) == row) {
+            rowsByNameHash.remove(hash);
+        } else {
+            collidingNames.remove(nameKey);
+        }
+    }
+
+    private void ensureRowCapacity() {
+        int capacity = ids.capacity() / ID_BYTES;
+        if (rows < capacity) {
+            return;
+        }
+        if (capacity > Integer.MAX_VALUE / (2 * NAMES_BYTES)) {
+            throw new IllegalStateException("Address book is full");
+        }
+        ids = grow(ids, capacity * 2 * ID_BYTES);
+        birthdays = grow(birthdays, capacity * 2 * BIRTHDAY_BYTES);
+        names = grow(names, capacity * 2 * NAMES_BYTES);
+    }
+
+    private void ensureStringCapacity(int length) {
+        long required = (long) stringsEnd + length;
+        if (required <= strings.capacity()) {
+            return;
+        }
+        if (required > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Address book is full");
+        }
+        long capacity = Math.max(required, strings.capacity() * 2L);
+        strings = grow(strings, (int) Math.min(capacity, Integer.MAX_VALUE));
+    }
+
+    private static ByteBuffer allocate(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer source = buffer.duplicate();
+        source.clear();
+        ByteBuffer result = allocate(capacity);
+        result.put(source);
+        result.clear();
+        return result;
+    }
+
+    /**
+     * Convierte el id en long, o -1 si no es un id de esta agenda.
+     */
+    private static long parseId(String contactId) {
+        if (contactId == null) {
+            return -1;
+        }
+        try {
+            long id = Long.parseLong(contactId);
+            // "007" o "+7" no son el id 7.
+            return Long.toString(id).equals(contactId) ? id : -1;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /**
+     * Hash FNV-1a de 64 bits, sin signo para que sea una clave válida
+     * de LongIntHashMap.
+     */
+    private static long hash(String nameKey) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < nameKey.length(); i++) {
+            hash ^= nameKey.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash & Long.MAX_VALUE;
+    }
+
+    /**
+     * Resultado de una búsqueda, ordenado por el nombre que coincide y
+     * después por fila.
+     */
+    private static class Match implements Comparable<Match> {
+        final String key;
+        final int row;
+
+        Match(String key, int row) {
+            this.key = key;
+            this.row = row;
+        }
+
+        @Override
+        public int compareTo(Match other) {
+            int result = key.compareTo(other.key);
+            return result != 0 ? result : (row < other.row ? -1 : (row == other.row ? 0 : 1));
+        }
+    }
+}
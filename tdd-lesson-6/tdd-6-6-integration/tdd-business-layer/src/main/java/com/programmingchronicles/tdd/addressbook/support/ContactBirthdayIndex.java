@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Índice de contactos por día del cumpleaños, que permite obtener los
+ * contactos que cumplen años en un intervalo de días sin recorrer todos
+ * los contactos.
+ *
+ * <p>
+ * Hay un grupo de ids por cada día del año (ver
+ * {@link ContactValue#dayOfYear(int, int)}), ordenados por id. Una consulta
+ * recorre solo los días del intervalo, y como mucho hay 366 días. Cada grupo
+ * es un {@link IdGroup}, un array ordenado que se copia al modificarlo.</p>
+ *
+ * <p>
+ * El índice es thread-safe. Una consulta concurrente con una modificación
+ * puede incluir o no el contacto modificado.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class ContactBirthdayIndex {
+
+    private final List<IdGroup> idsByDay;
+
+    public ContactBirthdayIndex() {
+        idsByDay = new ArrayList<IdGroup>(ContactValue.DAYS_IN_YEAR + 1);
+        for (int day = 0; day <= ContactValue.DAYS_IN_YEAR; day++) {
+            idsByDay.add(new IdGroup());
+        }
+    }
+
+    /**
+     * Construye un índice con los contactos entregados.
+     *
+     * @param contacts Contactos con id.
+     */
+    public ContactBirthdayIndex(List<ContactValue> contacts) {
+        this(SnapshotContacts.of(contacts));
+    }
+
+    /**
+     * Construye un índice con los contactos de un snapshot, contando
+     * primero los contactos de cada día y copiando después sus ids a un
+     * array del tamaño de cada grupo.
+     *
+     * @param snapshot Contactos con id.
+     */
+    ContactBirthdayIndex(SnapshotContacts snapshot) {
+        int[] dayOfContact = new int[snapshot.size()];
+        int[] sizes = new int[ContactValue.DAYS_IN_YEAR + 1];
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.birthday(i) != ContactValue.NO_BIRTHDAY) {
+                dayOfContact[i] = ContactValue.toDayOfYear(snapshot.birthday(i));
+                sizes[dayOfContact[i]]++;
+            }
+        }
+
+        String[][] ids = new String[sizes.length][];
+        for (int day = 0; day < sizes.length; day++) {
+            ids[day] = new String[sizes[day]];
+            sizes[day] = 0;
+        }
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.birthday(i) != ContactValue.NO_BIRTHDAY) {
+                int day = dayOfContact[i];
+                ids[day][sizes[day]++] = snapshot.id(i);
+            }
+        }
+
+        idsByDay = new ArrayList<IdGroup>(ids.length);
+        for (String[] day : ids) {
+            idsByDay.add(IdGroup.of(day, snapshot.isNaturalOrder()));
+        }
+    }
+
+    /**
+     * Comprueba que el intervalo de días es válido.
+     *
+     * @param fromDay
+     * @param toDay
+     * @throws IllegalArgumentException Si algún día no está entre 1 y 366.
+     */
+    public static void checkRange(int fromDay, int toDay) {
+        if (fromDay < 1 || fromDay > ContactValue.DAYS_IN_YEAR
+                || toDay < 1 || toDay > ContactValue.DAYS_IN_YEAR) {
+            throw new IllegalArgumentException("Invalid day range: " + fromDay + "-" + toDay);
+        }
+    }
+
+    /**
+     * Añade el contacto al índice.
+     *
+     * @param id id del contacto.
+     * @param birthday Fecha de nacimiento en días desde el 1/1/1970, si es
+     *        {@link ContactValue#NO_BIRTHDAY} no se indexa.
+     */
+    public void add(String id, int birthday) {
+        if (birthday != ContactValue.NO_BIRTHDAY) {
+            idsByDay.get(ContactValue.toDayOfYear(birthday)).add(id);
+        }
+    }
+
+    /**
+     * Elimina el contacto del índice, se debe entregar la misma fecha con
+     * la que se añadió.
+     *
+     * @param id id del contacto.
+     * @param birthday Fecha de nacimiento en días desde el 1/1/1970.
+     */
+    public void remove(String id, int birthday) {
+        if (birthday != ContactValue.NO_BIRTHDAY) {
+            idsByDay.get(ContactValue.toDayOfYear(birthday)).remove(id);
+        }
+    }
+
+    /**
+     * Elimina todos los contactos del índice.
+     */
+    public void clear() {
+        for (IdGroup ids : idsByDay) {
+            ids.clear();
+        }
+    }
+
+    /**
+     * Obtiene los ids de los contactos que cumplen años entre los dos días
+     * entregados, ambos incluidos. Si el primer día es posterior al último
+     * el intervalo pasa por el fin de año.
+     *
+     * @param fromDay Primer día del intervalo, de 1 a 366.
+     * @param toDay Último día del intervalo, de 1 a 366.
+     * @return Ids ordenados por día, empezando por <i>fromDay</i>, y con el
+     *         mismo día por id.
+     */
+    public List<String> get(int fromDay, int toDay) {
+        checkRange(fromDay, toDay);
+        List<String> result = new ArrayList<String>();
+        int day = fromDay;
+        while (true) {
+            idsByDay.get(day).addTo(result);
+            if (day == toDay) {
+                return result;
+            }
+            day = day == ContactValue.DAYS_IN_YEAR ? 1 : day + 1;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Índice secundario de contactos por nombre normalizado, que permite
+ * detectar contactos duplicados con una búsqueda en un hash en lugar
+ * de recorrer todos los contactos.
+ *
+ * <p>
+ * Dos contactos son duplicados si tienen el mismo nombre y el mismo apellido,
+ * ignorando espacios al principio y al final y mayúsculas/minúsculas. Un
+ * apellido null solo es duplicado de otro apellido null. La clave la
+ * calcula {@link ValidContact#nameKey(String, String)}.</p>
+ *
+ * <p>
+ * El índice es thread-safe, y {@link #add(String, Contact)} es atómico:
+ * si dos threads añaden a la vez el mismo nombre solo uno lo consigue.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class ContactNameIndex {
+
+    // Valor usado para los contactos añadidos sin id.
+    private static final String NO_ID = "";
+
+    // Solo se guarda el id de cada nombre: para eliminar un contacto se
+    // entrega su nombre, así el índice tiene un único mapa.
+    private final ConcurrentMap<String, String> idsByName;
+
+    public ContactNameIndex() {
+        idsByName = new ConcurrentHashMap<String, String>();
+    }
+
+    /**
+     * Construye un índice con los contactos entregados.
+     *
+     * @param contacts Contactos con id.
+     * @throws IllegalArgumentException Si hay dos contactos con el mismo
+     *         nombre.
+     */
+    public ContactNameIndex(List<ContactValue> contacts) {
+        this(SnapshotContacts.of(contacts));
+    }
+
+    /**
+     * Construye un índice con los contactos de un snapshot.
+     *
+     * <p>
+     * El mapa se crea con su tamaño final, y cada nombre o apellido distinto
+     * de la tabla de nombres se normaliza una sola vez.</p>
+     *
+     * @param snapshot Contactos con id y su tabla de nombres.
+     * @throws IllegalArgumentException Si hay dos contactos con el mismo
+     *         nombre.
+     */
+    ContactNameIndex(SnapshotContacts snapshot) {
+        idsByName = new ConcurrentHashMap<String, String>(snapshot.size());
+
+        // Se normaliza cada nombre distinto una vez.
+        List<String> names = snapshot.getNames();
+        String[] folded = new String[names.size()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = ValidContact.foldName(names.get(i));
+        }
+
+        for (int i = 0; i < snapshot.size(); i++) {
+            int surname = snapshot.surname(i);
+            String key = ValidContact.foldedNameKey(folded[snapshot.firstName(i)],
+                    surname == SnapshotContacts.NO_NAME ? null : folded[surname]);
+            if (idsByName.putIfAbsent(key, snapshot.id(i)) != null) {
+                throw new IllegalArgumentException("Duplicated contact name: " + snapshot.id(i));
+            }
+        }
+    }
+
+    /**
+     * Devuelve la clave normalizada del nombre y apellido entregados, ver
+     * {@link ValidContact#nameKey(String, String)}.
+     *
+     * @param firstName Nombre del contacto, no puede ser null.
+     * @param surname Apellido del contacto, puede ser null.
+     * @return
+     */
+    public static String nameKey(String firstName, String surname) {
+        return ValidContact.nameKey(firstName, surname);
+    }
+
+    /**
+     * Devuelve la clave normalizada del contacto entregado.
+     *
+     * @param contact
+     * @return
+     */
+    public static String nameKey(Contact contact) {
+        return nameKey(contact.getFirstName(), contact.getSurname());
+    }
+
+    /**
+     * Indica si ya existe en el índice un contacto con el mismo nombre.
+     *
+     * @param contact
+     * @return
+     */
+    public boolean contains(Contact contact) {
+        return containsKey(nameKey(contact));
+    }
+
+    /**
+     * Indica si ya existe en el índice un contacto con la clave entregada.
+     *
+     * @param nameKey Clave obtenida con {@link #nameKey(String, String)}.
+     * @return
+     */
+    public boolean containsKey(String nameKey) {
+        return idsByName.containsKey(nameKey);
+    }
+
+    /**
+     * Añade el contacto al índice con el id entregado.
+     *
+     * @param id id del contacto, si es null el contacto se indexa pero
+     *        no se podrá eliminar del índice.
+     * @param contact Datos del contacto
+     * @return false si ya existía un contacto con el mismo nombre, en cuyo
+     *         caso el índice no se modifica.
+     */
+    public boolean add(String id, Contact contact) {
+        return add(id, contact.getFirstName(), contact.getSurname());
+    }
+
+    /**
+     * Añade al índice el nombre y apellido entregados con el id entregado.
+     *
+     * @param id id del contacto, si es null el contacto se indexa pero
+     *        no se podrá eliminar del índice.
+     * @param firstName Nombre del contacto, no puede ser null.
+     * @param surname Apellido del contacto, puede ser null.
+     * @return false si ya existía un contacto con el mismo nombre, en cuyo
+     *         caso el índice no se modifica.
+     */
+    public boolean add(String id, String firstName, String surname) {
+        return addKey(id, nameKey(firstName, surname));
+    }
+
+    /**
+     * Añade al índice la clave entregada con el id entregado.
+     *
+     * @param id id del contacto, si es null el contacto se indexa pero
+     *        no se podrá eliminar del índice.
+     * @param nameKey Clave obtenida con {@link #nameKey(String, String)}.
+     * @return false si ya existía un contacto con el mismo nombre, en cuyo
+     *         caso el índice no se modifica.
+     */
+    public boolean addKey(String id, String nameKey) {
+        return idsByName.putIfAbsent(nameKey, id == null ? NO_ID : id) == null;
+    }
+
+    /**
+     * Elimina del índice el contacto con el id entregado.
+     *
+     * @param id id del contacto.
+     * @param contact Datos con los que se añadió el contacto.
+     */
+    public void remove(String id, Contact contact) {
+        remove(id, contact.getFirstName(), contact.getSurname());
+    }
+
+    /**
+     * Elimina del índice el contacto con el id entregado.
+     *
+     * @param id id del contacto.
+     * @param firstName Nombre con el que se añadió el contacto.
+     * @param surname Apellido con el que se añadió el contacto.
+     */
+    public void remove(String id, String firstName, String surname) {
+        removeKey(id, nameKey(firstName, surname));
+    }
+
+    /**
+     * Elimina del índice el contacto con el id entregado.
+     *
+     * @param id id del contacto, si la clave es de otro contacto no se
+     *        elimina.
+     * @param nameKey Clave obtenida con {@link #nameKey(String, String)}.
+     */
+    public void removeKey(String id, String nameKey) {
+        if (id != null) {
+            idsByName.remove(nameKey, id);
+        }
+    }
+
+    /**
+     * Elimina todos los contactos del índice.
+     */
+    public void clear() {
+        idsByName.clear();
+    }
+
+    /**
+     * Número de contactos indexados.
+     *
+     * @return
+     */
+    public int size() {
+        return idsByName.size();
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Índice ordenado de contactos por nombre y por apellido normalizados, que
+ * permite buscar los contactos cuyo nombre o apellido empieza por un texto
+ * sin recorrer todos los contactos.
+ *
+ * <p>
+ * Cada nombre normalizado tiene un grupo con los ids de los contactos cuyo
+ * nombre o apellido es ese nombre, ordenados por id ({@link IdGroup}). Los
+ * grupos están
+ * ordenados por nombre, todos los contactos que empiezan por un prefijo
+ * están en grupos consecutivos: la búsqueda se sitúa en el prefijo y recorre
+ * solo los grupos que devuelve. Los grupos que se quedan vacíos se
+ * conservan, como mucho hay uno por nombre distinto.</p>
+ *
+ * <p>
+ * La normalización es la misma que la de los duplicados
+ * ({@link ValidContact#foldName(String)}): se eliminan los espacios al
+ * principio y al final y se ignoran las mayúsculas/minúsculas.</p>
+ *
+ * <p>
+ * El índice es thread-safe. Una búsqueda concurrente con una modificación
+ * puede incluir o no el contacto modificado.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class ContactPrefixIndex {
+
+    private final ConcurrentNavigableMap<String, IdGroup> idsByName;
+
+    public ContactPrefixIndex() {
+        idsByName = new ConcurrentSkipListMap<String, IdGroup>();
+    }
+
+    /**
+     * Construye un índice con los contactos entregados.
+     *
+     * @param contacts Contactos con id.
+     */
+    public ContactPrefixIndex(List<ContactValue> contacts) {
+        this(SnapshotContacts.of(contacts));
+    }
+
+    /**
+     * Construye un índice con los contactos de un snapshot.
+     *
+     * <p>
+     * Los nombres de la tabla de nombres se normalizan una sola vez, y los
+     * ids de cada nombre normalizado se copian en orden a un array del
+     * tamaño del grupo. Los grupos y el mapa de
+     * nombres (muchos menos que contactos) se construyen de una vez.</p>
+     *
+     * @param snapshot Contactos con id y su tabla de nombres.
+     */
+    ContactPrefixIndex(SnapshotContacts snapshot) {
+        // Número de grupo de cada nombre de la tabla, dos nombres que solo
+        // se diferencian en mayúsculas o espacios comparten el grupo.
+        List<String> names = snapshot.getNames();
+        TreeMap<String, Integer> groupsByKey = new TreeMap<String, Integer>();
+        int[] groupOfName = new int[names.size()];
+        for (int name = 0; name < groupOfName.length; name++) {
+            String key = searchKey(names.get(name));
+            Integer group = groupsByKey.get(key);
+            if (group == null) {
+                group = groupsByKey.size();
+                groupsByKey.put(key, group);
+            }
+            groupOfName[name] = group;
+        }
+
+        // Un contacto cuyo nombre y apellido coinciden se añade una vez.
+        int[] sizes = new int[groupsByKey.size()];
+        for (int i = 0; i < snapshot.size(); i++) {
+            int firstName = groupOfName[snapshot.firstName(i)];
+            int surname = surnameGroup(snapshot, groupOfName, i);
+            sizes[firstName]++;
+            if (surname != firstName && surname != SnapshotContacts.NO_NAME) {
+                sizes[surname]++;
+            }
+        }
+        String[][] ids = new String[sizes.length][];
+        for (int group = 0; group < sizes.length; group++) {
+            ids[group] = new String[sizes[group]];
+            sizes[group] = 0;
+        }
+        for (int i = 0; i < snapshot.size(); i++) {
+            int firstName = groupOfName[snapshot.firstName(i)];
+            int surname = surnameGroup(snapshot, groupOfName, i);
+            ids[firstName][sizes[firstName]++] = snapshot.id(i);
+            if (surname != firstName && surname != SnapshotContacts.NO_NAME) {
+                ids[surname][sizes[surname]++] = snapshot.id(i);
+            }
+        }
+
+        List<String> keys = new ArrayList<String>(groupsByKey.size());
+        List<IdGroup> groups = new ArrayList<IdGroup>(groupsByKey.size());
+        for (Map.Entry<String, Integer> entry : groupsByKey.entrySet()) {
+            keys.add(entry.getKey());
+            groups.add(IdGroup.of(ids[entry.getValue()], snapshot.isNaturalOrder()));
+        }
+        idsByName = SkipLists.fromSorted(null, keys, groups);
+    }
+
+    /**
+     * Devuelve el texto normalizado con el que se indexa y se busca un
+     * nombre o apellido.
+     *
+     * @param name
+     * @return
+     */
+    public static String searchKey(String name) {
+        return ValidContact.foldName(name);
+    }
+
+    /**
+     * Añade al índice el nombre y el apellido del contacto.
+     *
+     * @param id id del contacto.
+     * @param firstName Nombre del contacto, no puede ser null.
+     * @param surname Apellido del contacto, si es null solo se indexa
+     *        el nombre.
+     */
+    public void add(String id, String firstName, String surname) {
+        group(searchKey(firstName)).add(id);
+        if (surname != null) {
+            group(searchKey(surname)).add(id);
+        }
+    }
+
+    /**
+     * Elimina del índice el contacto, se deben entregar los mismos nombres
+     * con los que se añadió.
+     *
+     * @param id id del contacto.
+     * @param firstName Nombre del contacto.
+     * @param surname Apellido del contacto, puede ser null.
+     */
+    public void remove(String id, String firstName, String surname) {
+        removeId(searchKey(firstName), id);
+        if (surname != null) {
+            removeId(searchKey(surname), id);
+        }
+    }
+
+    /**
+     * Elimina todos los contactos del índice.
+     */
+    public void clear() {
+        idsByName.clear();
+    }
+
+    /**
+     * Busca los contactos cuyo nombre o apellido empieza por el texto
+     * entregado.
+     *
+     * <p>
+     * Los ids se devuelven ordenados por el nombre o apellido que coincide,
+     * y con el mismo nombre por id. Un contacto cuyo nombre y apellido
+     * coinciden se devuelve una sola vez, en la posición del primero.</p>
+     *
+     * @param prefix Texto por el que empieza el nombre o el apellido, sin
+     *        distinguir mayúsculas/minúsculas. Si es vacío coinciden todos.
+     * @param limit Número máximo de ids devueltos.
+     * @return Ids de los contactos encontrados.
+     */
+    public List<String> search(String prefix, int limit) {
+        String key = searchKey(prefix);
+        Set<String> ids = new LinkedHashSet<String>();
+        for (Map.Entry<String, IdGroup> entry : idsByName.tailMap(key).entrySet()) {
+            if (!entry.getKey().startsWith(key)) {
+                break;
+            }
+            for (String id : entry.getValue().ids()) {
+                if (ids.size() == limit) {
+                    return new ArrayList<String>(ids);
+                }
+                ids.add(id);
+            }
+        }
+        return new ArrayList<String>(ids);
+    }
+
+    /**
+     * Grupo del nombre entregado, creándolo si no existe.
+     */
+    private IdGroup group(String key) {
+        IdGroup group = idsByName.get(key);
+        if (group == null) {
+            group = new IdGroup();
+            IdGroup previous = idsByName.putIfAbsent(key, group);
+            if (previous != null) {
+                group = previous;
+            }
+        }
+        return group;
+    }
+
+    private void removeId(String key, String id) {
+        IdGroup group = idsByName.get(key);
+        if (group != null) {
+            group.remove(id);
+        }
+    }
+
+    private static int surnameGroup(SnapshotContacts snapshot, int[] groupOfName, int index) {
+        int surname = snapshot.surname(index);
+        return surname == SnapshotContacts.NO_NAME ? SnapshotContacts.NO_NAME : groupOfName[surname];
+    }
+}
@@ -23,10 +23,17 @@ package com.programmingchronicles.tdd.addressbook.support;
 
 import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
 import com.programmingchronicles.tdd.addressbook.InvalidContactException;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
 import com.programmingchronicles.tdd.addressbook.InvalidIdException;
 import com.programmingchronicles.tdd.data.AddressBookDao;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.data.DataIntegrityDaoException;
 import com.programmingchronicles.tdd.domain.Contact;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Implementación de un servicio Agenda de Contactos Global basado en el
@@ -40,6 +47,13 @@ import java.util.List;
  * una buena decisión de diseño, sólo se implementa de esta forma para disponer de
  * un ejemplo TDD con lógica de negocio dependiente de lógica de persistencia.</p> 
  *
+ * <p>
+ * Para no recorrer todos los contactos de la BD en cada inserción, los
+ * duplicados se comprueban con una consulta por nombre normalizado
+ * ({@link AddressBookDao#existsContactName(String, String)}) que la BD
+ * resuelve con un índice. El índice es único, si otra aplicación inserta
+ * el mismo contacto entre la comprobación y la inserción la BD lo rechaza.</p>
+ *
  * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
  */
 public class DbAddressBook implements GlobalAddressBook {
@@ -56,20 +70,67 @@ public class DbAddressBook implements GlobalAddressBook {
      */
     @Override
     public String addContact(Contact contact) {      
-        if (contact.getFirstName() == null || contact.getFirstName().trim().length() < 1) {
-            throw new InvalidContactException();
-        }
+        return insert(normalized(contact, ValidContact.valueOf(contact)));
+    }
 
-        contact.setFirstName(contact.getFirstName().trim());
-        if (contact.getSurname() != null) {
-            contact.setSurname(contact.getSurname().trim());
-        }  
+    /**
+     * Añade un contacto ya validado devolviendo el id generado.
+     *
+     * @param contact Datos del contacto a añadir
+     * @return Devuelve el id asignado al contacto
+     */
+    @Override
+    public String addContact(ValidContact contact) {
+        return insert(contact.toContact());
+    }
 
-        if (checkDuplicate(contact)) {
+    /**
+     * Inserta el contacto, ya validado, si no existe otro con el mismo
+     * nombre.
+     */
+    private String insert(Contact contact) {
+        if (addressBookDao.existsContactName(contact.getFirstName(), contact.getSurname())) {
             throw new InvalidContactException();
         } 
 
-        return addressBookDao.addContact(contact);
+        try {
+            return addressBookDao.addContact(contact);
+        } catch (DataIntegrityDaoException ex) {
+            // Otra aplicación ha añadido el mismo contacto después
+            // de la comprobación anterior.
+            throw new InvalidContactException();
+        }
+    }
+
+    /**
+     * Añade todos los contactos entregados con una sola operación del DAO,
+     * devolviendo los ids generados en el mismo orden.
+     *
+     * <p>
+     * Los duplicados dentro de la colección se comprueban en memoria. Los
+     * duplicados con los contactos ya existentes no se consultan uno a uno,
+     * los rechaza el índice único de la BD y el DAO no inserta ninguno.</p>
+     *
+     * @param contacts Datos de los contactos a añadir
+     * @return Ids asignados a los contactos, en el orden de la colección.
+     */
+    @Override
+    public List<String> addContacts(Collection<Contact> contacts) {
+        Set<String> batchNames = new HashSet<String>();
+        List<Contact> normalizedContacts = new ArrayList<Contact>(contacts.size());
+        for (Contact contact : contacts) {
+            ValidContact validContact = ValidContact.valueOf(contact);
+            if (!batchNames.add(validContact.getNameKey())) {
+                throw new InvalidContactException();
+            }
+            normalizedContacts.add(normalized(contact, validContact));
+        }
+
+        try {
+            return addressBookDao.addContacts(normalizedContacts);
+        } catch (DataIntegrityDaoException ex) {
+            throw new InvalidContactException();
+        }
     }
 
     /**
@@ -115,43 +176,49 @@ public class DbAddressBook implements GlobalAddressBook {
         return addressBookDao.getAll();
     }
 
+    @Override
+    public List<Contact> getPage(String afterId, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+        return addressBookDao.getPage(afterId, pageSize);
+    }
+
+    @Override
+    public List<Contact> search(String prefix, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid search limit: " + limit);
+        }
+        return addressBookDao.search(prefix, limit);
+    }
+
+    @Override
+    public List<Contact> getByBirthday(int fromDay, int toDay) {
+        ContactBirthdayIndex.checkRange(fromDay, toDay);
+        return addressBookDao.getByBirthday(fromDay, toDay);
+    }
+
+    @Override
+    public CloseableIterator<Contact> iterateAll() {
+        return addressBookDao.iterateAll();
+    }
+
     @Override
     public void deleteContact(String id) {        
         addressBookDao.deleteContact(id);
     }
 
     /**
-     * Refactorización detectada por el test testAddDuplicateNameWithBlanks,
-     * ahora los datos llegan desde una BD, por tanto no se puede asegurar
-     * que siempre estén almacenados sin espacios.
-     *
-     * @param checkedContact
-     * @return
+     * Contacto que se entrega al DAO. El contacto del llamante no se
+     * modifica: si ya estaba normalizado se entrega el mismo, y si no una
+     * copia con los datos normalizados.
      */
-    private boolean checkDuplicate(Contact checkedContact) {       
-        String checkedFirstName = checkedContact.getFirstName();
-        String checkedSurname = checkedContact.getSurname();
-
-        List<Contact> contacts = addressBookDao.getAll();
-        for (Contact contact : contacts) {
-            // Refactorización detectada por el test testAddDuplicateNameWithBlanks,
-            // ahora los datos llegan desde una BD, por tanto no se puede asegurar
-            // que siempre estén almacenados sin espacios. Se añade trim().
-            String firstName = contact.getFirstName().trim();
-
-            String surname = contact.getSurname();
-            if(surname != null) {
-               surname = surname.trim();
-            }
-
-            if (checkedFirstName.equalsIgnoreCase(firstName)) {
-                if (checkedSurname != null) {
-                    return checkedSurname.equalsIgnoreCase(surname);
-                } else if (surname == null) {
-                    return true;
-                } 
-            }
-        } 
-        return false;
+    private static Contact normalized(Contact contact, ValidContact validContact) {
+        // String.trim devuelve el mismo objeto si no hay espacios.
+        if (validContact.getFirstName() == contact.getFirstName()
+                && validContact.getSurname() == contact.getSurname()) {
+            return contact;
+        }
+        return validContact.toContact();
     }
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.AsyncCallback;
+import com.programmingchronicles.tdd.addressbook.AsyncGlobalAddressBook;
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementación de {@link AsyncGlobalAddressBook} que ejecuta las
+ * operaciones de un GlobalAddressBook en un pool de threads propio.
+ *
+ * <p>
+ * Con una agenda basada en base de datos cada operación espera la respuesta
+ * de la BD. Si se ejecuta en el thread de la petición HTTP, el thread queda
+ * bloqueado sin hacer nada. Aquí la espera ocupa un thread del pool de la
+ * agenda, y el número de operaciones simultáneas contra la BD queda
+ * limitado al tamaño del pool, independientemente del número de peticiones.</p>
+ *
+ * <p>
+ * <b>CONTRAPRESIÓN</b><br/>
+ * La cola de operaciones pendientes tiene un tamaño máximo. Si está llena
+ * la operación se rechaza inmediatamente con una
+ * {@link RejectedExecutionException}, en lugar de acumular trabajo sin límite
+ * (y memoria) cuando la BD no da abasto. El cliente puede reintentar más
+ * tarde o responder que el servicio no está disponible.</p>
+ *
+ * <p>
+ * Los threads del pool son daemon, pero se deben parar con
+ * {@link #shutdown()} al terminar la aplicación.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class ExecutorAsyncAddressBook implements AsyncGlobalAddressBook {
+
+    /**
+     * Número de threads por defecto.
+     */
+    public static final int DEFAULT_THREADS = 8;
+
+    /**
+     * Número máximo de operaciones pendientes por defecto.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+
+    private final GlobalAddressBook addressBook;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Crea la agenda asíncrona con el número de threads y de operaciones
+     * pendientes por defecto.
+     *
+     * @param addressBook Agenda que ejecuta las operaciones.
+     */
+    public ExecutorAsyncAddressBook(GlobalAddressBook addressBook) {
+        this(addressBook, DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Crea la agenda asíncrona.
+     *
+     * @param addressBook Agenda que ejecuta las operaciones.
+     * @param threads Número de threads, y de operaciones simultáneas.
+     * @param queueCapacity Número máximo de operaciones esperando un thread.
+     */
+    public ExecutorAsyncAddressBook(GlobalAddressBook addressBook, int threads, int queueCapacity) {
+        if (threads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Invalid pool size: " + threads + ", " + queueCapacity);
+        }
+        this.addressBook = addressBook;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new AddressBookThreadFactory(),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                        // Tras shutdown no es contrapresión, no se cuenta.
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Address book is shut down");
+                        }
+                        rejected.incrementAndGet();
+                        throw new RejectedExecutionException("Address book queue is full");
+                    }
+                });
+    }
+
+    @Override
+    public Future<String> addContact(final Contact contact, AsyncCallback<String> callback) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return addressBook.addContact(contact);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<String> addContact(final ValidContact contact, AsyncCallback<String> callback) {
+        return submit(new Callable<String>() {
+            @Override
+            public String call() {
+                return addressBook.addContact(contact);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Contact> getContact(final String contactId, AsyncCallback<Contact> callback) {
+        return submit(new Callable<Contact>() {
+            @Override
+            public Contact call() {
+                return addressBook.getContact(contactId);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<List<Contact>> getAll(AsyncCallback<List<Contact>> callback) {
+        return submit(new Callable<List<Contact>>() {
+            @Override
+            public List<Contact> call() {
+                return addressBook.getAll();
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<List<Contact>> getPage(final String afterId, final int pageSize,
+                                         AsyncCallback<List<Contact>> callback) {
+        return submit(new Callable<List<Contact>>() {
+            @Override
+            public List<Contact> call() {
+                return addressBook.getPage(afterId, pageSize);
+            }
+        }, callback);
+    }
+
+    @Override
+    public Future<Void> deleteContact(final String id, AsyncCallback<Void> callback) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                addressBook.deleteContact(id);
+                return null;
+            }
+        }, callback);
+    }
+
+    /**
+     * Obtiene la agenda que ejecuta las operaciones.
+     *
+     * @return
+     */
+    public GlobalAddressBook getAddressBook() {
+        return addressBook;
+    }
+
+    /**
+     * Número de operaciones esperando un thread.
+     *
+     * @return
+     */
+    public int getQueueSize() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Número de operaciones en ejecución.
+     *
+     * @return
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Número de operaciones rechazadas por estar la cola llena. No incluye
+     * las rechazadas tras {@link #shutdown()}.
+     *
+     * @return
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Termina las operaciones pendientes y para los threads. Las nuevas
+     * operaciones se rechazan.
+     *
+     * @param timeoutMillis Tiempo máximo de espera de las operaciones
+     *        pendientes.
+     * @return false si no han terminado todas en el tiempo entregado.
+     * @throws InterruptedException
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Termina las operaciones pendientes sin esperar y para los threads.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Encola la operación. El callback se invoca desde el propio thread del
+     * pool al terminar, sin pasar por otra cola.
+     */
+    private <T> Future<T> submit(Callable<T> operation, final AsyncCallback<T> callback) {
+        FutureTask<T> task = new FutureTask<T>(operation) {
+            @Override
+            protected void done() {
+                if (callback == null || isCancelled()) {
+                    return;
+                }
+                T result;
+                try {
+                    result = get();
+                } catch (ExecutionException ex) {
+                    callback.onFailure(ex.getCause());
+                    return;
+                } catch (InterruptedException ex) {
+                    // No puede ocurrir, la tarea ya ha terminado.
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                callback.onSuccess(result);
+            }
+        };
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Threads daemon con nombre, para identificarlos en los volcados.
+     */
+    private static class AddressBookThreadFactory implements ThreadFactory {
+        private static final AtomicInteger pools = new AtomicInteger();
+
+        private final int pool = pools.incrementAndGet();
+        private final AtomicInteger threads = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "addressbook-" + pool + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.Date;
+
+/**
+ * Tabla de la suerte del horoscopo según el día de nacimiento.
+ *
+ * <p>
+ * Las reglas son las del horoscopo de la lección 1, la única referencia:
+ * {@code com.programmingchronicles.tdd.horoscope.Horoscope} del proyecto
+ * tdd-lesson-1/tdd-1-5-testcoverage, documentadas en su javadoc y validadas
+ * por los valores frontera de su TestHoroscope. Esta agenda no depende de
+ * la lección 1, así que aquí se repiten al construir la tabla, y
+ * TestHoroscopeLuck comprueba todas las entradas de la tabla contra ellas.
+ * Si cambian las reglas se deben cambiar en los dos sitios.</p>
+ *
+ * <p>
+ * La suerte solo depende del día del año y del día de la semana, así que
+ * las reglas se evalúan una sola vez al cargar la clase para las 366 x 7
+ * combinaciones y cada predicción es una consulta a la tabla. No guarda
+ * estado, se puede usar desde varios threads a la vez.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public final class HoroscopeLuck {
+
+    /**
+     * Suerte de los contactos sin fecha de nacimiento.
+     */
+    public static final int NO_LUCK = 0;
+
+    // Días del mes en un año bisiesto, como ContactValue.dayOfYear.
+    private static final int[] DAYS_IN_MONTH = { 31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+    // El 1/1/1970 fue jueves, y la semana empieza en domingo.
+    private static final int EPOCH_WEEK_DAY = 4;
+
+    // Suerte de cada día del año (ver ContactValue.dayOfYear) y día de la
+    // semana (0 es domingo): LUCK[(dayOfYear - 1) * 7 + weekDay].
+    private static final byte[] LUCK = buildLuckTable();
+
+    private HoroscopeLuck() {
+    }
+
+    /**
+     * Suerte de la fecha de nacimiento.
+     *
+     * @param birthday Fecha de nacimiento en la zona horaria por defecto.
+     * @return Suerte de 1 a 10, o {@link #NO_LUCK} si la fecha es null.
+     */
+    public static int predict(Date birthday) {
+        return predictEpochDay(ContactValue.toEpochDay(birthday));
+    }
+
+    /**
+     * Suerte de la fecha de nacimiento.
+     *
+     * @param epochDay Fecha de nacimiento en días desde el 1/1/1970.
+     * @return Suerte de 1 a 10, o {@link #NO_LUCK} si es
+     *         {@link ContactValue#NO_BIRTHDAY}.
+     */
+    public static int predictEpochDay(int epochDay) {
+        if (epochDay == ContactValue.NO_BIRTHDAY) {
+            return NO_LUCK;
+        }
+        int weekDay = ((epochDay + EPOCH_WEEK_DAY) % 7 + 7) % 7;
+        return LUCK[(ContactValue.toDayOfYear(epochDay) - 1) * 7 + weekDay];
+    }
+
+    private static byte[] buildLuckTable() {
+        byte[] table = new byte[ContactValue.DAYS_IN_YEAR * 7];
+        for (int month = 1; month <= 12; month++) {
+            for (int day = 1; day <= DAYS_IN_MONTH[month - 1]; day++) {
+                int dayOfYear = ContactValue.dayOfYear(month, day);
+                for (int weekDay = 0; weekDay < 7; weekDay++) {
+                    table[(dayOfYear - 1) * 7 + weekDay] = (byte) luck(month, day, weekDay == 0);
+                }
+            }
+        }
+        return table;
+    }
+
+    // Reglas de Horoscope.makePredictions de la lección 1.
+    private static int luck(int month, int day, boolean sunday) {
+        if (month >= 6 && month <= 8) {
+            // Verano
+            return sunday ? 10 : 8;
+        } else if (month == 12 || month <= 2) {
+            // Invierno
+            if ((month == 12 && day >= 25) || (month == 1 && day <= 6)) {
+                // Navidad
+                return 9;
+            }
+            return 6;
+        }
+        return 1;
+    }
+}
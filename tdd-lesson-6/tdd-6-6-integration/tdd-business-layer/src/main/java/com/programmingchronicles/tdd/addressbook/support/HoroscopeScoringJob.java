@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Trabajo que calcula la suerte del horoscopo de todos los contactos de
+ * una agenda.
+ *
+ * <p>
+ * Los contactos se leen con {@link GlobalAddressBook#iterateAll()} en
+ * bloques de <i>chunkSize</i>, sin tener toda la agenda en memoria. Cada
+ * bloque se reparte entre los threads de un ForkJoinPool, dividiéndolo en
+ * mitades hasta llegar a <i>threshold</i> contactos. Mientras el pool
+ * calcula un bloque se lee el siguiente de la agenda.</p>
+ *
+ * <p>
+ * La suerte se obtiene directamente de la fecha de cumpleaños con la tabla
+ * de {@link HoroscopeLuck}, sin convertirla a texto y volver a parsearla. Los
+ * contactos sin cumpleaños tienen {@link HoroscopeLuck#NO_LUCK}.</p>
+ *
+ * <p>
+ * El {@link ScoreHandler} recibe los bloques en el orden de la agenda y
+ * siempre desde el thread que invoca {@link #run}. Una misma instancia
+ * puede ejecutar el trabajo varias veces, pero no a la vez.</p>
+ *
+ * <p>
+ * El ForkJoinPool es del cliente, que lo puede compartir con otros trabajos
+ * y lo debe cerrar con <i>shutdown</i> cuando ya no lo necesite.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class HoroscopeScoringJob {
+
+    public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    /**
+     * Recibe la suerte de cada bloque de contactos.
+     */
+    public interface ScoreHandler {
+
+        /**
+         * @param contacts Contactos del bloque.
+         * @param luck Suerte de cada contacto, en la misma posición.
+         */
+        void onScores(List<Contact> contacts, int[] luck);
+    }
+
+    private final ForkJoinPool pool;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * @param pool Pool en el que se reparte cada bloque, el trabajo no lo
+     *        cierra.
+     */
+    public HoroscopeScoringJob(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("Pool is required");
+        }
+        this.pool = pool;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * @param chunkSize Número de contactos que se leen de la agenda en cada
+     *        bloque.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @param threshold Número de contactos a partir del cual una tarea se
+     *        divide en dos.
+     */
+    public void setThreshold(int threshold) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("Invalid threshold: " + threshold);
+        }
+        this.threshold = threshold;
+    }
+
+    /**
+     * Calcula la suerte de todos los contactos de la agenda.
+     *
+     * @param addressBook Agenda de la que se leen los contactos.
+     * @param handler Recibe la suerte de cada bloque, puede ser null si solo
+     *        interesa el informe.
+     * @return Informe con los totales y el rendimiento.
+     */
+    public Report run(GlobalAddressBook addressBook, ScoreHandler handler) {
+        Report report = new Report();
+        long begin = System.nanoTime();
+
+        CloseableIterator<Contact> contacts = addressBook.iterateAll();
+        // Bloque enviado al pool que aún no se ha entregado al handler.
+        ScoreTask pending = null;
+        try {
+            Contact[] chunk = readChunk(contacts);
+            while (chunk.length > 0) {
+                ScoreTask task = new ScoreTask(chunk, new int[chunk.length], 0, chunk.length);
+                pool.execute(task);
+
+                ScoreTask previous = pending;
+                pending = task;
+                if (previous != null) {
+                    complete(previous, handler, report);
+                }
+                chunk = readChunk(contacts);
+            }
+            if (pending != null) {
+                ScoreTask last = pending;
+                pending = null;
+                complete(last, handler, report);
+            }
+        } finally {
+            // Si falla el handler o la lectura, el bloque enviado ya no se
+            // entrega: se cancela para no ocupar el pool, que es del cliente.
+            if (pending != null) {
+                pending.cancel(false);
+            }
+            contacts.close();
+        }
+
+        report.elapsedNanos = System.nanoTime() - begin;
+        return report;
+    }
+
+    private Contact[] readChunk(CloseableIterator<Contact> contacts) {
+        Contact[] chunk = new Contact[chunkSize];
+        int size = 0;
+        while (size < chunkSize && contacts.hasNext()) {
+            chunk[size++] = contacts.next();
+        }
+        return size == chunkSize ? chunk : Arrays.copyOf(chunk, size);
+    }
+
+    private void complete(ScoreTask task, ScoreHandler handler, Report report) {
+        task.join();
+        for (int luck : task.luck) {
+            report.luckCount[luck]++;
+        }
+        report.contacts += task.luck.length;
+        if (handler != null) {
+            handler.onScores(Arrays.asList(task.contacts), task.luck);
+        }
+    }
+
+    /**
+     * Calcula la suerte de un rango de un bloque, dividiéndolo en dos
+     * tareas si supera el umbral.
+     */
+    private class ScoreTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Contact[] contacts;
+        private final int[] luck;
+        private final int from;
+        private final int to;
+
+        ScoreTask(Contact[] contacts, int[] luck, int from, int to) {
+            this.contacts = contacts;
+            this.luck = luck;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= threshold) {
+                for (int i = from; i < to; i++) {
+                    luck[i] = HoroscopeLuck.predict(contacts[i].getBirthday());
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ScoreTask(contacts, luck, from, middle),
+                          new ScoreTask(contacts, luck, middle, to));
+            }
+        }
+    }
+
+    /**
+     * Totales y rendimiento de una ejecución del trabajo.
+     */
+    public static class Report {
+        private final long[] luckCount = new long[11];
+        private long contacts;
+        private long elapsedNanos;
+
+        /**
+         * @return Número de contactos procesados.
+         */
+        public long getContacts() {
+            return contacts;
+        }
+
+        /**
+         * @return Número de contactos sin cumpleaños.
+         */
+        public long getWithoutBirthday() {
+            return luckCount[HoroscopeLuck.NO_LUCK];
+        }
+
+        /**
+         * @param luck Suerte de 1 a 10, o {@link HoroscopeLuck#NO_LUCK}.
+         * @return Número de contactos con esa suerte.
+         */
+        public long getLuckCount(int luck) {
+            if (luck < 0 || luck >= luckCount.length) {
+                throw new IllegalArgumentException("Invalid luck: " + luck);
+            }
+            return luckCount[luck];
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1000000;
+        }
+
+        /**
+         * @return Contactos procesados por segundo, incluida la lectura de
+         *         la agenda.
+         */
+        public long getContactsPerSecond() {
+            return elapsedNanos == 0 ? 0 : contacts * 1000000000L / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d contacts (%d without birthday) in %d ms, %d contacts/s",
+                                 contacts, getWithoutBirthday(), getElapsedMillis(),
+                                 getContactsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Grupo de ids en orden natural que usan los índices secundarios.
+ *
+ * <p>
+ * Los ids se guardan en un array ordenado que se sustituye por una copia en
+ * cada modificación (copy-on-write), como en CopyOnWriteArrayList. Un grupo
+ * ocupa una referencia por id en lugar de un nodo de skip list, y un grupo
+ * con todos sus ids se construye sin copiarlos. A cambio añadir o eliminar
+ * un id copia el grupo, que es pequeño frente al número total de
+ * contactos.</p>
+ *
+ * <p>
+ * El grupo es thread-safe: las modificaciones están sincronizadas y las
+ * lecturas obtienen siempre un array completo que no se vuelve a
+ * modificar.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+final class IdGroup {
+
+    private static final String[] EMPTY = new String[0];
+
+    private volatile String[] ids;
+
+    IdGroup() {
+        ids = EMPTY;
+    }
+
+    private IdGroup(String[] ids) {
+        this.ids = ids;
+    }
+
+    /**
+     * Construye un grupo con los ids entregados.
+     *
+     * @param ids Ids del grupo sin repetidos, el array pasa a ser del grupo.
+     * @param sorted true si ya están en orden natural, en otro caso se
+     *        ordenan.
+     * @return
+     */
+    static IdGroup of(String[] ids, boolean sorted) {
+        if (!sorted) {
+            Arrays.sort(ids);
+        }
+        return new IdGroup(ids);
+    }
+
+    /**
+     * Añade el id al grupo si no estaba.
+     *
+     * @param id
+     */
+    synchronized void add(String id) {
+        String[] current = ids;
+        int index = Arrays.binarySearch(current, id);
+        if (index < 0) {
+            index = -index - 1;
+            String[] result = new String[current.length + 1];
+            System.arraycopy(current, 0, result, 0, index);
+            result[index] = id;
+            System.arraycopy(current, index, result, index + 1, current.length - index);
+            ids = result;
+        }
+    }
+
+    /**
+     * Elimina el id del grupo si estaba.
+     *
+     * @param id
+     */
+    synchronized void remove(String id) {
+        String[] current = ids;
+        int index = Arrays.binarySearch(current, id);
+        if (index >= 0) {
+            String[] result = new String[current.length - 1];
+            System.arraycopy(current, 0, result, 0, index);
+            System.arraycopy(current, index + 1, result, index, result.length - index);
+            ids = result;
+        }
+    }
+
+    /**
+     * Elimina todos los ids del grupo.
+     */
+    synchronized void clear() {
+        ids = EMPTY;
+    }
+
+    /**
+     * Ids del grupo en orden natural. El array no se modifica, y no se debe
+     * modificar.
+     *
+     * @return
+     */
+    String[] ids() {
+        return ids;
+    }
+
+    /**
+     * Añade los ids del grupo, en orden, a la colección entregada.
+     *
+     * @param result
+     */
+    void addTo(Collection<String> result) {
+        for (String id : ids) {
+            result.add(id);
+        }
+    }
+}
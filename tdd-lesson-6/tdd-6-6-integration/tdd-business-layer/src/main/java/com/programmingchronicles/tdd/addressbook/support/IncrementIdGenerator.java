@@ -22,18 +22,78 @@
 package com.programmingchronicles.tdd.addressbook.support;
 
 import com.programmingchronicles.tdd.addressbook.IdGenerator;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Implementación de IdGenerator basado en el incremento secuencial
- * de un atributo estatico.
+ * de un contador estatico.
+ *
+ * <p>
+ * <b>CONCURRENCIA</b><br/>
+ * El generador es thread-safe y no usa locks. Para que el contador global
+ * no sea un punto de contención entre threads, cada thread reserva bloques
+ * de {@link #BLOCK_SIZE} ids del contador global y los entrega localmente,
+ * solo accede al contador compartido una vez por bloque.</p>
+ *
+ * <p>
+ * Los ids de un mismo thread son crecientes, pero los ids de distintos
+ * threads se intercalan, ya no son una secuencia global sin huecos. Los
+ * ids son de 64 bits, no hay desbordamiento en la práctica.</p>
  * 
  * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
  */
 public class IncrementIdGenerator implements IdGenerator {
-    static int nextId = 0;
+
+    /**
+     * Número de ids que reserva cada thread en cada acceso al contador global.
+     */
+    public static final int BLOCK_SIZE = 1024;
+
+    // Comienzo del siguiente bloque libre. Es estatico, distintas
+    // instancias deben generar ids distintos.
+    private static final AtomicLong nextBlock = new AtomicLong();
+
+    // Último id descartado por skipTo. Los bloques ya reservados por los
+    // threads que no lo superan se descartan.
+    private static final AtomicLong skippedId = new AtomicLong(-1);
+
+    // Bloque reservado por cada thread: {siguiente id, fin del bloque}.
+    private static final ThreadLocal<long[]> threadBlock = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
 
     @Override
     public String newId() {
-        return Integer.toString(nextId++);
+        long[] block = threadBlock.get();
+        if (block[0] == block[1] || block[0] <= skippedId.get()) {
+            // Bloque agotado (o primer uso en este thread, o descartado por
+            // skipTo), se reserva otro.
+            block[0] = nextBlock.getAndAdd(BLOCK_SIZE);
+            block[1] = block[0] + BLOCK_SIZE;
+        }
+        return Long.toString(block[0]++);
+    }
+
+    /**
+     * Asegura que todos los ids generados a partir de ahora sean mayores
+     * que el entregado, por ejemplo tras cargar contactos con ids ya
+     * asignados. Se debe invocar antes de empezar a generar ids, los ids
+     * que se estén generando a la vez en otros threads no se ven afectados.
+     *
+     * @param id Último id que no se debe volver a generar.
+     */
+    public void skipTo(long id) {
+        long next;
+        do {
+            next = nextBlock.get();
+        } while (next <= id && !nextBlock.compareAndSet(next, id + 1));
+
+        long skipped;
+        do {
+            skipped = skippedId.get();
+        } while (skipped < id && !skippedId.compareAndSet(skipped, id));
     }
 }
@@ -0,0 +1,979 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.addressbook.InvalidContactException;
+import com.programmingchronicles.tdd.addressbook.InvalidIdException;
+import com.programmingchronicles.tdd.addressbook.StorageException;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Implementación de un servicio Agenda de Contactos Global persistente, sin
+ * base de datos, basada en un fichero de log mapeado en memoria.
+ *
+ * <p>
+ * <b>FICHERO</b><br/>
+ * Todas las modificaciones se añaden al final del fichero (<i>append-only</i>)
+ * como registros, nunca se modifica un registro escrito:</p>
+ *
+ * <pre>
+ *   [longitud int][tipo byte][datos][CRC32 int]
+ *
+ *   ADD:     [número de contactos int][contacto]...
+ *   DELETE:  [id long]
+ *   NEXT_ID: [siguiente id long]
+ *
+ *   contacto: [id long][cumpleaños int][nombre][apellido][teléfono]
+ *   texto:    [longitud int, -1 si es null][bytes UTF-8]
+ * </pre>
+ *
+ * <p>
+ * Un {@link #addContacts(Collection)} se escribe en un único registro, y
+ * un registro con el CRC incorrecto o incompleto (la aplicación terminó
+ * mientras se escribía) se considera el final del log. Tras una caída se
+ * recuperan todas las operaciones completas, y ninguna a medias.</p>
+ *
+ * <p>
+ * Al recorrer el log el siguiente id es el mayor id escrito más uno. La
+ * compactación elimina los registros de los contactos borrados, por eso el
+ * log compactado empieza con un registro NEXT_ID que conserva el siguiente
+ * id y los ids de contactos eliminados nunca se reutilizan.</p>
+ *
+ * <p>
+ * <b>LECTURAS</b><br/>
+ * El fichero se mapea en memoria ({@link MappedByteBuffer}). Al abrirlo se
+ * recorre el log y se construye un índice en memoria del id a la posición
+ * del contacto en el fichero; las lecturas leen directamente del mapeo, que
+ * el sistema operativo mantiene en su caché de páginas. Los Contacts
+ * entregados son del cliente, modificarlos no afecta a la agenda. Las
+ * búsquedas por nombre y por cumpleaños usan también índices en memoria
+ * ({@link ContactPrefixIndex} y {@link ContactBirthdayIndex}).</p>
+ *
+ * <p>
+ * <b>COMPACTACION</b><br/>
+ * Los contactos eliminados siguen ocupando espacio en el log. Cuando el
+ * espacio desperdiciado supera una proporción del log (ver
+ * {@link #setCompactionRatio(double)}) se reescribe el log con solo los
+ * contactos existentes en un fichero temporal, que sustituye al original
+ * con un rename atómico. Si la aplicación termina durante la compactación
+ * el log original no se ha modificado.</p>
+ *
+ * <p>
+ * <b>DURABILIDAD</b><br/>
+ * Por defecto cada escritura se fuerza al disco antes de terminar
+ * ({@link #setSyncOnWrite(boolean)}). Sin ella los datos sobreviven a la
+ * caída de la aplicación, pero no a la del sistema operativo.</p>
+ *
+ * <p>
+ * El fichero se mapea en bloques cada vez mayores y puede ser mayor que los
+ * datos, el resto está a ceros. El tamaño máximo del log es de 2GB.</p>
+ *
+ * <p>
+ * <b>CONCURRENCIA</b><br/>
+ * Es thread-safe. Las lecturas comparten un read lock y las escrituras
+ * usan el write lock. El fichero solo debe abrirlo una instancia.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class LogAddressBook implements GlobalAddressBook {
+
+    /**
+     * Tamaño mínimo del mapeo del fichero.
+     */
+    public static final int DEFAULT_MAPPED_SIZE = 1024 * 1024;
+
+    /**
+     * Proporción de espacio desperdiciado en el log a partir de la cual se
+     * compacta.
+     */
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+
+    /**
+     * Espacio desperdiciado mínimo para compactar, en bytes.
+     */
+    public static final long DEFAULT_COMPACTION_MIN_BYTES = 1024 * 1024;
+
+    // "TPCABLOG", identifica el formato del fichero.
+    private static final long MAGIC = 0x54504341424C4F47L;
+    private static final int HEADER_BYTES = 8;
+
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+    private static final byte NEXT_ID = 3;
+
+    // Bytes de un registro además de los datos: longitud, tipo y CRC.
+    private static final int RECORD_OVERHEAD = 4 + 1 + 4;
+
+    private static final int NULL_LENGTH = -1;
+
+    private final File file;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    // Fin de los datos válidos del log.
+    private int end;
+
+    // Bytes del log ocupados por contactos eliminados y registros DELETE.
+    private long garbageBytes;
+
+    private long nextId;
+    private long compactions;
+
+    // Posición en el log de cada contacto existente, por id.
+    private ConcurrentNavigableMap<Long, Integer> offsets = new ConcurrentSkipListMap<Long, Integer>();
+
+    // Índice secundario para la detección de duplicados.
+    private ContactNameIndex nameIndex = new ContactNameIndex();
+
+    // Índice ordenado para las búsquedas por nombre.
+    private ContactPrefixIndex prefixIndex = new ContactPrefixIndex();
+
+    // Índice por día del cumpleaños.
+    private ContactBirthdayIndex birthdayIndex = new ContactBirthdayIndex();
+
+    private volatile boolean syncOnWrite = true;
+    private volatile double compactionRatio = DEFAULT_COMPACTION_RATIO;
+    private volatile long compactionMinBytes = DEFAULT_COMPACTION_MIN_BYTES;
+
+    /**
+     * Abre el log, creándolo si no existe, y reconstruye el índice.
+     *
+     * @param file Fichero del log.
+     * @throws StorageException Si no se puede abrir o no es un log válido.
+     */
+    public LogAddressBook(File file) {
+        this.file = file;
+        try {
+            open();
+        } catch (IOException ex) {
+            closeQuietly();
+            throw new StorageException("Cannot open " + file, ex);
+        } catch (RuntimeException ex) {
+            closeQuietly();
+            throw ex;
+        }
+    }
+
+    /**
+     * Añade un nuevo contacto devolviendo el id generado.
+     *
+     * @param contact Datos del contacto a añadir
+     * @return Devuelve el id asignado al contacto
+     */
+    @Override
+    public String addContact(Contact contact) {
+        String id = addContact(ValidContact.valueOf(contact));
+        contact.setId(id);
+        return id;
+    }
+
+    /**
+     * Añade un contacto ya validado devolviendo el id generado.
+     *
+     * @param contact Datos del contacto a añadir
+     * @return Devuelve el id asignado al contacto
+     */
+    @Override
+    public String addContact(ValidContact contact) {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            if (nameIndex.containsKey(contact.getNameKey())) {
+                throw new InvalidContactException();
+            }
+            return appendContacts(new ValidContact[] { contact }).get(0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Añade todos los contactos entregados, devolviendo los ids generados
+     * en el mismo orden. Se escriben en un único registro, si alguno no es
+     * válido, o la aplicación termina durante la escritura, no se añade
+     * ninguno.
+     *
+     * @param contacts Datos de los contactos a añadir
+     * @return Ids asignados a los contactos, en el orden de la colección.
+     */
+    @Override
+    public List<String> addContacts(Collection<Contact> contacts) {
+        ValidContact[] validContacts = new ValidContact[contacts.size()];
+        Set<String> batchNames = new HashSet<String>();
+        int n = 0;
+        for (Contact contact : contacts) {
+            ValidContact validContact = ValidContact.valueOf(contact);
+            if (!batchNames.add(validContact.getNameKey())) {
+                throw new InvalidContactException();
+            }
+            validContacts[n++] = validContact;
+        }
+        if (contacts.isEmpty()) {
+            return new ArrayList<String>();
+        }
+
+        List<String> ids;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            for (ValidContact contact : validContacts) {
+                if (nameIndex.containsKey(contact.getNameKey())) {
+                    throw new InvalidContactException();
+                }
+            }
+            ids = appendContacts(validContacts);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        int i = 0;
+        for (Contact contact : contacts) {
+            contact.setId(ids.get(i++));
+        }
+        return ids;
+    }
+
+    /**
+     * Obtiene el contacto asociado al id entregado.
+     *
+     * @param contactId id del contacto
+     * @return Devuelve el contacto
+     */
+    @Override
+    public Contact getContact(String contactId) {
+        long id = parseId(contactId);
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            Integer offset = offsets.get(id);
+            if (offset == null) {
+                throw new InvalidIdException();
+            }
+            return readContact(offset);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Obtiene todos los contactos del sistema.
+     *
+     * @return
+     */
+    @Override
+    public List<Contact> getAll() {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            List<Contact> contacts = new ArrayList<Contact>();
+            for (Integer offset : offsets.values()) {
+                contacts.add(readContact(offset));
+            }
+            return contacts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Contact> getPage(String afterId, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+
+        List<Contact> page = new ArrayList<Contact>();
+        long after = afterId == null ? -1 : parseId(afterId);
+        if (afterId != null && after < 0) {
+            // Un cursor que no es un id de esta agenda.
+            return page;
+        }
+
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            // El cursor no tiene por que existir (puede haberse eliminado),
+            // la página empieza en el siguiente id en orden.
+            for (Integer offset : offsets.tailMap(after, false).values()) {
+                if (page.size() == pageSize) {
+                    break;
+                }
+                page.add(readContact(offset));
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Contact> search(String prefix, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid search limit: " + limit);
+        }
+
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return readContacts(prefixIndex.search(prefix, limit));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Contact> getByBirthday(int fromDay, int toDay) {
+        ContactBirthdayIndex.checkRange(fromDay, toDay);
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            return readContacts(birthdayIndex.get(fromDay, toDay));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Recorre los contactos en orden de id, leyendo cada uno del log solo
+     * cuando se pide. No falla si se modifica la agenda durante el recorrido,
+     * ni si se compacta el log.
+     */
+    @Override
+    public CloseableIterator<Contact> iterateAll() {
+        final Iterator<Long> ids = offsets.keySet().iterator();
+        return new CloseableIterator<Contact>() {
+            private Contact next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && ids.hasNext()) {
+                    Long id = ids.next();
+                    lock.readLock().lock();
+                    try {
+                        ensureOpen();
+                        // La posición se consulta en cada paso, la
+                        // compactación cambia las posiciones.
+                        Integer offset = offsets.get(id);
+                        if (offset != null) {
+                            next = readContact(offset);
+                        }
+                    } finally {
+                        lock.readLock().unlock();
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Contact next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Contact result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void deleteContact(String contactId) {
+        long id = parseId(contactId);
+
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            Integer offset = offsets.get(id);
+            if (offset == null) {
+                return;
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_OVERHEAD + 8);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(DELETE);
+            out.writeLong(id);
+            append(bytes.toByteArray());
+
+            Contact removed = readContact(offset);
+            offsets.remove(id);
+            nameIndex.remove(removed.getId(), removed);
+            prefixIndex.remove(removed.getId(), removed.getFirstName(), removed.getSurname());
+            birthdayIndex.remove(removed.getId(), ContactValue.toEpochDay(removed.getBirthday()));
+            garbageBytes += contactEnd(offset) - offset + RECORD_OVERHEAD + 8;
+
+            if (garbageBytes >= compactionMinBytes
+                    && garbageBytes > compactionRatio * (end - HEADER_BYTES)) {
+                compactLog();
+            }
+        } catch (IOException ex) {
+            throw new StorageException("Cannot write " + file, ex);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reescribe el log solo con los contactos existentes, sin esperar a
+     * que el espacio desperdiciado supere el límite configurado.
+     */
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            compactLog();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Fuerza los datos al disco y cierra el fichero. Después ya no se
+     * puede usar la agenda.
+     */
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if (channel != null) {
+                buffer.force();
+                channel.close();
+            }
+        } catch (IOException ex) {
+            throw new StorageException("Cannot close " + file, ex);
+        } finally {
+            channel = null;
+            buffer = null;
+            lock.writeLock().unlock();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Número de contactos de la agenda.
+     *
+     * @return
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return offsets.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Tamaño de los datos del log, en bytes.
+     *
+     * @return
+     */
+    public long getLogBytes() {
+        lock.readLock().lock();
+        try {
+            return end;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Bytes del log ocupados por contactos eliminados, que se recuperan
+     * al compactar.
+     *
+     * @return
+     */
+    public long getGarbageBytes() {
+        lock.readLock().lock();
+        try {
+            return garbageBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Número de compactaciones realizadas desde que se abrió el log.
+     *
+     * @return
+     */
+    public long getCompactions() {
+        lock.readLock().lock();
+        try {
+            return compactions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isSyncOnWrite() {
+        return syncOnWrite;
+    }
+
+    /**
+     * Configura si cada escritura se fuerza al disco antes de terminar.
+     *
+     * @param syncOnWrite
+     */
+    public void setSyncOnWrite(boolean syncOnWrite) {
+        this.syncOnWrite = syncOnWrite;
+    }
+
+    public double getCompactionRatio() {
+        return compactionRatio;
+    }
+
+    /**
+     * Configura la proporción de espacio desperdiciado en el log a partir de
+     * la cual se compacta automáticamente.
+     *
+     * @param compactionRatio Entre 0 y 1.
+     */
+    public void setCompactionRatio(double compactionRatio) {
+        if (compactionRatio < 0 || compactionRatio > 1) {
+            throw new IllegalArgumentException("Invalid compaction ratio: " + compactionRatio);
+        }
+        this.compactionRatio = compactionRatio;
+    }
+
+    public long getCompactionMinBytes() {
+        return compactionMinBytes;
+    }
+
+    /**
+     * Configura el espacio desperdiciado mínimo para compactar
+     * automáticamente, evita compactar logs pequeños.
+     *
+     * @param compactionMinBytes
+     */
+    public void setCompactionMinBytes(long compactionMinBytes) {
+        this.compactionMinBytes = compactionMinBytes;
+    }
+
+    private void open() throws IOException {
+        // Una compactación interrumpida, el log original está intacto.
+        File compactFile = compactFile();
+        if (compactFile.exists() && !compactFile.delete()) {
+            throw new IOException("Cannot delete " + compactFile);
+        }
+
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        long size = channel.size();
+        map(Math.max(size, DEFAULT_MAPPED_SIZE));
+
+        if (size == 0) {
+            buffer.putLong(0, MAGIC);
+            end = HEADER_BYTES;
+            buffer.force();
+        } else {
+            if (size < HEADER_BYTES || buffer.getLong(0) != MAGIC) {
+                throw new StorageException(file + " is not an address book log");
+            }
+            replay();
+        }
+    }
+
+    /**
+     * Recorre el log aplicando los registros al índice, hasta el primer
+     * registro incompleto o con el CRC incorrecto.
+     */
+    private void replay() {
+        int position = HEADER_BYTES;
+        int recordEnd;
+        while ((recordEnd = validRecordEnd(position)) > 0) {
+            apply(position, recordEnd);
+            position = recordEnd;
+        }
+        end = position;
+
+        // Restos de un registro a medio escribir. Se borran para que una
+        // escritura posterior más corta no deje detrás datos sin sentido.
+        if (end + 4 <= buffer.capacity() && buffer.getInt(end) != 0) {
+            byte[] zeros = new byte[8192];
+            ByteBuffer tail = buffer.duplicate();
+            tail.position(end);
+            while (tail.hasRemaining()) {
+                tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+            }
+            buffer.force();
+        }
+    }
+
+    /**
+     * Devuelve el final del registro que empieza en la posición entregada,
+     * o -1 si no hay un registro completo y correcto.
+     */
+    private int validRecordEnd(int position) {
+        int limit = buffer.capacity();
+        if (position > limit - 4) {
+            return -1;
+        }
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > limit - position - 8) {
+            return -1;
+        }
+        if (crc(position + 4, length) != buffer.getInt(position + 4 + length)) {
+            return -1;
+        }
+        return position + 8 + length;
+    }
+
+    private void apply(int position, int recordEnd) {
+        int data = position + 5;
+        byte type = buffer.get(position + 4);
+        if (type == ADD) {
+            int count = buffer.getInt(data);
+            int offset = data + 4;
+            for (int i = 0; i < count; i++) {
+                Contact contact = readContact(offset);
+                long id = Long.parseLong(contact.getId());
+                offsets.put(id, offset);
+                nameIndex.add(contact.getId(), contact);
+                prefixIndex.add(contact.getId(), contact.getFirstName(), contact.getSurname());
+                birthdayIndex.add(contact.getId(), ContactValue.toEpochDay(contact.getBirthday()));
+                nextId = Math.max(nextId, id + 1);
+                offset = contactEnd(offset);
+            }
+        } else if (type == DELETE) {
+            long id = buffer.getLong(data);
+            Integer offset = offsets.remove(id);
+            if (offset != null) {
+                Contact removed = readContact(offset);
+                nameIndex.remove(removed.getId(), removed);
+                prefixIndex.remove(removed.getId(), removed.getFirstName(), removed.getSurname());
+                birthdayIndex.remove(removed.getId(), ContactValue.toEpochDay(removed.getBirthday()));
+                garbageBytes += contactEnd(offset) - offset;
+            }
+            garbageBytes += recordEnd - position;
+        } else if (type == NEXT_ID) {
+            nextId = Math.max(nextId, buffer.getLong(data));
+        } else {
+            throw new StorageException("Unknown record type " + type + " in " + file);
+        }
+    }
+
+    /**
+     * Escribe un registro ADD con los contactos y los añade al índice. Se
+     * debe invocar con el write lock.
+     */
+    private List<String> appendContacts(ValidContact[] contacts) {
+        int count = contacts.length;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * count);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(ADD);
+            out.writeInt(count);
+
+            int[] contactOffsets = new int[count];
+            for (int i = 0; i < count; i++) {
+                contactOffsets[i] = out.size();
+                writeContact(out, nextId + i, contacts[i]);
+            }
+
+            // Los contactos empiezan después de la longitud del registro.
+            int recordStart = append(bytes.toByteArray());
+
+            List<String> ids = new ArrayList<String>(count);
+            for (int i = 0; i < count; i++) {
+                long id = nextId++;
+                String idString = Long.toString(id);
+                offsets.put(id, recordStart + 4 + contactOffsets[i]);
+                nameIndex.addKey(idString, contacts[i].getNameKey());
+                prefixIndex.add(idString, contacts[i].getFirstName(), contacts[i].getSurname());
+                birthdayIndex.add(idString, contacts[i].getBirthdayEpochDay());
+                ids.add(idString);
+            }
+            return ids;
+        } catch (IOException ex) {
+            throw new StorageException("Cannot write " + file, ex);
+        }
+    }
+
+    /**
+     * Lee los contactos de los ids entregados, en el mismo orden. Se debe
+     * invocar con el read lock.
+     */
+    private List<Contact> readContacts(List<String> ids) {
+        List<Contact> result = new ArrayList<Contact>(ids.size());
+        for (String id : ids) {
+            result.add(readContact(offsets.get(Long.parseLong(id))));
+        }
+        return result;
+    }
+
+    private static void writeContact(DataOutputStream out, long id, ValidContact contact) throws IOException {
+        out.writeLong(id);
+        out.writeInt(contact.getBirthdayEpochDay());
+        writeString(out, contact.getFirstName());
+        writeString(out, contact.getSurname());
+        writeString(out, contact.getPhone());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Añade un registro al final del log. La longitud se escribe la última,
+     * y el CRC detecta el registro si solo llegó a escribirse una parte.
+     *
+     * @param data Tipo y datos del registro.
+     * @return Posición del registro en el log.
+     */
+    private int append(byte[] data) throws IOException {
+        int recordStart = end;
+        int recordEnd = recordStart + 8 + data.length;
+        if (recordEnd < 0) {
+            throw new StorageException("Log file " + file + " is full");
+        }
+        if (recordEnd > buffer.capacity()) {
+            buffer.force();
+            map(Math.max(recordEnd, buffer.capacity() * 2L));
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+
+        ByteBuffer target = buffer.duplicate();
+        target.position(recordStart + 4);
+        target.put(data);
+        target.putInt((int) crc.getValue());
+        buffer.putInt(recordStart, data.length);
+
+        if (syncOnWrite) {
+            buffer.force();
+        }
+        end = recordEnd;
+        return recordStart;
+    }
+
+    private void map(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            size = Integer.MAX_VALUE;
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Lee el contacto que empieza en la posición entregada. Cada lectura
+     * usa su propia vista del mapeo, se puede invocar desde varios threads.
+     */
+    private Contact readContact(int offset) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+
+        Contact contact = new Contact();
+        contact.setId(Long.toString(in.getLong()));
+        contact.setBirthday(ContactValue.toDate(in.getInt()));
+        contact.setFirstName(readString(in));
+        contact.setSurname(readString(in));
+        contact.setPhone(readString(in));
+        return contact;
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int contactEnd(int offset) {
+        int position = offset + 8 + 4;
+        for (int i = 0; i < 3; i++) {
+            int length = buffer.getInt(position);
+            position += 4 + (length == NULL_LENGTH ? 0 : length);
+        }
+        return position;
+    }
+
+    private int crc(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        in.get(bytes);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Reescribe el log con un registro NEXT_ID y un registro por cada
+     * contacto existente, en un fichero temporal que después sustituye al
+     * log. Se debe invocar con el write lock.
+     */
+    private void compactLog() {
+        File compactFile = compactFile();
+        ConcurrentNavigableMap<Long, Integer> newOffsets = new ConcurrentSkipListMap<Long, Integer>();
+        int newEnd = HEADER_BYTES;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(compactFile);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 65536));
+                out.writeLong(MAGIC);
+
+                // Sin él, al reabrir se reutilizarían los ids de los
+                // últimos contactos eliminados.
+                CRC32 crc = new CRC32();
+                byte[] nextIdData = new byte[1 + 8];
+                ByteBuffer.wrap(nextIdData).put(NEXT_ID).putLong(nextId);
+                crc.update(nextIdData, 0, nextIdData.length);
+                out.writeInt(nextIdData.length);
+                out.write(nextIdData);
+                out.writeInt((int) crc.getValue());
+                newEnd += 8 + nextIdData.length;
+
+                for (Map.Entry<Long, Integer> entry : offsets.entrySet()) {
+                    int offset = entry.getValue();
+                    int length = contactEnd(offset) - offset;
+
+                    // El contacto se copia tal cual, ya está codificado.
+                    byte[] data = new byte[5 + length];
+                    data[0] = ADD;
+                    data[4] = 1;
+                    ByteBuffer in = buffer.duplicate();
+                    in.position(offset);
+                    in.get(data, 5, length);
+                    crc.reset();
+                    crc.update(data, 0, data.length);
+
+                    out.writeInt(data.length);
+                    out.write(data);
+                    out.writeInt((int) crc.getValue());
+
+                    newOffsets.put(entry.getKey(), newEnd + 4 + 5);
+                    newEnd += 8 + data.length;
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            } finally {
+                fileOut.close();
+            }
+
+            // Hasta aquí el log original no se ha modificado.
+            buffer.force();
+            channel.close();
+            Files.move(compactFile.toPath(), file.toPath(),
+                       StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            map(Math.max(Math.max(newEnd * 2L, channel.size()), DEFAULT_MAPPED_SIZE));
+        } catch (IOException ex) {
+            closeQuietly();
+            throw new StorageException("Cannot compact " + file, ex);
+        }
+
+        offsets = newOffsets;
+        end = newEnd;
+        garbageBytes = 0;
+        compactions++;
+    }
+
+    private File compactFile() {
+        return new File(file.getPath() + ".compact");
+    }
+
+    private void ensureOpen() {
+        if (channel == null) {
+            throw new IllegalStateException("Address book is closed");
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            // Ya se está informando de otro error.
+        }
+        channel = null;
+        buffer = null;
+    }
+
+    /**
+     * Convierte el id en long, o -1 si no es un id de esta agenda.
+     */
+    private static long parseId(String contactId) {
+        if (contactId == null) {
+            return -1;
+        }
+        try {
+            long id = Long.parseLong(contactId);
+            // "007" o "+7" no son el id 7.
+            return id >= 0 && Long.toString(id).equals(contactId) ? id : -1;
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+}
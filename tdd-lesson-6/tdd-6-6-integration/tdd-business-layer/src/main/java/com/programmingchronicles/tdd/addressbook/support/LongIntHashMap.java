@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import java.util.Arrays;
+
+/**
+ * Mapa de claves long a valores int con arrays de tipos primitivos.
+ *
+ * <p>
+ * Un HashMap&lt;Long, Integer&gt; necesita por cada entrada un objeto Entry,
+ * un Long y un Integer, unos 60-70 bytes y tres objetos que el GC tiene que
+ * recorrer. Este mapa usa direccionamiento abierto con sondeo lineal sobre
+ * dos arrays (claves y valores), unos 12 bytes por hueco y ningún objeto
+ * por entrada.</p>
+ *
+ * <p>
+ * Las claves deben ser mayores o iguales que cero, los valores negativos
+ * de la clave marcan los huecos vacíos y eliminados. No es thread-safe.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+class LongIntHashMap {
+
+    /**
+     * Valor devuelto por {@link #get(long)} si la clave no existe.
+     */
+    static final int NO_VALUE = -1;
+
+    private static final long EMPTY = -1;
+    private static final long REMOVED = -2;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int removed;
+
+    LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSize Número de entradas que se esperan, evita
+     *        redimensionar el mapa hasta alcanzarlo.
+     */
+    LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Devuelve el valor asociado a la clave.
+     *
+     * @param key
+     * @return El valor, o {@link #NO_VALUE} si la clave no existe.
+     */
+    int get(long key) {
+        if (key < 0) {
+            return NO_VALUE;
+        }
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long current = keys[i];
+            if (current == key) {
+                return values[i];
+            }
+            if (current == EMPTY) {
+                return NO_VALUE;
+            }
+        }
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != NO_VALUE;
+    }
+
+    /**
+     * Asocia el valor a la clave, sustituyendo el anterior si existe.
+     *
+     * @param key Clave, no puede ser negativa.
+     * @param value
+     */
+    void put(long key, int value) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key: " + key);
+        }
+
+        int mask = keys.length - 1;
+        int firstRemoved = -1;
+        int i = slot(key, mask);
+        for (; ; i = (i + 1) & mask) {
+            long current = keys[i];
+            if (current == key) {
+                values[i] = value;
+                return;
+            }
+            if (current == EMPTY) {
+                break;
+            }
+            if (current == REMOVED && firstRemoved < 0) {
+                firstRemoved = i;
+            }
+        }
+
+        // Se reutiliza el primer hueco eliminado del recorrido.
+        if (firstRemoved >= 0) {
+            i = firstRemoved;
+            removed--;
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+
+        if ((size + removed) * 4L > keys.length * 3L) {
+            // Si la mayoría de huecos ocupados son eliminados basta con
+            // reconstruir la tabla con la misma capacidad.
+            rehash(size * 2 > keys.length / 2 ? keys.length << 1 : keys.length);
+        }
+    }
+
+    /**
+     * Elimina la clave.
+     *
+     * @param key
+     * @return El valor eliminado, o {@link #NO_VALUE} si no existía.
+     */
+    int remove(long key) {
+        if (key < 0) {
+            return NO_VALUE;
+        }
+        int mask = keys.length - 1;
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long current = keys[i];
+            if (current == key) {
+                // No se puede dejar vacío, cortaría la secuencia de sondeo
+                // de otras claves.
+                keys[i] = REMOVED;
+                size--;
+                removed++;
+                return values[i];
+            }
+            if (current == EMPTY) {
+                return NO_VALUE;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Memoria ocupada por los arrays, en bytes.
+     *
+     * @return
+     */
+    long memoryBytes() {
+        return keys.length * 12L;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            long key = oldKeys[j];
+            if (key >= 0) {
+                int i = slot(key, mask);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = key;
+                values[i] = oldValues[j];
+            }
+        }
+        removed = 0;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    private static int slot(long key, int mask) {
+        // Mezcla de bits (finalizador de MurmurHash3), para que las claves
+        // con patrones, como los múltiplos de potencias de 2, se repartan
+        // por toda la tabla.
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        return (int) key & mask;
+    }
+}
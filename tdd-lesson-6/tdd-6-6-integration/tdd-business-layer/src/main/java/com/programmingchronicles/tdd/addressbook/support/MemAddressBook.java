@@ -25,21 +25,117 @@ import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
 import com.programmingchronicles.tdd.addressbook.IdGenerator;
 import com.programmingchronicles.tdd.addressbook.InvalidContactException;
 import com.programmingchronicles.tdd.addressbook.InvalidIdException;
+import com.programmingchronicles.tdd.addressbook.StorageException;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.data.CloseableIterator;
 import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 /**
  * Implementación de un servicio Agenda de Contactos Global
  * basado en el almacenamiento en memoria.
  *
+ * <p>
+ * <b>CONCURRENCIA</b><br/>
+ * Se registra una única instancia compartida por todos los threads del
+ * contenedor de servlets, por tanto debe ser thread-safe. Los contactos se
+ * almacenan en un {@link ConcurrentSkipListMap}, las lecturas no bloquean y
+ * escalan con el número de cores.</p>
+ *
+ * <p>
+ * El mapa se mantiene ordenado por id para poder servir páginas de contactos
+ * ({@link #getPage(String, int)}) buscando directamente el inicio de la
+ * página, en lugar de recorrer y ordenar toda la agenda en cada petición.</p>
+ *
+ * <p>
+ * La comprobación de duplicados más la inserción debe ser atómica. Se
+ * resuelve sin locks con un índice por nombre normalizado
+ * ({@link ContactNameIndex}): solo el thread que consigue registrar el nombre
+ * en el índice inserta el contacto. Además la comprobación es una búsqueda
+ * en un hash, el coste de añadir no crece con el tamaño de la agenda.</p>
+ *
+ * <p>
+ * <b>INMUTABILIDAD</b><br/>
+ * Los contactos se guardan como {@link ContactValue}, inmutables y más
+ * compactos que Contact. Cada lectura entrega Contacts nuevos, los clientes
+ * pueden modificarlos sin afectar a la agenda, y tampoco se modifica el
+ * Contact entregado al añadir (salvo para asignarle el id). Para leer sin
+ * crear Contacts se puede usar {@link #getAllValues()}, la misma lista se
+ * puede compartir entre threads.</p>
+ *
+ * <p>
+ * <b>BUSQUEDAS</b><br/>
+ * Las búsquedas por el principio del nombre o del apellido
+ * ({@link #search(String, int)}) usan un índice ordenado
+ * ({@link ContactPrefixIndex}), y las búsquedas por cumpleaños
+ * ({@link #getByBirthday(int, int)}) un índice por día del año
+ * ({@link ContactBirthdayIndex}). Su coste depende del número de contactos
+ * devueltos y no del tamaño de la agenda.</p>
+ *
+ * <p>
+ * <b>SNAPSHOTS</b><br/>
+ * Al estar solo en memoria la agenda se pierde al parar la aplicación. Con
+ * {@link #saveSnapshot(File)} se guarda una copia de los contactos en un
+ * fichero binario compacto, y con {@link #loadSnapshot(File)} se recupera
+ * al arrancar. Los contactos conservan sus ids.</p>
+ *
+ * <p>
+ * Los contactos se guardan en orden de id, y al cargarlos el mapa y los
+ * índices se construyen en bloque en lugar de insertar los contactos uno a
+ * uno, y después sustituyen a los anteriores.</p>
+ *
+ * <p>
+ * <b>IMPORTANTE:</b> El {@link IdGenerator} configurado también debe ser
+ * thread-safe, y nunca debe devolver el id de un contacto existente,
+ * tampoco de los cargados de un snapshot. Los ids de {@link UUIDIdGenerator}
+ * y de {@link TimeOrderedIdGenerator} no se repiten, y al cargar un
+ * snapshot se adelanta {@link IncrementIdGenerator} hasta el mayor id
+ * cargado. Si se repite un id, añadir el contacto falla con
+ * IllegalStateException en lugar de sustituir al existente.</p>
+ *
  * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
  */
 public class MemAddressBook implements GlobalAddressBook {
 
-    private Map<String, Contact> addressBookMap = new HashMap();
+    /**
+     * Orden de los ids: primero por longitud y después alfabético. Los ids
+     * numéricos (como los de {@link IncrementIdGenerator}) se ordenan por su
+     * valor, y los de longitud fija por su orden alfabético.
+     */
+    private static final Comparator<String> ID_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String id1, String id2) {
+            if (id1.length() != id2.length()) {
+                return id1.length() < id2.length() ? -1 : 1;
+            }
+            return id1.compareTo(id2);
+        }
+    };
+
+    // El mapa y los índices solo se sustituyen al cargar un snapshot.
+    private volatile ConcurrentNavigableMap<String, ContactValue> addressBookMap =
+            new ConcurrentSkipListMap<String, ContactValue>(ID_ORDER);
+
+    // Índice secundario para la detección de duplicados.
+    private volatile ContactNameIndex nameIndex = new ContactNameIndex();
+
+    // Índice ordenado para las búsquedas por nombre.
+    private volatile ContactPrefixIndex prefixIndex = new ContactPrefixIndex();
+
+    // Índice por día del cumpleaños.
+    private volatile ContactBirthdayIndex birthdayIndex = new ContactBirthdayIndex();
 
     // Acceso al servicio de generación de ids, que se configurará
     // mediante Direct Injection (una forma de IoC).
@@ -53,26 +149,84 @@ public class MemAddressBook implements GlobalAddressBook {
      */
     @Override
     public String addContact(Contact contact) {
-        if(contact.getFirstName() == null || contact.getFirstName().trim().length() < 1) {
-           throw new InvalidContactException();
-        }       
-             
-        contact.setFirstName(contact.getFirstName().trim());
-        if(contact.getSurname() != null) {
-           contact.setSurname(contact.getSurname().trim());
-        }
-           
-        if(checkDuplicate(contact)) {
+        String id = addContact(ValidContact.valueOf(contact));
+        contact.setId(id);
+        return id;
+    }
+
+    /**
+     * Añade un contacto ya validado devolviendo el id generado.
+     *
+     * @param contact Datos del contacto a añadir
+     * @return Devuelve el id asignado al contacto
+     */
+    @Override
+    public String addContact(ValidContact contact) {
+        // Comprobación rápida para no consumir ids con los duplicados.
+        if(nameIndex.containsKey(contact.getNameKey())) {
            throw new InvalidContactException();
         }
 
-        String id = idGenerator.newId();
+        String id = newId();
 
-        contact.setId(id);
-        addressBookMap.put(id, contact);
+        // El registro en el índice es la comprobación definitiva, si otro
+        // thread ha añadido el mismo nombre mientras tanto no se inserta.
+        if(!nameIndex.addKey(id, contact.getNameKey())) {
+           throw new InvalidContactException();
+        }
+
+        put(contact.toValue(id));
         return id;
     }
 
+    /**
+     * Añade todos los contactos entregados, devolviendo los ids generados
+     * en el mismo orden.
+     *
+     * @param contacts Datos de los contactos a añadir
+     * @return Ids asignados a los contactos, en el orden de la colección.
+     */
+    @Override
+    public List<String> addContacts(Collection<Contact> contacts) {
+        // Se validan todos los contactos antes de añadir ninguno.
+        List<ValidContact> validContacts = new ArrayList<ValidContact>(contacts.size());
+        Set<String> batchNames = new HashSet<String>();
+        for (Contact contact : contacts) {
+            ValidContact validContact = ValidContact.valueOf(contact);
+            if (nameIndex.containsKey(validContact.getNameKey())
+                    || !batchNames.add(validContact.getNameKey())) {
+                throw new InvalidContactException();
+            }
+            validContacts.add(validContact);
+        }
+
+        // Se registran los nombres en el índice. Si otro thread añade uno
+        // de ellos mientras tanto se deshacen los ya registrados.
+        List<String> ids = new ArrayList<String>(contacts.size());
+        for (ValidContact contact : validContacts) {
+            String id;
+            try {
+                id = newId();
+            } catch (IllegalStateException ex) {
+                removeNames(ids, validContacts);
+                throw ex;
+            }
+            if (!nameIndex.addKey(id, contact.getNameKey())) {
+                removeNames(ids, validContacts);
+                throw new InvalidContactException();
+            }
+            ids.add(id);
+        }
+
+        int i = 0;
+        for (Contact contact : contacts) {
+            String id = ids.get(i);
+            contact.setId(id);
+            put(validContacts.get(i++).toValue(id));
+        }
+        return ids;
+    }
+
     /**
      * Obtiene el contacto asociado al id entregado.
      *
@@ -81,11 +235,11 @@ public class MemAddressBook implements GlobalAddressBook {
      */
     @Override
     public Contact getContact(String contactId) {
-        Contact result = addressBookMap.get(contactId);
+        ContactValue result = addressBookMap.get(contactId);
         if(result == null) {
            throw new InvalidIdException();
         }
-        return result;
+        return result.toContact();
     }
 
     /**
@@ -98,7 +252,8 @@ public class MemAddressBook implements GlobalAddressBook {
     }
 
     /**
-     * Configura el generador de ids utilizado.
+     * Configura el generador de ids utilizado. Nunca debe devolver el id
+     * de un contacto existente.
      *
      * @param idGenerator
      */
@@ -113,35 +268,245 @@ public class MemAddressBook implements GlobalAddressBook {
      */
     @Override
     public List<Contact> getAll() {
-        List<Contact> contacts = new ArrayList(addressBookMap.size());
-        contacts.addAll(addressBookMap.values());
-        return contacts;
+        return toContacts(addressBookMap.values());
+    }
+
+    /**
+     * Obtiene todos los contactos del sistema sin crear Contacts. Los
+     * valores son inmutables, la lista se puede compartir entre threads.
+     *
+     * @return Lista no modificable con los contactos ordenados por id.
+     */
+    public List<ContactValue> getAllValues() {
+        // El size() del ConcurrentSkipListMap recorre todo el mapa, la
+        // lista se construye directamente desde los valores.
+        return Collections.unmodifiableList(
+                new ArrayList<ContactValue>(addressBookMap.values()));
+    }
+
+    @Override
+    public List<Contact> getPage(String afterId, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Invalid page size: " + pageSize);
+        }
+
+        // El cursor no tiene por que existir (puede haberse eliminado), la
+        // página empieza en el siguiente id en orden.
+        Collection<ContactValue> tail = afterId == null
+                ? addressBookMap.values()
+                : addressBookMap.tailMap(afterId, false).values();
+
+        List<Contact> page = new ArrayList<Contact>();
+        for (ContactValue contact : tail) {
+            if (page.size() == pageSize) {
+                break;
+            }
+            page.add(contact.toContact());
+        }
+        return page;
+    }
+
+    @Override
+    public List<Contact> search(String prefix, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid search limit: " + limit);
+        }
+
+        return getContacts(prefixIndex.search(prefix, limit));
     }
 
+    @Override
+    public List<Contact> getByBirthday(int fromDay, int toDay) {
+        return getContacts(birthdayIndex.get(fromDay, toDay));
+    }
+
+    @Override
+    public CloseableIterator<Contact> iterateAll() {
+        // El iterador del ConcurrentSkipListMap no falla si se modifica el
+        // mapa durante el recorrido y no hay recursos que liberar.
+        final Iterator<ContactValue> values = addressBookMap.values().iterator();
+        return new CloseableIterator<Contact>() {
+            @Override
+            public boolean hasNext() {
+                return values.hasNext();
+            }
+
+            @Override
+            public Contact next() {
+                return values.next().toContact();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+
+    /**
+     * Guarda una copia de todos los contactos en el fichero entregado,
+     * sustituyendo la anterior. Si se añaden o eliminan contactos durante
+     * la copia pueden quedar o no incluidos.
+     *
+     * @param file
+     * @throws StorageException Si no se puede escribir el fichero.
+     */
+    public void saveSnapshot(File file) {
+        try {
+            // Los valores están ordenados por id, al cargarlos se
+            // insertan en orden.
+            SnapshotFile.write(file, addressBookMap.values());
+        } catch (IOException ex) {
+            throw new StorageException("Cannot write snapshot " + file, ex);
+        }
+    }
+
+    /**
+     * Sustituye todos los contactos de la agenda por los guardados en el
+     * fichero entregado con {@link #saveSnapshot(File)}. Se debe invocar
+     * antes de empezar a usar la agenda, no es atómico respecto a otras
+     * operaciones concurrentes.
+     *
+     * <p>
+     * Si el generador configurado es un {@link IncrementIdGenerator} se
+     * adelanta hasta el mayor id numérico cargado.</p>
+     *
+     * @param file
+     * @return Número de contactos cargados.
+     * @throws StorageException Si no se puede leer el fichero o no es una
+     *         copia válida. En ese caso la agenda no se modifica.
+     */
+    public int loadSnapshot(File file) {
+        SnapshotContacts snapshot;
+        try {
+            snapshot = SnapshotFile.read(file);
+        } catch (IOException ex) {
+            throw new StorageException("Cannot read snapshot " + file, ex);
+        }
+
+        List<ContactValue> contacts = snapshot.getContacts();
+
+        List<String> ids = snapshot.getIds();
+        long maxNumericId = -1;
+        for (String id : ids) {
+            maxNumericId = Math.max(maxNumericId, numericId(id));
+        }
+
+        // Se construye todo antes de modificar la agenda. El fichero está
+        // en orden de id, si no lo está o se repiten ids o nombres no es
+        // una copia válida.
+        ConcurrentNavigableMap<String, ContactValue> loadedMap;
+        ContactNameIndex loadedNames;
+        try {
+            loadedMap = SkipLists.fromSorted(ID_ORDER, ids, contacts);
+            loadedNames = new ContactNameIndex(snapshot);
+        } catch (IllegalArgumentException ex) {
+            throw new StorageException("Invalid snapshot " + file, ex);
+        }
+        ContactPrefixIndex loadedPrefixes = new ContactPrefixIndex(snapshot);
+        ContactBirthdayIndex loadedBirthdays = new ContactBirthdayIndex(snapshot);
+
+        addressBookMap = loadedMap;
+        nameIndex = loadedNames;
+        prefixIndex = loadedPrefixes;
+        birthdayIndex = loadedBirthdays;
+
+        if (idGenerator instanceof IncrementIdGenerator && maxNumericId >= 0) {
+            ((IncrementIdGenerator) idGenerator).skipTo(maxNumericId);
+        }
+        return contacts.size();
+    }
 
     @Override
     public void deleteContact(String id) {
-        addressBookMap.remove(id);
+        ContactValue removed = addressBookMap.remove(id);
+        if(removed != null) {
+           nameIndex.remove(id, removed.getFirstName(), removed.getSurname());
+           prefixIndex.remove(id, removed.getFirstName(), removed.getSurname());
+           birthdayIndex.remove(id, removed.getBirthdayEpochDay());
+        }
     }
 
-    private boolean checkDuplicate(Contact checkedContact) {
-        String checkedFirstName = checkedContact.getFirstName();
-        String checkedSurname = checkedContact.getSurname();
+    /**
+     * Obtiene un nuevo id del generador, comprobando que no lo tenga ya
+     * otro contacto.
+     *
+     * @throws IllegalStateException Si el id ya existe.
+     */
+    private String newId() {
+        String id = idGenerator.newId();
+        if (addressBookMap.containsKey(id)) {
+            throw new IllegalStateException("IdGenerator returned an existing id: " + id);
+        }
+        return id;
+    }
 
-        for(Contact contact: addressBookMap.values()) {
-            String firstName = contact.getFirstName();
-            String surname = contact.getSurname();
+    /**
+     * Deshace el registro en el índice de duplicados de los primeros
+     * contactos de un lote, los que ya tienen id.
+     */
+    private void removeNames(List<String> ids, List<ValidContact> contacts) {
+        for (int i = 0; i < ids.size(); i++) {
+            nameIndex.removeKey(ids.get(i), contacts.get(i).getNameKey());
+        }
+    }
 
-            if(checkedFirstName.equalsIgnoreCase(firstName)) {
-                if(checkedSurname != null) {
-                   return checkedSurname.equalsIgnoreCase(surname);
-                } else if(surname == null) {
-                   return true;
-                }
+    /**
+     * Guarda el contacto y lo añade a los índices de búsquedas. El nombre
+     * ya debe estar registrado en el índice de duplicados.
+     *
+     * @throws IllegalStateException Si ya existe un contacto con el mismo
+     *         id, que no se sustituye.
+     */
+    private void put(ContactValue contact) {
+        if (addressBookMap.putIfAbsent(contact.getId(), contact) != null) {
+            throw new IllegalStateException("Duplicated contact id: " + contact.getId());
+        }
+        prefixIndex.add(contact.getId(), contact.getFirstName(), contact.getSurname());
+        birthdayIndex.add(contact.getId(), contact.getBirthdayEpochDay());
+    }
+
+    /**
+     * Devuelve los contactos de los ids entregados, en el mismo orden. Se
+     * ignoran los que se han eliminado después de consultar el índice.
+     */
+    private List<Contact> getContacts(List<String> ids) {
+        List<Contact> result = new ArrayList<Contact>(ids.size());
+        for (String id : ids) {
+            ContactValue contact = addressBookMap.get(id);
+            if (contact != null) {
+                result.add(contact.toContact());
             }
         }
-        return false;
+        return result;
     }
 
-}
+    private static List<Contact> toContacts(Collection<ContactValue> values) {
+        List<Contact> contacts = new ArrayList<Contact>();
+        for (ContactValue value : values) {
+            contacts.add(value.toContact());
+        }
+        return contacts;
+    }
 
+    /**
+     * Convierte en número un id de {@link IncrementIdGenerator}, o -1 si
+     * el id no es numérico.
+     */
+    private static long numericId(String id) {
+        if (id.isEmpty() || id.length() > 18) {
+            return -1;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (id.charAt(i) < '0' || id.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        return Long.parseLong(id);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Construcción en bloque de {@link ConcurrentSkipListMap}.
+ *
+ * <p>
+ * Insertar las claves una a una busca la posición de cada una en la skip
+ * list. El constructor de ConcurrentSkipListMap que recibe un
+ * {@link SortedMap} enlaza los nodos en orden sin ninguna búsqueda, su coste
+ * es lineal. Aquí se le entrega una vista de SortedMap sobre listas ya
+ * ordenadas, sin construir antes otro mapa.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+final class SkipLists {
+
+    private SkipLists() {
+    }
+
+    /**
+     * Construye un mapa con las claves y valores entregados.
+     *
+     * @param comparator Orden de las claves, null para el orden natural.
+     * @param keys Claves en orden estrictamente creciente.
+     * @param values Valor de cada clave, en la misma posición.
+     * @return
+     * @throws IllegalArgumentException Si las claves no están ordenadas o
+     *         hay claves repetidas.
+     */
+    static <K, V> ConcurrentSkipListMap<K, V> fromSorted(Comparator<? super K> comparator,
+            List<? extends K> keys, List<? extends V> values) {
+        if (keys.size() != values.size()) {
+            throw new IllegalArgumentException("Keys and values sizes differ");
+        }
+        return new ConcurrentSkipListMap<K, V>(new SortedView<K, V>(comparator, keys, values));
+    }
+
+    /**
+     * Vista de solo lectura que implementa lo que usa el constructor de
+     * ConcurrentSkipListMap: el comparador y el recorrido de las entradas,
+     * que comprueba el orden de las claves.
+     *
+     * <p>
+     * El recorrido reutiliza la misma entrada, como el de IdentityHashMap:
+     * el constructor solo lee la clave y el valor, y así no se crea un
+     * objeto más por cada clave.</p>
+     */
+    private static class SortedView<K, V> extends AbstractMap<K, V> implements SortedMap<K, V> {
+
+        private final Comparator<? super K> comparator;
+        private final List<? extends K> keys;
+        private final List<? extends V> values;
+
+        SortedView(Comparator<? super K> comparator, List<? extends K> keys, List<? extends V> values) {
+            this.comparator = comparator;
+            this.keys = keys;
+            this.values = values;
+        }
+
+        @Override
+        public Comparator<? super K> comparator() {
+            return comparator;
+        }
+
+        @Override
+        public Set<Map.Entry<K, V>> entrySet() {
+            return new AbstractSet<Map.Entry<K, V>>() {
+                @Override
+                public Iterator<Map.Entry<K, V>> iterator() {
+                    return new EntryIterator();
+                }
+
+                @Override
+                public int size() {
+                    return keys.size();
+                }
+            };
+        }
+
+        @Override
+        public SortedMap<K, V> subMap(K fromKey, K toKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<K, V> headMap(K toKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SortedMap<K, V> tailMap(K fromKey) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public K firstKey() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public K lastKey() {
+            throw new UnsupportedOperationException();
+        }
+
+        @SuppressWarnings("unchecked")
+        private int compare(K key1, K key2) {
+            return comparator != null
+                    ? comparator.compare(key1, key2)
+                    : ((Comparable<? super K>) key1).compareTo(key2);
+        }
+
+        private class EntryIterator implements Iterator<Map.Entry<K, V>>, Map.Entry<K, V> {
+
+            private final Iterator<? extends K> keyIterator = keys.iterator();
+            private final Iterator<? extends V> valueIterator = values.iterator();
+            private K key;
+            private V value;
+
+            @Override
+            public boolean hasNext() {
+                return keyIterator.hasNext();
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                K next = keyIterator.next();
+                if (key != null && compare(key, next) >= 0) {
+                    throw new IllegalArgumentException("Keys not in ascending order: " + next);
+                }
+                key = next;
+                value = valueIterator.next();
+                return this;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public K getKey() {
+                return key;
+            }
+
+            @Override
+            public V getValue() {
+                return value;
+            }
+
+            @Override
+            public V setValue(V value) {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Contactos leídos de un snapshot en columnas, a partir de las que se
+ * construyen en bloque los índices de la agenda.
+ *
+ * <p>
+ * Además de los contactos se guardan en arrays sus ids, sus fechas de
+ * nacimiento y el número de su nombre y de su apellido en la tabla de
+ * nombres, que contiene cada nombre o apellido distinto una sola vez. Los
+ * índices recorren solo los arrays que necesitan, sin volver a leer cada
+ * contacto, agrupan por número y normalizan cada nombre distinto una sola
+ * vez.</p>
+ *
+ * <p>
+ * Se guarda también si los ids están en orden natural, el caso habitual con
+ * ids de la misma longitud: en ese caso los ids de un grupo, que se copian
+ * en el orden de los contactos, ya están ordenados y no hace falta
+ * compararlos.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+final class SnapshotContacts {
+
+    /**
+     * Número de nombre de los apellidos null.
+     */
+    static final int NO_NAME = -1;
+
+    private final List<ContactValue> contacts;
+    private final String[] ids;
+    private final int[] birthdays;
+    private final List<String> names;
+    private final int[] firstNames;
+    private final int[] surnames;
+    private final boolean naturalOrder;
+
+    /**
+     * @param contacts Contactos con id.
+     * @param ids Id de cada contacto.
+     * @param birthdays Fecha de nacimiento de cada contacto, en días desde
+     *        el 1/1/1970.
+     * @param names Nombres y apellidos distintos.
+     * @param firstNames Número del nombre de cada contacto.
+     * @param surnames Número del apellido de cada contacto, o
+     *        {@link #NO_NAME} si es null.
+     * @param naturalOrder Si los ids están en orden natural estrictamente
+     *        creciente.
+     */
+    SnapshotContacts(List<ContactValue> contacts, String[] ids, int[] birthdays,
+            List<String> names, int[] firstNames, int[] surnames, boolean naturalOrder) {
+        this.contacts = contacts;
+        this.ids = ids;
+        this.birthdays = birthdays;
+        this.names = names;
+        this.firstNames = firstNames;
+        this.surnames = surnames;
+        this.naturalOrder = naturalOrder;
+    }
+
+    /**
+     * Construye las columnas de los contactos entregados.
+     *
+     * @param contacts Contactos con id.
+     * @return
+     */
+    static SnapshotContacts of(List<ContactValue> contacts) {
+        Map<String, Integer> numbers = new HashMap<String, Integer>();
+        List<String> names = new ArrayList<String>();
+        String[] ids = new String[contacts.size()];
+        int[] birthdays = new int[contacts.size()];
+        int[] firstNames = new int[contacts.size()];
+        int[] surnames = new int[contacts.size()];
+        boolean naturalOrder = true;
+        int i = 0;
+        for (ContactValue contact : contacts) {
+            ids[i] = contact.getId();
+            birthdays[i] = contact.getBirthdayEpochDay();
+            firstNames[i] = number(numbers, names, contact.getFirstName());
+            surnames[i] = number(numbers, names, contact.getSurname());
+            naturalOrder = naturalOrder && (i == 0 || ids[i - 1].compareTo(ids[i]) < 0);
+            i++;
+        }
+        return new SnapshotContacts(contacts, ids, birthdays, names, firstNames, surnames, naturalOrder);
+    }
+
+    List<ContactValue> getContacts() {
+        return contacts;
+    }
+
+    /**
+     * Número de contactos.
+     *
+     * @return
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Ids de los contactos, en el mismo orden.
+     *
+     * @return
+     */
+    List<String> getIds() {
+        return Arrays.asList(ids);
+    }
+
+    /**
+     * Id del contacto en la posición entregada.
+     *
+     * @param index
+     * @return
+     */
+    String id(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Fecha de nacimiento del contacto en la posición entregada.
+     *
+     * @param index
+     * @return Días desde el 1/1/1970, o {@link ContactValue#NO_BIRTHDAY}.
+     */
+    int birthday(int index) {
+        return birthdays[index];
+    }
+
+    /**
+     * Nombres y apellidos distintos, por número.
+     *
+     * @return
+     */
+    List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Número del nombre del contacto en la posición entregada.
+     *
+     * @param index
+     * @return
+     */
+    int firstName(int index) {
+        return firstNames[index];
+    }
+
+    /**
+     * Número del apellido del contacto en la posición entregada.
+     *
+     * @param index
+     * @return El número, o {@link #NO_NAME} si el apellido es null.
+     */
+    int surname(int index) {
+        return surnames[index];
+    }
+
+    /**
+     * Indica si los ids de los contactos están en orden natural
+     * estrictamente creciente.
+     *
+     * @return
+     */
+    boolean isNaturalOrder() {
+        return naturalOrder;
+    }
+
+    private static int number(Map<String, Integer> numbers, List<String> names, String name) {
+        if (name == null) {
+            return NO_NAME;
+        }
+        Integer number = numbers.get(name);
+        if (number == null) {
+            number = names.size();
+            numbers.put(name, number);
+            names.add(name);
+        }
+        return number;
+    }
+}
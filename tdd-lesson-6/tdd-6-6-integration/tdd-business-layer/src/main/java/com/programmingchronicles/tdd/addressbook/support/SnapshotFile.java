@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.StorageException;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Lectura y escritura de una copia de los contactos en un fichero binario
+ * compacto (<i>snapshot</i>).
+ *
+ * <pre>
+ *   [magic long][versión int]
+ *   [longitud int][id][cumpleaños int][nombre][apellido][teléfono]  (por contacto)
+ *   [número de contactos int][CRC32 int]
+ *
+ *   texto:  [longitud int, -1 si es null][bytes UTF-8]
+ *   nombre: [longitud int][bytes UTF-8] la primera vez que aparece,
+ *           [-(n + 2) int] para repetir el nombre número n,
+ *           [-1 int] si es null
+ * </pre>
+ *
+ * <p>
+ * Los nombres y apellidos se repiten mucho, cada nombre distinto se escribe
+ * una sola vez y el resto de veces se escribe su número. El fichero es más
+ * pequeño, y al leerlo cada nombre se decodifica una sola vez y todos los
+ * contactos comparten el mismo String. La tabla de nombres se entrega junto
+ * con los contactos ({@link SnapshotContacts}).</p>
+ *
+ * <p>
+ * El CRC32 cubre todo el fichero salvo el propio CRC, un fichero incompleto
+ * o modificado no se carga. Se escribe en un fichero temporal que sustituye
+ * al anterior con un rename atómico, si la aplicación termina durante la
+ * escritura se conserva la copia anterior.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+final class SnapshotFile {
+
+    // "TPCSNAP1", identifica el formato del fichero.
+    private static final long MAGIC = 0x545043534E415031L;
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 8 + 4;
+    private static final int TRAILER_BYTES = 4 + 4;
+
+    // Longitud, id, cumpleaños, nombre, apellido y teléfono vacíos.
+    private static final int MIN_CONTACT_BYTES = 6 * 4;
+
+    private static final int NULL_LENGTH = -1;
+
+    // Marca de los nombres que se escriben por primera vez.
+    private static final int NEW_NAME = -2;
+
+    private static final int BUFFER_SIZE = 256 * 1024;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Escribe los contactos en el fichero, sustituyendo su contenido.
+     *
+     * @param file
+     * @param contacts
+     * @throws IOException
+     */
+    static void write(File file, Iterable<ContactValue> contacts) throws IOException {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmpFile);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            CRC32 crc = new CRC32();
+
+            buffer.putLong(MAGIC);
+            buffer.putInt(VERSION);
+
+            // Se cuentan al escribir, la colección puede ser una vista de
+            // un mapa concurrente cuyo size() no es exacto.
+            int count = 0;
+            Map<String, Integer> names = new HashMap<String, Integer>();
+            byte[][] strings = new byte[4][];
+            int[] nameRefs = new int[2];
+            for (ContactValue contact : contacts) {
+                strings[0] = encode(contact.getId());
+                nameRefs[0] = nameRef(names, contact.getFirstName());
+                strings[1] = nameRefs[0] == NEW_NAME ? encode(contact.getFirstName()) : null;
+                nameRefs[1] = nameRef(names, contact.getSurname());
+                strings[2] = nameRefs[1] == NEW_NAME ? encode(contact.getSurname()) : null;
+                strings[3] = encode(contact.getPhone());
+                int length = 4 + 4 * strings.length;
+                for (byte[] string : strings) {
+                    length += string == null ? 0 : string.length;
+                }
+
+                if (buffer.remaining() < 4 + length) {
+                    flush(channel, buffer, crc);
+                    if (buffer.remaining() < 4 + length) {
+                        buffer = ByteBuffer.allocate(4 + length);
+                    }
+                }
+                buffer.putInt(length);
+                putString(buffer, strings[0]);
+                buffer.putInt(contact.getBirthdayEpochDay());
+                putName(buffer, nameRefs[0], strings[1]);
+                putName(buffer, nameRefs[1], strings[2]);
+                putString(buffer, strings[3]);
+                count++;
+            }
+
+            if (buffer.remaining() < TRAILER_BYTES) {
+                flush(channel, buffer, crc);
+            }
+            buffer.putInt(count);
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+
+        Files.move(tmpFile.toPath(), file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Lee los contactos del fichero, en el mismo orden en que se escribieron.
+     *
+     * @param file
+     * @return Los contactos y la tabla de nombres del fichero.
+     * @throws IOException
+     * @throws StorageException Si el fichero no es una copia válida.
+     */
+    static SnapshotContacts read(File file) throws IOException {
+        MappedByteBuffer buffer;
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long size = in.length();
+            if (size < HEADER_BYTES + TRAILER_BYTES || size > Integer.MAX_VALUE) {
+                throw new StorageException("Invalid snapshot " + file);
+            }
+            // El mapeo sigue siendo válido después de cerrar el fichero.
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            in.close();
+        }
+
+        int limit = buffer.capacity();
+        if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION
+                || crc(buffer, limit - 4) != buffer.getInt(limit - 4)) {
+            throw new StorageException("Invalid snapshot " + file);
+        }
+
+        int count = buffer.getInt(limit - TRAILER_BYTES);
+        int end = limit - TRAILER_BYTES;
+        if (count < 0 || count > (end - HEADER_BYTES) / MIN_CONTACT_BYTES) {
+            throw new StorageException("Invalid snapshot " + file);
+        }
+        List<ContactValue> contacts = new ArrayList<ContactValue>(count);
+        String[] ids = new String[count];
+        int[] birthdays = new int[count];
+        List<String> names = new ArrayList<String>();
+        int[] firstNames = new int[count];
+        int[] surnames = new int[count];
+        boolean naturalOrder = true;
+        buffer.position(HEADER_BYTES);
+        for (int i = 0; buffer.position() < end; i++) {
+            if (i == count) {
+                throw new StorageException("Invalid snapshot " + file);
+            }
+            int next = buffer.getInt();
+            next += buffer.position();
+            ids[i] = getString(buffer);
+            birthdays[i] = buffer.getInt();
+            firstNames[i] = getName(buffer, names);
+            surnames[i] = getName(buffer, names);
+            String phone = getString(buffer);
+            if (buffer.position() != next) {
+                throw new StorageException("Invalid snapshot " + file);
+            }
+            // Los nombres ya se han internado al leerlos la primera vez.
+            contacts.add(ContactValue.ofInterned(ids[i], name(names, firstNames[i]),
+                    name(names, surnames[i]), phone, birthdays[i]));
+            naturalOrder = naturalOrder && (i == 0 || ids[i - 1].compareTo(ids[i]) < 0);
+        }
+        if (contacts.size() != count) {
+            throw new StorageException("Invalid snapshot " + file);
+        }
+        return new SnapshotContacts(contacts, ids, birthdays, names, firstNames, surnames, naturalOrder);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static int crc(ByteBuffer buffer, int length) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[64 * 1024];
+        ByteBuffer in = buffer.duplicate();
+        in.clear();
+        for (int position = 0; position < length; position += chunk.length) {
+            int n = Math.min(chunk.length, length - position);
+            in.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(NULL_LENGTH);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Devuelve el número del nombre ya escrito, {@link #NEW_NAME} si es la
+     * primera vez que aparece o {@link #NULL_LENGTH} si es null.
+     */
+    private static int nameRef(Map<String, Integer> names, String name) {
+        if (name == null) {
+            return NULL_LENGTH;
+        }
+        Integer ref = names.get(name);
+        if (ref == null) {
+            names.put(name, names.size());
+            return NEW_NAME;
+        }
+        return ref;
+    }
+
+    private static void putName(ByteBuffer buffer, int ref, byte[] bytes) {
+        if (ref == NEW_NAME) {
+            putString(buffer, bytes);
+        } else if (ref == NULL_LENGTH) {
+            buffer.putInt(NULL_LENGTH);
+        } else {
+            buffer.putInt(-(ref + 2));
+        }
+    }
+
+    /**
+     * Lee un nombre y devuelve su número en la tabla de nombres, o
+     * {@link SnapshotContacts#NO_NAME} si es null.
+     */
+    private static int getName(ByteBuffer buffer, List<String> names) {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return SnapshotContacts.NO_NAME;
+        }
+        if (length < NULL_LENGTH) {
+            return -length - 2;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        // Se interna una sola vez, todos los contactos con el mismo nombre
+        // comparten el String.
+        names.add(new String(bytes, StandardCharsets.UTF_8).intern());
+        return names.size() - 1;
+    }
+
+    private static String name(List<String> names, int number) {
+        return number == SnapshotContacts.NO_NAME ? null : names.get(number);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
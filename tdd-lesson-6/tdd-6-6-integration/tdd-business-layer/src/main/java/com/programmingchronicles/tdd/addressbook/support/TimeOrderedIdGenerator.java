@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.IdGenerator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Implementación de IdGenerator que genera ids de 64 bits ordenados por
+ * el instante de creación (estilo <i>Snowflake</i>).
+ *
+ * <p>
+ * <b>FORMATO</b><br/>
+ * El id se compone de 41 bits con los milisegundos transcurridos desde
+ * el {@link #EPOCH} (hasta el año 2079), un número de secuencia dentro del
+ * mismo milisegundo y el número de nodo. El número de bits de nodo es
+ * configurable, el resto de los 22 bits se usan para la secuencia.</p>
+ *
+ * <p>
+ * El id se representa con 13 caracteres en base 32 (alfabeto de Crockford).
+ * Como la longitud es fija, el orden alfabético de los ids coincide con el
+ * orden de creación, por lo que se insertan siempre al final de cualquier
+ * índice ordenado.</p>
+ *
+ * <p>
+ * <b>CONCURRENCIA</b><br/>
+ * El generador es thread-safe y no usa locks. Si se agota la secuencia de un
+ * milisegundo, o si el reloj del sistema retrocede, se continúa con los ids
+ * del siguiente milisegundo, de forma que los ids de un mismo generador son
+ * siempre crecientes.</p>
+ *
+ * <p>
+ * Como exige {@link IdGenerator}, distintas instancias de una misma JVM
+ * generan ids distintos aunque usen el mismo nodo, ya que comparten la
+ * secuencia. Distintas JVMs o máquinas deben usar números de nodo
+ * distintos y todas el mismo número de bits de nodo.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+    /**
+     * Origen de tiempos de los ids: 1/1/2010 00:00:00 UTC.
+     */
+    public static final long EPOCH = 1262304000000L;
+
+    /**
+     * Número de bits de nodo por defecto (1024 nodos, 4096 ids por ms).
+     */
+    public static final int DEFAULT_NODE_BITS = 10;
+
+    /**
+     * Longitud de la representación en texto de los ids.
+     */
+    public static final int ID_LENGTH = 13;
+
+    // Bits disponibles para nodo y secuencia, el resto son del timestamp.
+    private static final int NODE_AND_SEQUENCE_BITS = 22;
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    private final int nodeBits;
+    private final long nodeId;
+
+    // Último valor generado sin el nodo (timestamp y secuencia), compartido
+    // por todas las instancias con los mismos bits de nodo.
+    private static final ConcurrentMap<Integer, AtomicLong> sequences =
+            new ConcurrentHashMap<Integer, AtomicLong>();
+
+    private final AtomicLong lastTimeAndSequence;
+
+    /**
+     * Construye un generador para el nodo 0 con los bits de nodo por defecto.
+     */
+    public TimeOrderedIdGenerator() {
+        this(0, DEFAULT_NODE_BITS);
+    }
+
+    /**
+     * Construye un generador para el nodo entregado.
+     *
+     * @param nodeId Número de nodo, entre 0 y 2^nodeBits - 1.
+     * @param nodeBits Bits reservados para el nodo, entre 0 y 21.
+     * @throws IllegalArgumentException Si los parámetros están fuera de rango.
+     */
+    public TimeOrderedIdGenerator(int nodeId, int nodeBits) {
+        if (nodeBits < 0 || nodeBits >= NODE_AND_SEQUENCE_BITS) {
+            throw new IllegalArgumentException("Invalid node bits: " + nodeBits);
+        }
+        if (nodeId < 0 || nodeId >= (1L << nodeBits)) {
+            throw new IllegalArgumentException("Invalid node id: " + nodeId);
+        }
+        this.nodeBits = nodeBits;
+        this.nodeId = nodeId;
+
+        AtomicLong sequence = new AtomicLong();
+        AtomicLong previous = sequences.putIfAbsent(nodeBits, sequence);
+        this.lastTimeAndSequence = previous != null ? previous : sequence;
+    }
+
+    @Override
+    public String newId() {
+        return encode(nextId());
+    }
+
+    /**
+     * Genera el siguiente id numérico.
+     *
+     * @return
+     */
+    public long nextId() {
+        int sequenceBits = NODE_AND_SEQUENCE_BITS - nodeBits;
+        long now = currentTimeMillis() - EPOCH;
+
+        long last;
+        long next;
+        do {
+            last = lastTimeAndSequence.get();
+            if ((last >>> sequenceBits) < now) {
+                // Nuevo milisegundo, la secuencia empieza en 0.
+                next = now << sequenceBits;
+            } else {
+                // Mismo milisegundo (o reloj atrasado): siguiente secuencia.
+                // Si la secuencia se desborda pasa al milisegundo siguiente.
+                next = last + 1;
+            }
+        } while (!lastTimeAndSequence.compareAndSet(last, next));
+
+        return (next << nodeBits) | nodeId;
+    }
+
+    /**
+     * Obtiene el instante de creación del id entregado.
+     *
+     * @param id Id generado por un generador con los mismos bits de nodo.
+     * @return Milisegundos desde 1/1/1970, como System.currentTimeMillis()
+     */
+    public static long getTimestamp(String id) {
+        return (decode(id) >>> NODE_AND_SEQUENCE_BITS) + EPOCH;
+    }
+
+    /**
+     * Codifica un id numérico en su representación de texto.
+     *
+     * @param id
+     * @return Cadena de {@link #ID_LENGTH} caracteres.
+     */
+    public static String encode(long id) {
+        char[] chars = new char[ID_LENGTH];
+        for (int i = ID_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (id & 0x1F)];
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Decodifica la representación de texto de un id.
+     *
+     * @param id
+     * @return
+     * @throws IllegalArgumentException Si el id no es válido.
+     */
+    public static long decode(String id) {
+        if (id == null || id.length() != ID_LENGTH) {
+            throw new IllegalArgumentException("Invalid id: " + id);
+        }
+        long result = 0;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int value = indexOf(id.charAt(i));
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid id: " + id);
+            }
+            result = (result << 5) | value;
+        }
+        return result;
+    }
+
+    /**
+     * Hora actual, se puede sobreescribir en los tests.
+     *
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private static int indexOf(char c) {
+        for (int i = 0; i < ALPHABET.length; i++) {
+            if (ALPHABET[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
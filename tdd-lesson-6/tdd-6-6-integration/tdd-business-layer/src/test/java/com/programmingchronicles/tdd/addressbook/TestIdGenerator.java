@@ -22,6 +22,15 @@
 package com.programmingchronicles.tdd.addressbook;
 
 import com.programmingchronicles.tdd.addressbook.IdGenerator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.*;
 import static org.junit.Assert.*;
 
@@ -74,4 +83,52 @@ public abstract class TestIdGenerator {
             oldId = newId;
         }
     }
+
+    /**
+     * Varios threads generan ids a la vez con el mismo generador, no se
+     * debe repetir ninguno.
+     *
+     * <p>
+     * Un stress test no demuestra que el código sea thread-safe, pero
+     * detecta con mucha probabilidad las implementaciones que no lo son.</p>
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testNewIdConcurrent() throws Exception {
+        final int threads = 8;
+        final int idsPerThread = 5000;
+        final IdGenerator idGenerator = newIdGenerator();
+        final ConcurrentMap<String, Boolean> ids = new ConcurrentHashMap<String, Boolean>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        // Todos los threads empiezan a la vez.
+                        start.await();
+                        int duplicates = 0;
+                        for (int i = 0; i < idsPerThread; i++) {
+                            if (ids.putIfAbsent(idGenerator.newId(), Boolean.TRUE) != null) {
+                                duplicates++;
+                            }
+                        }
+                        return duplicates;
+                    }
+                }));
+            }
+            start.countDown();
+
+            for (Future<Integer> result : results) {
+                assertEquals(0, result.get().intValue());
+            }
+            assertEquals(threads * idsPerThread, ids.size());
+        } finally {
+            executor.shutdown();
+        }
+    }
 }
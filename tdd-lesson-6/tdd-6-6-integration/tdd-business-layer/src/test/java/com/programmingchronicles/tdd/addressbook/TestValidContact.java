@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook;
+
+import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Test de ValidContact.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestValidContact {
+
+    @Test
+    public void testOf() {
+        int birthday = ContactValue.toEpochDay(1974, 1, 8);
+
+        ValidContact contact = ValidContact.of("  Pedro ", " Ballesteros ", " 610101010 ", birthday);
+
+        assertEquals("Pedro", contact.getFirstName());
+        assertEquals("Ballesteros", contact.getSurname());
+        // El teléfono se guarda tal cual, como en las agendas.
+        assertEquals(" 610101010 ", contact.getPhone());
+        assertEquals(birthday, contact.getBirthdayEpochDay());
+        assertEquals(ValidContact.nameKey("Pedro", "Ballesteros"), contact.getNameKey());
+    }
+
+    /**
+     * Los nombres sin espacios no se copian.
+     */
+    @Test
+    public void testOfTrimmed() {
+        String firstName = "Pedro";
+
+        ValidContact contact = ValidContact.of(firstName, null, null, ContactValue.NO_BIRTHDAY);
+
+        assertSame(firstName, contact.getFirstName());
+        assertNull(contact.getSurname());
+        assertNull(contact.getBirthday());
+    }
+
+    @Test(expected = InvalidContactException.class)
+    public void testOfWithoutFirstName() {
+        ValidContact.of(null, "Ballesteros", null, ContactValue.NO_BIRTHDAY);
+    }
+
+    @Test(expected = InvalidContactException.class)
+    public void testOfBlankFirstName() {
+        ValidContact.of("   ", "Ballesteros", null, ContactValue.NO_BIRTHDAY);
+    }
+
+    /**
+     * El contacto de origen no se modifica.
+     */
+    @Test
+    public void testValueOf() {
+        Contact contact = new Contact();
+        contact.setFirstName(" Pedro ");
+        contact.setBirthday(ContactValue.toDate(ContactValue.toEpochDay(1974, 1, 8)));
+
+        ValidContact validContact = ValidContact.valueOf(contact);
+
+        assertEquals("Pedro", validContact.getFirstName());
+        assertEquals(contact.getBirthday(), validContact.getBirthday());
+        assertEquals(" Pedro ", contact.getFirstName());
+    }
+
+    @Test
+    public void testToValue() {
+        ValidContact contact = ValidContact.of("Pedro", "Ballesteros", "610101010",
+                                               ContactValue.toEpochDay(1974, 1, 8));
+
+        ContactValue value = contact.toValue("1");
+
+        assertEquals(new ContactValue("1", "Pedro", "Ballesteros", "610101010",
+                                      contact.getBirthdayEpochDay()), value);
+    }
+
+    @Test
+    public void testNameKeyIgnoresCaseAndBlanks() {
+        assertEquals(ValidContact.nameKey("Pedro", "Ballesteros"),
+                     ValidContact.nameKey(" PEDRO ", "ballesteros  "));
+    }
+
+    /**
+     * Un apellido null no es lo mismo que un apellido vacío, igual que
+     * en las agendas.
+     */
+    @Test
+    public void testNameKeyNullSurname() {
+        assertFalse(ValidContact.nameKey("Pedro", null).equals(
+                    ValidContact.nameKey("Pedro", "")));
+    }
+
+    /**
+     * El separador evita que nombres distintos generen la misma clave
+     * al concatenarse.
+     */
+    @Test
+    public void testNameKeySeparator() {
+        assertFalse(ValidContact.nameKey("Pedro Ba", "llesteros").equals(
+                    ValidContact.nameKey("Pedro", "Ballesteros")));
+    }
+
+    @Test
+    public void testFoldedNameKey() {
+        assertEquals(ValidContact.nameKey(" PEDRO ", null),
+                     ValidContact.foldedNameKey(ValidContact.foldName(" PEDRO "), null));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Comparación de memoria y tiempos entre MemAddressBook y
+ * ColumnarAddressBook con una agenda grande.
+ *
+ * <p>
+ * Para cada agenda se mide el heap ocupado después de la carga (con un GC
+ * previo, es una aproximación), la memoria fuera del heap, el tiempo del GC
+ * durante la carga y el tiempo medio de una lectura por id aleatorio. Cada
+ * agenda se mide por separado y se descarta antes de medir la siguiente.</p>
+ *
+ * <p>
+ * Recibe el número de contactos como argumento, por defecto un millón.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class ColumnarAddressBookBenchmark {
+
+    private static final int DEFAULT_CONTACTS = 1000000;
+    private static final int LOOKUPS = 1000000;
+
+    // Solo se guardan algunos ids para las lecturas, así no cuentan
+    // en el heap medido.
+    private static final int SAMPLE_IDS = 10000;
+
+    public static void main(String[] args) {
+        int contacts = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CONTACTS;
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 2; round++) {
+            boolean print = round > 0;
+            int size = print ? contacts : contacts / 10;
+
+            run(false, size, print);
+            run(true, size, print);
+        }
+    }
+
+    private static void run(boolean columnar, int contacts, boolean print) {
+        long heapBefore = usedHeap();
+        long gcBefore = gcMillis();
+
+        // La agenda se crea después de medir el heap, ColumnarAddressBook
+        // reserva sus índices en el constructor.
+        GlobalAddressBook addressBook;
+        if (columnar) {
+            addressBook = new ColumnarAddressBook(contacts);
+        } else {
+            MemAddressBook memAddressBook = new MemAddressBook();
+            memAddressBook.setIdGenerator(new IncrementIdGenerator());
+            addressBook = memAddressBook;
+        }
+
+        long start = System.nanoTime();
+        String[] ids = new String[SAMPLE_IDS];
+        int step = Math.max(1, contacts / SAMPLE_IDS);
+        for (int i = 0; i < contacts; i++) {
+            Contact contact = new Contact();
+            contact.setFirstName("Name" + (i % 5000));
+            contact.setSurname("Surname" + i);
+            contact.setPhone("6" + (10000000 + i));
+            String id = addressBook.addContact(contact);
+            if (i % step == 0 && i / step < SAMPLE_IDS) {
+                ids[i / step] = id;
+            }
+        }
+        long load = System.nanoTime() - start;
+        long gc = gcMillis() - gcBefore;
+        long heap = usedHeap() - heapBefore;
+
+        Random random = new Random(42);
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            addressBook.getContact(ids[random.nextInt(Math.min(SAMPLE_IDS, contacts))]);
+        }
+        long lookup = System.nanoTime() - start;
+
+        if (print) {
+            long offHeap = columnar
+                    ? ((ColumnarAddressBook) addressBook).getOffHeapBytes() : 0;
+            System.out.printf("%-20s %,d contactos%n",
+                              addressBook.getClass().getSimpleName(), contacts);
+            System.out.printf("  heap:       %,8d KB (%d bytes/contacto)%n",
+                              heap / 1024, heap / contacts);
+            System.out.printf("  fuera heap: %,8d KB%n", offHeap / 1024);
+            System.out.printf("  carga:      %,8d ms (GC %d ms)%n", load / 1000000, gc);
+            System.out.printf("  lectura:    %,8d ns/contacto%n", lookup / LOOKUPS);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Medición de las búsquedas por prefijo con un millón de contactos.
+ *
+ * <p>
+ * Se compara el índice ordenado de MemAddressBook con el recorrido de todas
+ * las filas de ColumnarAddressBook y con recorrer {@link GlobalAddressBook#getAll()}
+ * comparando cada contacto, que es lo que tenía que hacer un cliente antes
+ * de existir la búsqueda.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class ContactSearchBenchmark {
+
+    private static final int CONTACTS = 1000000;
+
+    private static final int LIMIT = 20;
+
+    private static final String[] PREFIXES = { "name12", "SURNAME3", "nam", "x" };
+
+    public static void main(String[] args) {
+        List<Contact> contacts = new ArrayList<Contact>(CONTACTS);
+        for (int i = 0; i < CONTACTS; i++) {
+            Contact contact = new Contact();
+            contact.setFirstName("Name" + (i % 5000));
+            contact.setSurname("Surname" + (i / 50));
+            contacts.add(contact);
+        }
+
+        MemAddressBook mem = new MemAddressBook();
+        mem.setIdGenerator(new TimeOrderedIdGenerator());
+        mem.addContacts(contacts);
+        ColumnarAddressBook columnar = new ColumnarAddressBook(CONTACTS);
+        columnar.addContacts(contacts);
+        contacts = null;
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 2; round++) {
+            for (String prefix : PREFIXES) {
+                long indexed = time(mem, prefix);
+                long scanned = time(columnar, prefix);
+                long start = System.nanoTime();
+                int found = scanAll(mem, prefix);
+                long all = System.nanoTime() - start;
+
+                if (round > 0) {
+                    System.out.printf("%-9s (%,7d coincidencias) prefijos: %7.3f ms"
+                                      + "  columnas: %8.1f ms  getAll: %8.1f ms%n",
+                                      prefix, found, indexed / 1e6, scanned / 1e6, all / 1e6);
+                }
+            }
+        }
+    }
+
+    private static long time(GlobalAddressBook addressBook, String prefix) {
+        long start = System.nanoTime();
+        addressBook.search(prefix, LIMIT);
+        return System.nanoTime() - start;
+    }
+
+    // Búsqueda sin índice desde el cliente.
+    private static int scanAll(GlobalAddressBook addressBook, String prefix) {
+        String key = ContactPrefixIndex.searchKey(prefix);
+        int found = 0;
+        for (Contact contact : addressBook.getAll()) {
+            if (ContactPrefixIndex.searchKey(contact.getFirstName()).startsWith(key)
+                    || ContactPrefixIndex.searchKey(contact.getSurname()).startsWith(key)) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.domain.Contact;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Medición de los contactos procesados por segundo al calcular la suerte
+ * de toda la agenda.
+ *
+ * <p>
+ * Se compara getAll, con toda la agenda en memoria, y la suerte de los
+ * contactos uno a uno con HoroscopeScoringJob con un thread y con un thread
+ * por procesador.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class HoroscopeScoringBenchmark {
+
+    private static final int CONTACTS = 500000;
+
+    public static void main(String[] args) {
+        MemAddressBook addressBook = new MemAddressBook();
+        addressBook.setIdGenerator(new TimeOrderedIdGenerator());
+        addressBook.addContacts(newContacts());
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool singlePool = new ForkJoinPool(1);
+        ForkJoinPool parallelPool = new ForkJoinPool(threads);
+        HoroscopeScoringJob single = new HoroscopeScoringJob(singlePool);
+        HoroscopeScoringJob parallel = new HoroscopeScoringJob(parallelPool);
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 3; round++) {
+            long begin = System.nanoTime();
+            long sum = legacyScore(addressBook);
+            long legacy = System.nanoTime() - begin;
+
+            HoroscopeScoringJob.Report singleReport = single.run(addressBook, null);
+            HoroscopeScoringJob.Report parallelReport = parallel.run(addressBook, null);
+
+            if (round > 0) {
+                System.out.printf("getAll + HoroscopeLuck:       %,10d contacts/s  (suma %d)%n",
+                                  CONTACTS * 1000000000L / legacy, sum);
+                System.out.printf("HoroscopeScoringJob  1 thread: %,10d contacts/s  (suma %d)%n",
+                                  singleReport.getContactsPerSecond(), sum(singleReport));
+                System.out.printf("HoroscopeScoringJob %2d threads: %,10d contacts/s  (suma %d)%n",
+                                  threads, parallelReport.getContactsPerSecond(), sum(parallelReport));
+            }
+        }
+        singlePool.shutdown();
+        parallelPool.shutdown();
+    }
+
+    private static long legacyScore(MemAddressBook addressBook) {
+        long sum = 0;
+        for (Contact contact : addressBook.getAll()) {
+            sum += HoroscopeLuck.predict(contact.getBirthday());
+        }
+        return sum;
+    }
+
+    private static long sum(HoroscopeScoringJob.Report report) {
+        long sum = 0;
+        for (int luck = 1; luck <= 10; luck++) {
+            sum += luck * report.getLuckCount(luck);
+        }
+        return sum;
+    }
+
+    private static List<Contact> newContacts() {
+        Random random = new Random(42);
+        Calendar calendar = Calendar.getInstance();
+        List<Contact> contacts = new ArrayList<Contact>(CONTACTS);
+        for (int i = 0; i < CONTACTS; i++) {
+            calendar.clear();
+            calendar.set(1920 + random.nextInt(100), random.nextInt(12), 1 + random.nextInt(28));
+
+            Contact contact = new Contact();
+            contact.setFirstName("Contact" + i);
+            contact.setSurname("Surname");
+            contact.setBirthday(calendar.getTime());
+            contacts.add(contact);
+        }
+        return contacts;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.IdGenerator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Medición del número de ids generados por segundo con varios threads
+ * compartiendo el mismo IdGenerator.
+ *
+ * <p>
+ * Se compara el IncrementIdGenerator con la implementación anterior (un
+ * int estático no thread-safe, que genera duplicados) y con un AtomicLong
+ * compartido sin reserva de bloques, que es correcto pero hace que todos
+ * los threads compitan por la misma línea de caché.</p>
+ *
+ * <p>
+ * También se incluyen los generadores de ids no secuenciales, UUID y
+ * ordenados por tiempo.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class IdGeneratorBenchmark {
+
+    private static final int IDS_PER_THREAD = 2000000;
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 2; round++) {
+            boolean print = round > 0;
+            run("Anterior (int static)", new LegacyIdGenerator(), threads, print);
+            run("AtomicLong compartido", new AtomicIdGenerator(), threads, print);
+            run("IncrementIdGenerator", new IncrementIdGenerator(), threads, print);
+            run("UUIDIdGenerator", new UUIDIdGenerator(), threads, print);
+            run("TimeOrderedIdGenerator", new TimeOrderedIdGenerator(), threads, print);
+        }
+    }
+
+    private static void run(String name, final IdGenerator idGenerator,
+                            int threads, boolean print) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < IDS_PER_THREAD; i++) {
+                            idGenerator.newId();
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        end.await();
+        long elapsed = System.nanoTime() - begin;
+
+        if (print) {
+            long total = (long) threads * IDS_PER_THREAD;
+            System.out.printf("%-24s %2d threads: %,12d ids/s%n",
+                              name, threads, total * 1000000000L / elapsed);
+        }
+    }
+
+    /**
+     * Implementación anterior de IncrementIdGenerator.
+     */
+    private static class LegacyIdGenerator implements IdGenerator {
+        static int nextId = 0;
+
+        @Override
+        public String newId() {
+            return Integer.toString(nextId++);
+        }
+    }
+
+    /**
+     * Contador atómico compartido, sin reserva de bloques por thread.
+     */
+    private static class AtomicIdGenerator implements IdGenerator {
+        private final AtomicLong nextId = new AtomicLong();
+
+        @Override
+        public String newId() {
+            return Long.toString(nextId.getAndIncrement());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.domain.Contact;
+
+/**
+ * Medición del coste de añadir contactos a un MemAddressBook según crece
+ * la agenda.
+ *
+ * <p>
+ * Con la detección de duplicados indexada el tiempo por inserción debe
+ * mantenerse constante en todos los bloques. Con el recorrido lineal
+ * anterior crecía con el número de contactos.</p>
+ *
+ * <p>
+ * Recibe el número de contactos como argumento, por defecto un millón, y
+ * los añade en 20 bloques.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class MemAddressBookBenchmark {
+
+    private static final int DEFAULT_CONTACTS = 1000000;
+
+    private static final int BATCHES = 20;
+
+    public static void main(String[] args) {
+        int contacts = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CONTACTS;
+        int batchSize = Math.max(1, contacts / BATCHES);
+
+        // Calentamiento para que el JIT compile el código medido.
+        run(batchSize, false);
+        run(batchSize, true);
+    }
+
+    private static void run(int batchSize, boolean print) {
+        MemAddressBook addressBook = new MemAddressBook();
+        addressBook.setIdGenerator(new IncrementIdGenerator());
+
+        int n = 0;
+        for (int batch = 1; batch <= BATCHES; batch++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < batchSize; i++, n++) {
+                Contact contact = new Contact();
+                contact.setFirstName("Name" + n);
+                contact.setSurname("Surname" + n);
+                addressBook.addContact(contact);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            if (print) {
+                System.out.printf("%8d contactos: %6d ns/inserción%n",
+                                  n, elapsed / batchSize);
+            }
+        }
+    }
+}
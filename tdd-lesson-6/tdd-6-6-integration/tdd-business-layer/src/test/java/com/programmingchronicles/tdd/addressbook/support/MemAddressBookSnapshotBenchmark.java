@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.domain.Contact;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Medición del tiempo de guardar y cargar un snapshot de un MemAddressBook.
+ *
+ * <p>
+ * Todo lo que se crea durante la carga sigue vivo al terminar, una
+ * recolección durante la carga lo copia entero y se mide el GC en lugar de
+ * la carga. Se debe lanzar con un heap fijo y suficiente para las dos
+ * agendas, por ejemplo con MAVEN_OPTS="-Xms3g -Xmx3g".</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class MemAddressBookSnapshotBenchmark {
+
+    private static final int CONTACTS = 1000000;
+
+    // Vueltas de calentamiento para el JIT: cada bucle de la carga se
+    // ejecuta una vez por vuelta, y hasta la tercera no está compilado.
+    private static final int WARMUP_ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        MemAddressBook addressBook = new MemAddressBook();
+        addressBook.setIdGenerator(new TimeOrderedIdGenerator());
+
+        List<Contact> contacts = new ArrayList<Contact>(CONTACTS);
+        for (int i = 0; i < CONTACTS; i++) {
+            Contact contact = new Contact();
+            contact.setFirstName("Name" + (i % 5000));
+            contact.setSurname("Surname" + (i / 50));
+            contact.setPhone("6" + (10000000 + i));
+            contact.setBirthday(new Date(i * 86400000L % (50 * 365 * 86400000L)));
+            contacts.add(contact);
+        }
+        addressBook.addContacts(contacts);
+        contacts = null;
+
+        File file = File.createTempFile("addressbook", ".snapshot");
+        try {
+            for (int round = 0; round <= WARMUP_ROUNDS; round++) {
+                long start = System.nanoTime();
+                addressBook.saveSnapshot(file);
+                long save = System.nanoTime() - start;
+
+                MemAddressBook restored = new MemAddressBook();
+                System.gc();
+                start = System.nanoTime();
+                int count = restored.loadSnapshot(file);
+                long load = System.nanoTime() - start;
+
+                if (round == WARMUP_ROUNDS) {
+                    System.out.printf("snapshot: %,d contactos, %,d KB%n",
+                                      count, file.length() / 1024);
+                    System.out.printf("  guardar: %6d ms%n", save / 1000000);
+                    System.out.printf("  cargar:  %6d ms%n", load / 1000000);
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
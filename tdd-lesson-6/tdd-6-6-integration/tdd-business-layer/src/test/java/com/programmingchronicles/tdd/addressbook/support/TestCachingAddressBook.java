@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.addressbook.InvalidIdException;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test de CachingAddressBook.
+ *
+ * <p>
+ * La agenda decorada es un mock: el número de veces que se invoca indica
+ * si una lectura se ha servido desde la caché o no.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestCachingAddressBook {
+
+    // Stubs y Mocks
+    private GlobalAddressBook mockAddressBook;
+
+    // Reloj de la caché controlado por los tests.
+    private long now;
+
+    // Object Under Test
+    private CachingAddressBook addressBook;
+
+    @Before
+    public void setUp() {
+        mockAddressBook = mock(GlobalAddressBook.class);
+        when(mockAddressBook.getContact("1")).thenReturn(newContact("1", "Pedro"));
+        when(mockAddressBook.getContact("2")).thenReturn(newContact("2", "Eduardo"));
+        when(mockAddressBook.getContact("3")).thenReturn(newContact("3", "Alfonso"));
+
+        now = 1000;
+        addressBook = new CachingAddressBook() {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        addressBook.setAddressBook(mockAddressBook);
+    }
+
+    private static Contact newContact(String id, String firstName) {
+        Contact contact = new Contact();
+        contact.setId(id);
+        contact.setFirstName(firstName);
+        return contact;
+    }
+
+    @Test
+    public void testGetContactCached() {
+        Contact contact = addressBook.getContact("1");
+        Contact cached = addressBook.getContact("1");
+
+        assertEquals("Pedro", contact.getFirstName());
+        assertEquals("Pedro", cached.getFirstName());
+        verify(mockAddressBook, times(1)).getContact("1");
+
+        assertEquals(1, addressBook.getHitCount());
+        assertEquals(1, addressBook.getMissCount());
+        assertEquals(0.5, addressBook.getHitRatio(), 0.001);
+    }
+
+    /**
+     * Los clientes reciben copias, modificarlas no modifica la caché.
+     */
+    @Test
+    public void testGetContactReturnsCopy() {
+        addressBook.getContact("1").setFirstName("Modified");
+
+        assertEquals("Pedro", addressBook.getContact("1").getFirstName());
+    }
+
+    /**
+     * Los ids inexistentes no se cachean.
+     */
+    @Test
+    public void testGetContactInvalidId() {
+        when(mockAddressBook.getContact("invalid")).thenThrow(new InvalidIdException());
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                addressBook.getContact("invalid");
+                fail("InvalidIdException expected");
+            } catch (InvalidIdException ex) {
+                assertTrue(true);
+            }
+        }
+        verify(mockAddressBook, times(2)).getContact("invalid");
+    }
+
+    /**
+     * Pasado el tiempo de vida la entrada se vuelve a leer.
+     */
+    @Test
+    public void testTimeToLive() {
+        addressBook.setTimeToLive(100);
+
+        addressBook.getContact("1");
+        now += 99;
+        addressBook.getContact("1");
+        verify(mockAddressBook, times(1)).getContact("1");
+
+        now += 1;
+        addressBook.getContact("1");
+        verify(mockAddressBook, times(2)).getContact("1");
+        assertEquals(1, addressBook.getExpirationCount());
+    }
+
+    /**
+     * Al superar el tamaño se expulsa la entrada usada hace más tiempo.
+     */
+    @Test
+    public void testLruEviction() {
+        addressBook.setMaxEntries(2);
+
+        addressBook.getContact("1");
+        addressBook.getContact("2");
+        // El 1 pasa a ser el más reciente, se expulsa el 2.
+        addressBook.getContact("1");
+        addressBook.getContact("3");
+
+        addressBook.getContact("1");
+        verify(mockAddressBook, times(1)).getContact("1");
+        addressBook.getContact("2");
+        verify(mockAddressBook, times(2)).getContact("2");
+
+        // El 2 expulsa al 3.
+        assertEquals(2, addressBook.getEvictionCount());
+    }
+
+    /**
+     * El listado completo no se cachea, maxEntries no limitaría su tamaño.
+     */
+    @Test
+    public void testGetAllNotCached() {
+        when(mockAddressBook.getAll()).thenReturn(Arrays.asList(newContact("1", "Pedro")));
+
+        assertEquals(1, addressBook.getAll().size());
+        addressBook.getAll();
+        verify(mockAddressBook, times(2)).getAll();
+        assertEquals(0, addressBook.getHitCount());
+    }
+
+    /**
+     * Un alta invalida las páginas.
+     */
+    @Test
+    public void testGetPageInvalidatedByAdd() {
+        when(mockAddressBook.getPage(null, 2)).thenReturn(Arrays.asList(newContact("1", "Pedro")));
+
+        addressBook.getPage(null, 2);
+        addressBook.getPage(null, 2);
+        verify(mockAddressBook, times(1)).getPage(null, 2);
+
+        Contact contact = newContact(null, "Eduardo");
+        addressBook.addContact(contact);
+        verify(mockAddressBook).addContact(contact);
+
+        addressBook.getPage(null, 2);
+        verify(mockAddressBook, times(2)).getPage(null, 2);
+    }
+
+    /**
+     * Cada página se cachea por separado, y una baja invalida las páginas
+     * y el contacto eliminado.
+     */
+    @Test
+    public void testGetPageInvalidatedByDelete() {
+        when(mockAddressBook.getPage(null, 2)).thenReturn(
+                Arrays.asList(newContact("1", "Pedro"), newContact("2", "Eduardo")));
+        when(mockAddressBook.getPage("2", 2)).thenReturn(
+                Arrays.asList(newContact("3", "Alfonso")));
+
+        List<Contact> page = addressBook.getPage(null, 2);
+        addressBook.getPage(null, 2);
+        addressBook.getPage("2", 2);
+        addressBook.getContact("1");
+        verify(mockAddressBook, times(1)).getPage(null, 2);
+        verify(mockAddressBook, times(1)).getPage("2", 2);
+        assertEquals(2, page.size());
+
+        addressBook.deleteContact("1");
+        verify(mockAddressBook).deleteContact("1");
+
+        addressBook.getPage(null, 2);
+        addressBook.getContact("1");
+        verify(mockAddressBook, times(2)).getPage(null, 2);
+        verify(mockAddressBook, times(2)).getContact("1");
+    }
+
+    @Test
+    public void testAddContactsInvalidatesPages() {
+        when(mockAddressBook.getPage(null, 2)).thenReturn(Arrays.asList(newContact("1", "Pedro")));
+        addressBook.getPage(null, 2);
+
+        List<Contact> contacts = Arrays.asList(newContact(null, "Eduardo"));
+        addressBook.addContacts(contacts);
+
+        addressBook.getPage(null, 2);
+        verify(mockAddressBook).addContacts(contacts);
+        verify(mockAddressBook, times(2)).getPage(null, 2);
+    }
+
+    /**
+     * El recorrido de contactos se delega sin cachear.
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testIterateAll() {
+        CloseableIterator<Contact> expectedIterator = mock(CloseableIterator.class);
+        when(mockAddressBook.iterateAll()).thenReturn(expectedIterator);
+
+        assertSame(expectedIterator, addressBook.iterateAll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetPageInvalidSize() {
+        addressBook.getPage(null, 0);
+    }
+}
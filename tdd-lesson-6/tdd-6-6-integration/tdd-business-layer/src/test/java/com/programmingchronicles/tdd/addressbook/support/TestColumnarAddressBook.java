@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.InvalidContactException;
+import com.programmingchronicles.tdd.addressbook.InvalidIdException;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests de ColumnarAddressBook.
+ *
+ * <p>
+ * Se usa una capacidad inicial muy pequeña para que los tests también
+ * prueben el crecimiento de las columnas.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestColumnarAddressBook {
+
+    private ColumnarAddressBook addressBook;
+
+    @Before
+    public void setUp() {
+        addressBook = new ColumnarAddressBook(1);
+    }
+
+    @Test
+    public void testAddContact() throws Exception {
+        Date birthday = new SimpleDateFormat("dd/MM/yyyy").parse("08/01/1974");
+        Contact contact = newContact("  Pedro ", " Ballesteros ");
+        contact.setPhone("610101010");
+        contact.setBirthday(birthday);
+
+        String id = addressBook.addContact(contact);
+
+        assertEquals(id, contact.getId());
+        Contact actual = addressBook.getContact(id);
+        assertEquals(id, actual.getId());
+        assertEquals("Pedro", actual.getFirstName());
+        assertEquals("Ballesteros", actual.getSurname());
+        assertEquals("610101010", actual.getPhone());
+        assertEquals(birthday, actual.getBirthday());
+    }
+
+    @Test
+    public void testNullFields() {
+        String id = addressBook.addContact(newContact("Pedro", null));
+
+        Contact actual = addressBook.getContact(id);
+        assertNull(actual.getSurname());
+        assertNull(actual.getPhone());
+        assertNull(actual.getBirthday());
+    }
+
+    /**
+     * Los textos se guardan en UTF-8, con caracteres de más de un byte.
+     */
+    @Test
+    public void testNonAsciiNames() {
+        String id = addressBook.addContact(newContact("Jos\u00e9 \u00d1\u00fa\u00f1ez", "\u65e5\u672c"));
+
+        Contact actual = addressBook.getContact(id);
+        assertEquals("Jos\u00e9 \u00d1\u00fa\u00f1ez", actual.getFirstName());
+        assertEquals("\u65e5\u672c", actual.getSurname());
+    }
+
+    @Test
+    public void testReturnedContactsAreCopies() {
+        String id = addressBook.addContact(newContact("Pedro", null));
+
+        addressBook.getContact(id).setFirstName("Eduardo");
+
+        assertEquals("Pedro", addressBook.getContact(id).getFirstName());
+    }
+
+    @Test
+    public void testAddDuplicate() {
+        addressBook.addContact(newContact("Pedro", "Ballesteros"));
+        try {
+            addressBook.addContact(newContact(" PEDRO ", "ballesteros"));
+            fail("Expected InvalidContactException");
+        } catch (InvalidContactException ex) {
+            assertEquals(1, addressBook.size());
+        }
+
+        // Otro apellido, o sin apellido, no es duplicado.
+        addressBook.addContact(newContact("Pedro", null));
+        assertEquals(2, addressBook.size());
+    }
+
+    @Test(expected = InvalidContactException.class)
+    public void testAddWithoutName() {
+        addressBook.addContact(newContact("   ", null));
+    }
+
+    @Test
+    public void testAddContacts() {
+        List<String> ids = addressBook.addContacts(Arrays.asList(
+                newContact("Pedro", null), newContact("Eduardo", null)));
+
+        assertEquals(Arrays.asList("0", "1"), ids);
+        assertEquals("Eduardo", addressBook.getContact("1").getFirstName());
+    }
+
+    /**
+     * Si un contacto es duplicado no se añade ninguno.
+     */
+    @Test
+    public void testAddContactsDuplicate() {
+        addressBook.addContact(newContact("Pedro", null));
+        try {
+            addressBook.addContacts(Arrays.asList(
+                    newContact("Eduardo", null), newContact("Pedro", null)));
+            fail("Expected InvalidContactException");
+        } catch (InvalidContactException ex) {
+            assertEquals(1, addressBook.size());
+        }
+    }
+
+    @Test
+    public void testGetContactInvalidId() {
+        for (String id : Arrays.asList("0", "-1", "007", "INVALID", null)) {
+            try {
+                addressBook.getContact(id);
+                fail("Expected InvalidIdException for " + id);
+            } catch (InvalidIdException ex) {
+                assertTrue(true);
+            }
+        }
+    }
+
+    @Test
+    public void testDeleteContact() {
+        String id = addressBook.addContact(newContact("Pedro", null));
+        addressBook.addContact(newContact("Eduardo", null));
+
+        addressBook.deleteContact(id);
+        addressBook.deleteContact(id);
+        addressBook.deleteContact("INVALID");
+
+        assertEquals(1, addressBook.size());
+        assertEquals(1, addressBook.getAll().size());
+        assertEquals("Eduardo", addressBook.getAll().get(0).getFirstName());
+        try {
+            addressBook.getContact(id);
+            fail("Expected InvalidIdException");
+        } catch (InvalidIdException ex) {
+            // Una vez eliminado se puede volver a añadir el mismo nombre.
+            addressBook.addContact(newContact("Pedro", null));
+        }
+    }
+
+    /**
+     * Se recorre la agenda página a página, con contactos eliminados
+     * incluido el usado como cursor.
+     */
+    @Test
+    public void testGetPage() {
+        for (String name : Arrays.asList("A", "B", "C", "D", "E")) {
+            addressBook.addContact(newContact(name, null));
+        }
+        addressBook.deleteContact("1");
+        addressBook.deleteContact("2");
+
+        List<Contact> page = addressBook.getPage(null, 2);
+        assertEquals(Arrays.asList("0", "3"), ids(page));
+
+        page = addressBook.getPage("2", 2);
+        assertEquals(Arrays.asList("3", "4"), ids(page));
+
+        page = addressBook.getPage("4", 2);
+        assertTrue(page.isEmpty());
+
+        assertTrue(addressBook.getPage("INVALID", 2).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetPageInvalidSize() {
+        addressBook.getPage(null, 0);
+    }
+
+    @Test
+    public void testIterateAll() {
+        for (String name : Arrays.asList("A", "B", "C")) {
+            addressBook.addContact(newContact(name, null));
+        }
+        addressBook.deleteContact("1");
+
+        List<Contact> contacts = new ArrayList<Contact>();
+        CloseableIterator<Contact> iterator = addressBook.iterateAll();
+        try {
+            while (iterator.hasNext()) {
+                contacts.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        assertEquals(Arrays.asList("0", "2"), ids(contacts));
+    }
+
+    /**
+     * Con muchos contactos las columnas crecen varias veces sin perder datos.
+     */
+    @Test
+    public void testGrowth() {
+        for (int i = 0; i < 5000; i++) {
+            addressBook.addContact(newContact("Name" + i, "Surname" + i));
+        }
+
+        assertEquals(5000, addressBook.size());
+        assertEquals("Name4321", addressBook.getContact("4321").getFirstName());
+        assertEquals("Surname0", addressBook.getContact("0").getSurname());
+        assertTrue(addressBook.getOffHeapBytes() > 5000 * 36);
+    }
+
+    /**
+     * Aunque recorre todas las filas, devuelve los mismos resultados que
+     * las agendas con índice.
+     */
+    @Test
+    public void testSearch() {
+        addressBook.addContact(newContact("Pedro", "Ballesteros"));
+        addressBook.addContact(newContact("Beatriz", "Peña"));
+        addressBook.addContact(newContact("Alfonso", null));
+        addressBook.addContact(newContact("pedro", "Gómez"));
+        addressBook.deleteContact("2");
+
+        assertEquals(Arrays.asList("0", "3", "1"), ids(addressBook.search(" PE", 10)));
+        assertEquals(Arrays.asList("0"), ids(addressBook.search("pe", 1)));
+        assertTrue(addressBook.search("alf", 10).isEmpty());
+    }
+
+    @Test
+    public void testGetByBirthday() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy");
+        String[] birthdays = { "30/12/1974", "02/01/1980", "15/06/1980", "31/12/2000" };
+        for (String birthday : birthdays) {
+            Contact contact = newContact("Name" + birthday, null);
+            contact.setBirthday(format.parse(birthday));
+            addressBook.addContact(contact);
+        }
+        addressBook.addContact(newContact("Pedro", null));
+        addressBook.deleteContact("3");
+
+        assertEquals(Arrays.asList("0", "1"), ids(addressBook.getByBirthday(360, 5)));
+        assertEquals(Arrays.asList("2"), ids(addressBook.getByBirthday(167, 167)));
+        assertEquals(Arrays.asList("2", "0", "1"), ids(addressBook.getByBirthday(100, 99)));
+    }
+
+    private static Contact newContact(String firstName, String surname) {
+        Contact contact = new Contact();
+        contact.setFirstName(firstName);
+        contact.setSurname(surname);
+        return contact;
+    }
+
+    private static List<String> ids(List<Contact> contacts) {
+        List<String> ids = new ArrayList<String>();
+        for (Contact contact : contacts) {
+            ids.add(contact.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testAddValidContact() {
+        ValidContact contact = ValidContact.of("Pedro", "Ballesteros", "610101010",
+                                               ContactValue.toEpochDay(1974, 1, 8));
+
+        String id = addressBook.addContact(contact);
+
+        Contact actual = addressBook.getContact(id);
+        assertEquals("Pedro", actual.getFirstName());
+        assertEquals("Ballesteros", actual.getSurname());
+        assertEquals(contact.getBirthday(), actual.getBirthday());
+        assertEquals(1, addressBook.getByBirthday(8, 8).size());
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.Arrays;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Test de ContactBirthdayIndex.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestContactBirthdayIndex {
+
+    private ContactBirthdayIndex index;
+
+    @Before
+    public void setUp() {
+        index = new ContactBirthdayIndex();
+        index.add("1", ContactValue.toEpochDay(1974, 1, 8));
+        index.add("2", ContactValue.toEpochDay(1990, 12, 30));
+        index.add("3", ContactValue.toEpochDay(1976, 2, 29));
+        index.add("4", ContactValue.toEpochDay(2001, 1, 8));
+        index.add("5", ContactValue.NO_BIRTHDAY);
+    }
+
+    /**
+     * Ordenados por día y con el mismo día por id, sea cual sea el año.
+     */
+    @Test
+    public void testGet() {
+        assertEquals(Arrays.asList("1", "4", "3"), index.get(1, 60));
+        assertEquals(Arrays.asList("1", "4"), index.get(8, 8));
+        assertTrue(index.get(61, 363).isEmpty());
+    }
+
+    @Test
+    public void testGetYearEnd() {
+        assertEquals(Arrays.asList("2", "1", "4"), index.get(360, 10));
+    }
+
+    /**
+     * Si el primer día es el siguiente al último se recorre todo el año.
+     */
+    @Test
+    public void testGetWholeYear() {
+        assertEquals(Arrays.asList("3", "2", "1", "4"), index.get(9, 8));
+    }
+
+    @Test
+    public void testRemove() {
+        index.remove("1", ContactValue.toEpochDay(1974, 1, 8));
+
+        assertEquals(Arrays.asList("4"), index.get(8, 8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetInvalidDay() {
+        index.get(0, 367);
+    }
+
+    /**
+     * Los ids de un día quedan en orden natural aunque los contactos estén
+     * en otro orden.
+     */
+    @Test
+    public void testBulkLoad() {
+        ContactBirthdayIndex loaded = new ContactBirthdayIndex(Arrays.asList(
+                new ContactValue("4", null, null, null, ContactValue.toEpochDay(2001, 1, 8)),
+                new ContactValue("5", null, null, null, ContactValue.NO_BIRTHDAY),
+                new ContactValue("10", null, null, null, ContactValue.toEpochDay(1974, 1, 8)),
+                new ContactValue("20", null, null, null, ContactValue.toEpochDay(1990, 12, 30))));
+
+        assertEquals(Arrays.asList("20", "10", "4"), loaded.get(360, 10));
+    }
+
+    @Test
+    public void testBulkLoadAddRemove() {
+        ContactBirthdayIndex loaded = new ContactBirthdayIndex(Arrays.asList(
+                new ContactValue("1", null, null, null, ContactValue.toEpochDay(1974, 1, 8)),
+                new ContactValue("3", null, null, null, ContactValue.toEpochDay(1976, 2, 29))));
+
+        loaded.add("2", ContactValue.toEpochDay(1990, 1, 8));
+        loaded.remove("1", ContactValue.toEpochDay(1974, 1, 8));
+
+        assertEquals(Arrays.asList("2", "3"), loaded.get(1, 60));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.TestValidContact;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.Arrays;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Test de ContactNameIndex.
+ *
+ * <p>
+ * Las reglas de duplicados ya se prueban a través de las agendas, y la
+ * normalización de la clave en {@link TestValidContact}. Aquí solo se prueba
+ * el mantenimiento del índice.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestContactNameIndex {
+
+    private ContactNameIndex index;
+
+    @Before
+    public void setUp() {
+        index = new ContactNameIndex();
+    }
+
+    /**
+     * La clave es la de ValidContact, con la que las agendas buscan en el
+     * índice.
+     */
+    @Test
+    public void testNameKey() {
+        assertEquals(ValidContact.nameKey(" PEDRO ", "ballesteros  "),
+                     ContactNameIndex.nameKey(" PEDRO ", "ballesteros  "));
+    }
+
+    @Test
+    public void testAddDuplicate() {
+        assertTrue(index.add("1", newContact("Pedro", "Ballesteros")));
+        assertFalse(index.add("2", newContact("pedro", "BALLESTEROS")));
+
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void testRemove() {
+        Contact contact = newContact("Pedro", null);
+        index.add("1", contact);
+
+        index.remove("1", contact);
+
+        assertFalse(index.contains(contact));
+        assertEquals(0, index.size());
+    }
+
+    /**
+     * Solo se elimina el nombre si pertenece al id entregado.
+     */
+    @Test
+    public void testRemoveOtherId() {
+        Contact contact = newContact("Pedro", null);
+        index.add("1", contact);
+
+        index.remove("2", contact);
+
+        assertTrue(index.contains(contact));
+    }
+
+    @Test
+    public void testBulkLoad() {
+        ContactNameIndex loaded = new ContactNameIndex(Arrays.asList(
+                new ContactValue("1", "Pedro", "Ballesteros", null, ContactValue.NO_BIRTHDAY),
+                new ContactValue("2", "Pedro", null, null, ContactValue.NO_BIRTHDAY)));
+
+        assertTrue(loaded.containsKey(ContactNameIndex.nameKey(" PEDRO", "ballesteros")));
+        assertTrue(loaded.containsKey(ContactNameIndex.nameKey("pedro", null)));
+        assertEquals(2, loaded.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBulkLoadDuplicate() {
+        new ContactNameIndex(Arrays.asList(
+                new ContactValue("1", "Pedro", "Ballesteros", null, ContactValue.NO_BIRTHDAY),
+                new ContactValue("2", "pedro ", "BALLESTEROS", null, ContactValue.NO_BIRTHDAY)));
+    }
+
+    /**
+     * Un contacto sin id se indexa, pero no se puede eliminar.
+     */
+    @Test
+    public void testAddWithoutId() {
+        Contact contact = newContact("Pedro", null);
+
+        assertTrue(index.add(null, contact));
+
+        assertTrue(index.contains(contact));
+    }
+
+    private static Contact newContact(String firstName, String surname) {
+        Contact contact = new Contact();
+        contact.setFirstName(firstName);
+        contact.setSurname(surname);
+        return contact;
+    }
+}
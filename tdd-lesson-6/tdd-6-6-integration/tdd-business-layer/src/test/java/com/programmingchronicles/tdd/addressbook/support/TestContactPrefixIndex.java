@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.Arrays;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Test de ContactPrefixIndex.
+ *
+ * <p>
+ * Las búsquedas se prueban también a través de las agendas, aquí se prueba
+ * el orden de los resultados y el mantenimiento del índice.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestContactPrefixIndex {
+
+    private ContactPrefixIndex index;
+
+    @Before
+    public void setUp() {
+        index = new ContactPrefixIndex();
+        index.add("1", "Pedro", "Ballesteros");
+        index.add("2", "Beatriz", "Peña");
+        index.add("3", "Alfonso", null);
+        index.add("4", "pedro", "Gómez");
+    }
+
+    /**
+     * Ordenados por el nombre que coincide, y con el mismo nombre por id.
+     */
+    @Test
+    public void testSearchOrder() {
+        assertEquals(Arrays.asList("1", "4", "2"), index.search(" PE", 10));
+    }
+
+    @Test
+    public void testSearchLimit() {
+        assertEquals(Arrays.asList("1"), index.search("pe", 1));
+    }
+
+    /**
+     * El prefijo vacío coincide con todos los nombres y apellidos, cada
+     * contacto se devuelve una sola vez.
+     */
+    @Test
+    public void testSearchAll() {
+        assertEquals(Arrays.asList("3", "1", "2", "4"), index.search("", 10));
+    }
+
+    /**
+     * "Ana" va antes que "Anabel" aunque su id sea mayor.
+     */
+    @Test
+    public void testSearchShorterNameFirst() {
+        index.add("5", "Anabel", null);
+        index.add("6", "Ana", null);
+
+        assertEquals(Arrays.asList("6", "5"), index.search("ana", 10));
+    }
+
+    @Test
+    public void testRemove() {
+        index.remove("1", "Pedro", "Ballesteros");
+
+        assertEquals(Arrays.asList("4", "2"), index.search("pe", 10));
+        assertTrue(index.search("ball", 10).isEmpty());
+    }
+
+    /**
+     * Los ids de un grupo quedan en orden natural aunque los contactos
+     * estén en otro orden, y "Pedro" y "pedro" comparten el grupo.
+     */
+    @Test
+    public void testBulkLoad() {
+        ContactPrefixIndex loaded = new ContactPrefixIndex(Arrays.asList(
+                new ContactValue("3", "Alfonso", null, null, ContactValue.NO_BIRTHDAY),
+                new ContactValue("4", "pedro", "Gómez", null, ContactValue.NO_BIRTHDAY),
+                new ContactValue("10", "Pedro", "Ballesteros", null, ContactValue.NO_BIRTHDAY),
+                new ContactValue("20", "Beatriz", "Peña", null, ContactValue.NO_BIRTHDAY),
+                new ContactValue("30", "Pedro", "pedro", null, ContactValue.NO_BIRTHDAY)));
+
+        assertEquals(Arrays.asList("10", "30", "4", "20"), loaded.search(" PE", 10));
+        assertEquals(Arrays.asList("3"), loaded.search("al", 10));
+    }
+
+    @Test
+    public void testBulkLoadAddRemove() {
+        ContactPrefixIndex loaded = new ContactPrefixIndex(Arrays.asList(
+                new ContactValue("1", "Pedro", "Ballesteros", null, ContactValue.NO_BIRTHDAY),
+                new ContactValue("4", "pedro", "Gómez", null, ContactValue.NO_BIRTHDAY)));
+
+        loaded.add("2", "Beatriz", "Peña");
+        loaded.remove("1", "Pedro", "Ballesteros");
+
+        assertEquals(Arrays.asList("4", "2"), loaded.search("pe", 10));
+        assertTrue(loaded.search("ball", 10).isEmpty());
+    }
+}
@@ -24,13 +24,20 @@ package com.programmingchronicles.tdd.addressbook.support;
 import com.programmingchronicles.tdd.addressbook.support.DbAddressBook;
 import com.programmingchronicles.tdd.addressbook.InvalidContactException;
 import com.programmingchronicles.tdd.addressbook.InvalidIdException;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
 import com.programmingchronicles.tdd.data.AddressBookDao;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.data.DataIntegrityDaoException;
 import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import org.junit.*;
 import org.mockito.ArgumentCaptor;
@@ -328,7 +335,7 @@ public class TestDbAddressBook {
      *
      * <p>
      * Ahora la forma de provocar un contacto repetido es programar
-     * el stub para que devuelve el contacto que se va a añadir, ya
+     * el stub para que indique que el contacto ya existe, ya
      * que usar el addContact(c1) no sirve para nada.</p>
      *
      */
@@ -341,12 +348,12 @@ public class TestDbAddressBook {
         c2.setFirstName("Pedro");
 
         // Ahora la forma de provocar un contacto repetido es programar
-        // el stub para que devuelve el contacto que se va a añadir, ya
-        // que usar el addContact(c1) no sirve para nada.
+        // el stub para que indique que el contacto ya existe, ya que
+        // usar el addContact(c1) no sirve para nada.
         //
         //   addressBook.addContact(c1);
         //
-        when(mockAddressBookDao.getAll()).thenReturn(Arrays.asList(c1));
+        when(mockAddressBookDao.existsContactName("Pedro", null)).thenReturn(true);
 
         try {
             addressBook.addContact(c2);
@@ -367,7 +374,9 @@ public class TestDbAddressBook {
         Contact c2 = new Contact();
         c2.setFirstName("PEDRO");
 
-        when(mockAddressBookDao.getAll()).thenReturn(Arrays.asList(c1));
+        // Ignorar mayúsculas es responsabilidad del DAO, el stub simula
+        // que la BD encuentra el contacto.
+        when(mockAddressBookDao.existsContactName("PEDRO", null)).thenReturn(true);
         try {
             addressBook.addContact(c2);
             fail("Expected InvalidContactException");
@@ -406,7 +415,9 @@ public class TestDbAddressBook {
         Contact c2 = new Contact();
         c2.setFirstName("    PEDRO    "); // Mas de un espacio
 
-        when(mockAddressBookDao.getAll()).thenReturn(Arrays.asList(c1));
+        // La consulta al DAO se debe hacer con los nombres sin espacios, el
+        // stub solo responde si se llama con el nombre ya normalizado.
+        when(mockAddressBookDao.existsContactName("PEDRO", null)).thenReturn(true);
         try {
             addressBook.addContact(c2);
             fail("Expected InvalidContactException");
@@ -428,7 +439,7 @@ public class TestDbAddressBook {
         c2.setFirstName("Pedro");
         c2.setSurname("Ballesteros");
 
-        when(mockAddressBookDao.getAll()).thenReturn(Arrays.asList(c1));
+        when(mockAddressBookDao.existsContactName("Pedro", "Ballesteros")).thenReturn(true);
         try {
             addressBook.addContact(c2);
             fail("Expected InvalidContactException");
@@ -452,7 +463,7 @@ public class TestDbAddressBook {
 
         // Ya existe en la base de datos un contacto con el mismo nombre y
         // con un apellido.
-        when(mockAddressBookDao.getAll()).thenReturn(Arrays.asList(c1));
+        when(mockAddressBookDao.existsContactName("Pedro", "Ballesteros")).thenReturn(true);
 
         // Se prueba a añadir correctamente un contacto con el mismo nombre
         // y sin apellido.
@@ -472,7 +483,7 @@ public class TestDbAddressBook {
         c2.setFirstName("Pedro");
         c2.setSurname("Ballesteros");
 
-        when(mockAddressBookDao.getAll()).thenReturn(Arrays.asList(c1));
+        when(mockAddressBookDao.existsContactName("Pedro", null)).thenReturn(true);
 
         addressBook.addContact(c2);
 
@@ -489,7 +500,7 @@ public class TestDbAddressBook {
         c2.setFirstName("Pedro");
         c2.setSurname("Ballesteros");
 
-        when(mockAddressBookDao.getAll()).thenReturn(Arrays.asList(c1));
+        when(mockAddressBookDao.existsContactName("Pedro", "Herranz")).thenReturn(true);
 
         addressBook.addContact(c2);
 
@@ -506,7 +517,7 @@ public class TestDbAddressBook {
         c2.setFirstName("Pedro");
         c2.setSurname("BALLESTEROS");
 
-        when(mockAddressBookDao.getAll()).thenReturn(Arrays.asList(c1));
+        when(mockAddressBookDao.existsContactName("Pedro", "BALLESTEROS")).thenReturn(true);
         try {
             addressBook.addContact(c2);
             fail("Expected InvalidContactException");
@@ -525,7 +536,7 @@ public class TestDbAddressBook {
         c2.setFirstName("Pedro");
         c2.setSurname("   Ballesteros   "); // Varios espacios
 
-        when(mockAddressBookDao.getAll()).thenReturn(Arrays.asList(c1));
+        when(mockAddressBookDao.existsContactName("Pedro", "Ballesteros")).thenReturn(true);
         try {
             addressBook.addContact(c2);
             fail("Expected InvalidContactException");
@@ -534,6 +545,108 @@ public class TestDbAddressBook {
         }
     }
 
+    /**
+     * Otra aplicación puede añadir el mismo contacto entre la comprobación
+     * y la inserción, en ese caso la BD lo rechaza con su índice único.
+     */
+    @Test(expected = InvalidContactException.class)
+    public void testAddDuplicateRejectedByDatabase() {
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+
+        when(mockAddressBookDao.addContact(any(Contact.class)))
+                .thenThrow(new DataIntegrityDaoException(new SQLException()));
+
+        addressBook.addContact(c1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAddContacts() {
+        Contact c1 = new Contact();
+        c1.setFirstName(" Pedro ");
+        Contact c2 = new Contact();
+        c2.setFirstName("Eduardo");
+        when(mockAddressBookDao.addContacts(anyCollection())).thenReturn(Arrays.asList("1", "2"));
+
+        List<String> ids = addressBook.addContacts(Arrays.asList(c1, c2));
+
+        // Se devuelven los ids del DAO, y al DAO llegan los contactos sin
+        // espacios sin modificar los del llamante.
+        assertEquals(Arrays.asList("1", "2"), ids);
+        ArgumentCaptor<Collection> argument = ArgumentCaptor.forClass(Collection.class);
+        verify(mockAddressBookDao).addContacts(argument.capture());
+        Iterator<Contact> added = argument.getValue().iterator();
+        assertEquals("Pedro", added.next().getFirstName());
+        assertSame(c2, added.next());
+        assertEquals(" Pedro ", c1.getFirstName());
+    }
+
+    /**
+     * El contacto del llamante no se modifica, al DAO llega una copia sin
+     * espacios.
+     */
+    @Test
+    public void testAddContactNotModified() {
+        Contact contact = new Contact();
+        contact.setFirstName(" Pedro ");
+        contact.setSurname(" Ballesteros ");
+
+        addressBook.addContact(contact);
+
+        ArgumentCaptor<Contact> argument = ArgumentCaptor.forClass(Contact.class);
+        verify(mockAddressBookDao).addContact(argument.capture());
+        assertEquals("Pedro", argument.getValue().getFirstName());
+        assertEquals("Ballesteros", argument.getValue().getSurname());
+        assertEquals(" Pedro ", contact.getFirstName());
+        assertEquals(" Ballesteros ", contact.getSurname());
+    }
+
+    @Test
+    public void testAddContactsWithoutFirstName() {
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+        Contact c2 = new Contact();
+
+        try {
+            addressBook.addContacts(Arrays.asList(c1, c2));
+            fail("Expected InvalidContactException");
+        } catch (InvalidContactException ex) {
+            verify(mockAddressBookDao, never()).addContacts(anyCollection());
+        }
+    }
+
+    @Test
+    public void testAddContactsDuplicateInBatch() {
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+        c1.setSurname("Ballesteros");
+        Contact c2 = new Contact();
+        c2.setFirstName("PEDRO");
+        c2.setSurname(" ballesteros ");
+
+        try {
+            addressBook.addContacts(Arrays.asList(c1, c2));
+            fail("Expected InvalidContactException");
+        } catch (InvalidContactException ex) {
+            verify(mockAddressBookDao, never()).addContacts(anyCollection());
+        }
+    }
+
+    /**
+     * Los duplicados con los contactos existentes los detecta la BD.
+     */
+    @Test(expected = InvalidContactException.class)
+    public void testAddContactsRejectedByDatabase() {
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+
+        when(mockAddressBookDao.addContacts(anyCollection()))
+                .thenThrow(new DataIntegrityDaoException(new SQLException()));
+
+        addressBook.addContacts(Arrays.asList(c1));
+    }
+
     @Test
     public void testsAddDifferentNameSameData() throws ParseException {
         Date expedtedBirthday = dateFormat.parse("8/1/1974");
@@ -551,7 +664,7 @@ public class TestDbAddressBook {
         c2.setPhone("610101010");
 
         // El contacto c1 ya existe en la base de datos
-        when(mockAddressBookDao.getAll()).thenReturn(Arrays.asList(c1));
+        when(mockAddressBookDao.existsContactName("Pedro", "Ballesteros")).thenReturn(true);
 
         // Se debe poder añadir el segundo contacto con exito
         addressBook.addContact(c2);
@@ -632,4 +745,104 @@ public class TestDbAddressBook {
         // En un el ejercicio 6.4 se muestra como solucionar esta comparación
         // mediante custom matchers, lo que evita depender del equals.
     }
+
+    /**
+     * El recorrido de contactos se delega en el DAO, que es el responsable
+     * de leer los contactos bajo demanda.
+     */
+    @Test
+    public void testIterateAll() {
+        CloseableIterator<Contact> expectedIterator = mock(CloseableIterator.class);
+        when(mockAddressBookDao.iterateAll()).thenReturn(expectedIterator);
+
+        assertSame(expectedIterator, addressBook.iterateAll());
+    }
+
+    /**
+     * La paginación se delega en el DAO, que la resuelve con el índice
+     * de la clave primaria.
+     */
+    @Test
+    public void testGetPage() {
+        List<Contact> expectedPage = Arrays.asList(new Contact(), new Contact());
+        when(mockAddressBookDao.getPage("10", 2)).thenReturn(expectedPage);
+
+        assertSame(expectedPage, addressBook.getPage("10", 2));
+    }
+
+    @Test
+    public void testGetPageInvalidSize() {
+        try {
+            addressBook.getPage(null, 0);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            verify(mockAddressBookDao, never()).getPage(anyString(), anyInt());
+        }
+    }
+
+    /**
+     * La búsqueda se delega en el DAO, que la resuelve con los índices
+     * de los nombres.
+     */
+    @Test
+    public void testSearch() {
+        List<Contact> expected = Arrays.asList(new Contact());
+        when(mockAddressBookDao.search("pe", 5)).thenReturn(expected);
+
+        assertSame(expected, addressBook.search("pe", 5));
+    }
+
+    @Test
+    public void testSearchInvalidLimit() {
+        try {
+            addressBook.search("pe", 0);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            verify(mockAddressBookDao, never()).search(anyString(), anyInt());
+        }
+    }
+
+    @Test
+    public void testGetByBirthday() {
+        List<Contact> expected = Arrays.asList(new Contact());
+        when(mockAddressBookDao.getByBirthday(360, 5)).thenReturn(expected);
+
+        assertSame(expected, addressBook.getByBirthday(360, 5));
+    }
+
+    @Test
+    public void testGetByBirthdayInvalidDay() {
+        try {
+            addressBook.getByBirthday(1, 367);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ex) {
+            verify(mockAddressBookDao, never()).getByBirthday(anyInt(), anyInt());
+        }
+    }
+
+    /**
+     * Un contacto ya validado llega al DAO con los mismos datos.
+     */
+    @Test
+    public void testAddValidContact() {
+        ValidContact contact = ValidContact.of("Pedro", "Ballesteros", null,
+                                               ContactValue.toEpochDay(1974, 1, 8));
+        when(mockAddressBookDao.addContact(any(Contact.class))).thenReturn("expectedId");
+
+        String id = addressBook.addContact(contact);
+
+        assertEquals("expectedId", id);
+        ArgumentCaptor<Contact> argument = ArgumentCaptor.forClass(Contact.class);
+        verify(mockAddressBookDao).addContact(argument.capture());
+        assertEquals("Pedro", argument.getValue().getFirstName());
+        assertEquals("Ballesteros", argument.getValue().getSurname());
+        assertEquals(contact.getBirthday(), argument.getValue().getBirthday());
+    }
+
+    @Test(expected = InvalidContactException.class)
+    public void testAddValidContactDuplicate() {
+        when(mockAddressBookDao.existsContactName("Pedro", null)).thenReturn(true);
+
+        addressBook.addContact(ValidContact.of("Pedro", null, null, ContactValue.NO_BIRTHDAY));
+    }
 }
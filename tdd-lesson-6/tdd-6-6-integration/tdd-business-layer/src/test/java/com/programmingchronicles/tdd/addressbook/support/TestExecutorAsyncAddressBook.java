@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.AsyncCallback;
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.addressbook.InvalidIdException;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test de ExecutorAsyncAddressBook.
+ *
+ * <p>
+ * La agenda que ejecuta las operaciones es un mock, para controlar el
+ * resultado y el momento en que termina cada operación.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestExecutorAsyncAddressBook {
+
+    // Stubs y Mocks
+    private GlobalAddressBook mockAddressBook;
+
+    // Object Under Test
+    private ExecutorAsyncAddressBook addressBook;
+
+    @Before
+    public void setUp() {
+        mockAddressBook = mock(GlobalAddressBook.class);
+        addressBook = new ExecutorAsyncAddressBook(mockAddressBook, 1, 1);
+    }
+
+    @After
+    public void tearDown() {
+        addressBook.shutdown();
+    }
+
+    @Test
+    public void testGetContact() throws Exception {
+        Contact contact = new Contact();
+        contact.setId("1");
+        when(mockAddressBook.getContact("1")).thenReturn(contact);
+
+        Future<Contact> future = addressBook.getContact("1", null);
+
+        assertSame(contact, future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCallbackSuccess() throws Exception {
+        Contact contact = new Contact();
+        when(mockAddressBook.addContact(contact)).thenReturn("1");
+        RecordingCallback<String> callback = new RecordingCallback<String>();
+
+        addressBook.addContact(contact, callback);
+
+        assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+        assertEquals("1", callback.result);
+        assertNull(callback.cause);
+    }
+
+    @Test
+    public void testCallbackFailure() throws Exception {
+        InvalidIdException error = new InvalidIdException();
+        doThrow(error).when(mockAddressBook).deleteContact("1");
+        RecordingCallback<Void> callback = new RecordingCallback<Void>();
+
+        Future<Void> future = addressBook.deleteContact("1", callback);
+
+        assertTrue(callback.done.await(5, TimeUnit.SECONDS));
+        assertSame(error, callback.cause);
+        try {
+            future.get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException ex) {
+            assertSame(error, ex.getCause());
+        }
+    }
+
+    /**
+     * Con el único thread ocupado y la cola llena la siguiente operación
+     * se rechaza sin esperar.
+     */
+    @Test
+    public void testRejectedWhenQueueFull() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(mockAddressBook.getContact("1")).thenAnswer(new Answer<Contact>() {
+            @Override
+            public Contact answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        });
+
+        Future<Contact> running = addressBook.getContact("1", null);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        Future<Contact> queued = addressBook.getContact("2", null);
+        assertEquals(1, addressBook.getQueueSize());
+
+        try {
+            addressBook.getContact("3", null);
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException ex) {
+            assertEquals(1, addressBook.getRejectedCount());
+        }
+
+        release.countDown();
+        running.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+        verify(mockAddressBook, never()).getContact("3");
+    }
+
+    /**
+     * Tras shutdown las operaciones se rechazan, pero no cuentan como
+     * rechazadas por la cola llena.
+     */
+    @Test
+    public void testRejectedAfterShutdown() throws Exception {
+        addressBook.shutdown(5000);
+
+        try {
+            addressBook.getContact("1", null);
+            fail("Expected RejectedExecutionException");
+        } catch (RejectedExecutionException ex) {
+            assertEquals("Address book is shut down", ex.getMessage());
+            assertEquals(0, addressBook.getRejectedCount());
+        }
+        verify(mockAddressBook, never()).getContact("1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreads() {
+        new ExecutorAsyncAddressBook(mockAddressBook, 0, 1);
+    }
+
+    /**
+     * Guarda el resultado de la operación.
+     */
+    private static class RecordingCallback<T> implements AsyncCallback<T> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile T result;
+        private volatile Throwable cause;
+
+        @Override
+        public void onSuccess(T result) {
+            this.result = result;
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+            this.cause = cause;
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.Calendar;
+import java.util.Date;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Test de HoroscopeLuck, con los valores frontera de cada regla y todas
+ * las entradas de la tabla comprobadas contra las reglas de Horoscope de la
+ * lección 1 (tdd-1-5-testcoverage).
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestHoroscopeLuck {
+
+    @Test
+    public void testSummer() {
+        assertEquals(1, luck(2010, 5, 31));
+        assertEquals(8, luck(2010, 6, 1));
+        assertEquals(10, luck(2010, 6, 6));
+        assertEquals(10, luck(2010, 8, 1));
+        assertEquals(8, luck(2010, 8, 31));
+        assertEquals(1, luck(2010, 9, 1));
+    }
+
+    @Test
+    public void testWinter() {
+        assertEquals(1, luck(2010, 11, 30));
+        assertEquals(6, luck(2010, 12, 1));
+        assertEquals(6, luck(2010, 12, 24));
+        assertEquals(6, luck(2011, 1, 7));
+        assertEquals(6, luck(2012, 2, 29));
+        assertEquals(1, luck(2011, 3, 1));
+    }
+
+    @Test
+    public void testChristmas() {
+        assertEquals(9, luck(2010, 12, 25));
+        assertEquals(9, luck(2010, 12, 31));
+        assertEquals(9, luck(2011, 1, 1));
+        assertEquals(9, luck(2011, 1, 6));
+    }
+
+    /**
+     * Fechas anteriores al 1/1/1970, con días desde el 1/1/1970 negativos.
+     */
+    @Test
+    public void testBeforeEpoch() {
+        assertEquals(10, luck(1969, 8, 31));
+        assertEquals(8, luck(1969, 8, 30));
+        assertEquals(9, luck(1969, 12, 31));
+    }
+
+    /**
+     * Recorre un ciclo de 28 años, en el que cada día del año (también el
+     * 29 de febrero) cae en todos los días de la semana, y compara cada
+     * fecha con las reglas de la lección 1.
+     */
+    @Test
+    public void testAllDaysAndWeekDays() {
+        boolean[] checked = new boolean[ContactValue.DAYS_IN_YEAR * 7];
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2000, Calendar.JANUARY, 1);
+
+        while (calendar.get(Calendar.YEAR) < 2028) {
+            int day = calendar.get(Calendar.DATE);
+            int month = calendar.get(Calendar.MONTH) + 1;
+            int weekDay = calendar.get(Calendar.DAY_OF_WEEK);
+
+            assertEquals(calendar.getTime().toString(), lessonLuck(day, month, weekDay),
+                         HoroscopeLuck.predict(calendar.getTime()));
+            checked[(ContactValue.dayOfYear(month, day) - 1) * 7 + weekDay - Calendar.SUNDAY] = true;
+            calendar.add(Calendar.DATE, 1);
+        }
+
+        for (int i = 0; i < checked.length; i++) {
+            assertTrue("Not checked: " + i, checked[i]);
+        }
+    }
+
+    @Test
+    public void testNoBirthday() {
+        assertEquals(HoroscopeLuck.NO_LUCK, HoroscopeLuck.predict(null));
+        assertEquals(HoroscopeLuck.NO_LUCK, HoroscopeLuck.predictEpochDay(ContactValue.NO_BIRTHDAY));
+    }
+
+    /**
+     * Reglas de Horoscope.makePredictions de la lección 1, con los campos
+     * de Calendar como allí.
+     */
+    private static int lessonLuck(int day, int month, int weekDay) {
+        if (month >= 6 && month <= 8) {
+            // Verano
+            if (weekDay == Calendar.SUNDAY) {
+                return 10;
+            }
+            return 8;
+        } else if (month == 12 || month <= 2) {
+            // Invierno
+            if ((month == 12 && day >= 25) || (month == 1 && day <= 6)) {
+                // Navidad
+                return 9;
+            }
+            return 6;
+        }
+        return 1;
+    }
+
+    private static int luck(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+        Date birthday = calendar.getTime();
+
+        int luck = HoroscopeLuck.predict(birthday);
+        assertEquals(luck, HoroscopeLuck.predictEpochDay(ContactValue.toEpochDay(year, month, day)));
+        return luck;
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test de HoroscopeScoringJob.
+ *
+ * <p>
+ * La agenda es un mock que devuelve un iterador sobre una lista, para
+ * comprobar que el iterador siempre se cierra.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestHoroscopeScoringJob {
+
+    // Stubs y Mocks
+    private GlobalAddressBook mockAddressBook;
+    private ListIterator contacts;
+
+    // Object Under Test
+    private HoroscopeScoringJob job;
+    private ForkJoinPool pool;
+
+    @Before
+    public void setUp() {
+        mockAddressBook = mock(GlobalAddressBook.class);
+        pool = new ForkJoinPool(2);
+        job = new HoroscopeScoringJob(pool);
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Test
+    public void testRun() {
+        // 1/8/2010 domingo en verano, 26/12/2010 navidad, 4/4/2010 resto del año.
+        setContacts(newContact(2010, 8, 1), newContact(2010, 12, 26),
+                    newContact(2010, 4, 4), new Contact());
+        job.setChunkSize(2);
+        job.setThreshold(1);
+
+        final List<Contact> scored = new ArrayList<Contact>();
+        final List<Integer> luck = new ArrayList<Integer>();
+        HoroscopeScoringJob.Report report = job.run(mockAddressBook,
+                new HoroscopeScoringJob.ScoreHandler() {
+            @Override
+            public void onScores(List<Contact> contacts, int[] values) {
+                assertEquals(contacts.size(), values.length);
+                scored.addAll(contacts);
+                for (int value : values) {
+                    luck.add(value);
+                }
+            }
+        });
+
+        assertEquals(contacts.list, scored);
+        assertEquals(Arrays.asList(10, 9, 1, HoroscopeLuck.NO_LUCK), luck);
+        assertEquals(4, report.getContacts());
+        assertEquals(1, report.getWithoutBirthday());
+        assertEquals(1, report.getLuckCount(10));
+        assertEquals(0, report.getLuckCount(8));
+        assertTrue(contacts.closed);
+    }
+
+    @Test
+    public void testRunEmpty() {
+        setContacts();
+
+        HoroscopeScoringJob.Report report = job.run(mockAddressBook, null);
+
+        assertEquals(0, report.getContacts());
+        assertTrue(contacts.closed);
+    }
+
+    /**
+     * Con bloques y tareas divididas el resultado debe ser el mismo que
+     * prediciendo los contactos uno a uno.
+     */
+    @Test
+    public void testRunSplit() {
+        Random random = new Random(1);
+        Contact[] list = new Contact[10000];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = newContact(1920 + random.nextInt(100), 1 + random.nextInt(12),
+                                 1 + random.nextInt(28));
+        }
+        setContacts(list);
+        job.setChunkSize(999);
+        job.setThreshold(50);
+
+        final int[] count = { 0 };
+        HoroscopeScoringJob.Report report = job.run(mockAddressBook,
+                new HoroscopeScoringJob.ScoreHandler() {
+            @Override
+            public void onScores(List<Contact> contacts, int[] luck) {
+                for (int i = 0; i < luck.length; i++) {
+                    assertEquals(HoroscopeLuck.predict(contacts.get(i).getBirthday()), luck[i]);
+                }
+                count[0] += luck.length;
+            }
+        });
+
+        assertEquals(list.length, count[0]);
+        assertEquals(list.length, report.getContacts());
+    }
+
+    /**
+     * Aunque falle el handler se debe cerrar el iterador.
+     */
+    @Test
+    public void testRunHandlerError() {
+        setContacts(newContact(2010, 8, 1));
+
+        try {
+            job.run(mockAddressBook, new HoroscopeScoringJob.ScoreHandler() {
+                @Override
+                public void onScores(List<Contact> contacts, int[] luck) {
+                    throw new IllegalStateException();
+                }
+            });
+            fail();
+        } catch (IllegalStateException ex) {
+            assertTrue(contacts.closed);
+        }
+    }
+
+    /**
+     * Si falla el handler, el bloque siguiente ya enviado al pool se
+     * cancela y no se llega a calcular.
+     */
+    @Test
+    public void testRunHandlerErrorCancelsPending() throws Exception {
+        // Un solo thread, que se ocupa tras calcular el primer bloque para
+        // que el segundo quede en la cola del pool.
+        final ForkJoinPool singlePool = new ForkJoinPool(1);
+        final CountDownLatch firstScored = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean secondScored = new AtomicBoolean();
+        try {
+            Contact first = new Contact() {
+                @Override
+                public Date getBirthday() {
+                    firstScored.countDown();
+                    return null;
+                }
+            };
+            final Contact second = new Contact() {
+                @Override
+                public Date getBirthday() {
+                    secondScored.set(true);
+                    return null;
+                }
+            };
+            contacts = new ListIterator(Arrays.asList(first, second)) {
+                @Override
+                public Contact next() {
+                    Contact contact = super.next();
+                    if (contact == second) {
+                        await(firstScored);
+                        singlePool.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                await(release);
+                            }
+                        });
+                    }
+                    return contact;
+                }
+            };
+            when(mockAddressBook.iterateAll()).thenReturn(contacts);
+            job = new HoroscopeScoringJob(singlePool);
+            job.setChunkSize(1);
+
+            try {
+                job.run(mockAddressBook, new HoroscopeScoringJob.ScoreHandler() {
+                    @Override
+                    public void onScores(List<Contact> contacts, int[] luck) {
+                        throw new IllegalStateException();
+                    }
+                });
+                fail();
+            } catch (IllegalStateException ex) {
+                assertTrue(contacts.closed);
+            }
+
+            release.countDown();
+            assertTrue(singlePool.awaitQuiescence(10, TimeUnit.SECONDS));
+            assertFalse(secondScored.get());
+        } finally {
+            release.countDown();
+            singlePool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidChunkSize() {
+        job.setChunkSize(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidThreshold() {
+        job.setThreshold(0);
+    }
+
+    private void setContacts(Contact... list) {
+        contacts = new ListIterator(Arrays.asList(list));
+        when(mockAddressBook.iterateAll()).thenReturn(contacts);
+    }
+
+    private static Contact newContact(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day);
+
+        Contact contact = new Contact();
+        contact.setFirstName("Contact");
+        contact.setBirthday(new Date(calendar.getTimeInMillis()));
+        return contact;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(10, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Timeout");
+            }
+        } catch (InterruptedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Iterador sobre una lista que recuerda si se ha cerrado.
+     */
+    private static class ListIterator implements CloseableIterator<Contact> {
+        private final List<Contact> list;
+        private final Iterator<Contact> iterator;
+        private boolean closed;
+
+        ListIterator(List<Contact> list) {
+            this.list = list;
+            this.iterator = list.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Contact next() {
+            return iterator.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
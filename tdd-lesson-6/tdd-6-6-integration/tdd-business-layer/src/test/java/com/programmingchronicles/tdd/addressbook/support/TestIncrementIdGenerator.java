@@ -24,6 +24,8 @@ package com.programmingchronicles.tdd.addressbook.support;
 import com.programmingchronicles.tdd.addressbook.support.IncrementIdGenerator;
 import com.programmingchronicles.tdd.addressbook.TestIdGenerator;
 import com.programmingchronicles.tdd.addressbook.IdGenerator;
+import org.junit.*;
+import static org.junit.Assert.*;
 
 /**
  * Test que dirigirá la implementación de un IdGenerator basado en
@@ -37,4 +39,20 @@ public class TestIncrementIdGenerator extends TestIdGenerator {
     protected IdGenerator newIdGenerator() {
         return new IncrementIdGenerator();
     }
+
+    /**
+     * Tras skipTo los ids son mayores que el entregado, aunque el thread
+     * tuviese ids reservados en su bloque.
+     */
+    @Test
+    public void testSkipTo() {
+        IncrementIdGenerator generator = new IncrementIdGenerator();
+        long last = Long.parseLong(generator.newId());
+
+        generator.skipTo(last + 10 * IncrementIdGenerator.BLOCK_SIZE);
+
+        long next = Long.parseLong(generator.newId());
+        assertTrue(next > last + 10 * IncrementIdGenerator.BLOCK_SIZE);
+        assertTrue(Long.parseLong(generator.newId()) > next);
+    }
 }
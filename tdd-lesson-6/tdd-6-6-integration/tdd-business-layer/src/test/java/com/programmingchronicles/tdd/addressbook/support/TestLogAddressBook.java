@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.InvalidContactException;
+import com.programmingchronicles.tdd.addressbook.InvalidIdException;
+import com.programmingchronicles.tdd.addressbook.StorageException;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests de LogAddressBook.
+ *
+ * <p>
+ * Cada test usa un fichero temporal. Las caídas de la aplicación se simulan
+ * cerrando la agenda y modificando el fichero antes de volver a abrirlo.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestLogAddressBook {
+
+    private File file;
+
+    private LogAddressBook addressBook;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("addressbook", ".log");
+        // Se crea vacío, la agenda escribe la cabecera.
+        file.delete();
+        addressBook = new LogAddressBook(file);
+        // En los tests no hace falta esperar al disco.
+        addressBook.setSyncOnWrite(false);
+    }
+
+    @After
+    public void tearDown() {
+        addressBook.close();
+        file.delete();
+        new File(file.getPath() + ".compact").delete();
+    }
+
+    @Test
+    public void testAddContact() throws Exception {
+        Date birthday = new SimpleDateFormat("dd/MM/yyyy").parse("08/01/1974");
+        Contact contact = newContact("  Pedro ", "Ballesteros");
+        contact.setPhone("610101010");
+        contact.setBirthday(birthday);
+
+        String id = addressBook.addContact(contact);
+
+        assertEquals(id, contact.getId());
+        Contact actual = addressBook.getContact(id);
+        assertEquals("Pedro", actual.getFirstName());
+        assertEquals("Ballesteros", actual.getSurname());
+        assertEquals("610101010", actual.getPhone());
+        assertEquals(birthday, actual.getBirthday());
+    }
+
+    @Test
+    public void testAddDuplicate() {
+        addressBook.addContact(newContact("Pedro", null));
+        try {
+            addressBook.addContact(newContact(" PEDRO ", null));
+            fail("Expected InvalidContactException");
+        } catch (InvalidContactException ex) {
+            assertEquals(1, addressBook.size());
+        }
+    }
+
+    @Test(expected = InvalidIdException.class)
+    public void testGetContactInvalidId() {
+        addressBook.getContact("INVALID");
+    }
+
+    /**
+     * Al volver a abrir el log se recuperan los contactos, los eliminados
+     * no, y los ids nuevos no repiten los anteriores.
+     */
+    @Test
+    public void testReopen() {
+        addressBook.addContacts(Arrays.asList(newContact("Pedro", null),
+                                              newContact("Eduardo", null)));
+        String deletedId = addressBook.addContact(newContact("Juan", null));
+        addressBook.deleteContact(deletedId);
+
+        reopen();
+
+        assertEquals(Arrays.asList("Pedro", "Eduardo"), names(addressBook.getAll()));
+        String newId = addressBook.addContact(newContact("Juan", null));
+        assertFalse(deletedId.equals(newId));
+
+        // El índice de duplicados también se reconstruye.
+        try {
+            addressBook.addContact(newContact("Pedro", null));
+            fail("Expected InvalidContactException");
+        } catch (InvalidContactException ex) {
+            assertEquals(3, addressBook.size());
+        }
+    }
+
+    /**
+     * Un registro a medio escribir al final del log se descarta, y el log
+     * se puede seguir usando.
+     */
+    @Test
+    public void testTornWrite() throws Exception {
+        addressBook.addContact(newContact("Pedro", null));
+        long end = addressBook.getLogBytes();
+        addressBook.close();
+
+        // Simula una caída escribiendo solo el principio de un registro.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(end);
+            raf.writeInt(100);
+            raf.write(new byte[] { 1, 0, 0, 0, 1, 42, 42 });
+        } finally {
+            raf.close();
+        }
+
+        reopen();
+        assertEquals(1, addressBook.size());
+
+        addressBook.addContact(newContact("Eduardo", null));
+        reopen();
+        assertEquals(Arrays.asList("Pedro", "Eduardo"), names(addressBook.getAll()));
+    }
+
+    /**
+     * Un registro con el CRC incorrecto se considera el final del log.
+     */
+    @Test
+    public void testCorruptedRecord() throws Exception {
+        addressBook.addContact(newContact("Pedro", null));
+        long end = addressBook.getLogBytes();
+        addressBook.addContact(newContact("Eduardo", null));
+        addressBook.close();
+
+        // Se modifica un byte del nombre del segundo contacto.
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(end + 4 + 5 + 8 + 4 + 4);
+            raf.write('X');
+        } finally {
+            raf.close();
+        }
+
+        reopen();
+        assertEquals(Arrays.asList("Pedro"), names(addressBook.getAll()));
+    }
+
+    @Test(expected = StorageException.class)
+    public void testInvalidFile() throws Exception {
+        File other = File.createTempFile("addressbook", ".txt");
+        try {
+            FileOutputStream out = new FileOutputStream(other);
+            out.write("not a log file".getBytes("UTF-8"));
+            out.close();
+
+            new LogAddressBook(other);
+        } finally {
+            other.delete();
+        }
+    }
+
+    @Test
+    public void testCompact() {
+        for (int i = 0; i < 100; i++) {
+            addressBook.addContact(newContact("Name" + i, null));
+        }
+        for (int i = 0; i < 100; i += 2) {
+            addressBook.deleteContact(Integer.toString(i));
+        }
+        long before = addressBook.getLogBytes();
+        assertTrue(addressBook.getGarbageBytes() > 0);
+
+        addressBook.compact();
+
+        assertTrue(addressBook.getLogBytes() < before);
+        assertEquals(0, addressBook.getGarbageBytes());
+        assertEquals(50, addressBook.size());
+        assertEquals("Name51", addressBook.getContact("51").getFirstName());
+
+        // El log compactado se puede reabrir y seguir usando.
+        addressBook.addContact(newContact("New", null));
+        reopen();
+        assertEquals(51, addressBook.size());
+        assertEquals("Name99", addressBook.getContact("99").getFirstName());
+        assertEquals("New", addressBook.getContact("100").getFirstName());
+    }
+
+    /**
+     * La compactación elimina el contacto con el mayor id, pero al reabrir
+     * el log su id no se vuelve a asignar.
+     */
+    @Test
+    public void testCompactDoesNotReuseDeletedIds() {
+        addressBook.addContact(newContact("Pedro", null));
+        String lastId = addressBook.addContact(newContact("Eduardo", null));
+        addressBook.deleteContact(lastId);
+
+        addressBook.compact();
+        reopen();
+
+        String newId = addressBook.addContact(newContact("Juan", null));
+        assertFalse(newId.equals(lastId));
+        assertTrue(Long.parseLong(newId) > Long.parseLong(lastId));
+    }
+
+    /**
+     * La compactación se lanza sola al superar el espacio desperdiciado.
+     */
+    @Test
+    public void testAutomaticCompaction() {
+        addressBook.setCompactionMinBytes(0);
+        addressBook.setCompactionRatio(0.5);
+        for (int i = 0; i < 10; i++) {
+            addressBook.addContact(newContact("Name" + i, null));
+        }
+
+        for (int i = 0; i < 10; i++) {
+            addressBook.deleteContact(Integer.toString(i));
+        }
+
+        assertTrue(addressBook.getCompactions() > 0);
+        assertEquals(0, addressBook.size());
+    }
+
+    /**
+     * El recorrido no falla si se compacta el log mientras tanto.
+     */
+    @Test
+    public void testIterateAllDuringCompaction() {
+        for (String name : Arrays.asList("A", "B", "C", "D")) {
+            addressBook.addContact(newContact(name, null));
+        }
+
+        List<String> names = new ArrayList<String>();
+        CloseableIterator<Contact> iterator = addressBook.iterateAll();
+        try {
+            names.add(iterator.next().getFirstName());
+            addressBook.deleteContact("1");
+            addressBook.compact();
+            while (iterator.hasNext()) {
+                names.add(iterator.next().getFirstName());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        assertEquals(Arrays.asList("A", "C", "D"), names);
+    }
+
+    @Test
+    public void testGetPage() {
+        for (String name : Arrays.asList("A", "B", "C", "D", "E")) {
+            addressBook.addContact(newContact(name, null));
+        }
+        addressBook.deleteContact("2");
+
+        assertEquals(Arrays.asList("A", "B"), names(addressBook.getPage(null, 2)));
+        assertEquals(Arrays.asList("D", "E"), names(addressBook.getPage("2", 2)));
+        assertTrue(addressBook.getPage("INVALID", 2).isEmpty());
+    }
+
+    /**
+     * El log crece más allá del mapeo inicial.
+     */
+    @Test
+    public void testGrowth() {
+        List<Contact> contacts = new ArrayList<Contact>();
+        for (int i = 0; i < 40000; i++) {
+            contacts.add(newContact("Name" + i, "Surname" + i));
+        }
+        addressBook.addContacts(contacts);
+
+        assertTrue(addressBook.getLogBytes() > LogAddressBook.DEFAULT_MAPPED_SIZE);
+        reopen();
+        assertEquals(40000, addressBook.size());
+        assertEquals("Surname39999", addressBook.getContact("39999").getSurname());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() {
+        addressBook.close();
+        addressBook.getAll();
+    }
+
+    /**
+     * El índice de búsqueda se reconstruye al abrir el log, sin los
+     * contactos eliminados.
+     */
+    @Test
+    public void testSearch() {
+        addressBook.addContact(newContact("Pedro", "Ballesteros"));
+        addressBook.addContact(newContact("Beatriz", "Peña"));
+        String deleted = addressBook.addContact(newContact("Pablo", null));
+        addressBook.deleteContact(deleted);
+
+        assertEquals(Arrays.asList("Pedro", "Beatriz"), names(addressBook.search(" PE", 10)));
+
+        reopen();
+
+        assertEquals(Arrays.asList("Pedro", "Beatriz"), names(addressBook.search("pe", 10)));
+        assertEquals(Arrays.asList("Pedro"), names(addressBook.search("p", 1)));
+    }
+
+    /**
+     * El índice de cumpleaños se reconstruye al abrir el log.
+     */
+    @Test
+    public void testGetByBirthday() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("dd/MM/yyyy");
+        Contact pedro = newContact("Pedro", null);
+        pedro.setBirthday(format.parse("30/12/1974"));
+        addressBook.addContact(pedro);
+        Contact beatriz = newContact("Beatriz", null);
+        beatriz.setBirthday(format.parse("02/01/1980"));
+        addressBook.addContact(beatriz);
+        String deleted = addressBook.addContact(newContact("Pablo", null));
+        addressBook.deleteContact(deleted);
+
+        reopen();
+
+        assertEquals(Arrays.asList("Pedro", "Beatriz"), names(addressBook.getByBirthday(360, 5)));
+        assertTrue(addressBook.getByBirthday(3, 359).isEmpty());
+    }
+
+    private void reopen() {
+        addressBook.close();
+        addressBook = new LogAddressBook(file);
+        addressBook.setSyncOnWrite(false);
+    }
+
+    private static Contact newContact(String firstName, String surname) {
+        Contact contact = new Contact();
+        contact.setFirstName(firstName);
+        contact.setSurname(surname);
+        return contact;
+    }
+
+    private static List<String> names(List<Contact> contacts) {
+        List<String> names = new ArrayList<String>();
+        for (Contact contact : contacts) {
+            names.add(contact.getFirstName());
+        }
+        return names;
+    }
+
+    /**
+     * Un contacto ya validado se escribe en el log y se recupera al abrir.
+     */
+    @Test
+    public void testAddValidContact() {
+        ValidContact contact = ValidContact.of("Pedro", "Ballesteros", "610101010",
+                                               ContactValue.toEpochDay(1974, 1, 8));
+
+        String id = addressBook.addContact(contact);
+        addressBook.close();
+        addressBook = new LogAddressBook(file);
+
+        Contact actual = addressBook.getContact(id);
+        assertEquals("Pedro", actual.getFirstName());
+        assertEquals("Ballesteros", actual.getSurname());
+        assertEquals(contact.getBirthday(), actual.getBirthday());
+    }
+}
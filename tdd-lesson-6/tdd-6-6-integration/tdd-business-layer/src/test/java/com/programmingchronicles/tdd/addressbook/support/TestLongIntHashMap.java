@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests de LongIntHashMap.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestLongIntHashMap {
+
+    @Test
+    public void testPutGet() {
+        LongIntHashMap map = new LongIntHashMap();
+
+        map.put(1, 10);
+        map.put(Long.MAX_VALUE, 20);
+        map.put(1, 11);
+
+        assertEquals(11, map.get(1));
+        assertEquals(20, map.get(Long.MAX_VALUE));
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(2));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void testRemove() {
+        LongIntHashMap map = new LongIntHashMap();
+        map.put(1, 10);
+        map.put(2, 20);
+
+        assertEquals(10, map.remove(1));
+        assertEquals(LongIntHashMap.NO_VALUE, map.remove(1));
+        assertFalse(map.containsKey(1));
+        assertEquals(20, map.get(2));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testNegativeKeys() {
+        LongIntHashMap map = new LongIntHashMap();
+
+        assertEquals(LongIntHashMap.NO_VALUE, map.get(-1));
+        assertEquals(LongIntHashMap.NO_VALUE, map.remove(-2));
+        try {
+            map.put(-1, 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            assertEquals(0, map.size());
+        }
+    }
+
+    /**
+     * Operaciones aleatorias comparando el resultado con un HashMap, con
+     * suficientes altas y bajas para forzar varias redimensiones.
+     */
+    @Test
+    public void testRandomOperations() {
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 200000; i++) {
+            long key = random.nextInt(5000);
+            if (random.nextInt(3) == 0) {
+                Integer value = expected.remove(key);
+                assertEquals(value == null ? LongIntHashMap.NO_VALUE : value, map.remove(key));
+            } else {
+                expected.put(key, i);
+                map.put(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (long key = 0; key < 5000; key++) {
+            Integer value = expected.get(key);
+            assertEquals(value == null ? LongIntHashMap.NO_VALUE : value, map.get(key));
+        }
+    }
+}
@@ -26,12 +26,26 @@ import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
 import com.programmingchronicles.tdd.addressbook.IdGenerator;
 import com.programmingchronicles.tdd.addressbook.InvalidContactException;
 import com.programmingchronicles.tdd.addressbook.InvalidIdException;
+import com.programmingchronicles.tdd.addressbook.StorageException;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.data.CloseableIterator;
 import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.*;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -426,6 +440,146 @@ public class TestMemAddressBook {
         assertEquals("610101010", expectedC2.getPhone());
     }
 
+    @Test
+    public void testIterateAll() {
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+        Contact c2 = new Contact();
+        c2.setFirstName("Eduardo");
+        addressBook.addContact(c1);
+        addressBook.addContact(c2);
+
+        List<Contact> contacts = new ArrayList<Contact>();
+        CloseableIterator<Contact> iterator = addressBook.iterateAll();
+        try {
+            while (iterator.hasNext()) {
+                contacts.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        // Se entregan Contacts nuevos, se comparan por id.
+        assertEquals(2, contacts.size());
+        assertEquals(c1.getId(), contacts.get(0).getId());
+        assertEquals(c2.getId(), contacts.get(1).getId());
+    }
+
+    /**
+     * Modificar los contactos entregados o el añadido no modifica la agenda.
+     */
+    @Test
+    public void testReturnedContactsAreCopies() {
+        Contact contact = new Contact();
+        contact.setFirstName("  Pedro  ");
+        String id = addressBook.addContact(contact);
+
+        // El contacto del cliente no se modifica, salvo el id.
+        assertEquals("  Pedro  ", contact.getFirstName());
+        assertEquals(id, contact.getId());
+
+        contact.setFirstName("Eduardo");
+        addressBook.getContact(id).setFirstName("Eduardo");
+        addressBook.getAll().get(0).setFirstName("Eduardo");
+
+        assertEquals("Pedro", addressBook.getContact(id).getFirstName());
+    }
+
+    @Test
+    public void testGetAllValues() {
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+        Contact c2 = new Contact();
+        c2.setFirstName("Eduardo");
+        addressBook.addContact(c1);
+        addressBook.addContact(c2);
+
+        List<ContactValue> values = ((MemAddressBook) addressBook).getAllValues();
+
+        assertEquals(2, values.size());
+        assertEquals("Pedro", values.get(0).getFirstName());
+        assertEquals(c2.getId(), values.get(1).getId());
+        try {
+            values.clear();
+            fail("Expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException ex) {
+            assertEquals(2, ((MemAddressBook) addressBook).getAllValues().size());
+        }
+    }
+
+    /**
+     * Se recorre la agenda página a página usando como cursor el id del
+     * último contacto de cada página.
+     */
+    @Test
+    public void testGetPage() {
+        for (String name : Arrays.asList("A", "B", "C", "D", "E")) {
+            Contact contact = new Contact();
+            contact.setFirstName(name);
+            addressBook.addContact(contact);
+        }
+
+        List<Contact> page = addressBook.getPage(null, 2);
+        assertEquals(2, page.size());
+        assertEquals("0", page.get(0).getId());
+        assertEquals("1", page.get(1).getId());
+
+        page = addressBook.getPage("1", 2);
+        assertEquals(2, page.size());
+        assertEquals("2", page.get(0).getId());
+        assertEquals("3", page.get(1).getId());
+
+        page = addressBook.getPage("3", 2);
+        assertEquals(1, page.size());
+        assertEquals("4", page.get(0).getId());
+
+        assertTrue(addressBook.getPage("4", 2).isEmpty());
+    }
+
+    /**
+     * Si el contacto usado como cursor se elimina entre dos peticiones,
+     * la página continúa en el siguiente contacto.
+     */
+    @Test
+    public void testGetPageDeletedCursor() {
+        for (String name : Arrays.asList("A", "B", "C")) {
+            Contact contact = new Contact();
+            contact.setFirstName(name);
+            addressBook.addContact(contact);
+        }
+
+        addressBook.deleteContact("1");
+
+        List<Contact> page = addressBook.getPage("1", 2);
+        assertEquals(1, page.size());
+        assertEquals("2", page.get(0).getId());
+    }
+
+    /**
+     * Los ids numéricos se ordenan por valor, no alfabéticamente.
+     */
+    @Test
+    public void testGetPageNumericIds() {
+        when(generatorMock.newId()).thenReturn("9", "10");
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+        Contact c2 = new Contact();
+        c2.setFirstName("Eduardo");
+        addressBook.addContact(c1);
+        addressBook.addContact(c2);
+
+        List<Contact> page = addressBook.getPage(null, 10);
+
+        assertEquals(2, page.size());
+        assertEquals("9", page.get(0).getId());
+        assertEquals("10", page.get(1).getId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetPageInvalidSize() {
+        addressBook.getPage(null, 0);
+    }
+
     @Test
     public void testDeleteContact()  {
         Contact c1 = new Contact();
@@ -454,4 +608,533 @@ public class TestMemAddressBook {
           assertTrue(true);
         }
     }
+
+    @Test
+    public void testAddContacts() {
+        Contact c1 = new Contact();
+        c1.setFirstName(" Pedro ");
+        Contact c2 = new Contact();
+        c2.setFirstName("Eduardo");
+
+        List<String> ids = addressBook.addContacts(Arrays.asList(c1, c2));
+
+        // Los ids del mock se asignan en orden.
+        assertEquals(Arrays.asList("0", "1"), ids);
+        assertEquals("Pedro", addressBook.getContact("0").getFirstName());
+        assertEquals("Eduardo", addressBook.getContact("1").getFirstName());
+    }
+
+    /**
+     * Si hay duplicados dentro del batch no se añade ningún contacto.
+     */
+    @Test
+    public void testAddContactsDuplicateInBatch() {
+        Contact c1 = new Contact();
+        c1.setFirstName("Eduardo");
+        Contact c2 = new Contact();
+        c2.setFirstName("Pedro");
+        Contact c3 = new Contact();
+        c3.setFirstName("PEDRO");
+
+        try {
+            addressBook.addContacts(Arrays.asList(c1, c2, c3));
+            fail("Expected InvalidContactException");
+        } catch (InvalidContactException ex) {
+            assertEquals(0, addressBook.getAll().size());
+        }
+    }
+
+    /**
+     * Si algún contacto ya existe no se añade ninguno, y se pueden
+     * añadir después los que no estaban repetidos.
+     */
+    @Test
+    public void testAddContactsDuplicateExisting() {
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+        addressBook.addContact(c1);
+
+        Contact c2 = new Contact();
+        c2.setFirstName("Eduardo");
+        Contact c3 = new Contact();
+        c3.setFirstName("Pedro");
+        try {
+            addressBook.addContacts(Arrays.asList(c2, c3));
+            fail("Expected InvalidContactException");
+        } catch (InvalidContactException ex) {
+            assertEquals(1, addressBook.getAll().size());
+        }
+
+        addressBook.addContact(c2);
+        assertEquals(2, addressBook.getAll().size());
+    }
+
+    /**
+     * Al eliminar un contacto también se debe eliminar del índice de
+     * nombres, si no nunca se podría volver a añadir.
+     */
+    @Test
+    public void testAddDeletedContact() {
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+        String idDeleted = addressBook.addContact(c1);
+
+        addressBook.deleteContact(idDeleted);
+
+        Contact c2 = new Contact();
+        c2.setFirstName(" PEDRO ");
+        String id = addressBook.addContact(c2);
+
+        assertEquals(1, addressBook.getAll().size());
+        assertEquals("PEDRO", addressBook.getContact(id).getFirstName());
+    }
+
+    /**
+     * Se busca por el principio del nombre o del apellido, sin distinguir
+     * mayúsculas, ordenados por el nombre que coincide.
+     */
+    @Test
+    public void testSearch() {
+        addContact("Pedro", "Ballesteros");
+        addContact("Beatriz", "Peña");
+        addContact("Alfonso", null);
+
+        List<Contact> result = addressBook.search(" PE", 10);
+
+        assertEquals(2, result.size());
+        assertEquals("0", result.get(0).getId());
+        assertEquals("Ballesteros", result.get(0).getSurname());
+        assertEquals("1", result.get(1).getId());
+        assertEquals(1, addressBook.search("p", 1).size());
+        assertTrue(addressBook.search("x", 10).isEmpty());
+    }
+
+    @Test
+    public void testSearchDeleted() {
+        addContact("Pedro", "Ballesteros");
+
+        addressBook.deleteContact("0");
+
+        assertTrue(addressBook.search("pe", 10).isEmpty());
+        assertTrue(addressBook.search("ba", 10).isEmpty());
+    }
+
+    /**
+     * Los contactos recuperados de un snapshot también se pueden buscar.
+     */
+    @Test
+    public void testSearchAfterLoadSnapshot() throws Exception {
+        addContact("Pedro", "Ballesteros");
+
+        File file = File.createTempFile("addressbook", ".snapshot");
+        try {
+            ((MemAddressBook) addressBook).saveSnapshot(file);
+            MemAddressBook restored = new MemAddressBook();
+            restored.loadSnapshot(file);
+
+            assertEquals("0", restored.search("ball", 10).get(0).getId());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSearchInvalidLimit() {
+        addressBook.search("pe", 0);
+    }
+
+    /**
+     * Cumpleaños en un intervalo de días, incluido uno que pasa por el fin
+     * de año, sin los contactos eliminados.
+     */
+    @Test
+    public void testGetByBirthday() throws ParseException {
+        defaultContact.setFirstName("Pedro");
+        defaultContact.setBirthday(dateFormat.parse("30/12/1974"));
+        addressBook.addContact(defaultContact);
+
+        Contact beatriz = new Contact();
+        beatriz.setFirstName("Beatriz");
+        beatriz.setBirthday(dateFormat.parse("02/01/1980"));
+        addressBook.addContact(beatriz);
+
+        Contact alfonso = new Contact();
+        alfonso.setFirstName("Alfonso");
+        alfonso.setBirthday(dateFormat.parse("15/06/1980"));
+        addressBook.addContact(alfonso);
+
+        assertEquals(Arrays.asList("0", "1"), ids(addressBook.getByBirthday(360, 5)));
+        assertEquals(Arrays.asList("1"), ids(addressBook.getByBirthday(1, 5)));
+
+        addressBook.deleteContact("1");
+        assertEquals(Arrays.asList("0"), ids(addressBook.getByBirthday(360, 5)));
+        assertEquals("Alfonso", addressBook.getByBirthday(167, 167).get(0).getFirstName());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetByBirthdayInvalidDay() {
+        addressBook.getByBirthday(0, 10);
+    }
+
+    private static List<String> ids(List<Contact> contacts) {
+        List<String> ids = new ArrayList<String>();
+        for (Contact contact : contacts) {
+            ids.add(contact.getId());
+        }
+        return ids;
+    }
+
+    private String addContact(String firstName, String surname) {
+        Contact contact = new Contact();
+        contact.setFirstName(firstName);
+        contact.setSurname(surname);
+        return addressBook.addContact(contact);
+    }
+
+    /**
+     * Un snapshot recupera los mismos contactos con los mismos ids, y la
+     * agenda recuperada sigue detectando los duplicados.
+     */
+    @Test
+    public void testSaveLoadSnapshot() throws Exception {
+        Contact pedro = new Contact();
+        pedro.setFirstName("Pedro");
+        pedro.setSurname("Ballesteros");
+        pedro.setPhone("610101010");
+        pedro.setBirthday(dateFormat.parse("08/01/1974"));
+        addressBook.addContact(pedro);
+
+        Contact beatriz = new Contact();
+        beatriz.setFirstName("Beatriz");
+        addressBook.addContact(beatriz);
+
+        File file = File.createTempFile("addressbook", ".snapshot");
+        try {
+            ((MemAddressBook) addressBook).saveSnapshot(file);
+
+            MemAddressBook restored = new MemAddressBook();
+            restored.setIdGenerator(generatorMock);
+            assertEquals(2, restored.loadSnapshot(file));
+
+            assertEquals(((MemAddressBook) addressBook).getAllValues(), restored.getAllValues());
+            Contact restoredPedro = restored.getContact("0");
+            assertEquals("Pedro", restoredPedro.getFirstName());
+            assertEquals("Ballesteros", restoredPedro.getSurname());
+            assertEquals("610101010", restoredPedro.getPhone());
+            assertEquals(dateFormat.parse("08/01/1974"), restoredPedro.getBirthday());
+            assertNull(restored.getContact("1").getSurname());
+
+            Contact duplicate = new Contact();
+            duplicate.setFirstName("PEDRO");
+            duplicate.setSurname("ballesteros");
+            try {
+                restored.addContact(duplicate);
+                fail("Expected InvalidContactException");
+            } catch (InvalidContactException ex) {
+                // El índice de nombres también se ha recuperado.
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Tras cargar un snapshot IncrementIdGenerator genera ids mayores que
+     * los cargados.
+     */
+    @Test
+    public void testLoadSnapshotSkipsIncrementIds() throws Exception {
+        // Ids muy por encima del contador compartido de IncrementIdGenerator.
+        when(generatorMock.newId()).thenReturn("900000000000", "900000000001");
+        defaultContact.setFirstName("Pedro");
+        addressBook.addContact(defaultContact);
+        Contact beatriz = new Contact();
+        beatriz.setFirstName("Beatriz");
+        addressBook.addContact(beatriz);
+
+        File file = File.createTempFile("addressbook", ".snapshot");
+        try {
+            ((MemAddressBook) addressBook).saveSnapshot(file);
+
+            MemAddressBook restored = new MemAddressBook();
+            restored.setIdGenerator(new IncrementIdGenerator());
+            restored.loadSnapshot(file);
+
+            Contact eduardo = new Contact();
+            eduardo.setFirstName("Eduardo");
+            String id = restored.addContact(eduardo);
+
+            assertTrue(Long.parseLong(id) > 900000000001L);
+            assertEquals(3, restored.getAll().size());
+            assertEquals("Beatriz", restored.getContact("900000000001").getFirstName());
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Un generador que repite el id de un contacto existente no lo
+     * sustituye, y el contacto sigue en el índice de nombres.
+     */
+    @Test
+    public void testAddContactExistingId() {
+        when(generatorMock.newId()).thenReturn("0", "0");
+        defaultContact.setFirstName("Pedro");
+        addressBook.addContact(defaultContact);
+
+        Contact beatriz = new Contact();
+        beatriz.setFirstName("Beatriz");
+        try {
+            addressBook.addContact(beatriz);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            assertEquals("Pedro", addressBook.getContact("0").getFirstName());
+            assertEquals(1, addressBook.getAll().size());
+        }
+
+        // El nombre del contacto fallido no ha quedado registrado.
+        when(generatorMock.newId()).thenReturn("1");
+        addressBook.addContact(beatriz);
+        assertEquals("Beatriz", addressBook.getContact("1").getFirstName());
+    }
+
+    /**
+     * Cargar un snapshot sustituye los contactos que tuviese la agenda.
+     */
+    @Test
+    public void testLoadSnapshotReplacesContacts() throws Exception {
+        File file = File.createTempFile("addressbook", ".snapshot");
+        try {
+            new MemAddressBook().saveSnapshot(file);
+
+            defaultContact.setFirstName("Pedro");
+            addressBook.addContact(defaultContact);
+
+            assertEquals(0, ((MemAddressBook) addressBook).loadSnapshot(file));
+            assertTrue(addressBook.getAll().isEmpty());
+
+            // El nombre ya no está en el índice y se puede volver a añadir.
+            addressBook.addContact(defaultContact);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Un snapshot dañado no se carga y la agenda no se modifica.
+     */
+    @Test
+    public void testLoadCorruptedSnapshot() throws Exception {
+        defaultContact.setFirstName("Pedro");
+        addressBook.addContact(defaultContact);
+
+        File file = File.createTempFile("addressbook", ".snapshot");
+        try {
+            ((MemAddressBook) addressBook).saveSnapshot(file);
+
+            // Se cambia un byte en mitad del fichero.
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(raf.length() / 2);
+                int value = raf.read();
+                raf.seek(raf.length() / 2);
+                raf.write(value ^ 0xFF);
+            } finally {
+                raf.close();
+            }
+
+            MemAddressBook restored = new MemAddressBook();
+            restored.setIdGenerator(generatorMock);
+            Contact beatriz = new Contact();
+            beatriz.setFirstName("Beatriz");
+            restored.addContact(beatriz);
+            try {
+                restored.loadSnapshot(file);
+                fail("Expected StorageException");
+            } catch (StorageException ex) {
+                assertEquals(1, restored.getAll().size());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expected = StorageException.class)
+    public void testLoadSnapshotInvalidFile() throws Exception {
+        File file = File.createTempFile("addressbook", ".txt");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write("no es un snapshot".getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+
+            ((MemAddressBook) addressBook).loadSnapshot(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * El snapshot se escribe en un fichero temporal y se renombra al
+     * terminar, no deben quedar ficheros temporales.
+     */
+    @Test
+    public void testSaveSnapshotReplacesFile() throws Exception {
+        defaultContact.setFirstName("Pedro");
+        addressBook.addContact(defaultContact);
+
+        File dir = File.createTempFile("addressbook", ".dir");
+        dir.delete();
+        dir.mkdir();
+        File file = new File(dir, "addressbook.snapshot");
+        try {
+            ((MemAddressBook) addressBook).saveSnapshot(file);
+            addressBook.deleteContact("0");
+            ((MemAddressBook) addressBook).saveSnapshot(file);
+
+            assertEquals(Arrays.asList("addressbook.snapshot"), Arrays.asList(dir.list()));
+            assertEquals(0, new MemAddressBook().loadSnapshot(file));
+        } finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    /**
+     * Stress test de concurrencia: varios threads añaden contactos distintos
+     * a la vez sobre la misma agenda, no se debe perder ninguno.
+     *
+     * <p>
+     * El mock del IdGenerator no es adecuado para tests multi-thread, se
+     * usa la implementación UUID que sí es thread-safe.</p>
+     */
+    @Test
+    public void testConcurrentAddContact() throws Exception {
+        final int threads = 8;
+        final int contactsPerThread = 500;
+
+        final MemAddressBook concurrentBook = new MemAddressBook();
+        concurrentBook.setIdGenerator(new UUIDIdGenerator());
+
+        List<Integer> added = runConcurrently(threads, new ThreadTask() {
+            @Override
+            public Integer run(int thread) {
+                for (int i = 0; i < contactsPerThread; i++) {
+                    Contact contact = new Contact();
+                    contact.setFirstName("Name" + thread);
+                    contact.setSurname("Surname" + i);
+                    concurrentBook.addContact(contact);
+                }
+                return contactsPerThread;
+            }
+        });
+
+        assertEquals(threads * contactsPerThread, sum(added));
+        assertEquals(threads * contactsPerThread, concurrentBook.getAll().size());
+    }
+
+    /**
+     * Stress test de concurrencia: varios threads intentan añadir a la vez
+     * los mismos contactos, solo uno de ellos debe conseguirlo. La comprobación
+     * de duplicados y la inserción deben ser atómicas.
+     */
+    @Test
+    public void testConcurrentAddDuplicateContact() throws Exception {
+        final int threads = 8;
+        final int contacts = 500;
+
+        final MemAddressBook concurrentBook = new MemAddressBook();
+        concurrentBook.setIdGenerator(new UUIDIdGenerator());
+
+        List<Integer> added = runConcurrently(threads, new ThreadTask() {
+            @Override
+            public Integer run(int thread) {
+                int count = 0;
+                for (int i = 0; i < contacts; i++) {
+                    Contact contact = new Contact();
+                    contact.setFirstName(thread % 2 == 0 ? "Pedro" : " PEDRO ");
+                    contact.setSurname("Surname" + i);
+                    try {
+                        concurrentBook.addContact(contact);
+                        count++;
+                    } catch (InvalidContactException ex) {
+                        // Otro thread ya ha añadido este contacto.
+                    }
+                }
+                return count;
+            }
+        });
+
+        assertEquals(contacts, sum(added));
+        assertEquals(contacts, concurrentBook.getAll().size());
+    }
+
+    // Tarea ejecutada por cada uno de los threads del stress test.
+    private interface ThreadTask {
+        Integer run(int thread);
+    }
+
+    // Lanza todas las tareas a la vez (usando un latch como barrera de salida)
+    // y devuelve el resultado de cada una de ellas.
+    private List<Integer> runConcurrently(int threads, final ThreadTask task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        return task.run(thread);
+                    }
+                }));
+            }
+            start.countDown();
+
+            List<Integer> results = new ArrayList<Integer>();
+            for (Future<Integer> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static int sum(List<Integer> values) {
+        int total = 0;
+        for (Integer value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * Un contacto ya validado se guarda tal cual.
+     */
+    @Test
+    public void testAddValidContact() {
+        ValidContact contact = ValidContact.of("Pedro", "Ballesteros", "610101010",
+                                               ContactValue.toEpochDay(1974, 1, 8));
+
+        String id = addressBook.addContact(contact);
+
+        Contact actual = addressBook.getContact(id);
+        assertEquals("Pedro", actual.getFirstName());
+        assertEquals("Ballesteros", actual.getSurname());
+        assertEquals("610101010", actual.getPhone());
+        assertEquals(contact.getBirthday(), actual.getBirthday());
+    }
+
+    @Test(expected = InvalidContactException.class)
+    public void testAddValidContactDuplicate() {
+        defaultContact.setFirstName("Pedro");
+        addressBook.addContact(defaultContact);
+
+        addressBook.addContact(ValidContact.of(" pedro ", null, null, ContactValue.NO_BIRTHDAY));
+    }
 }
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.addressbook.support;
+
+import com.programmingchronicles.tdd.addressbook.TestIdGenerator;
+import com.programmingchronicles.tdd.addressbook.IdGenerator;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Test de TimeOrderedIdGenerator.
+ *
+ * <p>
+ * Hereda las pruebas comunes de cualquier IdGenerator y añade las
+ * específicas del formato y la ordenación de los ids.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestTimeOrderedIdGenerator extends TestIdGenerator {
+
+    @Override
+    protected IdGenerator newIdGenerator() {
+        return new TimeOrderedIdGenerator();
+    }
+
+    /**
+     * El orden alfabético de los ids debe ser el orden de creación.
+     */
+    @Test
+    public void testNewIdSorted() {
+        IdGenerator idGenerator = newIdGenerator();
+
+        String oldId = idGenerator.newId();
+        for (int i = 0; i < 10000; i++) {
+            String newId = idGenerator.newId();
+            assertEquals(TimeOrderedIdGenerator.ID_LENGTH, newId.length());
+            assertTrue(oldId.compareTo(newId) < 0);
+            oldId = newId;
+        }
+    }
+
+    /**
+     * Aunque el reloj retroceda los ids deben seguir siendo crecientes.
+     */
+    @Test
+    public void testNewIdClockBackwards() {
+        final long[] clock = { System.currentTimeMillis() };
+        IdGenerator idGenerator = new TimeOrderedIdGenerator() {
+            @Override
+            protected long currentTimeMillis() {
+                return clock[0];
+            }
+        };
+
+        String oldId = idGenerator.newId();
+
+        // Simula el ajuste del reloj del sistema.
+        clock[0] -= 2000;
+        String newId = idGenerator.newId();
+
+        assertTrue(oldId.compareTo(newId) < 0);
+    }
+
+    @Test
+    public void testGetTimestamp() {
+        long before = System.currentTimeMillis();
+        String id = newIdGenerator().newId();
+        long after = System.currentTimeMillis();
+
+        long timestamp = TimeOrderedIdGenerator.getTimestamp(id);
+
+        // El timestamp puede ser posterior si otros tests han
+        // agotado secuencias, pero nunca anterior.
+        assertTrue(timestamp >= before);
+        assertTrue(timestamp <= after + 1000);
+    }
+
+    @Test
+    public void testNodeId() {
+        TimeOrderedIdGenerator idGenerator = new TimeOrderedIdGenerator(5, 4);
+
+        long id = idGenerator.nextId();
+
+        assertEquals(5, id & 0xF);
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        long[] values = { 0, 1, 31, 32, 1234567890123L, Long.MAX_VALUE };
+        for (long value : values) {
+            String id = TimeOrderedIdGenerator.encode(value);
+            assertEquals(value, TimeOrderedIdGenerator.decode(id));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalid() {
+        TimeOrderedIdGenerator.decode("invalid-id!!!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNodeId() {
+        new TimeOrderedIdGenerator(16, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidNodeBits() {
+        new TimeOrderedIdGenerator(0, 22);
+    }
+}
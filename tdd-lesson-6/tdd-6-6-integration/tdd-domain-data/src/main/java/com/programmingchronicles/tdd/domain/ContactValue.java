@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.domain;
+
+import java.util.Calendar;
+import java.util.Date;
+
+/**
+ * Versión inmutable y compacta de {@link Contact}, para guardar y compartir
+ * contactos sin copias defensivas.
+ *
+ * <p>
+ * Contact es un JavaBean mutable: quien guarda un Contact tiene que copiarlo
+ * al recibirlo y al entregarlo, o cualquier cliente podría modificar sus datos
+ * (y con la fecha de nacimiento, que también es mutable, ni siquiera basta con
+ * copiar las referencias). Un ContactValue no se puede modificar, así que la
+ * misma instancia se puede entregar a cualquier número de clientes y threads.</p>
+ *
+ * <p>
+ * <b>MEMORIA</b><br/>
+ * La fecha de nacimiento se guarda como un int con el número de días desde
+ * el 1/1/1970 (<i>epoch day</i>), en lugar de un objeto Date. El nombre y el
+ * apellido se internan ({@link String#intern()}), los nombres se repiten
+ * mucho y todos los contactos con el mismo nombre comparten el mismo String.</p>
+ *
+ * <p>
+ * Para buscar por cumpleaños se usa el día del año de la fecha de nacimiento
+ * contado siempre como en un año bisiesto (ver {@link #dayOfYear(int, int)}),
+ * así cada día del calendario tiene el mismo número sea cual sea el año de
+ * nacimiento.</p>
+ *
+ * <p>
+ * Las conversiones entre Date y epoch day usan la zona horaria por defecto,
+ * igual que las fechas de Contact, por lo que se pierde la hora: solo se
+ * conserva el día.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public final class ContactValue {
+
+    /**
+     * Valor de {@link #getBirthdayEpochDay()} para los contactos sin fecha
+     * de nacimiento.
+     */
+    public static final int NO_BIRTHDAY = Integer.MIN_VALUE;
+
+    /**
+     * Número de días del año de {@link #dayOfYear(int, int)}, el 31 de
+     * diciembre.
+     */
+    public static final int DAYS_IN_YEAR = 366;
+
+    // Días del año bisiesto anteriores al primer día de cada mes.
+    private static final int[] DAYS_BEFORE_MONTH = {
+        0, 31, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335
+    };
+
+    private final String id;
+    private final String firstName;
+    private final String surname;
+    private final String phone;
+    private final int birthday;
+
+    /**
+     * Crea un contacto inmutable.
+     *
+     * @param id id del contacto, puede ser null.
+     * @param firstName Nombre, puede ser null.
+     * @param surname Apellido, puede ser null.
+     * @param phone Teléfono, puede ser null.
+     * @param birthday Fecha de nacimiento en días desde el 1/1/1970, o
+     *        {@link #NO_BIRTHDAY}.
+     */
+    public ContactValue(String id, String firstName, String surname, String phone, int birthday) {
+        this(id, intern(firstName), intern(surname), phone, birthday, true);
+    }
+
+    // Constructor con el nombre y el apellido ya internados.
+    private ContactValue(String id, String firstName, String surname, String phone, int birthday,
+                         boolean interned) {
+        this.id = id;
+        this.firstName = firstName;
+        this.surname = surname;
+        this.phone = phone;
+        this.birthday = birthday;
+    }
+
+    /**
+     * Crea un contacto inmutable cuyo nombre y apellido ya están internados,
+     * sin volver a internarlos. Internar un String ya internado sigue
+     * costando una búsqueda en la tabla de Strings de la JVM, y al cargar
+     * muchos contactos con pocos nombres distintos es una parte importante
+     * del tiempo.
+     *
+     * @param id id del contacto, puede ser null.
+     * @param firstName Nombre internado, puede ser null.
+     * @param surname Apellido internado, puede ser null.
+     * @param phone Teléfono, puede ser null.
+     * @param birthday Fecha de nacimiento en días desde el 1/1/1970, o
+     *        {@link #NO_BIRTHDAY}.
+     * @return
+     */
+    public static ContactValue ofInterned(String id, String firstName, String surname,
+                                          String phone, int birthday) {
+        return new ContactValue(id, firstName, surname, phone, birthday, true);
+    }
+
+    /**
+     * Crea el ContactValue con los datos actuales del contacto entregado.
+     *
+     * @param contact
+     * @return
+     */
+    public static ContactValue valueOf(Contact contact) {
+        return new ContactValue(contact.getId(), contact.getFirstName(),
+                                contact.getSurname(), contact.getPhone(),
+                                toEpochDay(contact.getBirthday()));
+    }
+
+    /**
+     * Devuelve una copia con otro id.
+     *
+     * @param id
+     * @return
+     */
+    public ContactValue withId(String id) {
+        return new ContactValue(id, firstName, surname, phone, birthday, true);
+    }
+
+    /**
+     * Crea un nuevo Contact con los datos de este contacto. El Contact es
+     * del cliente, modificarlo no afecta a este ContactValue.
+     *
+     * @return
+     */
+    public Contact toContact() {
+        Contact contact = new Contact();
+        contact.setId(id);
+        contact.setFirstName(firstName);
+        contact.setSurname(surname);
+        contact.setPhone(phone);
+        contact.setBirthday(getBirthday());
+        return contact;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getSurname() {
+        return surname;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public boolean hasBirthday() {
+        return birthday != NO_BIRTHDAY;
+    }
+
+    /**
+     * Fecha de nacimiento en días desde el 1/1/1970.
+     *
+     * @return Días desde el 1/1/1970, o {@link #NO_BIRTHDAY}.
+     */
+    public int getBirthdayEpochDay() {
+        return birthday;
+    }
+
+    /**
+     * Día del año del cumpleaños (ver {@link #dayOfYear(int, int)}).
+     *
+     * @return Día de 1 a 366, o {@link #NO_BIRTHDAY}.
+     */
+    public int getBirthdayDayOfYear() {
+        return toDayOfYear(birthday);
+    }
+
+    /**
+     * Fecha de nacimiento, a las 00:00 en la zona horaria por defecto. Se
+     * crea un nuevo Date en cada llamada.
+     *
+     * @return La fecha de nacimiento, o null si no tiene.
+     */
+    public Date getBirthday() {
+        return toDate(birthday);
+    }
+
+    /**
+     * Convierte el día de una fecha, en la zona horaria por defecto, en el
+     * número de días desde el 1/1/1970.
+     *
+     * @param date
+     * @return Días desde el 1/1/1970, o {@link #NO_BIRTHDAY} si la fecha es null.
+     */
+    public static int toEpochDay(Date date) {
+        if (date == null) {
+            return NO_BIRTHDAY;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        return toEpochDay(calendar.get(Calendar.YEAR),
+                          calendar.get(Calendar.MONTH) + 1,
+                          calendar.get(Calendar.DAY_OF_MONTH));
+    }
+
+    /**
+     * Convierte una fecha del calendario gregoriano en el número de días
+     * desde el 1/1/1970.
+     *
+     * @param year Año
+     * @param month Mes, de 1 a 12.
+     * @param day Día del mes, de 1 a 31.
+     * @return
+     */
+    public static int toEpochDay(int year, int month, int day) {
+        // Se cuentan los años desde marzo, así el 29 de febrero es el
+        // último día del año y no desplaza el resto de meses.
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Número del día del año contado como en un año bisiesto: el 1 de enero
+     * es el 1, el 29 de febrero el 60, el 1 de marzo el 61 y el 31 de
+     * diciembre el 366. Los cumpleaños del 29 de febrero tienen su propio
+     * día, aunque ese año no exista.
+     *
+     * @param month Mes, de 1 a 12.
+     * @param day Día del mes, de 1 a 31.
+     * @return Día de 1 a 366.
+     */
+    public static int dayOfYear(int month, int day) {
+        return DAYS_BEFORE_MONTH[month - 1] + day;
+    }
+
+    /**
+     * Día del año (ver {@link #dayOfYear(int, int)}) de la fecha entregada
+     * en días desde el 1/1/1970.
+     *
+     * @param epochDay
+     * @return Día de 1 a 366, o {@link #NO_BIRTHDAY} si es {@link #NO_BIRTHDAY}.
+     */
+    public static int toDayOfYear(int epochDay) {
+        if (epochDay == NO_BIRTHDAY) {
+            return NO_BIRTHDAY;
+        }
+        int[] date = toCivil(epochDay);
+        return dayOfYear(date[1], date[2]);
+    }
+
+    /**
+     * Convierte el número de días desde el 1/1/1970 en una fecha a las 00:00
+     * de la zona horaria por defecto.
+     *
+     * @param epochDay
+     * @return La fecha, o null si es {@link #NO_BIRTHDAY}.
+     */
+    public static Date toDate(int epochDay) {
+        if (epochDay == NO_BIRTHDAY) {
+            return null;
+        }
+        int[] date = toCivil(epochDay);
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(date[0], date[1] - 1, date[2]);
+        return calendar.getTime();
+    }
+
+    /**
+     * Año, mes (de 1 a 12) y día de la fecha en días desde el 1/1/1970.
+     */
+    private static int[] toCivil(int epochDay) {
+        int z = epochDay + 719468;
+        int era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return new int[] { year, month, day };
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ContactValue)) {
+            return false;
+        }
+        ContactValue other = (ContactValue) obj;
+        return birthday == other.birthday
+                && equal(id, other.id)
+                && equal(firstName, other.firstName)
+                && equal(surname, other.surname)
+                && equal(phone, other.phone);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        hash = 31 * hash + (id != null ? id.hashCode() : 0);
+        hash = 31 * hash + (firstName != null ? firstName.hashCode() : 0);
+        hash = 31 * hash + (surname != null ? surname.hashCode() : 0);
+        hash = 31 * hash + (phone != null ? phone.hashCode() : 0);
+        hash = 31 * hash + birthday;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "ContactValue{id=" + id + ", firstName=" + firstName
+                + ", surname=" + surname + ", phone=" + phone
+                + ", birthday=" + (hasBirthday() ? getBirthday() : null) + "}";
+    }
+
+    private static boolean equal(String s1, String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    private static String intern(String value) {
+        return value == null ? null : value.intern();
+    }
+}
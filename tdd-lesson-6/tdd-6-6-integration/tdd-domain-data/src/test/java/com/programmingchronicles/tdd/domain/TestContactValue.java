@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.domain;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests para la clase ContactValue.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestContactValue {
+
+    @Test
+    public void testValueOf() throws Exception {
+        Date birthday = new SimpleDateFormat("dd/MM/yyyy").parse("08/01/1974");
+        Contact contact = new Contact();
+        contact.setId("id");
+        contact.setFirstName("Pedro");
+        contact.setSurname("Ballesteros");
+        contact.setPhone("610101010");
+        contact.setBirthday(birthday);
+
+        ContactValue value = ContactValue.valueOf(contact);
+
+        assertEquals("id", value.getId());
+        assertEquals("Pedro", value.getFirstName());
+        assertEquals("Ballesteros", value.getSurname());
+        assertEquals("610101010", value.getPhone());
+        assertEquals(birthday, value.getBirthday());
+        assertEquals(ContactValue.toEpochDay(1974, 1, 8), value.getBirthdayEpochDay());
+    }
+
+    /**
+     * Modificar el Contact original o el devuelto no afecta al ContactValue.
+     */
+    @Test
+    public void testImmutable() throws Exception {
+        Contact contact = new Contact();
+        contact.setFirstName("Pedro");
+        contact.setBirthday(new SimpleDateFormat("dd/MM/yyyy").parse("08/01/1974"));
+        ContactValue value = ContactValue.valueOf(contact);
+
+        contact.setFirstName("Eduardo");
+        contact.getBirthday().setTime(0);
+        Contact copy = value.toContact();
+        copy.setFirstName("Eduardo");
+        copy.getBirthday().setTime(0);
+
+        assertEquals("Pedro", value.getFirstName());
+        assertEquals(ContactValue.toEpochDay(1974, 1, 8), value.getBirthdayEpochDay());
+        assertEquals("Pedro", value.toContact().getFirstName());
+    }
+
+    /**
+     * Los nombres iguales comparten la misma instancia de String.
+     */
+    @Test
+    public void testNamesInterned() {
+        ContactValue v1 = new ContactValue("1", new String("Pedro"), new String("Ballesteros"),
+                                           null, ContactValue.NO_BIRTHDAY);
+        ContactValue v2 = new ContactValue("2", new String("Pedro"), new String("Ballesteros"),
+                                           null, ContactValue.NO_BIRTHDAY);
+
+        assertSame(v1.getFirstName(), v2.getFirstName());
+        assertSame(v1.getSurname(), v2.getSurname());
+    }
+
+    @Test
+    public void testNoBirthday() {
+        Contact contact = new Contact();
+        contact.setFirstName("Pedro");
+
+        ContactValue value = ContactValue.valueOf(contact);
+
+        assertFalse(value.hasBirthday());
+        assertEquals(ContactValue.NO_BIRTHDAY, value.getBirthdayEpochDay());
+        assertNull(value.getBirthday());
+        assertNull(value.toContact().getBirthday());
+    }
+
+    /**
+     * La hora se pierde, solo se guarda el día.
+     */
+    @Test
+    public void testBirthdayTruncatedToDay() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2000, Calendar.FEBRUARY, 29, 23, 59);
+        Date date = calendar.getTime();
+        calendar.set(2000, Calendar.FEBRUARY, 29, 0, 0);
+        Date day = calendar.getTime();
+
+        assertEquals(day, ContactValue.toDate(ContactValue.toEpochDay(date)));
+    }
+
+    @Test
+    public void testEpochDay() {
+        assertEquals(0, ContactValue.toEpochDay(1970, 1, 1));
+        assertEquals(-1, ContactValue.toEpochDay(1969, 12, 31));
+        assertEquals(11016, ContactValue.toEpochDay(2000, 2, 29));
+        assertEquals(-25203, ContactValue.toEpochDay(1900, 12, 31));
+
+        // Ida y vuelta de todos los días de varios siglos.
+        Calendar calendar = Calendar.getInstance();
+        for (int epochDay = -60000; epochDay < 60000; epochDay++) {
+            calendar.setTime(ContactValue.toDate(epochDay));
+            assertEquals(0, calendar.get(Calendar.HOUR_OF_DAY));
+            assertEquals(epochDay, ContactValue.toEpochDay(calendar.getTime()));
+        }
+    }
+
+    /**
+     * El día del año no depende de si el año de nacimiento es bisiesto.
+     */
+    @Test
+    public void testDayOfYear() {
+        assertEquals(1, ContactValue.dayOfYear(1, 1));
+        assertEquals(60, ContactValue.dayOfYear(2, 29));
+        assertEquals(61, ContactValue.dayOfYear(3, 1));
+        assertEquals(ContactValue.DAYS_IN_YEAR, ContactValue.dayOfYear(12, 31));
+
+        assertEquals(61, ContactValue.toDayOfYear(ContactValue.toEpochDay(1974, 3, 1)));
+        assertEquals(61, ContactValue.toDayOfYear(ContactValue.toEpochDay(1976, 3, 1)));
+        assertEquals(60, ContactValue.toDayOfYear(ContactValue.toEpochDay(1976, 2, 29)));
+        assertEquals(366, ContactValue.toDayOfYear(ContactValue.toEpochDay(1900, 12, 31)));
+        assertEquals(ContactValue.NO_BIRTHDAY, ContactValue.toDayOfYear(ContactValue.NO_BIRTHDAY));
+
+        ContactValue value = new ContactValue("1", "Pedro", null, null,
+                                              ContactValue.toEpochDay(1974, 1, 8));
+        assertEquals(8, value.getBirthdayDayOfYear());
+    }
+
+    @Test
+    public void testEquals() {
+        ContactValue v1 = new ContactValue("1", "Pedro", null, "610", 100);
+        ContactValue v2 = new ContactValue("1", "Pedro", null, "610", 100);
+
+        assertEquals(v1, v2);
+        assertEquals(v1.hashCode(), v2.hashCode());
+        assertFalse(v1.equals(v1.withId("2")));
+        assertFalse(v1.equals(new ContactValue("1", "Pedro", null, "610", 101)));
+    }
+}
@@ -31,6 +31,7 @@ import java.sql.Connection;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import javax.sql.DataSource;
@@ -159,6 +160,37 @@ public class TestDbAddressBook {
         assertEquals("Pedro", contacts.get(0).getFirstName());
     }
 
+    @Test
+    public void testAddContacts() {
+        Contact c1 = new Contact();
+        c1.setFirstName(" Pedro ");
+        Contact c2 = new Contact();
+        c2.setFirstName("Eduardo");
+
+        List<String> ids = addressBook.addContacts(Arrays.asList(c1, c2));
+
+        assertEquals(2, ids.size());
+        assertEquals("Pedro", addressBook.getContact(ids.get(0)).getFirstName());
+        assertEquals("Eduardo", addressBook.getContact(ids.get(1)).getFirstName());
+    }
+
+    /**
+     * El duplicado con un contacto existente lo rechaza el índice único
+     * de la base de datos.
+     */
+    @Test(expected = InvalidContactException.class)
+    public void testAddContactsDuplicateExisting() {
+        expectedContact.setFirstName("Pedro");
+        addressBook.addContact(expectedContact);
+
+        Contact c1 = new Contact();
+        c1.setFirstName("Eduardo");
+        Contact c2 = new Contact();
+        c2.setFirstName("PEDRO");
+
+        addressBook.addContacts(Arrays.asList(c1, c2));
+    }
+
     @Test
     public void testAddAndGetFullContact() throws ParseException, SQLException {
         // Contacto Completo de Ejemplo.
@@ -410,7 +442,10 @@ public class TestDbAddressBook {
         } catch (InvalidContactException ex) {
             List<Contact> contacts = addressBook.getAll();
             assertEquals(1, contacts.size());
-            assertThat(contacts, hasItems(contactNoIdEq(c1)));
+
+            // El contacto entregado no se modifica, se almacena sin espacios.
+            assertEquals(" Ballesteros ", c1.getSurname());
+            assertEquals("Ballesteros", contacts.get(0).getSurname());
         }
     }
 
@@ -66,7 +66,19 @@ public class DatabaseTestSupport {
             + "FIRSTNAME VARCHAR(255), "
             + "SURNAME VARCHAR(255), "
             + "BIRTHDAY DATE, "
-            + "PHONE VARCHAR(255))";
+            + "PHONE VARCHAR(255), "
+            + "NAMEKEY VARCHAR(520) NOT NULL, "
+            + "FIRSTNAMEKEY VARCHAR(255) NOT NULL, "
+            + "SURNAMEKEY VARCHAR(255), "
+            + "BIRTHDAYDAY INT, "
+            + "CONSTRAINT CONTACTS_PK PRIMARY KEY (ID), "
+            + "CONSTRAINT CONTACTS_NAMEKEY_UK UNIQUE (NAMEKEY))";
+
+    private static final String[] SQL_CREATE_CONTACT_INDEXES = {
+            "CREATE INDEX CONTACTS_FIRSTNAMEKEY_IX ON CONTACTS(FIRSTNAMEKEY, ID)",
+            "CREATE INDEX CONTACTS_SURNAMEKEY_IX ON CONTACTS(SURNAMEKEY, ID)",
+            "CREATE INDEX CONTACTS_BIRTHDAYDAY_IX ON CONTACTS(BIRTHDAYDAY, ID)"
+    };
 
     private static final String SQL_DROP_CONTACT_TABLE = "DROP TABLE CONTACTS";
 
@@ -142,6 +154,9 @@ public class DatabaseTestSupport {
             Statement stm = conn.createStatement();
             try {
                 stm.execute(SQL_CREATE_CONTACT_TABLE);
+                for (String sql : SQL_CREATE_CONTACT_INDEXES) {
+                    stm.execute(sql);
+                }
             } finally {
                 stm.close();
             }
@@ -22,6 +22,7 @@
 package com.programmingchronicles.tdd.data;
 
 import com.programmingchronicles.tdd.domain.Contact;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -30,7 +31,10 @@ import java.util.List;
  *
  * <p>
  * La implementación dará un acceso directo a los datos sin depender
- * de restricciones de integridad, comprobación de repetidos, etc.</p>
+ * de restricciones de integridad, comprobación de repetidos, etc. La única
+ * excepción es la restricción de nombre único, que la base de datos debe
+ * garantizar para que la comprobación de duplicados no requiera leer todos
+ * los contactos.</p>
  *
  * <p>
  * Esta es una decisión de diseño marcada por las necesidades de tutoría de
@@ -46,10 +50,42 @@ public interface AddressBookDao {
      *
      * @param contact Datos del contacto a añadir
      * @return Devuelve el id asignado al contacto
+     * @throws DataIntegrityDaoException Si ya existe un contacto con el
+     *         mismo nombre (ver {@link #existsContactName(String, String)}).
      * @throws SQLDaoException Error irrecuperable de la base de datos
      */
     String addContact(Contact contact);
 
+    /**
+     * Añade todos los contactos entregados en una sola operación, devolviendo
+     * los ids generados en el mismo orden.
+     *
+     * <p>
+     * La operación es atómica: si falla la inserción de algún contacto no
+     * se añade ninguno.</p>
+     *
+     * @param contacts Datos de los contactos a añadir
+     * @return Ids asignados a los contactos, en el orden de la colección.
+     * @throws DataIntegrityDaoException Si ya existe alguno de los contactos.
+     * @throws SQLDaoException Error irrecuperable de la base de datos
+     */
+    List<String> addContacts(Collection<Contact> contacts);
+
+    /**
+     * Indica si existe un contacto con el nombre y apellido entregados,
+     * ignorando mayúsculas/minúsculas y espacios al principio y al final.
+     *
+     * <p>
+     * Un apellido null solo coincide con otro apellido null. La consulta
+     * se resuelve por índice, su coste no depende del número de contactos.</p>
+     *
+     * @param firstName Nombre del contacto
+     * @param surname Apellido del contacto, puede ser null.
+     * @return true si ya existe un contacto con el mismo nombre.
+     * @throws SQLDaoException Error irrecuperable de la base de datos
+     */
+    boolean existsContactName(String firstName, String surname);
+
     /**
      * Elimina el contacto con el id entregado.
      *
@@ -66,6 +102,69 @@ public interface AddressBookDao {
      */
     List<Contact> getAll();
 
+    /**
+     * Recorre todos los contactos del sistema sin cargarlos todos en memoria.
+     *
+     * <p>
+     * El iterador mantiene abierto el acceso a la base de datos, el cliente
+     * debe cerrarlo si no llega al final del recorrido.</p>
+     *
+     * @return Iterador de contactos, que se debe cerrar.
+     * @throws SQLDaoException Error irrecuperable de la base de datos
+     */
+    CloseableIterator<Contact> iterateAll();
+
+    /**
+     * Obtiene una página de contactos ordenados por id.
+     *
+     * <p>
+     * La paginación es por clave (<i>keyset</i>): la página empieza en el
+     * primer contacto con id mayor que <i>afterId</i>, por lo que el coste
+     * no depende de la posición de la página en el listado.</p>
+     *
+     * @param afterId Id del último contacto de la página anterior, o null
+     *        para obtener la primera página.
+     * @param pageSize Número máximo de contactos de la página.
+     * @return Contactos de la página, vacía si no hay más contactos.
+     * @throws SQLDaoException Error irrecuperable de la base de datos
+     */
+    List<Contact> getPage(String afterId, int pageSize);
+
+    /**
+     * Busca los contactos cuyo nombre o apellido empieza por el texto
+     * entregado, ignorando mayúsculas/minúsculas y espacios al principio
+     * y al final.
+     *
+     * <p>
+     * Los contactos se devuelven ordenados por el nombre o apellido que
+     * coincide y después por id, sin repetidos. La consulta se resuelve
+     * por índice, su coste depende del número de contactos devueltos.</p>
+     *
+     * @param prefix Texto por el que empieza el nombre o el apellido.
+     * @param limit Número máximo de contactos devueltos.
+     * @return Devuelve una lista vacía si no hay ninguno.
+     * @throws SQLDaoException Error irrecuperable de la base de datos
+     */
+    List<Contact> search(String prefix, int limit);
+
+    /**
+     * Obtiene los contactos que cumplen años entre los dos días del año
+     * entregados (ver {@link com.programmingchronicles.tdd.domain.ContactValue#dayOfYear(int, int)}),
+     * ambos incluidos. Si el primer día es posterior al último el intervalo
+     * pasa por el fin de año.
+     *
+     * <p>
+     * La consulta se resuelve por índice, su coste depende del número de
+     * contactos devueltos.</p>
+     *
+     * @param fromDay Primer día del intervalo, de 1 a 366.
+     * @param toDay Último día del intervalo, de 1 a 366.
+     * @return Contactos ordenados por día, empezando por <i>fromDay</i>, y
+     *         después por id. Vacía si no hay ninguno.
+     * @throws SQLDaoException Error irrecuperable de la base de datos
+     */
+    List<Contact> getByBirthday(int fromDay, int toDay);
+
     /**
      * Obtiene el contacto asociado al id entregado.
      *
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.data;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Iterador sobre un resultado que mantiene recursos abiertos (una conexión,
+ * un resultset, etc.) mientras se recorre.
+ *
+ * <p>
+ * Permite recorrer resultados muy grandes sin cargarlos completos en
+ * memoria. Los recursos se liberan automáticamente al llegar al final,
+ * pero si el recorrido se abandona antes el cliente debe invocar
+ * {@link #close()}, normalmente en un bloque finally.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public interface CloseableIterator<T> extends Iterator<T>, Closeable {
+
+    /**
+     * Libera los recursos del iterador. Se puede invocar varias veces.
+     *
+     * @throws SQLDaoException Error irrecuperable de la base de datos
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.data.pool;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Conexión física gestionada por {@link PooledDataSource}.
+ *
+ * <p>
+ * En cada préstamo el cliente recibe un handle nuevo de la conexión física,
+ * cuyo close() la devuelve al pool en lugar de cerrarla. Cada handle tiene su
+ * propio estado: una vez cerrado cualquier operación sobre él falla y un
+ * segundo close no tiene efecto, aunque la conexión física ya esté prestada
+ * a otro cliente.</p>
+ *
+ * <p>
+ * Las cachés por conexión (como la de sentencias de
+ * {@link com.programmingchronicles.tdd.data.template.JdbcDaoTemplate}) deben
+ * usar la conexión física, que se obtiene con
+ * {@link Connection#unwrap(Class)}.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+class PooledConnection {
+
+    private final PooledDataSource pool;
+    private final Connection physical;
+
+    // Instante de la última devolución al pool, protegido por el lock del pool.
+    private long lastReturned;
+
+    PooledConnection(PooledDataSource pool, Connection physical) {
+        this.pool = pool;
+        this.physical = physical;
+    }
+
+    /**
+     * Crea el handle de un nuevo préstamo de la conexión.
+     *
+     * @return
+     */
+    Connection newHandle() {
+        return (Connection) Proxy.newProxyInstance(
+                PooledConnection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new Handle());
+    }
+
+    Connection getPhysical() {
+        return physical;
+    }
+
+    long getLastReturned() {
+        return lastReturned;
+    }
+
+    void setLastReturned(long lastReturned) {
+        this.lastReturned = lastReturned;
+    }
+
+    /**
+     * Handle de un préstamo, delega en la conexión física mientras no se
+     * cierre.
+     */
+    private class Handle implements InvocationHandler {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            int argCount = args == null ? 0 : args.length;
+
+            if (name.equals("close") && argCount == 0) {
+                // Solo el primer close del handle devuelve la conexión.
+                if (closed.compareAndSet(false, true)) {
+                    pool.release(PooledConnection.this);
+                }
+                return null;
+            } else if (name.equals("isClosed") && argCount == 0) {
+                return closed.get() || physical.isClosed();
+            } else if (name.equals("equals") && argCount == 1) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode") && argCount == 0) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString") && argCount == 0) {
+                return "PooledConnection[" + physical + "]";
+            }
+
+            if (closed.get()) {
+                throw new SQLException("Connection returned to the pool");
+            }
+            if (name.equals("unwrap") && argCount == 1 && ((Class<?>) args[0]).isInstance(physical)) {
+                return physical;
+            } else if (name.equals("isWrapperFor") && argCount == 1 && ((Class<?>) args[0]).isInstance(physical)) {
+                return true;
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException ex) {
+                throw ex.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,644 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.data.pool;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * DataSource con pool de conexiones.
+ *
+ * <p>
+ * {@link com.programmingchronicles.tdd.data.template.JdbcDaoTemplate} pide y
+ * cierra una conexión en cada operación. Con un DataSource sin pool cada
+ * operación paga el coste de abrir una conexión física; este DataSource
+ * mantiene las conexiones abiertas y las presta a los clientes, el close()
+ * de la conexión prestada la devuelve al pool.</p>
+ *
+ * <p>
+ * <b>CONFIGURACION</b><br/>
+ * <ul>
+ *   <li><b>maxSize</b>: número máximo de conexiones físicas. Si todas están
+ *       prestadas los clientes esperan como máximo <b>borrowTimeout</b>,
+ *       después se lanza una {@link SQLTransientConnectionException}.</li>
+ *   <li><b>minSize</b>: número mínimo de conexiones físicas. El pool se
+ *       llena hasta el mínimo con {@link #fill()} y al expulsar conexiones
+ *       inactivas, que nunca bajan del mínimo.</li>
+ *   <li><b>idleTimeout</b>: tiempo máximo que una conexión puede estar
+ *       inactiva en el pool antes de cerrarse (0 nunca se cierran).</li>
+ *   <li><b>testOnBorrow</b>: valida la conexión con
+ *       {@link Connection#isValid(int)} antes de prestarla.</li>
+ * </ul></p>
+ *
+ * <p>
+ * No se usan threads propios: la expulsión de conexiones inactivas se realiza
+ * al pedir conexiones, y se puede forzar con {@link #evictIdleConnections()}.
+ * Tras configurar el pool se debe invocar {@link #fill()} para abrir las
+ * conexiones mínimas antes de la primera petición.
+ * Se presta primero la conexión devuelta más recientemente, de forma que con
+ * poca carga las menos usadas llegan a expulsarse.</p>
+ *
+ * <p>
+ * <b>CONCURRENCIA</b><br/>
+ * El estado del pool se protege con un único lock que solo se mantiene para
+ * actualizar contadores y la lista de conexiones inactivas. La creación,
+ * validación y cierre de conexiones físicas se realiza fuera del lock.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class PooledDataSource implements DataSource {
+
+    /**
+     * Número máximo de conexiones por defecto.
+     */
+    public static final int DEFAULT_MAX_SIZE = 10;
+
+    /**
+     * Tiempo máximo de espera por una conexión por defecto.
+     */
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Tiempo máximo de inactividad por defecto.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 600000;
+
+    // Segundos de espera máximos de la validación de conexiones.
+    private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+    private final DataSource target;
+
+    private volatile int minSize;
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+    private volatile long borrowTimeoutMillis = DEFAULT_BORROW_TIMEOUT_MILLIS;
+    private volatile long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private volatile boolean testOnBorrow = true;
+
+    // Estado del pool, protegido por el lock.
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+    private int total;
+    private int active;
+    private volatile boolean closed;
+
+    // Métricas.
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong createdCount = new AtomicLong();
+    private final AtomicLong destroyedCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Construye un pool que crea las conexiones físicas con el DataSource
+     * entregado.
+     *
+     * @param target DataSource sin pool, por ejemplo un
+     *        {@link DriverManagerDataSource}.
+     */
+    public PooledDataSource(DataSource target) {
+        this.target = target;
+    }
+
+    /**
+     * Presta una conexión del pool, creándola si no hay ninguna inactiva y
+     * no se ha alcanzado el máximo.
+     *
+     * @return Conexión cuyo close() la devuelve al pool.
+     * @throws SQLTransientConnectionException Si se supera el tiempo de espera.
+     * @throws SQLException Si el pool está cerrado o falla la conexión física.
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        long remaining = TimeUnit.MILLISECONDS.toNanos(borrowTimeoutMillis);
+
+        while (true) {
+            PooledConnection connection = null;
+            List<PooledConnection> expired = new ArrayList<PooledConnection>();
+
+            lock.lock();
+            try {
+                while (true) {
+                    if (closed) {
+                        throw new SQLException("Connection pool closed");
+                    }
+                    removeExpired(expired);
+                    if (!idle.isEmpty()) {
+                        connection = idle.pollFirst();
+                        active++;
+                        break;
+                    }
+                    if (total < maxSize) {
+                        // Se reserva el hueco, la conexión se crea fuera del lock.
+                        total++;
+                        active++;
+                        break;
+                    }
+                    if (remaining <= 0) {
+                        timeoutCount.incrementAndGet();
+                        recordWait(start);
+                        throw new SQLTransientConnectionException(
+                                "Timeout waiting for a connection after " + borrowTimeoutMillis + " ms");
+                    }
+                    remaining = released.awaitNanos(remaining);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted waiting for a connection", ex);
+            } finally {
+                lock.unlock();
+                closeAll(expired);
+            }
+
+            if (connection == null) {
+                connection = create(true);
+            } else if (testOnBorrow && !isValid(connection)) {
+                discard(connection);
+                continue;
+            }
+
+            recordWait(start);
+            borrowCount.incrementAndGet();
+            // Cada préstamo recibe su propio handle, un handle ya cerrado
+            // nunca afecta al siguiente cliente de la conexión física.
+            return connection.newHandle();
+        }
+    }
+
+    /**
+     * No soportado, todas las conexiones del pool usan las credenciales
+     * del DataSource físico.
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections use the target credentials");
+    }
+
+    /**
+     * Abre conexiones físicas inactivas hasta alcanzar el número mínimo
+     * de conexiones.
+     *
+     * @throws SQLException Si falla la creación de una conexión física.
+     */
+    public void fill() throws SQLException {
+        while (true) {
+            lock.lock();
+            try {
+                if (closed || total >= Math.min(minSize, maxSize)) {
+                    return;
+                }
+                // Se reserva el hueco, la conexión se crea fuera del lock.
+                total++;
+            } finally {
+                lock.unlock();
+            }
+
+            PooledConnection connection = create(false);
+            boolean added = false;
+            lock.lock();
+            try {
+                if (!closed) {
+                    connection.setLastReturned(currentTimeMillis());
+                    idle.offerLast(connection);
+                    released.signal();
+                    added = true;
+                } else {
+                    total--;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (!added) {
+                closePhysical(connection);
+            }
+        }
+    }
+
+    /**
+     * Cierra las conexiones inactivas que superan el tiempo de inactividad
+     * y vuelve a llenar el pool hasta el mínimo de conexiones, por ejemplo
+     * si se han descartado conexiones no válidas.
+     *
+     * @throws SQLException Si falla la creación de una conexión física.
+     */
+    public void evictIdleConnections() throws SQLException {
+        List<PooledConnection> expired = new ArrayList<PooledConnection>();
+        lock.lock();
+        try {
+            removeExpired(expired);
+        } finally {
+            lock.unlock();
+        }
+        closeAll(expired);
+        fill();
+    }
+
+    /**
+     * Cierra el pool y todas sus conexiones inactivas. Las conexiones
+     * prestadas se cierran al devolverlas.
+     */
+    public void close() {
+        List<PooledConnection> connections;
+        lock.lock();
+        try {
+            closed = true;
+            connections = new ArrayList<PooledConnection>(idle);
+            total -= idle.size();
+            idle.clear();
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        closeAll(connections);
+    }
+
+    /**
+     * Devolución de una conexión prestada, invocada por el close() de su
+     * handle.
+     */
+    void release(PooledConnection connection) {
+        boolean reusable = !closed && reset(connection.getPhysical());
+
+        lock.lock();
+        try {
+            active--;
+            if (reusable && !closed) {
+                connection.setLastReturned(currentTimeMillis());
+                idle.offerFirst(connection);
+            } else {
+                total--;
+                reusable = false;
+            }
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        if (!reusable) {
+            closePhysical(connection);
+        }
+    }
+
+    /**
+     * Hora actual, se puede sobreescribir en los tests.
+     *
+     * @return
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Crea una conexión física en un hueco ya reservado.
+     *
+     * @param borrowed Indica si el hueco se ha reservado para un préstamo.
+     */
+    private PooledConnection create(boolean borrowed) throws SQLException {
+        boolean created = false;
+        try {
+            PooledConnection connection = new PooledConnection(this, target.getConnection());
+            createdCount.incrementAndGet();
+            created = true;
+            return connection;
+        } finally {
+            if (!created) {
+                // Se libera el hueco reservado.
+                lock.lock();
+                try {
+                    total--;
+                    if (borrowed) {
+                        active--;
+                    }
+                    released.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Elimina del pool una conexión prestada que no es válida.
+     */
+    private void discard(PooledConnection connection) {
+        lock.lock();
+        try {
+            total--;
+            active--;
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+        closePhysical(connection);
+    }
+
+    /**
+     * Saca del pool las conexiones inactivas caducadas. Las más antiguas
+     * están al final de la cola. Se debe invocar con el lock.
+     */
+    private void removeExpired(List<PooledConnection> expired) {
+        long timeout = idleTimeoutMillis;
+        if (timeout <= 0) {
+            return;
+        }
+        long now = currentTimeMillis();
+        while (total > minSize && !idle.isEmpty()
+                && now - idle.peekLast().getLastReturned() > timeout) {
+            expired.add(idle.pollLast());
+            total--;
+        }
+    }
+
+    private boolean isValid(PooledConnection connection) {
+        try {
+            return connection.getPhysical().isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Deja la conexión física como la recibiría un cliente nuevo.
+     *
+     * @return false si la conexión no se puede reutilizar.
+     */
+    private boolean reset(Connection physical) {
+        try {
+            if (physical.isClosed()) {
+                return false;
+            }
+            // Una transacción sin terminar no puede pasar al siguiente cliente.
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            return true;
+        } catch (SQLException ex) {
+            return false;
+        }
+    }
+
+    private void closeAll(List<PooledConnection> connections) {
+        for (PooledConnection connection : connections) {
+            closePhysical(connection);
+        }
+    }
+
+    private void closePhysical(PooledConnection connection) {
+        destroyedCount.incrementAndGet();
+        try {
+            connection.getPhysical().close();
+        } catch (SQLException ex) {
+            // La conexión se descarta igualmente.
+        }
+    }
+
+    private void recordWait(long start) {
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waited);
+        long max = maxWaitNanos.get();
+        while (waited > max && !maxWaitNanos.compareAndSet(max, waited)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * Número de conexiones prestadas en este momento.
+     *
+     * @return
+     */
+    public int getActiveConnections() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Número de conexiones inactivas en el pool.
+     *
+     * @return
+     */
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Número total de conexiones físicas abiertas, prestadas o inactivas.
+     *
+     * @return
+     */
+    public int getTotalConnections() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Número de conexiones prestadas desde la creación del pool.
+     *
+     * @return
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * Número de peticiones que han superado el tiempo de espera.
+     *
+     * @return
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * Número de conexiones físicas creadas desde la creación del pool.
+     *
+     * @return
+     */
+    public long getCreatedCount() {
+        return createdCount.get();
+    }
+
+    /**
+     * Número de conexiones físicas cerradas desde la creación del pool.
+     *
+     * @return
+     */
+    public long getDestroyedCount() {
+        return destroyedCount.get();
+    }
+
+    /**
+     * Tiempo total que han esperado los clientes para obtener una conexión,
+     * incluida la creación de conexiones físicas.
+     *
+     * @return
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    /**
+     * Mayor tiempo de espera de un cliente para obtener una conexión.
+     *
+     * @return
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Configura el número mínimo de conexiones físicas, ver {@link #fill()}.
+     *
+     * @param minSize
+     */
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Configura el número máximo de conexiones físicas.
+     *
+     * @param maxSize
+     * @throws IllegalArgumentException Si no es positivo.
+     */
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid max size: " + maxSize);
+        }
+        this.maxSize = maxSize;
+    }
+
+    public long getBorrowTimeout() {
+        return borrowTimeoutMillis;
+    }
+
+    /**
+     * Configura el tiempo máximo de espera por una conexión si todas
+     * están prestadas.
+     *
+     * @param borrowTimeoutMillis 0 no espera.
+     */
+    public void setBorrowTimeout(long borrowTimeoutMillis) {
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeoutMillis;
+    }
+
+    /**
+     * Configura el tiempo máximo de inactividad de las conexiones.
+     *
+     * @param idleTimeoutMillis 0 no se expulsan nunca.
+     */
+    public void setIdleTimeout(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public boolean isTestOnBorrow() {
+        return testOnBorrow;
+    }
+
+    /**
+     * Configura si se valida la conexión antes de prestarla.
+     *
+     * @param testOnBorrow
+     */
+    public void setTestOnBorrow(boolean testOnBorrow) {
+        this.testOnBorrow = testOnBorrow;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || target.isWrapperFor(iface);
+    }
+}
@@ -22,14 +22,26 @@
 package com.programmingchronicles.tdd.data.support;
 
 import com.programmingchronicles.tdd.data.AddressBookDao;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.data.template.BatchParameterMapper;
 import com.programmingchronicles.tdd.data.template.ColumnMapper;
 import com.programmingchronicles.tdd.data.template.JdbcDaoTemplate;
 import com.programmingchronicles.tdd.data.template.ParameterMapper;
+import com.programmingchronicles.tdd.data.template.TransactionCallback;
 import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.domain.ContactValue;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import javax.sql.DataSource;
 
 /**
@@ -57,6 +69,25 @@ import javax.sql.DataSource;
  * Existen librerías que ya proporcionan este tipo de templates para JDBC,
  * como <i>JDBC Spring Templates</i>.</p>
  *
+ * <p><b>Nombre normalizado</b><br/>
+ * La tabla CONTACTS almacena en la columna NAMEKEY el nombre y apellido
+ * normalizados, con un índice único. Así la comprobación de duplicados
+ * es una consulta por índice y la base de datos impide los duplicados
+ * aunque se inserten desde varias aplicaciones a la vez.</p>
+ *
+ * <p><b>Búsquedas</b><br/>
+ * Las columnas FIRSTNAMEKEY y SURNAMEKEY guardan el nombre y el apellido
+ * normalizados, con índices por (FIRSTNAMEKEY, ID) y (SURNAMEKEY, ID). La
+ * búsqueda por prefijo es un LIKE 'prefijo%' sobre cada columna, que la
+ * base de datos resuelve recorriendo el índice desde el prefijo y ya en el
+ * orden pedido.</p>
+ *
+ * <p><b>Cumpleaños</b><br/>
+ * La columna BIRTHDAYDAY guarda el día del año de la fecha de nacimiento
+ * ({@link ContactValue#dayOfYear(int, int)}), con un índice por
+ * (BIRTHDAYDAY, ID). Un intervalo de días es un BETWEEN sobre el índice, o
+ * dos si el intervalo pasa por el fin de año.</p>
+ *
  * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
  */
 public class JdbcAddressBookDao implements AddressBookDao {
@@ -66,16 +97,83 @@ public class JdbcAddressBookDao implements AddressBookDao {
     // datasource (getDataSource & setDataSource).
     private JdbcDaoTemplate template;
 
+    // Número de filas leídas en cada acceso a la BD al iterar contactos.
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    // Número de sentencias preparadas en caché por conexión.
+    private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+
+    /**
+     * Número de filas por defecto leídas en cada acceso a la BD al
+     * iterar contactos.
+     */
+    public static final int DEFAULT_FETCH_SIZE = 100;
+
+    /**
+     * Número de sentencias preparadas en caché por conexión, suficiente
+     * para todas las SQL del DAO.
+     */
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 16;
+
+    // Mapeo de una fila de CONTACTS a un contacto.
+    private final ColumnMapper<Contact> contactMapper = new ColumnMapper<Contact>() {
+        @Override
+        public Contact mapColumns(ResultSet rsContacts) throws SQLException {
+            Contact contact = new Contact();
+
+            contact.setId(keyToId(rsContacts.getLong("ID")));
+            contact.setFirstName(rsContacts.getString("FIRSTNAME"));
+            contact.setSurname(rsContacts.getString("SURNAME"));
+            contact.setBirthday(rsContacts.getDate("BIRTHDAY"));
+            contact.setPhone(rsContacts.getString("PHONE"));
+
+            return contact;
+        }
+    };
+
     // Sentencias SQL utilizadas por el DAO.
     private static final String SQL_INSERT_CONTACT =
-            "INSERT INTO CONTACTS(FIRSTNAME, SURNAME, BIRTHDAY, PHONE) "
-            + "VALUES(?, ?, ?, ?)";
+            "INSERT INTO CONTACTS(FIRSTNAME, SURNAME, BIRTHDAY, PHONE, NAMEKEY, "
+            + "FIRSTNAMEKEY, SURNAMEKEY, BIRTHDAYDAY) "
+            + "VALUES(?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String SQL_EXISTS_NAME =
+            "SELECT ID FROM CONTACTS "
+            + "WHERE NAMEKEY = ?";
+    private static final String SQL_SELECT_MAX_ID =
+            "SELECT MAX(ID) FROM CONTACTS";
+    private static final String SQL_SELECT_IDS_AFTER =
+            "SELECT ID, NAMEKEY FROM CONTACTS "
+            + "WHERE ID > ?";
     private static final String SQL_SELECT_ALL =
             "SELECT ID, FIRSTNAME, SURNAME, BIRTHDAY, PHONE FROM CONTACTS";
+    private static final String SQL_SELECT_FIRST_PAGE =
+            "SELECT ID, FIRSTNAME, SURNAME, BIRTHDAY, PHONE "
+            + "FROM CONTACTS "
+            + "ORDER BY ID";
+    private static final String SQL_SELECT_PAGE =
+            "SELECT ID, FIRSTNAME, SURNAME, BIRTHDAY, PHONE "
+            + "FROM CONTACTS "
+            + "WHERE ID > ? "
+            + "ORDER BY ID";
     private static final String SQL_SELECT_CONTACT =
             "SELECT ID, FIRSTNAME, SURNAME, BIRTHDAY, PHONE "
             + "FROM CONTACTS "
             + "WHERE ID = ?";
+    private static final String SQL_SEARCH_FIRSTNAME =
+            "SELECT ID, FIRSTNAME, SURNAME, BIRTHDAY, PHONE, FIRSTNAMEKEY AS SEARCHKEY "
+            + "FROM CONTACTS "
+            + "WHERE FIRSTNAMEKEY LIKE ? ESCAPE '\\' "
+            + "ORDER BY FIRSTNAMEKEY, ID";
+    private static final String SQL_SEARCH_SURNAME =
+            "SELECT ID, FIRSTNAME, SURNAME, BIRTHDAY, PHONE, SURNAMEKEY AS SEARCHKEY "
+            + "FROM CONTACTS "
+            + "WHERE SURNAMEKEY LIKE ? ESCAPE '\\' "
+            + "ORDER BY SURNAMEKEY, ID";
+    private static final String SQL_SELECT_BIRTHDAYS =
+            "SELECT ID, FIRSTNAME, SURNAME, BIRTHDAY, PHONE "
+            + "FROM CONTACTS "
+            + "WHERE BIRTHDAYDAY BETWEEN ? AND ? "
+            + "ORDER BY BIRTHDAYDAY, ID";
     private static final String SQL_DELETE_CONTACT =
             "DELETE FROM CONTACTS "
             + "WHERE ID = ?";
@@ -98,6 +196,53 @@ public class JdbcAddressBookDao implements AddressBookDao {
      */
     public void setDataSource(DataSource ds) {
         this.template = new JdbcDaoTemplate(ds);
+        this.template.setFetchSize(fetchSize);
+        this.template.setStatementCacheSize(statementCacheSize);
+    }
+
+    /**
+     * Obtiene el número de filas leídas en cada acceso a la BD al
+     * iterar contactos.
+     *
+     * @return
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Configura el número de filas leídas en cada acceso a la BD al
+     * iterar contactos.
+     *
+     * @param fetchSize 0 usa el valor por defecto del driver.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        if (template != null) {
+            template.setFetchSize(fetchSize);
+        }
+    }
+
+    /**
+     * Obtiene el número de sentencias preparadas en caché por conexión.
+     *
+     * @return
+     */
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Configura el número de sentencias preparadas en caché por conexión.
+     * La caché solo es efectiva si el datasource reutiliza las conexiones.
+     *
+     * @param statementCacheSize 0 desactiva la caché.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+        if (template != null) {
+            template.setStatementCacheSize(statementCacheSize);
+        }
     }
 
     @Override
@@ -107,41 +252,219 @@ public class JdbcAddressBookDao implements AddressBookDao {
             new ParameterMapper() {
                 @Override
                 public void mapParameters(PreparedStatement statement) throws SQLException {
-                    statement.setString(1, contact.getFirstName());
-                    statement.setString(2, contact.getSurname());
-                    if (contact.getBirthday() != null) {
-                        statement.setDate(3, new java.sql.Date(contact.getBirthday().getTime()));
-                    } else {
-                        statement.setDate(3, null);
-                    }
-                    statement.setString(4, contact.getPhone());
+                    mapInsertParameters(statement, contact);
                 }
             });
         // Como sólo se inserta una fila, sólo debe haber una clave.
         return keyToId(keys.get(0).longValue());
     }
 
+    /**
+     * Inserta todos los contactos con un solo <i>executeBatch</i> y después
+     * lee sus identificadores por la columna única NAMEKEY, ya que JDBC no
+     * garantiza las claves generadas por un batch (Derby solo devuelve la
+     * última).
+     *
+     * <p>
+     * Los ids generados siempre crecen, por tanto todos los contactos
+     * insertados tienen un id mayor que el máximo existente antes del batch.
+     * Se leen con una sola query por rango de la clave primaria, mucho más
+     * rápida que buscar miles de nombres con <i>NAMEKEY IN (...)</i>. Si se
+     * han insertado otros contactos a la vez se descartan por su NAMEKEY.</p>
+     *
+     * <p>
+     * Las tres sentencias se ejecutan en la misma conexión y transacción, si
+     * falla cualquiera de ellas no se inserta ningún contacto.</p>
+     */
+    @Override
+    public List<String> addContacts(final Collection<Contact> contacts) {
+        return template.executeInTransaction(new TransactionCallback<List<String>>() {
+            @Override
+            public List<String> doInTransaction() {
+                return insertContacts(contacts);
+            }
+        });
+    }
+
+    private List<String> insertContacts(Collection<Contact> contacts) {
+        List<Long> maxIds = template.query(SQL_SELECT_MAX_ID,
+            new ColumnMapper<Long>() {
+                @Override
+                public Long mapColumns(ResultSet rs) throws SQLException {
+                    long maxId = rs.getLong(1);
+                    return rs.wasNull() ? null : maxId;
+                }
+            });
+        final long fromId = maxIds.get(0) == null ? Integer.MIN_VALUE : maxIds.get(0);
+
+        template.batchUpdate(SQL_INSERT_CONTACT, contacts,
+            new BatchParameterMapper<Contact>() {
+                @Override
+                public void mapParameters(PreparedStatement statement, Contact contact) throws SQLException {
+                    mapInsertParameters(statement, contact);
+                }
+            });
+
+        // Posición de cada contacto en la colección, por su NAMEKEY.
+        final Map<String, Integer> positions = new HashMap<String, Integer>(contacts.size() * 2);
+        for (Contact contact : contacts) {
+            positions.put(nameKey(contact.getFirstName(), contact.getSurname()), positions.size());
+        }
+
+        final String[] ids = new String[contacts.size()];
+        template.query(SQL_SELECT_IDS_AFTER,
+            new ParameterMapper() {
+                @Override
+                public void mapParameters(PreparedStatement statement) throws SQLException {
+                    statement.setLong(1, fromId);
+                }
+            },
+            new ColumnMapper<Void>() {
+                @Override
+                public Void mapColumns(ResultSet rs) throws SQLException {
+                    Integer position = positions.get(rs.getString("NAMEKEY"));
+                    if (position != null) {
+                        ids[position] = keyToId(rs.getLong("ID"));
+                    }
+                    return null;
+                }
+            });
+        return new ArrayList<String>(Arrays.asList(ids));
+    }
+
+    @Override
+    public boolean existsContactName(String firstName, String surname) {
+        final String nameKey = nameKey(firstName, surname);
+
+        List<Long> ids;
+        ids = template.query(SQL_EXISTS_NAME,
+            new ParameterMapper() {
+                @Override
+                public void mapParameters(PreparedStatement statement) throws SQLException {
+                    statement.setString(1, nameKey);
+                }
+            },
+            new ColumnMapper<Long>() {
+                @Override
+                public Long mapColumns(ResultSet rs) throws SQLException {
+                    return rs.getLong("ID");
+                }
+            });
+        return !ids.isEmpty();
+    }
+
     @Override
     public List<Contact> getAll() {
         List<Contact> result;
         result = template.query(SQL_SELECT_ALL,
-            new ColumnMapper<Contact>() {
-                @Override
-                public Contact mapColumns(ResultSet rsContacts) throws SQLException {
-                    Contact contact = new Contact();
+            contactMapper);
+        return result;
+    }
+
+    @Override
+    public CloseableIterator<Contact> iterateAll() {
+        return template.iterate(SQL_SELECT_ALL, null, contactMapper);
+    }
+
+    @Override
+    public List<Contact> getPage(String afterId, final int pageSize) {
+        if (afterId == null) {
+            return template.query(SQL_SELECT_FIRST_PAGE,
+                new ParameterMapper() {
+                    @Override
+                    public void mapParameters(PreparedStatement statement) throws SQLException {
+                        statement.setMaxRows(pageSize);
+                    }
+                },
+                contactMapper);
+        }
 
-                    contact.setId(keyToId(rsContacts.getLong("ID")));
-                    contact.setFirstName(rsContacts.getString("FIRSTNAME"));
-                    contact.setSurname(rsContacts.getString("SURNAME"));
-                    contact.setBirthday(rsContacts.getDate("BIRTHDAY"));
-                    contact.setPhone(rsContacts.getString("PHONE"));
+        // Un cursor inválido no puede corresponder a ningún contacto, se
+        // comporta igual que un cursor situado al final del listado.
+        final long afterKey;
+        try {
+            afterKey = idToKey(afterId);
+        } catch(NumberFormatException ex) {
+            return new ArrayList<Contact>();
+        }
 
-                    return contact;
+        // El orden por la clave primaria permite a la base de datos recorrer
+        // el índice desde el cursor y parar al completar la página, sin
+        // leer ni ordenar las filas anteriores.
+        return template.query(SQL_SELECT_PAGE,
+            new ParameterMapper() {
+                @Override
+                public void mapParameters(PreparedStatement statement) throws SQLException {
+                    statement.setLong(1, afterKey);
+                    statement.setMaxRows(pageSize);
                 }
-            });
+            },
+            contactMapper);
+    }
+
+    /**
+     * Se consultan por separado los nombres y los apellidos, cada consulta
+     * devuelve como mucho <i>limit</i> contactos ya ordenados, y se mezclan
+     * las dos listas eliminando los contactos que aparecen en ambas.
+     */
+    @Override
+    public List<Contact> search(String prefix, final int limit) {
+        final String pattern = likePrefix(searchKey(prefix));
+        ParameterMapper parameters = new ParameterMapper() {
+            @Override
+            public void mapParameters(PreparedStatement statement) throws SQLException {
+                statement.setString(1, pattern);
+                statement.setMaxRows(limit);
+            }
+        };
+
+        List<SearchMatch> byFirstName = template.query(SQL_SEARCH_FIRSTNAME, parameters, searchMapper);
+        List<SearchMatch> bySurname = template.query(SQL_SEARCH_SURNAME, parameters, searchMapper);
+
+        List<Contact> result = new ArrayList<Contact>();
+        Set<String> ids = new HashSet<String>();
+        int i = 0;
+        int j = 0;
+        while (result.size() < limit && (i < byFirstName.size() || j < bySurname.size())) {
+            SearchMatch match;
+            if (j == bySurname.size()
+                    || (i < byFirstName.size() && byFirstName.get(i).compareTo(bySurname.get(j)) <= 0)) {
+                match = byFirstName.get(i++);
+            } else {
+                match = bySurname.get(j++);
+            }
+            if (ids.add(match.contact.getId())) {
+                result.add(match.contact);
+            }
+        }
         return result;
     }
 
+    @Override
+    public List<Contact> getByBirthday(int fromDay, int toDay) {
+        if (fromDay <= toDay) {
+            return getByBirthdayBetween(fromDay, toDay);
+        }
+
+        // El intervalo pasa por el fin de año, primero los días hasta el
+        // 31 de diciembre y después los días desde el 1 de enero.
+        List<Contact> result = getByBirthdayBetween(fromDay, ContactValue.DAYS_IN_YEAR);
+        result.addAll(getByBirthdayBetween(1, toDay));
+        return result;
+    }
+
+    private List<Contact> getByBirthdayBetween(final int fromDay, final int toDay) {
+        return template.query(SQL_SELECT_BIRTHDAYS,
+            new ParameterMapper() {
+                @Override
+                public void mapParameters(PreparedStatement statement) throws SQLException {
+                    statement.setInt(1, fromDay);
+                    statement.setInt(2, toDay);
+                }
+            },
+            contactMapper);
+    }
+
     @Override
     public Contact getContact(String contactId) {
 
@@ -162,20 +485,7 @@ public class JdbcAddressBookDao implements AddressBookDao {
                     statement.setLong(1, key);
                 }
             },
-            new ColumnMapper<Contact>() {
-                @Override
-                public Contact mapColumns(ResultSet rsContacts) throws SQLException {
-                    Contact contact = new Contact();
-
-                    contact.setId(keyToId(rsContacts.getLong("ID")));
-                    contact.setFirstName(rsContacts.getString("FIRSTNAME"));
-                    contact.setSurname(rsContacts.getString("SURNAME"));
-                    contact.setBirthday(rsContacts.getDate("BIRTHDAY"));
-                    contact.setPhone(rsContacts.getString("PHONE"));
-
-                    return contact;
-                }
-            });
+            contactMapper);
 
         // Si el contacto no existe se de debe devolver null
         if (contacts.isEmpty()) {
@@ -206,6 +516,120 @@ public class JdbcAddressBookDao implements AddressBookDao {
             });
     }
 
+    private static void mapInsertParameters(PreparedStatement statement, Contact contact) throws SQLException {
+        statement.setString(1, contact.getFirstName());
+        statement.setString(2, contact.getSurname());
+        if (contact.getBirthday() != null) {
+            statement.setDate(3, new java.sql.Date(contact.getBirthday().getTime()));
+        } else {
+            statement.setDate(3, null);
+        }
+        statement.setString(4, contact.getPhone());
+        statement.setString(5, nameKey(contact.getFirstName(), contact.getSurname()));
+        statement.setString(6, searchKey(contact.getFirstName()));
+        statement.setString(7, contact.getSurname() == null ? null : searchKey(contact.getSurname()));
+        if (contact.getBirthday() != null) {
+            statement.setInt(8, ContactValue.toDayOfYear(ContactValue.toEpochDay(contact.getBirthday())));
+        } else {
+            statement.setNull(8, Types.INTEGER);
+        }
+    }
+
+    /**
+     * Calcula el valor de las columnas FIRSTNAMEKEY y SURNAMEKEY, con la
+     * misma normalización que {@link #nameKey(String, String)} pero sin
+     * la longitud, para que se pueda buscar por el principio.
+     *
+     * @param name
+     * @return
+     */
+    static String searchKey(String name) {
+        name = name.trim();
+        StringBuilder key = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            key.append(Character.toLowerCase(Character.toUpperCase(name.charAt(i))));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Patrón LIKE de los textos que empiezan por el prefijo entregado. Se
+     * escapan los comodines, un '%' en el prefijo solo coincide con '%'.
+     */
+    private static String likePrefix(String prefix) {
+        StringBuilder pattern = new StringBuilder(prefix.length() + 1);
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '%' || c == '_' || c == '\\') {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('%').toString();
+    }
+
+    /**
+     * Calcula el valor de la columna NAMEKEY.
+     *
+     * <p>
+     * Cada parte se normaliza con trim y con la misma conversión de caracteres
+     * que usa {@link String#equalsIgnoreCase(String)}, y se precede de su
+     * longitud para que dos nombres distintos nunca generen la misma clave.
+     * Un valor null se representa con "-", distinto de un valor vacío ("0:").</p>
+     *
+     * @param firstName
+     * @param surname
+     * @return
+     */
+    static String nameKey(String firstName, String surname) {
+        StringBuilder key = new StringBuilder();
+        appendNameKeyPart(key, firstName);
+        appendNameKeyPart(key, surname);
+        return key.toString();
+    }
+
+    private static void appendNameKeyPart(StringBuilder key, String name) {
+        if (name == null) {
+            key.append('-');
+            return;
+        }
+        name = name.trim();
+        key.append(name.length()).append(':');
+        for (int i = 0; i < name.length(); i++) {
+            key.append(Character.toLowerCase(Character.toUpperCase(name.charAt(i))));
+        }
+    }
+
+    // Mapeo de una fila de las búsquedas, con la clave por la que coincide.
+    private final ColumnMapper<SearchMatch> searchMapper = new ColumnMapper<SearchMatch>() {
+        @Override
+        public SearchMatch mapColumns(ResultSet rs) throws SQLException {
+            return new SearchMatch(rs.getString("SEARCHKEY"), rs.getLong("ID"),
+                                   contactMapper.mapColumns(rs));
+        }
+    };
+
+    /**
+     * Contacto encontrado en una búsqueda, ordenado igual que en la consulta.
+     */
+    private static class SearchMatch implements Comparable<SearchMatch> {
+        final String key;
+        final long id;
+        final Contact contact;
+
+        SearchMatch(String key, long id, Contact contact) {
+            this.key = key;
+            this.id = id;
+            this.contact = contact;
+        }
+
+        @Override
+        public int compareTo(SearchMatch other) {
+            int result = key.compareTo(other.key);
+            return result != 0 ? result : (id < other.id ? -1 : (id == other.id ? 0 : 1));
+        }
+    }
+
     private String keyToId(long key) {
         return Long.toString(key);
     }
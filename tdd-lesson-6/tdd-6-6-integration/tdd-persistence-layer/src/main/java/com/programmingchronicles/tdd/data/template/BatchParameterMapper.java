@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.data.template;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Interfaz de callback usado en las operaciones batch de {@link JdbcDaoTemplate}
+ * para inicializar los parametros de la sentencia con cada uno de los
+ * elementos del batch.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public interface BatchParameterMapper<T> {
+
+    /**
+     * Callback que se ejecuta una vez por cada elemento del batch, antes
+     * de añadir la sentencia al batch o de ejecutarla.
+     *
+     * @param statement
+     * @param item Elemento del batch cuyos datos se asignan a los parametros.
+     */
+    void mapParameters(PreparedStatement statement, T item) throws SQLException;
+}
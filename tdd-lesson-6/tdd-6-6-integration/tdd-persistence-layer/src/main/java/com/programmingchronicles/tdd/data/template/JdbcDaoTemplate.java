@@ -21,6 +21,8 @@
 
 package com.programmingchronicles.tdd.data.template;
 
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.data.DataIntegrityDaoException;
 import com.programmingchronicles.tdd.data.SQLDaoException;
 import java.sql.Statement;
 import java.sql.Connection;
@@ -28,6 +30,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import javax.sql.DataSource;
 
@@ -55,6 +58,22 @@ import javax.sql.DataSource;
  * controlar en los DAOs y en sus test la gestión de objetos de acceso a la
  * base de datos.</p>
  *
+ * <p>
+ * <b>Caché de sentencias</b><br/>
+ * Opcionalmente el template puede mantener una caché de sentencias preparadas
+ * por conexión física ({@link #setStatementCacheSize(int)}), para no volver a
+ * preparar las mismas SQL en cada operación. Solo es útil si el datasource
+ * reutiliza las conexiones (un pool), las sentencias se descartan al cerrarse
+ * físicamente la conexión. La conexión física se obtiene con
+ * {@link Connection#unwrap(Class)} de la conexión prestada.</p>
+ *
+ * <p>
+ * <b>Transacciones</b><br/>
+ * Cada operación usa su propia conexión. Con
+ * {@link #executeInTransaction(TransactionCallback)} todas las operaciones
+ * que se ejecutan desde el callback comparten una conexión y una
+ * transacción, que se deshace si falla alguna.</p>
+ *
  * <p><b>Nota:</b><br/>
  * Existen librerías que ya proporcionan este tipo de templates para JDBC,
  * como <i>JDBC Spring Templates</i>.</p>
@@ -65,6 +84,17 @@ public class JdbcDaoTemplate {
 
     private DataSource datasource;
 
+    // Número de filas que se piden al driver en cada lectura de las
+    // queries iteradas, 0 usa el valor por defecto del driver.
+    private int fetchSize;
+
+    // Caché de sentencias preparadas, null si está desactivada.
+    private volatile PreparedStatementCache statementCache;
+
+    // Conexión de la transacción en curso de cada thread, ver
+    // executeInTransaction.
+    private final ThreadLocal<Connection> transactionConnection = new ThreadLocal<Connection>();
+
     /**
      * Construye un template que ejecuta sentencias usando conexiones
      * del datasource entregado.
@@ -125,6 +155,62 @@ public class JdbcDaoTemplate {
         return result;
     }
 
+    /**
+     * Ejecuta una query y devuelve un iterador que lee las filas bajo
+     * demanda, mapeando cada fila en el callback del <i>columnMapper</i>.
+     *
+     * <p>
+     * A diferencia de {@link #query(String, ParameterMapper, ColumnMapper)} no
+     * se carga todo el resultado en memoria, el consumo es constante sea cual
+     * sea el número de filas. A cambio la conexión queda abierta mientras se
+     * recorre: se libera al terminar el recorrido o al invocar
+     * {@link CloseableIterator#close()}, que el cliente debe asegurar.</p>
+     *
+     * @param sql
+     * @param parameterMapper El {@link ParameterMapper} encargado de inicializar
+     *        los parametros de la sentencia a ejecutar.
+     * @param columnMapper El {@link ColumnMapper} encargado de leer una fila
+     *        del resultset y devolver el objeto mapeado.
+     * @return Iterador sobre los objetos T devueltos por la query.
+     * @throws SQLDaoException Error irrecuperable de la base de datos
+     */
+    public <T> CloseableIterator<T> iterate(String sql, ParameterMapper parameterMapper, ColumnMapper<T> columnMapper) {
+        // No se puede usar el método execute genérico, ya que los recursos
+        // no se deben cerrar al terminar sino al acabar el recorrido.
+        try {
+            Connection conn = datasource.getConnection();
+            PreparedStatement statement = null;
+            boolean opened = false;
+            try {
+                statement = conn.prepareStatement(sql);
+                if (fetchSize > 0) {
+                    statement.setFetchSize(fetchSize);
+                }
+                if (parameterMapper != null) {
+                    parameterMapper.mapParameters(statement);
+                }
+                ResultSet rs = statement.executeQuery();
+
+                // Desde aquí el iterador es el responsable de los recursos.
+                CloseableIterator<T> iterator = new ResultSetIterator<T>(conn, statement, rs, columnMapper);
+                opened = true;
+                return iterator;
+            } finally {
+                if (!opened) {
+                    try {
+                        if (statement != null) {
+                            statement.close();
+                        }
+                    } finally {
+                        conn.close();
+                    }
+                }
+            }
+        } catch (SQLException ex) {
+            throw new SQLDaoException(ex);
+        }
+    }
+
     /**
      * Ejecuta una query de actualización que no devuelve ningún resultado.
      *
@@ -189,6 +275,65 @@ public class JdbcDaoTemplate {
         return result;
     }
 
+    /**
+     * Ejecuta una sentencia de actualización para cada elemento de la
+     * colección entregada, usando una sola conexión y una sola sentencia
+     * preparada.
+     *
+     * <p>
+     * Todas las filas se ejecutan en la misma transacción: si falla alguna
+     * no se modifica ninguna. Si la conexión ya tenía una transacción en curso
+     * (autocommit desactivado) el commit o rollback se deja al cliente.</p>
+     *
+     * <p>
+     * No devuelve claves generadas: JDBC no garantiza las claves de
+     * <i>executeBatch</i> (Derby por ejemplo solo devuelve la última). Si se
+     * necesitan, se deben leer después por alguna columna única.</p>
+     *
+     * @param sql
+     * @param items Elementos del batch.
+     * @param batchMapper El {@link BatchParameterMapper} encargado de inicializar
+     *        los parametros de la sentencia con cada elemento.
+     */
+    public <T> void batchUpdate(String sql, final Collection<T> items,
+            final BatchParameterMapper<T> batchMapper) {
+        execute(sql, false, null,
+            new PreparedCallback() {
+            @Override
+            public Object process(PreparedStatement statement) throws SQLException {
+                // Si la conexión está en autocommit el template gestiona
+                // la transacción del batch.
+                Connection conn = statement.getConnection();
+                boolean autoCommit = conn.getAutoCommit();
+                if (autoCommit) {
+                    conn.setAutoCommit(false);
+                }
+                boolean committed = false;
+                try {
+                    // Todas las filas se envían a la base de datos de una
+                    // vez con addBatch/executeBatch.
+                    for (T item : items) {
+                        batchMapper.mapParameters(statement, item);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    if (autoCommit) {
+                        conn.commit();
+                    }
+                    committed = true;
+                    return null;
+                } finally {
+                    if (autoCommit) {
+                        if (!committed) {
+                            conn.rollback();
+                        }
+                        conn.setAutoCommit(true);
+                    }
+                }
+            }
+        });
+    }
+
     /**
      * Ejecuta una query generica que devuelve el resultado en función de los
      * callbacks y opciones entregadas.
@@ -205,22 +350,37 @@ public class JdbcDaoTemplate {
      * @param preparedCallback El {@link PreparedCallback} que recibe la sentencia
      *        preparada para su ejecución y que devuelve el resultado.
      * @return Devuelve el objeto generado por el {@link PreparedCallback} entregado.
+     * @throws DataIntegrityDaoException Si se viola una restricción de integridad.
+     * @throws SQLDaoException Error irrecuperable de la base de datos
      */
     public Object execute(String sql, boolean returnKey, ParameterMapper parameterMapper, PreparedCallback preparedCallback) {
+        // Se usa la misma caché durante toda la operación aunque se
+        // reconfigure mientras tanto.
+        PreparedStatementCache cache = statementCache;
         try {
-            Connection conn = datasource.getConnection();
+            // Dentro de una transacción se usa su conexión, que no se cierra
+            // hasta que termina la transacción.
+            Connection transaction = transactionConnection.get();
+            Connection conn = transaction != null ? transaction : datasource.getConnection();
+            Connection physical = cache != null ? physicalConnection(conn) : conn;
             try {
                 // Siempre se usa un PreparedStatement ya que se puede usar
                 // con parámetros o sin parametros. Se crea en función de si
                 // se utilizará o no para devolver claves generadas.
-                PreparedStatement statement;
+                PreparedStatement statement = null;
 
-                if(returnKey) { 
-                    statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-                } else {
-                    statement = conn.prepareStatement(sql);
+                if (cache != null) {
+                    statement = cache.take(physical, sql, returnKey);
+                }
+                if (statement == null) {
+                    if(returnKey) {
+                        statement = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+                    } else {
+                        statement = conn.prepareStatement(sql);
+                    }
                 }
 
+                boolean reusable = false;
                 try {
                     // Ejecuta el callback de inicialización de parametros.
                     if (parameterMapper != null) {
@@ -228,20 +388,173 @@ public class JdbcDaoTemplate {
                     }
                     // Ejecuta con el callback el procesamiento de la sentencia
                     // que decide el objeto a devolver.
-                    return preparedCallback.process(statement);
+                    Object result = preparedCallback.process(statement);
+                    reusable = true;
+                    return result;
                 } finally {
-                    statement.close();
+                    // Tras un error la sentencia puede quedar en un estado
+                    // inconsistente (un batch a medias), no se reutiliza.
+                    if (reusable && cache != null) {
+                        cache.release(physical, sql, returnKey, statement);
+                    } else {
+                        statement.close();
+                    }
                 }
             } finally {                
-                conn.close();
+                if (transaction == null) {
+                    close(conn, physical, cache);
+                }
             }
         } catch (SQLException ex) {
-            // Las excepciones SQL serán principalmente fallos irrecuperables,
-            // por lo que se deben propagar si el DAO no las soluciona.
-            throw new SQLDaoException(ex);
+            throw translate(ex);
+        }
+    }
+
+    /**
+     * Ejecuta el callback entregado en una transacción. Todas las
+     * operaciones del template que se invocan desde el callback, en el
+     * mismo thread, usan la misma conexión.
+     *
+     * <p>
+     * Si el callback termina se hace commit, y si lanza una excepción se
+     * deshace la transacción y se propaga la excepción. Si ya hay una
+     * transacción en curso en el thread el callback se ejecuta en ella.</p>
+     *
+     * @param callback Operaciones a ejecutar en la transacción.
+     * @return Devuelve el resultado del callback.
+     * @throws SQLDaoException Si no se puede obtener la conexión o fallan
+     *         el commit o el rollback.
+     */
+    public <T> T executeInTransaction(TransactionCallback<T> callback) {
+        if (transactionConnection.get() != null) {
+            return callback.doInTransaction();
+        }
+
+        PreparedStatementCache cache = statementCache;
+        try {
+            Connection conn = datasource.getConnection();
+            Connection physical = cache != null ? physicalConnection(conn) : conn;
+            try {
+                boolean autoCommit = conn.getAutoCommit();
+                conn.setAutoCommit(false);
+                transactionConnection.set(conn);
+                boolean committed = false;
+                try {
+                    T result = callback.doInTransaction();
+                    conn.commit();
+                    committed = true;
+                    return result;
+                } finally {
+                    transactionConnection.remove();
+                    if (!committed) {
+                        conn.rollback();
+                    }
+                    conn.setAutoCommit(autoCommit);
+                }
+            } finally {
+                close(conn, physical, cache);
+            }
+        } catch (SQLException ex) {
+            throw translate(ex);
         }
     }
 
+    /**
+     * Las sentencias en caché pertenecen a la conexión física. Un pool
+     * puede entregar un handle distinto en cada préstamo de la misma
+     * conexión física, que se obtiene con unwrap.
+     */
+    private static Connection physicalConnection(Connection conn) throws SQLException {
+        return conn.isWrapperFor(Connection.class) ? conn.unwrap(Connection.class) : conn;
+    }
+
+    private static void close(Connection conn, Connection physical, PreparedStatementCache cache) throws SQLException {
+        conn.close();
+
+        // Si la conexión se ha cerrado físicamente (no la ha
+        // recuperado un pool) sus sentencias ya no son válidas.
+        if (cache != null && physical.isClosed()) {
+            cache.discard(physical);
+        }
+    }
+
+    private static RuntimeException translate(SQLException ex) {
+        // Las violaciones de integridad (SQLState de clase 23) se
+        // distinguen para que la capa de negocio pueda tratarlas.
+        if (ex.getSQLState() != null && ex.getSQLState().startsWith("23")) {
+            return new DataIntegrityDaoException(ex);
+        }
+
+        // El resto de excepciones SQL serán principalmente fallos
+        // irrecuperables, por lo que se deben propagar si el DAO no
+        // las soluciona.
+        return new SQLDaoException(ex);
+    }
+
+    /**
+     * Obtiene el número de filas que se piden al driver en cada lectura
+     * de las queries iteradas.
+     *
+     * @return
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Configura el número de filas que se piden al driver en cada lectura
+     * de las queries iteradas.
+     *
+     * @param fetchSize 0 usa el valor por defecto del driver.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Obtiene el número máximo de sentencias preparadas en caché por
+     * cada conexión.
+     *
+     * @return 0 si la caché está desactivada.
+     */
+    public int getStatementCacheSize() {
+        PreparedStatementCache cache = statementCache;
+        return cache != null ? cache.getMaxStatements() : 0;
+    }
+
+    /**
+     * Configura el número máximo de sentencias preparadas en caché por
+     * cada conexión. Al reconfigurar la caché se descartan sus estadísticas.
+     *
+     * @param statementCacheSize 0 desactiva la caché.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCache = statementCacheSize > 0
+                ? new PreparedStatementCache(statementCacheSize)
+                : null;
+    }
+
+    /**
+     * Número de operaciones que han reutilizado una sentencia de la caché.
+     *
+     * @return
+     */
+    public long getStatementCacheHits() {
+        PreparedStatementCache cache = statementCache;
+        return cache != null ? cache.getHits() : 0;
+    }
+
+    /**
+     * Número de operaciones que han tenido que preparar la sentencia
+     * estando la caché activada.
+     *
+     * @return
+     */
+    public long getStatementCacheMisses() {
+        PreparedStatementCache cache = statementCache;
+        return cache != null ? cache.getMisses() : 0;
+    }
+
     /**
      * Devuelve el datasource configurado en el template.
      *
@@ -0,0 +1,244 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.data.template;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché de sentencias preparadas por conexión usada por
+ * {@link JdbcDaoTemplate}.
+ *
+ * <p>
+ * Una sentencia preparada pertenece a la conexión que la creó, por lo que
+ * se mantiene una caché independiente para cada conexión. Cada caché está
+ * limitada a un número máximo de sentencias, al superarlo se cierra la
+ * sentencia usada hace más tiempo (LRU).</p>
+ *
+ * <p>
+ * Mientras una sentencia se está usando se saca de la caché, de forma que
+ * nunca se entrega la misma sentencia a dos usos simultáneos.</p>
+ *
+ * <p>
+ * La caché es thread-safe. Solo tiene sentido con conexiones que se
+ * reutilizan, como las de un pool. Las sentencias de una conexión se
+ * descartan al detectar que la conexión se ha cerrado: al cerrarla el
+ * template, o al registrar una conexión nueva en la caché.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+class PreparedStatementCache {
+
+    private final int maxStatements;
+
+    // Cachés de cada conexión, por identidad ya que un wrapper de conexión
+    // podría redefinir el equals.
+    private final Map<Connection, Map<StatementKey, PreparedStatement>> caches =
+            new IdentityHashMap<Connection, Map<StatementKey, PreparedStatement>>();
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Construye una caché con el número máximo de sentencias por conexión.
+     *
+     * @param maxStatements
+     */
+    PreparedStatementCache(int maxStatements) {
+        if (maxStatements < 1) {
+            throw new IllegalArgumentException("Invalid cache size: " + maxStatements);
+        }
+        this.maxStatements = maxStatements;
+    }
+
+    /**
+     * Saca de la caché una sentencia de la conexión entregada.
+     *
+     * @param conn
+     * @param sql
+     * @param returnKey Indica si la sentencia devuelve claves generadas.
+     * @return La sentencia, o null si no está en caché.
+     * @throws SQLException
+     */
+    synchronized PreparedStatement take(Connection conn, String sql, boolean returnKey) throws SQLException {
+        Map<StatementKey, PreparedStatement> cache = caches.get(conn);
+        PreparedStatement statement = null;
+        if (cache != null) {
+            statement = cache.remove(new StatementKey(sql, returnKey));
+            // Si el driver ha cerrado la sentencia (por ejemplo por un
+            // error de la conexión) no se puede reutilizar.
+            if (statement != null && statement.isClosed()) {
+                statement = null;
+            }
+        }
+        if (statement == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return statement;
+    }
+
+    /**
+     * Devuelve a la caché una sentencia ya usada para que se pueda reutilizar.
+     *
+     * @param conn Conexión que creó la sentencia.
+     * @param sql
+     * @param returnKey Indica si la sentencia devuelve claves generadas.
+     * @param statement
+     * @throws SQLException
+     */
+    synchronized void release(Connection conn, String sql, boolean returnKey,
+                              PreparedStatement statement) throws SQLException {
+        Map<StatementKey, PreparedStatement> cache = caches.get(conn);
+        if (cache == null) {
+            removeClosedConnections();
+            cache = new LruStatements(maxStatements);
+            caches.put(conn, cache);
+        }
+        PreparedStatement previous = cache.put(new StatementKey(sql, returnKey), statement);
+        if (previous != null && previous != statement) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Descarta y cierra todas las sentencias de la conexión entregada.
+     *
+     * @param conn
+     * @throws SQLException
+     */
+    synchronized void discard(Connection conn) throws SQLException {
+        Map<StatementKey, PreparedStatement> cache = caches.remove(conn);
+        if (cache != null) {
+            for (PreparedStatement statement : cache.values()) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * Descarta las cachés de las conexiones ya cerradas. Un pool puede
+     * cerrar conexiones sin pasar por el template (por ejemplo al expulsar
+     * las inactivas), se comprueba al aparecer una conexión nueva.
+     */
+    private void removeClosedConnections() throws SQLException {
+        Iterator<Map.Entry<Connection, Map<StatementKey, PreparedStatement>>> it =
+                caches.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Connection, Map<StatementKey, PreparedStatement>> entry = it.next();
+            if (entry.getKey().isClosed()) {
+                // La entrada de un IdentityHashMap no es válida tras el remove.
+                Map<StatementKey, PreparedStatement> statements = entry.getValue();
+                it.remove();
+                for (PreparedStatement statement : statements.values()) {
+                    statement.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Número de sentencias obtenidas de la caché.
+     *
+     * @return
+     */
+    synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Número de sentencias que no estaban en caché y se han preparado.
+     *
+     * @return
+     */
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    int getMaxStatements() {
+        return maxStatements;
+    }
+
+    /**
+     * Mapa de sentencias en orden de acceso, que cierra la sentencia menos
+     * usada recientemente al superar el máximo.
+     */
+    private static class LruStatements extends LinkedHashMap<StatementKey, PreparedStatement> {
+
+        private final int maxStatements;
+
+        LruStatements(int maxStatements) {
+            super(16, 0.75f, true);
+            this.maxStatements = maxStatements;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<StatementKey, PreparedStatement> eldest) {
+            if (size() <= maxStatements) {
+                return false;
+            }
+            try {
+                eldest.getValue().close();
+            } catch (SQLException ex) {
+                // La sentencia ya no se va a usar, el error no afecta a
+                // la operación que ha provocado la expulsión.
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Clave de la caché: la misma SQL preparada con y sin generación de
+     * claves son sentencias distintas.
+     */
+    private static class StatementKey {
+
+        private final String sql;
+        private final boolean returnKey;
+
+        StatementKey(String sql, boolean returnKey) {
+            this.sql = sql;
+            this.returnKey = returnKey;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof StatementKey)) {
+                return false;
+            }
+            StatementKey other = (StatementKey) obj;
+            return returnKey == other.returnKey && sql.equals(other.sql);
+        }
+
+        @Override
+        public int hashCode() {
+            return sql.hashCode() * 31 + (returnKey ? 1 : 0);
+        }
+    }
+}
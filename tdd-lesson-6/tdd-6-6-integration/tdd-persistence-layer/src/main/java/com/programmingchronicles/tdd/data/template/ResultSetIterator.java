@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.data.template;
+
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.data.SQLDaoException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterador que lee las filas de un resultset bajo demanda, mapeando cada
+ * fila con un {@link ColumnMapper}.
+ *
+ * <p>
+ * Es el responsable de cerrar el resultset, la sentencia y la conexión
+ * que recibe, al terminar el recorrido o al invocar {@link #close()}.</p>
+ *
+ * @see JdbcDaoTemplate#iterate(String, ParameterMapper, ColumnMapper)
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+class ResultSetIterator<T> implements CloseableIterator<T> {
+
+    private final Connection connection;
+    private final PreparedStatement statement;
+    private final ResultSet resultset;
+    private final ColumnMapper<T> columnMapper;
+
+    // Indica si ya se ha avanzado el resultset a la siguiente fila,
+    // y si esa fila existe.
+    private boolean fetched;
+    private boolean hasRow;
+    private boolean closed;
+
+    ResultSetIterator(Connection connection, PreparedStatement statement,
+                      ResultSet resultset, ColumnMapper<T> columnMapper) {
+        this.connection = connection;
+        this.statement = statement;
+        this.resultset = resultset;
+        this.columnMapper = columnMapper;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (closed) {
+            return false;
+        }
+        if (!fetched) {
+            try {
+                hasRow = resultset.next();
+                fetched = true;
+            } catch (SQLException ex) {
+                close();
+                throw new SQLDaoException(ex);
+            }
+            // Al llegar al final se liberan los recursos.
+            if (!hasRow) {
+                close();
+            }
+        }
+        return hasRow;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        fetched = false;
+        try {
+            return columnMapper.mapColumns(resultset);
+        } catch (SQLException ex) {
+            close();
+            throw new SQLDaoException(ex);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        hasRow = false;
+        try {
+            try {
+                resultset.close();
+            } finally {
+                try {
+                    statement.close();
+                } finally {
+                    connection.close();
+                }
+            }
+        } catch (SQLException ex) {
+            throw new SQLDaoException(ex);
+        }
+    }
+}
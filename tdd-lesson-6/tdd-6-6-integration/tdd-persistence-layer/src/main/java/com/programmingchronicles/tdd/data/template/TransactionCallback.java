@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.data.template;
+
+/**
+ * Interfaz de callback usado en {@link JdbcDaoTemplate#executeInTransaction}
+ * para ejecutar varias operaciones del template en una sola transacción.
+ *
+ * <p>Las operaciones del template invocadas desde el callback, en el mismo
+ * thread, usan todas la misma conexión.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public interface TransactionCallback<T> {
+
+    /**
+     * Callback que ejecuta las operaciones de la transacción. Si lanza una
+     * excepción se deshace toda la transacción.
+     *
+     * @return Resultado que devolverá el template.
+     */
+    public T doInTransaction();
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.data.pool;
+
+import com.programmingchronicles.tdd.data.support.JdbcAddressBookDao;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import javax.sql.DataSource;
+
+/**
+ * Medición de las lecturas de contactos con {@link JdbcAddressBookDao} sin
+ * pool de conexiones, con {@link PooledDataSource}, y con el pool más la
+ * caché de sentencias del template.
+ *
+ * <p>
+ * Usa una base de datos Derby embebida en memoria, en la que abrir una
+ * conexión es mucho más barato que con una base de datos en red, por lo
+ * que la diferencia real es todavía mayor.</p>
+ *
+ * <p>
+ * Al final se ejecutan varios threads con un pool menor que el número de
+ * threads, para observar las métricas de espera del pool.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class PooledDataSourceBenchmark {
+
+    private static final String URL = "jdbc:derby:memory:poolBenchmarkDB;create=true";
+
+    private static final int CONTACTS = 1000;
+    private static final int READS = 50000;
+
+    public static void main(String[] args) throws Exception {
+        Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+        createTable();
+
+        JdbcAddressBookDao loader = new JdbcAddressBookDao();
+        loader.setDataSource(new DriverManagerDataSource(URL));
+        final List<String> ids = loader.addContacts(newContacts());
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 2; round++) {
+            boolean print = round > 0;
+
+            run("Sin pool", new DriverManagerDataSource(URL), 0, ids, print);
+
+            PooledDataSource pool = new PooledDataSource(new DriverManagerDataSource(URL));
+            run("Pool", pool, 0, ids, print);
+            run("Pool + caché sentencias", pool, JdbcAddressBookDao.DEFAULT_STATEMENT_CACHE_SIZE, ids, print);
+            pool.close();
+        }
+
+        int threads = Runtime.getRuntime().availableProcessors() * 2;
+        PooledDataSource pool = new PooledDataSource(new DriverManagerDataSource(URL));
+        pool.setMaxSize(Math.max(1, threads / 4));
+        runConcurrent(pool, threads, ids);
+        System.out.printf("%d threads, pool de %d conexiones: prestadas %d, creadas %d, "
+                          + "espera total %d ms, espera máxima %d ms%n",
+                          threads, pool.getMaxSize(), pool.getBorrowCount(), pool.getCreatedCount(),
+                          pool.getTotalWaitMillis(), pool.getMaxWaitMillis());
+        pool.close();
+    }
+
+    private static void run(String name, DataSource dataSource, int statementCacheSize,
+                            List<String> ids, boolean print) {
+        JdbcAddressBookDao dao = new JdbcAddressBookDao();
+        dao.setStatementCacheSize(statementCacheSize);
+        dao.setDataSource(dataSource);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            dao.getContact(ids.get(i % ids.size()));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        if (print) {
+            System.out.printf("%-24s getContact x %d: %6d ms%n", name, READS, elapsed / 1000000);
+        }
+    }
+
+    private static void runConcurrent(DataSource dataSource, int threads,
+                                      final List<String> ids) throws InterruptedException {
+        final JdbcAddressBookDao dao = new JdbcAddressBookDao();
+        dao.setDataSource(dataSource);
+
+        final CountDownLatch end = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < READS / 10; i++) {
+                            dao.getContact(ids.get(i % ids.size()));
+                        }
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+        end.await();
+    }
+
+    private static List<Contact> newContacts() {
+        List<Contact> contacts = new ArrayList<Contact>(CONTACTS);
+        for (int i = 0; i < CONTACTS; i++) {
+            Contact contact = new Contact();
+            contact.setFirstName("Contact" + i);
+            contact.setSurname("Surname");
+            contact.setPhone("610101010");
+            contacts.add(contact);
+        }
+        return contacts;
+    }
+
+    private static void createTable() throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stm = conn.createStatement();
+            try {
+                stm.execute("CREATE TABLE CONTACTS ("
+                        + "ID INT NOT NULL GENERATED ALWAYS AS IDENTITY, "
+                        + "FIRSTNAME VARCHAR(255), "
+                        + "SURNAME VARCHAR(255), "
+                        + "BIRTHDAY DATE, "
+                        + "PHONE VARCHAR(255), "
+                        + "NAMEKEY VARCHAR(520) NOT NULL, "
+                        + "FIRSTNAMEKEY VARCHAR(255) NOT NULL, "
+                        + "SURNAMEKEY VARCHAR(255), "
+                        + "BIRTHDAYDAY INT, "
+                        + "CONSTRAINT CONTACTS_PK PRIMARY KEY (ID), "
+                        + "CONSTRAINT CONTACTS_NAMEKEY_UK UNIQUE (NAMEKEY))");
+            } finally {
+                stm.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.data.pool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test de PooledDataSource.
+ *
+ * <p>
+ * El DataSource físico es un mock que devuelve mocks de conexiones, de forma
+ * que se puede verificar por interacción cuándo el pool crea, valida y
+ * cierra las conexiones físicas sin necesidad de una base de datos.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestPooledDataSource {
+
+    // Stubs y Mocks
+    private DataSource mockTarget;
+    private Connection mockConnection1;
+    private Connection mockConnection2;
+
+    // Reloj del pool controlado por los tests.
+    private long now;
+
+    // Object Under Test
+    private PooledDataSource pool;
+
+    @Before
+    public void setUp() throws SQLException {
+        mockConnection1 = newMockConnection();
+        mockConnection2 = newMockConnection();
+
+        mockTarget = mock(DataSource.class);
+        when(mockTarget.getConnection()).thenReturn(mockConnection1, mockConnection2);
+
+        now = 1000;
+        pool = new PooledDataSource(mockTarget) {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        pool.setMaxSize(2);
+        pool.setBorrowTimeout(50);
+    }
+
+    /**
+     * Crea el mock de una conexión física abierta, válida y en autocommit.
+     */
+    private Connection newMockConnection() throws SQLException {
+        Connection connection = mock(Connection.class);
+        when(connection.isValid(anyInt())).thenReturn(true);
+        when(connection.getAutoCommit()).thenReturn(true);
+        return connection;
+    }
+
+    /**
+     * El close de la conexión prestada la devuelve al pool, y la siguiente
+     * petición reutiliza la misma conexión física.
+     */
+    @Test
+    public void testReuseConnection() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.close();
+
+        Connection reused = pool.getConnection();
+
+        // Cada préstamo tiene su handle, pero la conexión física es la misma.
+        assertNotSame(connection, reused);
+        assertSame(mockConnection1, reused.unwrap(Connection.class));
+        verify(mockTarget, times(1)).getConnection();
+        verify(mockConnection1, never()).close();
+    }
+
+    /**
+     * Las operaciones se delegan en la conexión física.
+     */
+    @Test
+    public void testDelegate() throws SQLException {
+        Connection connection = pool.getConnection();
+
+        connection.prepareStatement("SQL");
+
+        verify(mockConnection1).prepareStatement("SQL");
+    }
+
+    /**
+     * Una conexión devuelta al pool no se puede seguir usando.
+     */
+    @Test
+    public void testUseAfterClose() throws SQLException {
+        Connection connection = pool.getConnection();
+        connection.close();
+        // Un segundo close no tiene efecto.
+        connection.close();
+
+        try {
+            connection.prepareStatement("SQL");
+            fail("SQLException expected");
+        } catch (SQLException ex) {
+            verify(mockConnection1, never()).prepareStatement("SQL");
+        }
+        assertTrue(connection.isClosed());
+        assertEquals(1, pool.getIdleConnections());
+    }
+
+    /**
+     * Un handle cerrado no afecta al siguiente préstamo de la misma
+     * conexión física: ni un segundo close la devuelve al pool, ni se
+     * puede usar la conexión del nuevo cliente.
+     */
+    @Test
+    public void testStaleHandle() throws SQLException {
+        Connection stale = pool.getConnection();
+        stale.close();
+        Connection connection = pool.getConnection();
+
+        stale.close();
+        assertEquals(1, pool.getActiveConnections());
+        assertEquals(0, pool.getIdleConnections());
+
+        try {
+            stale.prepareStatement("SQL");
+            fail("SQLException expected");
+        } catch (SQLException ex) {
+            verify(mockConnection1, never()).prepareStatement("SQL");
+        }
+        assertFalse(connection.isClosed());
+        connection.prepareStatement("SQL");
+        verify(mockConnection1).prepareStatement("SQL");
+    }
+
+    /**
+     * Si todas las conexiones están prestadas se espera como máximo el
+     * tiempo configurado.
+     */
+    @Test
+    public void testBorrowTimeout() throws SQLException {
+        pool.getConnection();
+        pool.getConnection();
+
+        try {
+            pool.getConnection();
+            fail("SQLTransientConnectionException expected");
+        } catch (SQLTransientConnectionException ex) {
+            assertEquals(1, pool.getTimeoutCount());
+            assertEquals(2, pool.getTotalConnections());
+        }
+    }
+
+    /**
+     * Un cliente en espera recibe la conexión que devuelve otro cliente.
+     */
+    @Test
+    public void testWaitForRelease() throws Exception {
+        pool.setBorrowTimeout(5000);
+        final Connection connection1 = pool.getConnection();
+        pool.getConnection();
+
+        final CountDownLatch waiting = new CountDownLatch(1);
+        Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    waiting.await(5, TimeUnit.SECONDS);
+                    Thread.sleep(50);
+                    connection1.close();
+                } catch (Exception ex) {
+                    throw new RuntimeException(ex);
+                }
+            }
+        };
+        releaser.start();
+
+        waiting.countDown();
+        Connection connection = pool.getConnection();
+        releaser.join();
+
+        assertSame(mockConnection1, connection.unwrap(Connection.class));
+        assertEquals(2, pool.getTotalConnections());
+        assertTrue(pool.getMaxWaitMillis() > 0);
+    }
+
+    /**
+     * Las conexiones que no superan la validación se cierran y se
+     * sustituyen por una nueva.
+     */
+    @Test
+    public void testValidateOnBorrow() throws SQLException {
+        pool.getConnection().close();
+        when(mockConnection1.isValid(anyInt())).thenReturn(false);
+
+        Connection connection = pool.getConnection();
+        connection.prepareStatement("SQL");
+
+        verify(mockConnection1).close();
+        verify(mockConnection2).prepareStatement("SQL");
+        assertEquals(1, pool.getTotalConnections());
+    }
+
+    /**
+     * Las conexiones inactivas demasiado tiempo se cierran, salvo las
+     * necesarias para mantener el mínimo.
+     */
+    @Test
+    public void testIdleEviction() throws SQLException {
+        pool.setIdleTimeout(100);
+        pool.setMinSize(1);
+
+        Connection connection1 = pool.getConnection();
+        Connection connection2 = pool.getConnection();
+        connection1.close();
+        now += 50;
+        connection2.close();
+
+        // Solo la primera conexión supera el tiempo de inactividad.
+        now += 60;
+        pool.evictIdleConnections();
+        verify(mockConnection1).close();
+        assertEquals(1, pool.getIdleConnections());
+
+        // La segunda también caduca, pero se mantiene por el mínimo.
+        now += 1000;
+        pool.evictIdleConnections();
+        verify(mockConnection2, never()).close();
+        assertEquals(1, pool.getTotalConnections());
+    }
+
+    /**
+     * fill() abre las conexiones mínimas, que se prestan sin crear
+     * conexiones nuevas.
+     */
+    @Test
+    public void testFill() throws SQLException {
+        pool.setMinSize(2);
+
+        pool.fill();
+        assertEquals(2, pool.getIdleConnections());
+        assertEquals(2, pool.getCreatedCount());
+
+        pool.getConnection();
+        pool.getConnection();
+        verify(mockTarget, times(2)).getConnection();
+    }
+
+    /**
+     * El mínimo nunca supera el máximo de conexiones.
+     */
+    @Test
+    public void testFillMaxSize() throws SQLException {
+        pool.setMinSize(5);
+
+        pool.fill();
+
+        assertEquals(2, pool.getTotalConnections());
+    }
+
+    /**
+     * La expulsión vuelve a llenar el pool si se han descartado conexiones
+     * por debajo del mínimo.
+     */
+    @Test
+    public void testEvictionRefillsMinSize() throws SQLException {
+        pool.setMinSize(1);
+        pool.fill();
+
+        Connection connection = pool.getConnection();
+        when(mockConnection1.isClosed()).thenReturn(true);
+        connection.close();
+        assertEquals(0, pool.getTotalConnections());
+
+        pool.evictIdleConnections();
+        assertEquals(1, pool.getIdleConnections());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    /**
+     * Una transacción sin terminar se deshace al devolver la conexión.
+     */
+    @Test
+    public void testRollbackOnRelease() throws SQLException {
+        Connection connection = pool.getConnection();
+        when(mockConnection1.getAutoCommit()).thenReturn(false);
+
+        connection.close();
+
+        verify(mockConnection1).rollback();
+        verify(mockConnection1).setAutoCommit(true);
+        assertEquals(1, pool.getIdleConnections());
+    }
+
+    /**
+     * Si la conexión física se ha cerrado no se devuelve al pool.
+     */
+    @Test
+    public void testReleaseClosedConnection() throws SQLException {
+        Connection connection = pool.getConnection();
+        when(mockConnection1.isClosed()).thenReturn(true);
+
+        connection.close();
+
+        assertEquals(0, pool.getIdleConnections());
+        assertEquals(0, pool.getTotalConnections());
+    }
+
+    /**
+     * Un error al crear la conexión física no consume hueco en el pool.
+     */
+    @Test
+    public void testCreateThrowException() throws SQLException {
+        when(mockTarget.getConnection()).thenThrow(new SQLException());
+        try {
+            pool.getConnection();
+            fail("SQLException expected");
+        } catch (SQLException ex) {
+            assertEquals(0, pool.getTotalConnections());
+            assertEquals(0, pool.getActiveConnections());
+        }
+    }
+
+    /**
+     * Al cerrar el pool se cierran las conexiones inactivas y las
+     * prestadas al devolverlas.
+     */
+    @Test
+    public void testClosePool() throws SQLException {
+        Connection connection1 = pool.getConnection();
+        pool.getConnection().close();
+
+        pool.close();
+        verify(mockConnection2).close();
+
+        connection1.close();
+        verify(mockConnection1).close();
+        assertEquals(0, pool.getTotalConnections());
+
+        try {
+            pool.getConnection();
+            fail("SQLException expected");
+        } catch (SQLException ex) {
+            assertTrue(true);
+        }
+    }
+
+    @Test
+    public void testMetrics() throws SQLException {
+        Connection connection1 = pool.getConnection();
+        Connection connection2 = pool.getConnection();
+        assertEquals(2, pool.getActiveConnections());
+        assertEquals(0, pool.getIdleConnections());
+
+        connection1.close();
+        assertEquals(1, pool.getActiveConnections());
+        assertEquals(1, pool.getIdleConnections());
+
+        connection2.close();
+        pool.getConnection();
+        assertEquals(3, pool.getBorrowCount());
+        assertEquals(2, pool.getCreatedCount());
+        assertEquals(0, pool.getDestroyedCount());
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.programmingchronicles.tdd.data.support;
+
+import com.programmingchronicles.tdd.data.pool.DriverManagerDataSource;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Medición de la carga de contactos en la base de datos, uno a uno con
+ * {@link JdbcAddressBookDao#addContact(Contact)} y en batch con
+ * {@link JdbcAddressBookDao#addContacts(java.util.Collection)}, que envía
+ * todas las filas con un solo <i>executeBatch</i> y lee los ids con una
+ * sola query.
+ *
+ * <p>
+ * Usa una base de datos Derby en memoria, con una base de datos real la
+ * diferencia es mayor ya que cada inserción individual también paga la
+ * latencia de red y el commit.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class JdbcAddressBookDaoBenchmark {
+
+    private static final String URL = "jdbc:derby:memory:benchmarkDB;create=true";
+
+    private static final int CONTACTS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+
+        JdbcAddressBookDao dao = new JdbcAddressBookDao();
+        dao.setDataSource(new DriverManagerDataSource(URL));
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 2; round++) {
+            createTable();
+            long start = System.nanoTime();
+            for (Contact contact : newContacts("single")) {
+                dao.addContact(contact);
+            }
+            long single = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            dao.addContacts(newContacts("batch"));
+            long batch = System.nanoTime() - start;
+            dropTable();
+
+            if (round > 0) {
+                System.out.printf("addContact  x %d: %6d ms%n", CONTACTS, single / 1000000);
+                System.out.printf("addContacts x %d: %6d ms%n", CONTACTS, batch / 1000000);
+            }
+        }
+    }
+
+    private static List<Contact> newContacts(String prefix) {
+        List<Contact> contacts = new ArrayList<Contact>(CONTACTS);
+        for (int i = 0; i < CONTACTS; i++) {
+            Contact contact = new Contact();
+            contact.setFirstName(prefix + i);
+            contact.setSurname("Surname");
+            contact.setPhone("610101010");
+            contacts.add(contact);
+        }
+        return contacts;
+    }
+
+    private static void createTable() throws SQLException {
+        execute("CREATE TABLE CONTACTS ("
+                + "ID INT NOT NULL GENERATED ALWAYS AS IDENTITY, "
+                + "FIRSTNAME VARCHAR(255), "
+                + "SURNAME VARCHAR(255), "
+                + "BIRTHDAY DATE, "
+                + "PHONE VARCHAR(255), "
+                + "NAMEKEY VARCHAR(520) NOT NULL, "
+                + "FIRSTNAMEKEY VARCHAR(255) NOT NULL, "
+                + "SURNAMEKEY VARCHAR(255), "
+                + "BIRTHDAYDAY INT, "
+                + "CONSTRAINT CONTACTS_PK PRIMARY KEY (ID), "
+                + "CONSTRAINT CONTACTS_NAMEKEY_UK UNIQUE (NAMEKEY))");
+    }
+
+    private static void dropTable() throws SQLException {
+        execute("DROP TABLE CONTACTS");
+    }
+
+    private static void execute(String sql) throws SQLException {
+        Connection conn = DriverManager.getConnection(URL);
+        try {
+            Statement stm = conn.createStatement();
+            try {
+                stm.execute(sql);
+            } finally {
+                stm.close();
+            }
+        } finally {
+            conn.close();
+        }
+    }
+}
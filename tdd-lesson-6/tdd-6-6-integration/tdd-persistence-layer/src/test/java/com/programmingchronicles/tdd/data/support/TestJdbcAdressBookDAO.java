@@ -21,6 +21,8 @@
 
 package com.programmingchronicles.tdd.data.support;
 
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.data.DataIntegrityDaoException;
 import com.programmingchronicles.tdd.data.support.JdbcAddressBookDao;
 import com.programmingchronicles.tdd.data.template.ColumnMapper;
 import com.programmingchronicles.tdd.data.template.JdbcDaoTemplate;
@@ -28,6 +30,8 @@ import com.programmingchronicles.tdd.domain.Contact;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -135,11 +139,20 @@ public class TestJdbcAdressBookDAO {
                   "FIRSTNAME VARCHAR(255), "  +
                   "SURNAME VARCHAR(255), " +
                   "BIRTHDAY DATE, " +
-                  "PHONE VARCHAR(255))";
+                  "PHONE VARCHAR(255), " +
+                  "NAMEKEY VARCHAR(520) NOT NULL, " +
+                  "FIRSTNAMEKEY VARCHAR(255) NOT NULL, " +
+                  "SURNAMEKEY VARCHAR(255), " +
+                  "BIRTHDAYDAY INT, " +
+                  "CONSTRAINT CONTACTS_PK PRIMARY KEY (ID), " +
+                  "CONSTRAINT CONTACTS_NAMEKEY_UK UNIQUE (NAMEKEY))";
 
         Statement stm = connection.createStatement();
         try {
             stm.execute(sqlCreateContactTable);
+            stm.execute("CREATE INDEX CONTACTS_FIRSTNAMEKEY_IX ON CONTACTS(FIRSTNAMEKEY, ID)");
+            stm.execute("CREATE INDEX CONTACTS_SURNAMEKEY_IX ON CONTACTS(SURNAMEKEY, ID)");
+            stm.execute("CREATE INDEX CONTACTS_BIRTHDAYDAY_IX ON CONTACTS(BIRTHDAYDAY, ID)");
         } finally {
             stm.close();
         }
@@ -447,6 +460,87 @@ public class TestJdbcAdressBookDAO {
      *
      * @throws SQLException
      */
+    /**
+     * El recorrido de contactos devuelve lo mismo que getAll, pero leyendo
+     * las filas en bloques del tamaño configurado.
+     */
+    @Test
+    public void testIterateAll() throws ParseException {
+        dao.setFetchSize(1);
+
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+        c1.setSurname("Ballesteros");
+        c1.setBirthday(dateFormat.parse("8/1/1974"));
+        c1.setPhone("610101010");
+        c1.setId(dao.addContact(c1));
+
+        Contact c2 = new Contact();
+        c2.setFirstName("Eduardo");
+        c2.setSurname("Ballesteros");
+        c2.setId(dao.addContact(c2));
+
+        // Test
+        List<Contact> contacts = new ArrayList<Contact>();
+        CloseableIterator<Contact> iterator = dao.iterateAll();
+        try {
+            while (iterator.hasNext()) {
+                contacts.add(iterator.next());
+            }
+        } finally {
+            iterator.close();
+        }
+
+        assertEquals(2, contacts.size());
+        assertThat(contacts, hasItems(contactEq(c2), contactEq(c1)));
+    }
+
+    @Test
+    public void testIterateAllEmpty() {
+        CloseableIterator<Contact> iterator = dao.iterateAll();
+
+        assertFalse(iterator.hasNext());
+        iterator.close();
+    }
+
+    /**
+     * Las páginas se devuelven ordenadas por id, empezando a continuación
+     * del id entregado como cursor.
+     */
+    @Test
+    public void testGetPage() {
+        List<String> ids = new ArrayList<String>();
+        for (String name : Arrays.asList("Pedro", "Eduardo", "Alfonso")) {
+            Contact contact = new Contact();
+            contact.setFirstName(name);
+            ids.add(dao.addContact(contact));
+        }
+
+        List<Contact> page = dao.getPage(null, 2);
+        assertEquals(2, page.size());
+        assertEquals(ids.get(0), page.get(0).getId());
+        assertEquals("Pedro", page.get(0).getFirstName());
+        assertEquals(ids.get(1), page.get(1).getId());
+
+        page = dao.getPage(page.get(1).getId(), 2);
+        assertEquals(1, page.size());
+        assertEquals(ids.get(2), page.get(0).getId());
+        assertEquals("Alfonso", page.get(0).getFirstName());
+
+        assertTrue(dao.getPage(page.get(0).getId(), 2).isEmpty());
+    }
+
+    /**
+     * Un cursor inválido no corresponde a ningún contacto.
+     */
+    @Test
+    public void testGetPageInvalidCursor() {
+        expectedContact.setFirstName("Pedro");
+        dao.addContact(expectedContact);
+
+        assertTrue(dao.getPage("invalid", 2).isEmpty());
+    }
+
     @Test
     public void testGetAllEmpty() throws SQLException {
         // Test
@@ -531,6 +625,239 @@ public class TestJdbcAdressBookDAO {
         // que no existe.
         dao.deleteContact("invalidId");
     }
+
+    /**
+     * Los ids se devuelven en el mismo orden que los contactos.
+     *
+     * @throws ParseException
+     */
+    @Test
+    public void testAddContacts() throws ParseException {
+        Contact c1 = new Contact();
+        c1.setFirstName("Pedro");
+        c1.setSurname("Ballesteros");
+        c1.setBirthday(dateFormat.parse("8/1/1974"));
+
+        Contact c2 = new Contact();
+        c2.setFirstName("Eduardo");
+        c2.setPhone("610101010");
+
+        // Test
+        List<String> ids = dao.addContacts(Arrays.asList(c1, c2));
+
+        assertEquals(2, ids.size());
+        c1.setId(ids.get(0));
+        c2.setId(ids.get(1));
+        assertThat(dao.getContact(ids.get(0)), contactEq(c1));
+        assertThat(dao.getContact(ids.get(1)), contactEq(c2));
+    }
+
+    /**
+     * Los ids se leen después del batch, los contactos que ya existían no
+     * se confunden con los insertados.
+     */
+    @Test
+    public void testAddContactsWithExistingContacts() {
+        expectedContact.setFirstName("Existing");
+        String existingId = dao.addContact(expectedContact);
+
+        int count = 50;
+        List<Contact> contacts = new ArrayList<Contact>(count);
+        for (int i = 0; i < count; i++) {
+            Contact contact = new Contact();
+            contact.setFirstName("Name" + i);
+            contacts.add(contact);
+        }
+
+        // Test
+        List<String> ids = dao.addContacts(contacts);
+
+        assertEquals(count, ids.size());
+        assertFalse(ids.contains(existingId));
+        for (int i = 0; i < count; i++) {
+            assertEquals("Name" + i, dao.getContact(ids.get(i)).getFirstName());
+        }
+    }
+
+    @Test(expected = DataIntegrityDaoException.class)
+    public void testAddContactsDuplicateName() {
+        expectedContact.setFirstName("Pedro");
+        dao.addContact(expectedContact);
+
+        Contact c1 = new Contact();
+        c1.setFirstName("Eduardo");
+        Contact c2 = new Contact();
+        c2.setFirstName("pedro");
+
+        dao.addContacts(Arrays.asList(c1, c2));
+    }
+
+    /**
+     * La búsqueda por nombre ignora mayúsculas y espacios, igual que la
+     * comprobación de duplicados que hacía la capa de negocio.
+     */
+    @Test
+    public void testExistsContactName() {
+        expectedContact.setFirstName("Pedro");
+        expectedContact.setSurname("Ballesteros");
+        dao.addContact(expectedContact);
+
+        assertTrue(dao.existsContactName("Pedro", "Ballesteros"));
+        assertTrue(dao.existsContactName("  PEDRO ", "ballesteros "));
+        assertFalse(dao.existsContactName("Pedro", "Herranz"));
+        assertFalse(dao.existsContactName("Pedro", null));
+    }
+
+    /**
+     * Un apellido null solo coincide con otro apellido null.
+     */
+    @Test
+    public void testExistsContactNameNullSurname() {
+        expectedContact.setFirstName("Pedro");
+        dao.addContact(expectedContact);
+
+        assertTrue(dao.existsContactName("pedro", null));
+        assertFalse(dao.existsContactName("Pedro", ""));
+    }
+
+    @Test
+    public void testExistsContactNameDeleted() {
+        expectedContact.setFirstName("Pedro");
+        String id = dao.addContact(expectedContact);
+
+        dao.deleteContact(id);
+
+        assertFalse(dao.existsContactName("Pedro", null));
+    }
+
+    /**
+     * El índice único de la base de datos impide añadir duplicados aunque
+     * no se haya comprobado antes con existsContactName.
+     */
+    @Test(expected = DataIntegrityDaoException.class)
+    public void testAddDuplicateName() {
+        expectedContact.setFirstName("Pedro");
+        dao.addContact(expectedContact);
+
+        Contact duplicated = new Contact();
+        duplicated.setFirstName(" PEDRO ");
+        dao.addContact(duplicated);
+    }
+
+    /**
+     * Se buscan los contactos por el principio del nombre o del apellido,
+     * sin distinguir mayúsculas, ordenados por el nombre que coincide.
+     */
+    @Test
+    public void testSearch() {
+        String pedro = addContact("Pedro", "Ballesteros");
+        String beatriz = addContact("Beatriz", "Peña");
+        addContact("Alfonso", "Gómez");
+        String perico = addContact("Perico", null);
+
+        List<Contact> result = dao.search(" pE", 10);
+
+        // "pedro" < "perico" < "peña", la 'ñ' va después de la 'z'.
+        assertEquals(3, result.size());
+        assertEquals(pedro, result.get(0).getId());
+        assertEquals("Ballesteros", result.get(0).getSurname());
+        assertEquals(perico, result.get(1).getId());
+        assertEquals(beatriz, result.get(2).getId());
+    }
+
+    /**
+     * Un contacto cuyo nombre y apellido coinciden se devuelve una vez.
+     */
+    @Test
+    public void testSearchNameAndSurname() {
+        String id = addContact("Ana", "Anaya");
+
+        List<Contact> result = dao.search("ana", 10);
+
+        assertEquals(1, result.size());
+        assertEquals(id, result.get(0).getId());
+    }
+
+    @Test
+    public void testSearchLimit() {
+        addContact("Pedro", null);
+        String pablo = addContact("Pablo", "Pérez");
+        String paula = addContact("Paula", null);
+
+        List<Contact> result = dao.search("p", 2);
+
+        assertEquals(2, result.size());
+        assertEquals(pablo, result.get(0).getId());
+        assertEquals(paula, result.get(1).getId());
+    }
+
+    /**
+     * Los comodines de LIKE en el prefijo se buscan literalmente.
+     */
+    @Test
+    public void testSearchWildcards() {
+        addContact("Pedro", null);
+        String id = addContact("P_dro", null);
+
+        List<Contact> result = dao.search("P_", 10);
+
+        assertEquals(1, result.size());
+        assertEquals(id, result.get(0).getId());
+        assertTrue(dao.search("%", 10).isEmpty());
+    }
+
+    /**
+     * Cumpleaños en un intervalo de días del año, sea cual sea el año de
+     * nacimiento, ordenados por día.
+     */
+    @Test
+    public void testGetByBirthday() throws ParseException {
+        String march = addContactBornOn("Pedro", "01/03/1974");
+        String leap = addContactBornOn("Beatriz", "29/02/1976");
+        addContactBornOn("Alfonso", "15/06/1980");
+        addContactBornOn("Eduardo", null);
+
+        List<Contact> result = dao.getByBirthday(60, 61);
+
+        assertEquals(2, result.size());
+        assertEquals(leap, result.get(0).getId());
+        assertEquals(march, result.get(1).getId());
+        assertEquals(dateFormat.parse("29/02/1976"), result.get(0).getBirthday());
+        assertTrue(dao.getByBirthday(1, 59).isEmpty());
+    }
+
+    /**
+     * Un intervalo que pasa por el fin de año empieza por los días de
+     * diciembre.
+     */
+    @Test
+    public void testGetByBirthdayYearEnd() throws ParseException {
+        String january = addContactBornOn("Pedro", "02/01/1974");
+        String december = addContactBornOn("Beatriz", "30/12/1990");
+        addContactBornOn("Alfonso", "15/06/1980");
+
+        List<Contact> result = dao.getByBirthday(360, 5);
+
+        assertEquals(2, result.size());
+        assertEquals(december, result.get(0).getId());
+        assertEquals(january, result.get(1).getId());
+    }
+
+    private String addContactBornOn(String firstName, String birthday) throws ParseException {
+        Contact contact = new Contact();
+        contact.setFirstName(firstName);
+        if (birthday != null) {
+            contact.setBirthday(dateFormat.parse(birthday));
+        }
+        return dao.addContact(contact);
+    }
+
+    private String addContact(String firstName, String surname) {
+        Contact contact = new Contact();
+        contact.setFirstName(firstName);
+        contact.setSurname(surname);
+        return dao.addContact(contact);
+    }
 }
 
 /**
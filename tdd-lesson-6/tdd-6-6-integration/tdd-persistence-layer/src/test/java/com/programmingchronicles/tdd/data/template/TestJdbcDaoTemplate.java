@@ -25,12 +25,15 @@ import com.programmingchronicles.tdd.data.template.PreparedCallback;
 import com.programmingchronicles.tdd.data.template.ColumnMapper;
 import com.programmingchronicles.tdd.data.template.JdbcDaoTemplate;
 import com.programmingchronicles.tdd.data.template.ParameterMapper;
+import com.programmingchronicles.tdd.data.CloseableIterator;
+import com.programmingchronicles.tdd.data.DataIntegrityDaoException;
 import com.programmingchronicles.tdd.data.SQLDaoException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
@@ -209,6 +212,32 @@ public class TestJdbcDaoTemplate {
         }
     }
 
+    /**
+     * Las violaciones de restricciones de integridad (SQLState 23xxx) se
+     * distinguen del resto de errores SQL.
+     */
+    @Test
+    public void testExecuteThrowIntegrityException() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+
+        try {
+            template.execute("SQL", false, null,
+                new PreparedCallback() {
+                    @Override
+                    public Object process(PreparedStatement statement) throws SQLException {
+                        // Simula una violación de clave única.
+                        throw new SQLException("Duplicate key", "23505");
+                    }
+            });
+            fail("DataIntegrityDaoException expected");
+
+        } catch(DataIntegrityDaoException ex) {
+            verify(mockStatement).close();
+            verify(mockConnection).close();
+        }
+    }
+
     @Test
     public void testUpdate() throws SQLException {
         final PreparedStatement mockStatement = mock(PreparedStatement.class);
@@ -370,4 +399,482 @@ public class TestJdbcDaoTemplate {
             verify(mockConnection).close();
         }
     }
+
+    /**
+     * El iterador lee las filas bajo demanda y libera los recursos al
+     * llegar al final del recorrido.
+     */
+    @Test
+    public void testIterate() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+
+        final ResultSet mockResultSet = mock(ResultSet.class);
+        when(mockStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true, true, false);
+        when(mockResultSet.getString(anyInt())).thenReturn("string1", "string2");
+
+        template.setFetchSize(50);
+
+        // Test
+        CloseableIterator<String> rows = template.iterate("SQL", null,
+            new ColumnMapper<String>() {
+                @Override
+                public String mapColumns(ResultSet resultset) throws SQLException {
+                    return resultset.getString(0);
+                }
+            });
+
+        // Mientras no se recorre no se debe haber leido ninguna fila
+        // ni liberado ningún recurso.
+        verify(mockResultSet, never()).next();
+        verify(mockConnection, never()).close();
+        verify(mockStatement).setFetchSize(50);
+
+        assertTrue(rows.hasNext());
+        assertEquals("string1", rows.next());
+        assertEquals("string2", rows.next());
+        assertFalse(rows.hasNext());
+
+        // Al llegar al final se liberan los recursos, aunque el cliente
+        // no haya llamado al close.
+        verify(mockResultSet).close();
+        verify(mockStatement).close();
+        verify(mockConnection).close();
+
+        // El close es idempotente.
+        rows.close();
+        verify(mockConnection).close();
+    }
+
+    /**
+     * El cliente puede abandonar el recorrido cerrando el iterador.
+     */
+    @Test
+    public void testIterateClose() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+
+        final ResultSet mockResultSet = mock(ResultSet.class);
+        when(mockStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true, true, false);
+        when(mockResultSet.getString(anyInt())).thenReturn("string1", "string2");
+
+        CloseableIterator<String> rows = template.iterate("SQL", null,
+            new ColumnMapper<String>() {
+                @Override
+                public String mapColumns(ResultSet resultset) throws SQLException {
+                    return resultset.getString(0);
+                }
+            });
+
+        assertEquals("string1", rows.next());
+        rows.close();
+
+        assertFalse(rows.hasNext());
+        verify(mockResultSet).close();
+        verify(mockStatement).close();
+        verify(mockConnection).close();
+    }
+
+    /**
+     * Si falla la ejecución de la query el iterador no llega a crearse,
+     * y el template debe liberar los recursos.
+     */
+    @Test
+    public void testIterateThrowException() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+        when(mockStatement.executeQuery()).thenThrow(new SQLException());
+
+        try {
+            template.iterate("SQL", null,
+                new ColumnMapper<String>() {
+                    @Override
+                    public String mapColumns(ResultSet resultset) throws SQLException {
+                        return resultset.getString(0);
+                    }
+                });
+            fail("SQLDaoException expected");
+        } catch(SQLDaoException ex) {
+            verify(mockStatement).close();
+            verify(mockConnection).close();
+        }
+    }
+
+    /**
+     * Un error al leer una fila libera los recursos del recorrido.
+     */
+    @Test
+    public void testIterateNextThrowException() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+
+        final ResultSet mockResultSet = mock(ResultSet.class);
+        when(mockStatement.executeQuery()).thenReturn(mockResultSet);
+        when(mockResultSet.next()).thenReturn(true, true, false);
+
+        CloseableIterator<String> rows = template.iterate("SQL", null,
+            new ColumnMapper<String>() {
+                @Override
+                public String mapColumns(ResultSet resultset) throws SQLException {
+                    throw new SQLException();
+                }
+            });
+
+        try {
+            rows.next();
+            fail("SQLDaoException expected");
+        } catch(SQLDaoException ex) {
+            verify(mockResultSet).close();
+            verify(mockStatement).close();
+            verify(mockConnection).close();
+        }
+    }
+
+    @Test
+    public void testBatchUpdate() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+        when(mockStatement.getConnection()).thenReturn(mockConnection);
+        when(mockConnection.getAutoCommit()).thenReturn(true);
+
+        // Test
+        final StringBuffer parameters = new StringBuffer();
+        template.batchUpdate("SQL", Arrays.asList("a", "b", "c"),
+            new BatchParameterMapper<String>() {
+                @Override
+                public void mapParameters(PreparedStatement statement, String item) throws SQLException {
+                    assertSame(mockStatement, statement);
+                    parameters.append(item);
+                }
+            });
+
+        // Se inicializan los parametros con cada elemento, en orden, y se
+        // envian todas las filas con un solo executeBatch.
+        assertEquals("abc", parameters.toString());
+        verify(mockStatement, times(3)).addBatch();
+        verify(mockStatement).executeBatch();
+
+        // El batch se ejecuta en una transacción.
+        verify(mockConnection).setAutoCommit(false);
+        verify(mockConnection).commit();
+        verify(mockConnection).setAutoCommit(true);
+
+        // Verifica la liberación de recursos.
+        verify(mockStatement).close();
+        verify(mockConnection).close();
+    }
+
+    /**
+     * El batch nunca pide claves generadas ni ejecuta las filas una a una,
+     * todas se envían con un solo executeBatch.
+     */
+    @Test
+    public void testBatchUpdateUsesExecuteBatch() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+        when(mockStatement.getConnection()).thenReturn(mockConnection);
+
+        // Test
+        template.batchUpdate("SQL", Arrays.asList("a", "b"),
+            new BatchParameterMapper<String>() {
+                @Override
+                public void mapParameters(PreparedStatement statement, String item) throws SQLException {
+                }
+            });
+
+        verify(mockConnection, never()).prepareStatement("SQL", Statement.RETURN_GENERATED_KEYS);
+        verify(mockStatement, times(2)).addBatch();
+        verify(mockStatement).executeBatch();
+        verify(mockStatement, never()).executeUpdate();
+        verify(mockStatement, never()).getGeneratedKeys();
+
+        // Verifica la liberación de recursos.
+        verify(mockStatement).close();
+        verify(mockConnection).close();
+    }
+
+    /**
+     * Si falla alguna fila se deshace todo el batch.
+     */
+    @Test
+    public void testBatchUpdateThrowException() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+        when(mockStatement.getConnection()).thenReturn(mockConnection);
+        when(mockConnection.getAutoCommit()).thenReturn(true);
+        when(mockStatement.executeBatch()).thenThrow(new SQLException());
+
+        try {
+            template.batchUpdate("SQL", Arrays.asList("a", "b"),
+                new BatchParameterMapper<String>() {
+                    @Override
+                    public void mapParameters(PreparedStatement statement, String item) throws SQLException {
+                    }
+                });
+            fail("SQLDaoException expected");
+
+        } catch(SQLDaoException ex) {
+            verify(mockConnection, never()).commit();
+            verify(mockConnection).rollback();
+            verify(mockConnection).setAutoCommit(true);
+
+            verify(mockStatement).close();
+            verify(mockConnection).close();
+        }
+    }
+
+    /**
+     * Todas las operaciones del callback usan la misma conexión, que solo
+     * se cierra al terminar la transacción, y se hace un solo commit.
+     */
+    @Test
+    public void testExecuteInTransaction() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+        when(mockStatement.getConnection()).thenReturn(mockConnection);
+        // La conexión está en autocommit hasta que empieza la transacción.
+        when(mockConnection.getAutoCommit()).thenReturn(true, false);
+
+        String result = template.executeInTransaction(new TransactionCallback<String>() {
+            @Override
+            public String doInTransaction() {
+                template.update("SQL", null);
+                template.batchUpdate("SQL", Arrays.asList("a", "b"),
+                    new BatchParameterMapper<String>() {
+                        @Override
+                        public void mapParameters(PreparedStatement statement, String item) throws SQLException {
+                        }
+                    });
+                return "result";
+            }
+        });
+
+        assertEquals("result", result);
+        verify(mockDataSource, times(1)).getConnection();
+        verify(mockConnection).setAutoCommit(false);
+        verify(mockConnection, times(1)).commit();
+        verify(mockConnection, never()).rollback();
+        verify(mockConnection).setAutoCommit(true);
+        verify(mockConnection, times(1)).close();
+    }
+
+    /**
+     * Si falla una operación se deshace toda la transacción y se propaga
+     * la excepción traducida.
+     */
+    @Test
+    public void testExecuteInTransactionThrowException() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+        when(mockConnection.getAutoCommit()).thenReturn(true, false);
+        when(mockStatement.execute()).thenReturn(false).thenThrow(new SQLException());
+
+        try {
+            template.executeInTransaction(new TransactionCallback<Void>() {
+                @Override
+                public Void doInTransaction() {
+                    template.update("SQL", null);
+                    template.update("SQL", null);
+                    return null;
+                }
+            });
+            fail("SQLDaoException expected");
+
+        } catch(SQLDaoException ex) {
+            verify(mockDataSource, times(1)).getConnection();
+            verify(mockConnection, never()).commit();
+            verify(mockConnection).rollback();
+            verify(mockConnection).setAutoCommit(true);
+            verify(mockConnection, times(1)).close();
+        }
+
+        // Al terminar la transacción las operaciones vuelven a usar su
+        // propia conexión.
+        reset(mockStatement);
+        template.update("SQL", null);
+        verify(mockDataSource, times(2)).getConnection();
+        verify(mockConnection, times(2)).close();
+    }
+
+    /**
+     * Callback vacío para los tests de la caché de sentencias.
+     */
+    private static final PreparedCallback NOOP_CALLBACK = new PreparedCallback() {
+        @Override
+        public Object process(PreparedStatement statement) throws SQLException {
+            return null;
+        }
+    };
+
+    /**
+     * Con la caché activada la misma SQL sobre la misma conexión solo
+     * se prepara una vez, y la sentencia no se cierra entre usos.
+     */
+    @Test
+    public void testStatementCache() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+
+        template.setStatementCacheSize(4);
+
+        template.execute("SQL", false, null, NOOP_CALLBACK);
+        template.execute("SQL", false, null, NOOP_CALLBACK);
+
+        verify(mockConnection, times(1)).prepareStatement("SQL");
+        verify(mockStatement, never()).close();
+        verify(mockConnection, times(2)).close();
+
+        assertEquals(1, template.getStatementCacheHits());
+        assertEquals(1, template.getStatementCacheMisses());
+    }
+
+    /**
+     * La misma SQL con y sin generación de claves son sentencias distintas.
+     */
+    @Test
+    public void testStatementCacheReturnKeys() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        final PreparedStatement mockKeysStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+        when(mockConnection.prepareStatement("SQL", Statement.RETURN_GENERATED_KEYS))
+             .thenReturn(mockKeysStatement);
+
+        template.setStatementCacheSize(4);
+
+        template.execute("SQL", false, null, NOOP_CALLBACK);
+        template.execute("SQL", true, null, NOOP_CALLBACK);
+        template.execute("SQL", true, null, NOOP_CALLBACK);
+
+        verify(mockConnection, times(1)).prepareStatement("SQL");
+        verify(mockConnection, times(1)).prepareStatement("SQL", Statement.RETURN_GENERATED_KEYS);
+        assertEquals(1, template.getStatementCacheHits());
+        assertEquals(2, template.getStatementCacheMisses());
+    }
+
+    /**
+     * Al superar el tamaño de la caché se cierra la sentencia usada
+     * hace más tiempo.
+     */
+    @Test
+    public void testStatementCacheEviction() throws SQLException {
+        final PreparedStatement mockStatement1 = mock(PreparedStatement.class);
+        final PreparedStatement mockStatement2 = mock(PreparedStatement.class);
+        final PreparedStatement mockStatement3 = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL1")).thenReturn(mockStatement1);
+        when(mockConnection.prepareStatement("SQL2")).thenReturn(mockStatement2);
+        when(mockConnection.prepareStatement("SQL3")).thenReturn(mockStatement3);
+
+        template.setStatementCacheSize(2);
+
+        template.execute("SQL1", false, null, NOOP_CALLBACK);
+        template.execute("SQL2", false, null, NOOP_CALLBACK);
+        // SQL1 pasa a ser la más reciente, la menos usada es SQL2.
+        template.execute("SQL1", false, null, NOOP_CALLBACK);
+        template.execute("SQL3", false, null, NOOP_CALLBACK);
+
+        verify(mockStatement2).close();
+        verify(mockStatement1, never()).close();
+        verify(mockStatement3, never()).close();
+    }
+
+    /**
+     * Si la conexión se cierra físicamente sus sentencias se descartan.
+     */
+    @Test
+    public void testStatementCacheClosedConnection() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+        when(mockConnection.isClosed()).thenReturn(true);
+
+        template.setStatementCacheSize(4);
+
+        template.execute("SQL", false, null, NOOP_CALLBACK);
+        template.execute("SQL", false, null, NOOP_CALLBACK);
+
+        verify(mockConnection, times(2)).prepareStatement("SQL");
+        verify(mockStatement, times(2)).close();
+        assertEquals(0, template.getStatementCacheHits());
+    }
+
+    /**
+     * Una sentencia que ha fallado no se devuelve a la caché.
+     */
+    @Test
+    public void testStatementCacheThrowException() throws SQLException {
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement);
+
+        template.setStatementCacheSize(4);
+
+        try {
+            template.execute("SQL", false, null, new PreparedCallback() {
+                @Override
+                public Object process(PreparedStatement statement) throws SQLException {
+                    throw new SQLException();
+                }
+            });
+            fail("SQLDaoException expected");
+        } catch (SQLDaoException ex) {
+            verify(mockStatement).close();
+        }
+
+        template.execute("SQL", false, null, NOOP_CALLBACK);
+        verify(mockConnection, times(2)).prepareStatement("SQL");
+    }
+
+    /**
+     * Con un pool cada préstamo puede ser un handle distinto de la misma
+     * conexión física, la caché usa la conexión física.
+     */
+    @Test
+    public void testStatementCachePhysicalConnection() throws SQLException {
+        Connection mockHandle1 = mock(Connection.class);
+        Connection mockHandle2 = mock(Connection.class);
+        for (Connection handle : Arrays.asList(mockHandle1, mockHandle2)) {
+            when(handle.isWrapperFor(Connection.class)).thenReturn(true);
+            when(handle.unwrap(Connection.class)).thenReturn(mockConnection);
+            when(handle.isClosed()).thenReturn(true);
+        }
+        when(mockDataSource.getConnection()).thenReturn(mockHandle1, mockHandle2);
+        final PreparedStatement mockStatement = mock(PreparedStatement.class);
+        when(mockHandle1.prepareStatement("SQL")).thenReturn(mockStatement);
+
+        template.setStatementCacheSize(4);
+        template.execute("SQL", false, null, NOOP_CALLBACK);
+        template.execute("SQL", false, null, NOOP_CALLBACK);
+
+        // Los handles cerrados no descartan las sentencias de la conexión
+        // física, que sigue abierta.
+        verify(mockHandle2, never()).prepareStatement("SQL");
+        verify(mockStatement, never()).close();
+        assertEquals(1, template.getStatementCacheHits());
+    }
+
+    /**
+     * Un pool puede cerrar conexiones sin pasar por el template, sus
+     * sentencias se descartan al registrar una conexión nueva.
+     */
+    @Test
+    public void testStatementCacheRemovesClosedConnections() throws SQLException {
+        final PreparedStatement mockStatement1 = mock(PreparedStatement.class);
+        when(mockConnection.prepareStatement("SQL")).thenReturn(mockStatement1);
+
+        Connection mockConnection2 = mock(Connection.class);
+        final PreparedStatement mockStatement2 = mock(PreparedStatement.class);
+        when(mockConnection2.prepareStatement("SQL")).thenReturn(mockStatement2);
+        when(mockDataSource.getConnection()).thenReturn(mockConnection, mockConnection2);
+
+        template.setStatementCacheSize(4);
+        template.execute("SQL", false, null, NOOP_CALLBACK);
+        verify(mockStatement1, never()).close();
+
+        // El pool cierra la primera conexión mientras está inactiva.
+        when(mockConnection.isClosed()).thenReturn(true);
+        template.execute("SQL", false, null, NOOP_CALLBACK);
+
+        verify(mockStatement1).close();
+        verify(mockStatement2, never()).close();
+    }
 }
@@ -21,10 +21,9 @@
 
 package com.programmingchronicles.addressbook.converters;
 
+import com.programmingchronicles.tdd.addressbook.ValidContact;
 import com.programmingchronicles.tdd.domain.Contact;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import com.programmingchronicles.tdd.domain.ContactValue;
 import java.util.HashMap;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
@@ -36,6 +35,13 @@ import javax.servlet.http.HttpServletRequest;
  * Esta clase también eliminará espacios en los parametros y detectará
  * cadenas vacías.
  *
+ * ETAPA DE VALIDACION:
+ *   Es la única etapa del alta que normaliza y valida los datos. Si no hay
+ *   errores produce un ValidContact, que la agenda acepta sin volver a
+ *   validar ni eliminar espacios. Los parametros ya vienen sin espacios,
+ *   así que al crearlo no se copia ningún texto, y la fecha se convierte
+ *   una sola vez a días desde el 1/1/1970.
+ *
  *  - Metodos privados: Se testean de forma indirecta.
  *
  * CREACION DE FRAMEWORKS:
@@ -56,8 +62,10 @@ import javax.servlet.http.HttpServletRequest;
  * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
  */
 public class ContactCommandConverter {
-     // Las fechas se deben entregar en este formato
-     private static DateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+     // Las fechas se deben entregar en formato dd/MM/yyyy. El conversor es
+     // inmutable y se comparte entre todos los threads del contenedor; un
+     // SimpleDateFormat compartido no es thread-safe.
+     private static final DayMonthYearParser dateParser = new DayMonthYearParser();
 
      // Se centralizan los textos de error que habría que extraer a un
      // sistema de internacionalización.
@@ -65,6 +73,8 @@ public class ContactCommandConverter {
      private static String CONVERT_BIRTHDAY =  "El formato de la fecha debe ser dd/mm/yyyy";
 
      private Contact contact = new Contact();
+     private int birthdayEpochDay = ContactValue.NO_BIRTHDAY;
+     private ValidContact validCommand;
      private Map<String, String> errors = new HashMap();
 
     /**
@@ -87,7 +97,12 @@ public class ContactCommandConverter {
         contact.setPhone(convertParam(request, "phone"));
 
         // Si la colección de errores está vacía se devuelve true.
-        return errors.isEmpty();
+        if (!errors.isEmpty()) {
+            return false;
+        }
+        validCommand = ValidContact.of(contact.getFirstName(), contact.getSurname(),
+                                       contact.getPhone(), birthdayEpochDay);
+        return true;
     }
 
     // Devuelve el parametro entregado eliminado los espacios en blanco
@@ -125,9 +140,11 @@ public class ContactCommandConverter {
 
         // Solo se intenta convertir si no era null o vacío.
         if(birthday != null) {
-            try {
-               contact.setBirthday(dateFormat.parse(birthday));
-            } catch(ParseException ex) {
+            int epochDay = dateParser.parseEpochDay(birthday);
+            if(epochDay != ContactValue.NO_BIRTHDAY) {
+               birthdayEpochDay = epochDay;
+               contact.setBirthday(dateParser.toDate(epochDay));
+            } else {
                errors.put("birthday", CONVERT_BIRTHDAY);
             }
         }
@@ -142,6 +159,15 @@ public class ContactCommandConverter {
         return contact;
     }
 
+    /**
+     * Devuelve el contacto validado, listo para añadir a la agenda.
+     *
+     * @return null si la conversión ha dado errores.
+     */
+    public ValidContact getValidCommand() {
+        return validCommand;
+    }
+
     /**
      * Devuelve un Map con el nombre de las propiedades de un contact
      * mapeadas en textos de error.
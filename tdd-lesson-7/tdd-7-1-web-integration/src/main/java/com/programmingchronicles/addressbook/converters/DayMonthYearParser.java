@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.addressbook.converters;
+
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Conversor de fechas con el formato dd/MM/yyyy.
+ *
+ * Sustituye al SimpleDateFormat compartido: SimpleDateFormat guarda el
+ * estado del parseo en el propio objeto, y usado desde varios threads a la
+ * vez devuelve fechas erróneas o lanza excepciones. Esta clase es inmutable
+ * y una única instancia se puede compartir entre todas las peticiones sin
+ * sincronización.
+ *
+ * El parseo recorre la cadena una sola vez, sin crear objetos intermedios,
+ * y una fecha inválida no lanza excepciones: se devuelve null (o
+ * {@link ContactValue#NO_BIRTHDAY}), ya que un error de formato en un
+ * formulario es lo habitual y no algo excepcional.
+ *
+ * Al contrario que el SimpleDateFormat por defecto (lenient) la validación
+ * es estricta:
+ *    - Día y mes con una o dos cifras, año con cuatro.
+ *    - El día debe existir en el mes: el 31/02 no pasa a ser el 2/03.
+ *    - No se admiten caracteres después del año.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public final class DayMonthYearParser {
+
+    /**
+     * Primer año completo del calendario gregoriano. Las fechas anteriores
+     * se calculan con el calendario juliano en java.util.Date, y no tienen
+     * sentido como fecha de nacimiento.
+     */
+    public static final int MIN_YEAR = 1583;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private static final int[] DAYS_IN_MONTH = {
+        31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31
+    };
+
+    private final TimeZone timeZone;
+
+    /**
+     * Crea el conversor con la zona horaria por defecto, como
+     * SimpleDateFormat.
+     */
+    public DayMonthYearParser() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * Crea el conversor con la zona horaria de las fechas devueltas.
+     *
+     * @param timeZone Se guarda una copia, TimeZone no es inmutable.
+     */
+    public DayMonthYearParser(TimeZone timeZone) {
+        this.timeZone = (TimeZone) timeZone.clone();
+    }
+
+    /**
+     * Convierte la fecha a las 00:00 de la zona horaria del conversor.
+     *
+     * @param text Fecha en formato dd/MM/yyyy.
+     * @return La fecha, o null si el texto es null o no es una fecha válida.
+     */
+    public Date parse(String text) {
+        return toDate(parseEpochDay(text));
+    }
+
+    /**
+     * Convierte el número de días desde el 1/1/1970 en la fecha a las 00:00
+     * de la zona horaria del conversor.
+     *
+     * @param epochDay Días desde el 1/1/1970.
+     * @return La fecha, o null si es {@link ContactValue#NO_BIRTHDAY}.
+     */
+    public Date toDate(int epochDay) {
+        if (epochDay == ContactValue.NO_BIRTHDAY) {
+            return null;
+        }
+        return new Date(toMillis(epochDay));
+    }
+
+    /**
+     * Convierte la fecha en el número de días desde el 1/1/1970.
+     *
+     * @param text Fecha en formato dd/MM/yyyy.
+     * @return Días desde el 1/1/1970, o {@link ContactValue#NO_BIRTHDAY} si
+     *         el texto es null o no es una fecha válida.
+     */
+    public int parseEpochDay(String text) {
+        if (text == null) {
+            return ContactValue.NO_BIRTHDAY;
+        }
+        int first = text.indexOf('/');
+        int second = first < 0 ? -1 : text.indexOf('/', first + 1);
+        if (second < 0 || text.length() - second - 1 != 4) {
+            return ContactValue.NO_BIRTHDAY;
+        }
+
+        int day = parseNumber(text, 0, first, 2);
+        int month = parseNumber(text, first + 1, second, 2);
+        int year = parseNumber(text, second + 1, text.length(), 4);
+        if (day < 0 || month < 0 || year < 0) {
+            return ContactValue.NO_BIRTHDAY;
+        }
+        return toEpochDay(year, month, day);
+    }
+
+    // Días desde el 1/1/1970, o NO_BIRTHDAY si la fecha no existe.
+    private static int toEpochDay(int year, int month, int day) {
+        if (year < MIN_YEAR || month < 1 || month > 12
+                || day < 1 || day > DAYS_IN_MONTH[month - 1]) {
+            return ContactValue.NO_BIRTHDAY;
+        }
+        if (month == 2 && day == 29 && !isLeapYear(year)) {
+            return ContactValue.NO_BIRTHDAY;
+        }
+        return ContactValue.toEpochDay(year, month, day);
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+    // Convierte las cifras entre from y to, o devuelve -1 si no son
+    // todo cifras o hay más de maxDigits.
+    private static int parseNumber(String text, int from, int to, int maxDigits) {
+        if (to <= from || to - from > maxDigits) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // Milisegundos de las 00:00 del día en la zona horaria del conversor.
+    //
+    // Normalmente la zona tiene el mismo offset durante todo el día. Si hay
+    // un cambio de hora se prueban los offsets de antes y de después, y
+    // se elige como Calendar: si la medianoche existe dos veces la última,
+    // y si no existe (el reloj salta por encima) el primer instante del día.
+    private long toMillis(int epochDay) {
+        long local = epochDay * MILLIS_PER_DAY;
+        int before = timeZone.getOffset(local - MILLIS_PER_DAY);
+        int after = timeZone.getOffset(local + MILLIS_PER_DAY);
+        if (before == after) {
+            return local - before;
+        }
+
+        long early = local - before;
+        long late = local - after;
+        boolean earlyValid = timeZone.getOffset(early) == before;
+        boolean lateValid = timeZone.getOffset(late) == after;
+        if (earlyValid != lateValid) {
+            return earlyValid ? early : late;
+        }
+        return Math.max(early, late);
+    }
+}
@@ -21,9 +21,14 @@
 
 package com.programmingchronicles.tdd.web.addressbook;
 
+import com.programmingchronicles.tdd.addressbook.AsyncCallback;
+import com.programmingchronicles.tdd.addressbook.AsyncGlobalAddressBook;
 import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
 import com.programmingchronicles.addressbook.converters.ContactCommandConverter;
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -46,6 +51,17 @@ import javax.servlet.http.HttpServletResponse;
  *       - Si OK devuelve un redirect al navegador, evitando el doble POST.
  *       - Si Error devuelve de nuevo el formulario indicando los campos erroneos.
  *
+ * PETICIONES ASÍNCRONAS:
+ *    La validación del formulario no espera a nadie y se hace en el thread
+ *    del contenedor. Si hay una agenda asíncrona configurada el contacto se
+ *    añade con ella, y el redirect se envía desde el pool de la agenda al
+ *    terminar. Si la agenda está saturada se responde 503.
+ *
+ * ETAPAS DEL ALTA:
+ *    El conversor es la única etapa que valida, la agenda recibe un
+ *    ValidContact y no repite el trabajo. La duración de cada etapa se
+ *    acumula en el IngestionMetrics registrado como "ingestionMetrics".
+ *
  * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
  */
 public class AddContactController extends HttpServlet {
@@ -57,6 +73,10 @@ public class AddContactController extends HttpServlet {
     // Acceso al servicio de GlobalAddressBook, se configurará
     // mediante Direct Injection (IoC).
     private GlobalAddressBook addressBook;
+    private AsyncGlobalAddressBook asyncAddressBook;
+
+    // Si no hay métricas registradas en el contexto se usan unas propias.
+    private IngestionMetrics ingestionMetrics = new IngestionMetrics();
 
     /**
      * En los objetos instanciados por el contenedor no se puede usar Direct
@@ -79,6 +99,11 @@ public class AddContactController extends HttpServlet {
         super.init(config);
 
         addressBook = (GlobalAddressBook) config.getServletContext().getAttribute("globalAddressBook");
+        asyncAddressBook = (AsyncGlobalAddressBook) config.getServletContext().getAttribute("asyncAddressBook");
+        IngestionMetrics metrics = (IngestionMetrics) config.getServletContext().getAttribute("ingestionMetrics");
+        if (metrics != null) {
+            ingestionMetrics = metrics;
+        }
         formView = config.getInitParameter("formView");
         successedSubmitRedirect = config.getInitParameter("successedSubmitRedirect");
     }
@@ -113,11 +138,26 @@ public class AddContactController extends HttpServlet {
        //
        // La funcionalidad de extraer, convertir y validar parametros se lleva
        // a una clase con esa responsabilidad.
+       long begin = System.nanoTime();
        ContactCommandConverter converter = new ContactCommandConverter();
+       boolean valid = converter.verifyAndConvert(request);
+       ingestionMetrics.record(IngestionMetrics.Stage.CONVERT, System.nanoTime() - begin, valid);
+
+       if(valid) {
+           if (asyncAddressBook != null && request.isAsyncSupported()) {
+               doPostAsync(request, response, converter.getValidCommand());
+               return;
+           }
 
-       if(converter.verifyAndConvert(request)) {
-           // Se inserta el nuevo contacto en la agenda.
-           addressBook.addContact(converter.getCommand());
+           // Se inserta el nuevo contacto en la agenda, que ya no lo valida.
+           begin = System.nanoTime();
+           boolean stored = false;
+           try {
+               addressBook.addContact(converter.getValidCommand());
+               stored = true;
+           } finally {
+               ingestionMetrics.record(IngestionMetrics.Stage.STORE, System.nanoTime() - begin, stored);
+           }
 
            // Envia una respuesta de redirección al navegador (evitando el doble post).
           response.sendRedirect(successedSubmitRedirect);
@@ -133,6 +173,42 @@ public class AddContactController extends HttpServlet {
         }
     }
 
+    /**
+     * Añade el contacto con la agenda asíncrona y libera el thread del
+     * contenedor. El redirect se envía al terminar.
+     */
+    private void doPostAsync(HttpServletRequest request, HttpServletResponse response, ValidContact contact) {
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        final long begin = System.nanoTime();
+        try {
+            asyncAddressBook.addContact(contact, new AsyncCallback<String>() {
+                @Override
+                public void onSuccess(String id) {
+                    ingestionMetrics.record(IngestionMetrics.Stage.STORE, System.nanoTime() - begin, true);
+                    HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+                    try {
+                        response.sendRedirect(successedSubmitRedirect);
+                    } catch (IOException ex) {
+                        // El cliente ya ha cerrado la conexión.
+                    } finally {
+                        asyncContext.complete();
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable cause) {
+                    ingestionMetrics.record(IngestionMetrics.Stage.STORE, System.nanoTime() - begin, false);
+                    AsyncResponses.completeWithError(asyncContext,
+                            HttpServletResponse.SC_INTERNAL_SERVER_ERROR, cause);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            ingestionMetrics.record(IngestionMetrics.Stage.STORE, System.nanoTime() - begin, false);
+            AsyncResponses.completeWithError(asyncContext,
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+        }
+    }
+
     /**
      * Obtiene el servicio de agenda configurado.
      *
@@ -151,6 +227,43 @@ public class AddContactController extends HttpServlet {
         this.addressBook = addressBook;
     }
 
+    /**
+     * Obtiene la agenda asíncrona configurada, o null si las peticiones
+     * se procesan de forma síncrona.
+     *
+     * @return
+     */
+    public AsyncGlobalAddressBook getAsyncAddressBook() {
+        return asyncAddressBook;
+    }
+
+    /**
+     * Configura la agenda asíncrona.
+     *
+     * @param asyncAddressBook
+     */
+    public void setAsyncAddressBook(AsyncGlobalAddressBook asyncAddressBook) {
+        this.asyncAddressBook = asyncAddressBook;
+    }
+
+    /**
+     * Obtiene las métricas de las etapas del alta.
+     *
+     * @return
+     */
+    public IngestionMetrics getIngestionMetrics() {
+        return ingestionMetrics;
+    }
+
+    /**
+     * Configura las métricas de las etapas del alta.
+     *
+     * @param ingestionMetrics
+     */
+    public void setIngestionMetrics(IngestionMetrics ingestionMetrics) {
+        this.ingestionMetrics = ingestionMetrics;
+    }
+
     /**
      * Obtiene el path de la redirección de submit correcto.
      *
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.web.addressbook;
+
+import java.io.IOException;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Utilidades comunes de los controladores para terminar una petición
+ * asíncrona con un error.
+ *
+ * En una petición síncrona las excepciones se propagan fuera del servlet y
+ * el contenedor las registra y devuelve la página de error. En una
+ * petición asíncrona el error llega en el callback, desde otro thread, y
+ * es el controlador quien tiene que registrarlo y terminar la petición.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+final class AsyncResponses {
+
+    private AsyncResponses() {
+    }
+
+    /**
+     * Responde con el código de error entregado y termina la petición.
+     *
+     * @param asyncContext Contexto de la petición asíncrona.
+     * @param status Código HTTP de error.
+     * @param cause Causa del error que se registra en el log, puede ser null.
+     */
+    static void completeWithError(AsyncContext asyncContext, int status, Throwable cause) {
+        if (cause != null) {
+            ServletContext context = asyncContext.getRequest().getServletContext();
+            if (context != null) {
+                context.log("Address book operation failed", cause);
+            }
+        }
+        try {
+            ((HttpServletResponse) asyncContext.getResponse()).sendError(status);
+        } catch (IOException ex) {
+            // El cliente ya ha cerrado la conexión, solo queda terminar.
+        } finally {
+            asyncContext.complete();
+        }
+    }
+}
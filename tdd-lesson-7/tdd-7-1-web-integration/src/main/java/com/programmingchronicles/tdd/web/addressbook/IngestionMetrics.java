@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.web.addressbook;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tiempos de cada etapa del alta de contactos.
+ *
+ * <pre>
+ *   - CONVERT: extracción, normalización y validación del formulario.
+ *   - STORE: alta en la agenda. En las peticiones asíncronas incluye la
+ *     espera en la cola de la agenda.
+ * </pre>
+ *
+ * <p>
+ * Todos los controladores comparten la instancia registrada en el contexto
+ * como "ingestionMetrics". Se acumula con contadores atómicos, sin locks,
+ * para no añadir contención al camino del alta.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class IngestionMetrics {
+
+    /**
+     * Etapas del alta de un contacto.
+     */
+    public enum Stage { CONVERT, STORE }
+
+    private final AtomicLongArray counts = new AtomicLongArray(Stage.values().length);
+    private final AtomicLongArray errors = new AtomicLongArray(Stage.values().length);
+    private final AtomicLongArray totalNanos = new AtomicLongArray(Stage.values().length);
+    private final AtomicLongArray maxNanos = new AtomicLongArray(Stage.values().length);
+
+    /**
+     * Registra una ejecución de la etapa.
+     *
+     * @param stage Etapa ejecutada.
+     * @param nanos Duración en nanosegundos.
+     * @param success false si la etapa ha terminado con error (formulario
+     *        inválido, contacto duplicado, etc.).
+     */
+    public void record(Stage stage, long nanos, boolean success) {
+        int i = stage.ordinal();
+        counts.incrementAndGet(i);
+        if (!success) {
+            errors.incrementAndGet(i);
+        }
+        totalNanos.addAndGet(i, nanos);
+
+        long max = maxNanos.get(i);
+        while (nanos > max && !maxNanos.compareAndSet(i, max, nanos)) {
+            max = maxNanos.get(i);
+        }
+    }
+
+    /**
+     * @return Número de ejecuciones de la etapa.
+     */
+    public long getCount(Stage stage) {
+        return counts.get(stage.ordinal());
+    }
+
+    /**
+     * @return Número de ejecuciones de la etapa terminadas con error.
+     */
+    public long getErrors(Stage stage) {
+        return errors.get(stage.ordinal());
+    }
+
+    public long getTotalNanos(Stage stage) {
+        return totalNanos.get(stage.ordinal());
+    }
+
+    public long getMaxNanos(Stage stage) {
+        return maxNanos.get(stage.ordinal());
+    }
+
+    /**
+     * @return Duración media de la etapa, o 0 si no se ha ejecutado.
+     */
+    public long getMeanNanos(Stage stage) {
+        long count = getCount(stage);
+        return count == 0 ? 0 : getTotalNanos(stage) / count;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder("Ingestion");
+        for (Stage stage : Stage.values()) {
+            result.append(String.format(" %s: count=%d errors=%d mean=%dus max=%dus;",
+                                        stage, getCount(stage), getErrors(stage),
+                                        getMeanNanos(stage) / 1000, getMaxNanos(stage) / 1000));
+        }
+        result.setLength(result.length() - 1);
+        return result.toString();
+    }
+}
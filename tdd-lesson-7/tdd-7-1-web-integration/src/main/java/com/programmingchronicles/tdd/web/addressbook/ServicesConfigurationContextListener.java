@@ -21,8 +21,12 @@
 
 package com.programmingchronicles.tdd.web.addressbook;
 
+import com.programmingchronicles.tdd.addressbook.StorageException;
+import com.programmingchronicles.tdd.addressbook.support.ExecutorAsyncAddressBook;
 import com.programmingchronicles.tdd.addressbook.support.MemAddressBook;
-import com.programmingchronicles.tdd.addressbook.support.UUIDIdGenerator;
+import com.programmingchronicles.tdd.addressbook.support.TimeOrderedIdGenerator;
+import java.io.File;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
@@ -47,10 +51,44 @@ import javax.servlet.ServletContextListener;
  *    Implementar una arquitectura MVC de Controlador Frontal de forma
  *    que los controladores no tengan que ser servlets.
  *
+ * SNAPSHOTS:
+ *    La agenda está en memoria, al parar la aplicación se guarda un snapshot
+ *    que se vuelve a cargar al arrancar. El fichero se configura con el
+ *    parámetro de contexto "addressBookSnapshot", por defecto se usa el
+ *    directorio temporal que el contenedor asigna a la aplicación.
+ *
+ * PETICIONES ASÍNCRONAS:
+ *    Además de la agenda se registra una versión asíncrona de la misma
+ *    ("asyncAddressBook"), con su propio pool de threads. Los controladores
+ *    la usan para no bloquear los threads del contenedor mientras esperan
+ *    a la agenda. Al parar la aplicación se esperan las operaciones
+ *    pendientes antes de guardar el snapshot.
+ *
+ * METRICAS:
+ *    Se registran las métricas de las etapas del alta de contactos
+ *    ("ingestionMetrics"), que se escriben en el log al parar la aplicación.
+ *
  * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
  */
 public class ServicesConfigurationContextListener implements ServletContextListener {
 
+    /**
+     * Parámetro de contexto con la ruta del fichero de snapshot.
+     */
+    public static final String SNAPSHOT_PARAM = "addressBookSnapshot";
+
+    // Nombre del snapshot si se usa el directorio temporal del contenedor.
+    private static final String SNAPSHOT_NAME = "addressbook.snapshot";
+
+    // Tiempo máximo de espera de las operaciones asíncronas pendientes
+    // al parar la aplicación.
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+
+    private MemAddressBook addressBook;
+    private ExecutorAsyncAddressBook asyncAddressBook;
+    private File snapshotFile;
+    private IngestionMetrics ingestionMetrics;
+
     // El inicio de la aplicación crea todos los servicios en forma de
     // singletons (no confundir con patron singleton), para que los controladores
     // puedan buscarlos por nombre.
@@ -58,17 +96,38 @@ public class ServicesConfigurationContextListener implements ServletContextListe
     public void contextInitialized(ServletContextEvent sce) {
 
         // Se utilizará la implementación en memoria del GlobalAddressBook
-        // que a su vez usa la implementación UUID del generador de ids.
-        MemAddressBook addressBook = new MemAddressBook();   
-        addressBook.setIdGenerator(new UUIDIdGenerator());
+        // que a su vez usa el generador de ids ordenados por tiempo.
+        addressBook = new MemAddressBook();
+        addressBook.setIdGenerator(new TimeOrderedIdGenerator());
         // Esto es una configuración por código. Se podría idear un sistema
         // que permitira la configuración fuera del código.
 
+        // Se recuperan los contactos guardados en la última parada. Si el
+        // snapshot no se puede leer la aplicación arranca con la agenda vacía.
+        ServletContext context = sce.getServletContext();
+        snapshotFile = getSnapshotFile(context);
+        if (snapshotFile != null && snapshotFile.exists()) {
+            try {
+                int count = addressBook.loadSnapshot(snapshotFile);
+                context.log("Loaded " + count + " contacts from " + snapshotFile);
+            } catch (StorageException ex) {
+                context.log("Cannot load address book snapshot", ex);
+            }
+        }
+
         // Se registran los servicios en el servletContext para que los
         // controladores puedan buscar una implementación de AddressBook
         // sin tener que depender de una implementación específica.
         sce.getServletContext().setAttribute("globalAddressBook", addressBook);
 
+        // Los controladores completan las peticiones desde el pool de la
+        // agenda asíncrona, que ejecuta las operaciones sobre la misma agenda.
+        asyncAddressBook = new ExecutorAsyncAddressBook(addressBook);
+        sce.getServletContext().setAttribute("asyncAddressBook", asyncAddressBook);
+
+        ingestionMetrics = new IngestionMetrics();
+        sce.getServletContext().setAttribute("ingestionMetrics", ingestionMetrics);
+
         // PREGUNTA:
         //   ¿Los tests debería verificar que el GlobalAddressBook es en realidad
         //    una instancia de MemAddressBook?
@@ -93,6 +152,40 @@ public class ServicesConfigurationContextListener implements ServletContextListe
     }
 
     @Override
-    public void contextDestroyed(ServletContextEvent sce) {        
+    public void contextDestroyed(ServletContextEvent sce) {
+        if (asyncAddressBook != null) {
+            try {
+                if (!asyncAddressBook.shutdown(SHUTDOWN_TIMEOUT)) {
+                    sce.getServletContext().log("Pending address book operations not finished");
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Después de esperar las altas pendientes, para que estén incluidas.
+        if (ingestionMetrics != null) {
+            sce.getServletContext().log(ingestionMetrics.toString());
+        }
+        if (addressBook != null && snapshotFile != null) {
+            try {
+                addressBook.saveSnapshot(snapshotFile);
+            } catch (StorageException ex) {
+                sce.getServletContext().log("Cannot save address book snapshot", ex);
+            }
+        }
+    }
+
+    // Devuelve el fichero de snapshot configurado, o null si no hay
+    // ningún sitio donde guardarlo.
+    private static File getSnapshotFile(ServletContext context) {
+        String path = context.getInitParameter(SNAPSHOT_PARAM);
+        if (path != null) {
+            return new File(path);
+        }
+        Object tempDir = context.getAttribute("javax.servlet.context.tempdir");
+        if (tempDir instanceof File) {
+            return new File((File) tempDir, SNAPSHOT_NAME);
+        }
+        return null;
     }
 }
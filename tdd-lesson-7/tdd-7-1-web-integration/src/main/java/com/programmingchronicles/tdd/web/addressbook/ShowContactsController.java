@@ -21,10 +21,14 @@
 
 package com.programmingchronicles.tdd.web.addressbook;
 
+import com.programmingchronicles.tdd.addressbook.AsyncCallback;
+import com.programmingchronicles.tdd.addressbook.AsyncGlobalAddressBook;
 import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
 import com.programmingchronicles.tdd.domain.Contact;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -35,11 +39,23 @@ import javax.servlet.http.HttpServletResponse;
  * Controlador que procesa la petición y devuelve la vista con los
  * contactos del sistema.
  *
+ * Los contactos se muestran por páginas, de forma que el tiempo de
+ * respuesta y el tamaño de la vista no dependen del tamaño de la agenda.
+ * Parámetros del request:
+ *    - after: id del último contacto de la página anterior (cursor).
+ *    - size: número de contactos por página.
+ *
  * Se implementa el código de inicialización que no puede estar basado
  * en Direct Injection, aunque se sigue manteniendo configurable.
  *
  * Ver también: getViewPath()
  *
+ * PETICIONES ASÍNCRONAS:
+ *    Si hay una agenda asíncrona configurada la página se pide con ella
+ *    y el thread del contenedor queda libre mientras tanto. Al recibir los
+ *    contactos, desde el pool de la agenda, se hace el dispatch a la vista.
+ *    Si la agenda está saturada se responde 503 (Service Unavailable).
+ *
  * FUTURA REFACTORIZACION:
  *    Implementar una arquitectura MVC de Controlador Frontal de forma
  *    que los controladores no tengan que ser servlets.
@@ -51,9 +67,20 @@ public class ShowContactsController extends HttpServlet {
     // Acceso al servicio de GlobalAddressBook, se configurará
     // mediante Direct Injection (IoC).
     private GlobalAddressBook addressBook;
+    private AsyncGlobalAddressBook asyncAddressBook;
 
     private String viewPath;
 
+    /**
+     * Número de contactos por página si no se indica en el request.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 20;
+
+    /**
+     * Número máximo de contactos por página que se puede pedir.
+     */
+    public static final int MAX_PAGE_SIZE = 100;
+
     /**
      * En los objetos instanciados por el contenedor no se puede usar Direct
      * Injection, para configurar las dependencias de los controladores.
@@ -75,6 +102,7 @@ public class ShowContactsController extends HttpServlet {
         super.init(config);
 
         addressBook = (GlobalAddressBook) config.getServletContext().getAttribute("globalAddressBook");
+        asyncAddressBook = (AsyncGlobalAddressBook) config.getServletContext().getAttribute("asyncAddressBook");
         viewPath = config.getInitParameter("view");
     }
 
@@ -91,17 +119,87 @@ public class ShowContactsController extends HttpServlet {
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
     throws ServletException, IOException {
 
-        // Obtiene los contactos usando los servicios de la
-        // capa de negocio.
-        List<Contact> contacts = addressBook.getAll();
+        String afterId = request.getParameter("after");
+        if (afterId != null && afterId.isEmpty()) {
+            afterId = null;
+        }
+        int pageSize = parsePageSize(request.getParameter("size"));
 
-        // El modelo se entrega a las vistas como un atributo del request.
-        request.setAttribute("contacts", contacts);
+        if (asyncAddressBook != null && request.isAsyncSupported()) {
+            doGetAsync(request, response, afterId, pageSize);
+            return;
+        }
+
+        // Obtiene los contactos usando los servicios de la
+        // capa de negocio. Se pide un contacto más de los que se
+        // muestran para saber si existe una página siguiente.
+        List<Contact> contacts = addressBook.getPage(afterId, pageSize + 1);
+        setModel(request, contacts, pageSize);
 
         // Forward de la petición hacia la vista que renderiza la UI.
         request.getRequestDispatcher(viewPath).forward(request, response);
     }
 
+    /**
+     * Pide la página a la agenda asíncrona y libera el thread del
+     * contenedor. La vista se renderiza con un dispatch al recibir
+     * los contactos.
+     */
+    private void doGetAsync(final HttpServletRequest request, HttpServletResponse response,
+                            String afterId, final int pageSize) {
+        final AsyncContext asyncContext = request.startAsync(request, response);
+        try {
+            asyncAddressBook.getPage(afterId, pageSize + 1, new AsyncCallback<List<Contact>>() {
+                @Override
+                public void onSuccess(List<Contact> contacts) {
+                    setModel(request, contacts, pageSize);
+                    asyncContext.dispatch(viewPath);
+                }
+
+                @Override
+                public void onFailure(Throwable cause) {
+                    AsyncResponses.completeWithError(asyncContext,
+                            HttpServletResponse.SC_INTERNAL_SERVER_ERROR, cause);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            AsyncResponses.completeWithError(asyncContext,
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE, null);
+        }
+    }
+
+    /**
+     * El modelo se entrega a las vistas como un atributo del request. Los
+     * contactos incluyen uno más del tamaño de página, si existe.
+     */
+    private void setModel(HttpServletRequest request, List<Contact> contacts, int pageSize) {
+        String nextAfter = null;
+        if (contacts.size() > pageSize) {
+            contacts = contacts.subList(0, pageSize);
+            nextAfter = contacts.get(pageSize - 1).getId();
+        }
+
+        request.setAttribute("contacts", contacts);
+        request.setAttribute("pageSize", pageSize);
+        request.setAttribute("nextAfter", nextAfter);
+    }
+
+    /**
+     * Obtiene el tamaño de página del parámetro del request, limitado
+     * al rango [1, MAX_PAGE_SIZE]. Un valor inválido usa el de por defecto.
+     */
+    private int parsePageSize(String size) {
+        if (size == null) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        try {
+            int pageSize = Integer.parseInt(size.trim());
+            return Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        } catch (NumberFormatException ex) {
+            return DEFAULT_PAGE_SIZE;
+        }
+    }
+
     /**
      * Devuelve el servicio agenda configurado en el controlador.
      */
@@ -118,6 +216,23 @@ public class ShowContactsController extends HttpServlet {
         this.addressBook = addressBook;
     }
 
+    /**
+     * Devuelve la agenda asíncrona configurada, o null si las peticiones
+     * se procesan de forma síncrona.
+     */
+    public AsyncGlobalAddressBook getAsyncAddressBook() {
+        return asyncAddressBook;
+    }
+
+    /**
+     * Configura la agenda asíncrona usada por el controlador.
+     *
+     * @param asyncAddressBook
+     */
+    public void setAsyncAddressBook(AsyncGlobalAddressBook asyncAddressBook) {
+        this.asyncAddressBook = asyncAddressBook;
+    }
+
     void setFormView(String string) {
         throw new UnsupportedOperationException("Not yet implemented");
     }
@@ -21,9 +21,11 @@
 --%>
 
 <%--
-    Vista que muestra la lista de contactos completa.
+    Vista que muestra una página de la lista de contactos.
     Modelo:
-        List<Contacts> contacts
+        List<Contact> contacts
+        Integer pageSize
+        String nextAfter (null si es la última página)
 
     Author: Pedro Ballesteros <pedro@theprogrammingchronicles.com>
 --%>
@@ -67,6 +69,19 @@
             </tbody>
         </table>
 
+        <div class="actions">
+            <c:if test="${not empty param.after}">
+                <a href="show.do?size=${pageSize}">Primera página</a>
+            </c:if>
+            <c:if test="${not empty nextAfter}">
+                <c:url var="nextPage" value="show.do">
+                    <c:param name="after" value="${nextAfter}"/>
+                    <c:param name="size" value="${pageSize}"/>
+                </c:url>
+                <a href="${nextPage}">Página siguiente</a>
+            </c:if>
+        </div>
+
         <%@include file="fotter.jspf"%>        
     </body>
 </html>
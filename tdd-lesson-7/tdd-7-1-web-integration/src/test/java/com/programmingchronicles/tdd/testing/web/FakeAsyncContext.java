@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.testing.web;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Fake de AsyncContext que guarda cómo ha terminado la petición para
+ * verificar por estado.
+ *
+ * La petición asíncrona termina en otro thread, por lo que el test tiene
+ * que esperar con {@link #await(long)} antes de verificar el resultado.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class FakeAsyncContext implements AsyncContext {
+
+    private final ServletRequest request;
+    private final ServletResponse response;
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private volatile String dispatchPath;
+    private volatile boolean completed;
+
+    public FakeAsyncContext(ServletRequest request, ServletResponse response) {
+        this.request = request;
+        this.response = response;
+    }
+
+    /**
+     * Espera a que la petición termine con un dispatch o un complete.
+     *
+     * @param timeoutMillis
+     * @return false si no ha terminado en el tiempo entregado.
+     * @throws InterruptedException
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException {
+        return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Devuelve el path del dispatch, o null si no se ha invocado.
+     *
+     * @return
+     */
+    public String getDispatchPath() {
+        return dispatchPath;
+    }
+
+    /**
+     * Indica si la petición se ha terminado con complete.
+     *
+     * @return
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    @Override
+    public ServletRequest getRequest() {
+        return request;
+    }
+
+    @Override
+    public ServletResponse getResponse() {
+        return response;
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse() {
+        return true;
+    }
+
+    /**
+     * El dispatch hacia una vista actualiza también el forward del response,
+     * como haría el FakeRequestDispatcher.
+     *
+     * @param path
+     */
+    @Override
+    public void dispatch(String path) {
+        if (response instanceof FakeHttpServletResponse) {
+            ((FakeHttpServletResponse) response).setForwardLocation(path);
+        }
+        dispatchPath = path;
+        finished.countDown();
+    }
+
+    @Override
+    public void complete() {
+        completed = true;
+        finished.countDown();
+    }
+
+    @Override
+    public void dispatch() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void dispatch(ServletContext context, String path) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void start(Runnable run) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void addListener(AsyncListener listener) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void addListener(AsyncListener listener, ServletRequest request, ServletResponse response) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(Class<T> clazz) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public long getTimeout() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+}
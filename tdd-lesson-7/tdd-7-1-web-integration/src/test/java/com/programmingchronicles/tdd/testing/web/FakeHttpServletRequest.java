@@ -25,15 +25,24 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.Principal;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
 import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import javax.servlet.http.Part;
 
 /**
  * Fake de HttpServletRequest que añade metodos para crear parametros y que
@@ -46,6 +55,9 @@ public class FakeHttpServletRequest implements HttpServletRequest {
 
     private Map<String, String> params = new HashMap();
     private Map<String, Object> attributes = new HashMap();
+    private boolean asyncSupported;
+    private FakeAsyncContext asyncContext;
+    private ServletContext servletContext;
 
     /**
      * Devuelve los parametros establecidos con setParameter
@@ -92,6 +104,89 @@ public class FakeHttpServletRequest implements HttpServletRequest {
     }
 
 
+    /**
+     * Por defecto el fake no soporta peticiones asíncronas, como un servlet
+     * sin async-supported.
+     */
+    @Override
+    public boolean isAsyncSupported() {
+        return asyncSupported;
+    }
+
+    public void setAsyncSupported(boolean asyncSupported) {
+        this.asyncSupported = asyncSupported;
+    }
+
+    /**
+     * Devuelve un fake de AsyncContext que permite verificar por estado
+     * el dispatch o el complete de la petición.
+     */
+    @Override
+    public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+        if (!asyncSupported) {
+            throw new IllegalStateException("Async not supported");
+        }
+        asyncContext = new FakeAsyncContext(request, response);
+        return asyncContext;
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean isAsyncStarted() {
+        return asyncContext != null;
+    }
+
+    @Override
+    public FakeAsyncContext getAsyncContext() {
+        if (asyncContext == null) {
+            throw new IllegalStateException("Async not started");
+        }
+        return asyncContext;
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    public void setServletContext(ServletContext servletContext) {
+        this.servletContext = servletContext;
+    }
+
+    @Override
+    public DispatcherType getDispatcherType() {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public boolean authenticate(HttpServletResponse response) throws IOException, ServletException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void login(String username, String password) throws ServletException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public void logout() throws ServletException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public Collection<Part> getParts() throws IOException, ServletException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public Part getPart(String name) throws IOException, ServletException {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
     @Override
     public String getAuthType() {
         throw new UnsupportedOperationException("Not supported yet.");
@@ -23,6 +23,7 @@ package com.programmingchronicles.tdd.testing.web;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Collection;
 import java.util.Locale;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
@@ -39,6 +40,7 @@ public class FakeHttpServletResponse implements HttpServletResponse {
 
     private String sendRedirectLocation;
     private String forwardLocation;
+    private int status = SC_OK;
 
     // Para que el fake del rquestDispatcher pueda actualizar el resultado del
     // forward sobre el response cuando se invoca el forward.
@@ -115,6 +117,32 @@ public class FakeHttpServletResponse implements HttpServletResponse {
 
     @Override
     public void sendError(int sc) throws IOException {
+        this.status = sc;
+    }
+
+    /**
+     * Devuelve el código de la respuesta, el entregado en sendError o
+     * 200 si no se ha invocado.
+     *
+     * @return
+     */
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        throw new UnsupportedOperationException("Not supported yet.");
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.web.addressbook;
+
+import com.programmingchronicles.tdd.addressbook.support.ExecutorAsyncAddressBook;
+import com.programmingchronicles.tdd.addressbook.support.MemAddressBook;
+import com.programmingchronicles.tdd.addressbook.support.TimeOrderedIdGenerator;
+import com.programmingchronicles.tdd.domain.Contact;
+import com.programmingchronicles.tdd.testing.web.FakeHttpServletRequest;
+import com.programmingchronicles.tdd.testing.web.FakeHttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Medición de las peticiones por segundo de ShowContactsController con una
+ * agenda lenta, procesando las peticiones de forma síncrona y asíncrona.
+ *
+ * <p>
+ * El contenedor se simula con un pool de threads fijo, como el maxThreads
+ * de Tomcat, y la base de datos lenta con una agenda en memoria que tarda
+ * {@link #LATENCY_MILLIS} en cada página.</p>
+ *
+ * <p>
+ * En modo síncrono cada petición ocupa un thread del contenedor durante
+ * toda la espera, y el rendimiento queda limitado a
+ * CONTAINER_THREADS / LATENCY. En modo asíncrono el thread del contenedor
+ * queda libre al instante y la concurrencia contra la agenda la fija el
+ * pool de la agenda asíncrona (el tamaño adecuado para la base de datos),
+ * no el número de threads del contenedor.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class AsyncControllerBenchmark {
+
+    private static final int CONTAINER_THREADS = 8;
+    private static final int ASYNC_THREADS = 32;
+    private static final long LATENCY_MILLIS = 20;
+    private static final int REQUESTS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        MemAddressBook addressBook = new SlowAddressBook();
+        addressBook.setIdGenerator(new TimeOrderedIdGenerator());
+        for (int i = 0; i < 100; i++) {
+            Contact contact = new Contact();
+            contact.setFirstName("Contact" + i);
+            addressBook.addContact(contact);
+        }
+        ExecutorAsyncAddressBook asyncAddressBook =
+                new ExecutorAsyncAddressBook(addressBook, ASYNC_THREADS, REQUESTS);
+
+        ShowContactsController controller = new ShowContactsController();
+        controller.setAddressBook(addressBook);
+        controller.setAsyncAddressBook(asyncAddressBook);
+        controller.setViewPath("viewPath");
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 2; round++) {
+            boolean print = round > 0;
+            run("Bloqueante", controller, false, print);
+            run("Async", controller, true, print);
+        }
+        asyncAddressBook.shutdown();
+    }
+
+    private static void run(String name, final ShowContactsController controller,
+                            boolean async, boolean print) throws Exception {
+        ExecutorService container = Executors.newFixedThreadPool(CONTAINER_THREADS);
+        List<FakeHttpServletRequest> requests = new ArrayList<FakeHttpServletRequest>(REQUESTS);
+
+        long begin = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            final FakeHttpServletRequest request = new FakeHttpServletRequest();
+            request.setAsyncSupported(async);
+            requests.add(request);
+            container.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        controller.doGet(request, new FakeHttpServletResponse());
+                    } catch (Exception ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                }
+            });
+        }
+        container.shutdown();
+        container.awaitTermination(1, TimeUnit.HOURS);
+
+        // Las peticiones asíncronas terminan después, en la agenda.
+        if (async) {
+            for (FakeHttpServletRequest request : requests) {
+                request.getAsyncContext().await(60000);
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        if (print) {
+            System.out.printf("%-10s %2d threads contenedor: %,8d peticiones/s%n",
+                              name, CONTAINER_THREADS, REQUESTS * 1000000000L / elapsed);
+        }
+    }
+
+    /**
+     * Agenda en memoria con la latencia de una base de datos.
+     */
+    private static class SlowAddressBook extends MemAddressBook {
+        @Override
+        public List<Contact> getPage(String afterId, int pageSize) {
+            try {
+                Thread.sleep(LATENCY_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return super.getPage(afterId, pageSize);
+        }
+    }
+}
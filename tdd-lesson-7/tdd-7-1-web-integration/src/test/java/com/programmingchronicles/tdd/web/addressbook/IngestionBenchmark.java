@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.web.addressbook;
+
+import com.programmingchronicles.addressbook.converters.ContactCommandConverter;
+import com.programmingchronicles.tdd.addressbook.support.MemAddressBook;
+import com.programmingchronicles.tdd.addressbook.support.TimeOrderedIdGenerator;
+import com.programmingchronicles.tdd.testing.web.FakeHttpServletRequest;
+import com.programmingchronicles.tdd.testing.web.FakeHttpServletResponse;
+
+/**
+ * Medición de las etapas del alta de contactos, validando en la agenda
+ * (camino con Contact) y con el ValidContact del conversor.
+ *
+ * <p>
+ * Con Contact la agenda vuelve a validar, eliminar espacios, calcular la
+ * clave del nombre y convertir la fecha con un Calendar. Con ValidContact
+ * todo eso lo ha hecho ya el conversor una sola vez.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class IngestionBenchmark {
+
+    private static final int CONTACTS = 200000;
+
+    public static void main(String[] args) throws Exception {
+        FakeHttpServletRequest[] requests = new FakeHttpServletRequest[CONTACTS];
+        for (int i = 0; i < CONTACTS; i++) {
+            requests[i] = new FakeHttpServletRequest();
+            requests[i].setParameter("firstName", "  Name" + i + " ");
+            requests[i].setParameter("surname", "Surname" + i);
+            requests[i].setParameter("birthday", (1 + i % 28) + "/" + (1 + i % 12) + "/1974");
+            requests[i].setParameter("phone", "610101010");
+        }
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 3; round++) {
+            IngestionMetrics contactMetrics = runContact(requests);
+            IngestionMetrics validMetrics = runValidContact(requests);
+            if (round > 0) {
+                print("Contact     ", contactMetrics);
+                print("ValidContact", validMetrics);
+            }
+        }
+    }
+
+    // Camino anterior: el conversor valida y la agenda lo repite.
+    private static IngestionMetrics runContact(FakeHttpServletRequest[] requests) {
+        MemAddressBook addressBook = newAddressBook();
+        IngestionMetrics metrics = new IngestionMetrics();
+        for (FakeHttpServletRequest request : requests) {
+            long begin = System.nanoTime();
+            ContactCommandConverter converter = new ContactCommandConverter();
+            boolean valid = converter.verifyAndConvert(request);
+            metrics.record(IngestionMetrics.Stage.CONVERT, System.nanoTime() - begin, valid);
+
+            begin = System.nanoTime();
+            addressBook.addContact(converter.getCommand());
+            metrics.record(IngestionMetrics.Stage.STORE, System.nanoTime() - begin, true);
+        }
+        return metrics;
+    }
+
+    private static IngestionMetrics runValidContact(FakeHttpServletRequest[] requests) throws Exception {
+        AddContactController controller = new AddContactController();
+        controller.setAddressBook(newAddressBook());
+        controller.setSuccessedSubmitRedirect("redirectPath");
+        for (FakeHttpServletRequest request : requests) {
+            controller.doPost(request, new FakeHttpServletResponse());
+        }
+        return controller.getIngestionMetrics();
+    }
+
+    private static MemAddressBook newAddressBook() {
+        MemAddressBook addressBook = new MemAddressBook();
+        addressBook.setIdGenerator(new TimeOrderedIdGenerator());
+        return addressBook;
+    }
+
+    private static void print(String name, IngestionMetrics metrics) {
+        System.out.printf("%s convert: %,6d ns   store: %,6d ns%n", name,
+                          metrics.getMeanNanos(IngestionMetrics.Stage.CONVERT),
+                          metrics.getMeanNanos(IngestionMetrics.Stage.STORE));
+    }
+}
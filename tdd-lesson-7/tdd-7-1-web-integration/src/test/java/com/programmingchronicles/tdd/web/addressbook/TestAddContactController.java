@@ -23,6 +23,9 @@ package com.programmingchronicles.tdd.web.addressbook;
 
 import com.programmingchronicles.tdd.web.addressbook.AddContactController;
 import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.addressbook.InvalidContactException;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
+import com.programmingchronicles.tdd.addressbook.support.ExecutorAsyncAddressBook;
 import com.programmingchronicles.tdd.domain.Contact;
 import com.programmingchronicles.tdd.testing.web.FakeHttpServletRequest;
 import com.programmingchronicles.tdd.testing.web.FakeHttpServletResponse;
@@ -34,6 +37,7 @@ import java.util.Map;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import org.junit.*;
 import org.mockito.ArgumentCaptor;
 import static org.mockito.Mockito.*;
@@ -103,6 +107,8 @@ public class TestAddContactController {
         ServletContext context = mock(ServletContext.class);
         when(config.getServletContext()).thenReturn(context);        
         when(context.getAttribute("globalAddressBook")).thenReturn(mockAddressbook);
+        IngestionMetrics metrics = new IngestionMetrics();
+        when(context.getAttribute("ingestionMetrics")).thenReturn(metrics);
 
         // Se instancia un controlador no inicializado.
         AddContactController notInitController = new AddContactController();
@@ -114,6 +120,7 @@ public class TestAddContactController {
         // el contexto. Se comprueba que es instancia de GlobalAddressBook, no
         // se liga a implementaciones específicas.
         assertTrue("init addressbook failed", notInitController.getAddressBook() instanceof GlobalAddressBook);
+        assertSame(metrics, notInitController.getIngestionMetrics());
 
         // Verifica que las vistas se configuran con el valor devuelto por
         // getInitParameter del servlet. Los valores reales de las vistas
@@ -166,12 +173,12 @@ public class TestAddContactController {
        controller.doPost(fakeRequest, fakeResponse);
 
        // Verifica que se llama al addContact del mock del addressbook
-       ArgumentCaptor<Contact> argument = ArgumentCaptor.forClass(Contact.class);
+       ArgumentCaptor<ValidContact> argument = ArgumentCaptor.forClass(ValidContact.class);
        verify(mockAddressbook).addContact(argument.capture());
 
        // En el verify anterior capturamos el argumento con el que se llama
        // a la agenda, y podemos validar que se añade el contacto correcto.
-       Contact contact = argument.getValue();
+       ValidContact contact = argument.getValue();
        assertEquals("Pedro", contact.getFirstName());
        assertEquals("Ballesteros", contact.getSurname());
        assertEquals(dateFormat.parse("8/1/1974"), contact.getBirthday());
@@ -204,6 +211,7 @@ public class TestAddContactController {
        // Verifica que no se ha intentado añadir el contacto ya que
        // el nombre es obligatorio.
        verify(mockAddressbook, never()).addContact(any(Contact.class));
+       verify(mockAddressbook, never()).addContact(any(ValidContact.class));
 
        // Verifica que se ha creado un modelo con los errores con un
        // setAtribute. Decidimos que se introducirán en un Map<String, String>.
@@ -244,12 +252,12 @@ public class TestAddContactController {
        controller.doPost(fakeRequest, fakeResponse);
 
        // Verifica que se llama al addContact del mock del addressbook
-       ArgumentCaptor<Contact> argument = ArgumentCaptor.forClass(Contact.class);
+       ArgumentCaptor<ValidContact> argument = ArgumentCaptor.forClass(ValidContact.class);
        verify(mockAddressbook).addContact(argument.capture());
 
        // En el verify anterior capturamos el argumento con el que se llama
        // a la agenda, y podemos validar que se añade el contacto correcto.
-       Contact contact = argument.getValue();
+       ValidContact contact = argument.getValue();
        assertEquals("Pedro", contact.getFirstName());
        assertNull(contact.getSurname());
        assertNull(contact.getBirthday());
@@ -261,4 +269,85 @@ public class TestAddContactController {
        // Verifica que se llama al redirect del response con el parametro correcto.
        assertEquals("redirectPath", fakeResponse.getSendRedirectLocation());
     }
-}
\ No newline at end of file
+
+    // Test Http Post asíncrono: el contacto se añade desde el pool de la
+    // agenda asíncrona, que envía el redirect y termina la petición.
+    @Test
+    public void testDoPostAsync() throws Exception {
+       ExecutorAsyncAddressBook asyncAddressBook = new ExecutorAsyncAddressBook(mockAddressbook, 1, 1);
+       controller.setAsyncAddressBook(asyncAddressBook);
+       try {
+           FakeHttpServletRequest fakeRequest = new FakeHttpServletRequest();
+           FakeHttpServletResponse fakeResponse = new FakeHttpServletResponse();
+           fakeRequest.setAsyncSupported(true);
+           fakeRequest.setParameter("firstName", "Pedro");
+
+           controller.doPost(fakeRequest, fakeResponse);
+
+           assertTrue(fakeRequest.getAsyncContext().await(5000));
+           assertTrue(fakeRequest.getAsyncContext().isCompleted());
+           assertEquals("redirectPath", fakeResponse.getSendRedirectLocation());
+
+           ArgumentCaptor<ValidContact> argument = ArgumentCaptor.forClass(ValidContact.class);
+           verify(mockAddressbook).addContact(argument.capture());
+           assertEquals("Pedro", argument.getValue().getFirstName());
+       } finally {
+           asyncAddressBook.shutdown();
+       }
+    }
+
+    // Test Http Post asíncrono: el error de la agenda llega en el callback,
+    // el controlador lo registra y responde 500.
+    @Test
+    public void testDoPostAsyncFailure() throws Exception {
+       InvalidContactException error = new InvalidContactException();
+       when(mockAddressbook.addContact(any(ValidContact.class))).thenThrow(error);
+       ExecutorAsyncAddressBook asyncAddressBook = new ExecutorAsyncAddressBook(mockAddressbook, 1, 1);
+       controller.setAsyncAddressBook(asyncAddressBook);
+       try {
+           ServletContext context = mock(ServletContext.class);
+           FakeHttpServletRequest fakeRequest = new FakeHttpServletRequest();
+           FakeHttpServletResponse fakeResponse = new FakeHttpServletResponse();
+           fakeRequest.setAsyncSupported(true);
+           fakeRequest.setServletContext(context);
+           fakeRequest.setParameter("firstName", "Pedro");
+
+           controller.doPost(fakeRequest, fakeResponse);
+
+           assertTrue(fakeRequest.getAsyncContext().await(5000));
+           assertTrue(fakeRequest.getAsyncContext().isCompleted());
+           assertEquals(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, fakeResponse.getStatus());
+           assertNull(fakeResponse.getSendRedirectLocation());
+           verify(context).log(anyString(), eq(error));
+       } finally {
+           asyncAddressBook.shutdown();
+       }
+    }
+
+    // Test Http Post: cada etapa del alta registra su duración, y los
+    // errores de cada etapa se cuentan por separado.
+    @Test
+    public void testDoPostIngestionMetrics() throws ServletException, IOException {
+       IngestionMetrics metrics = new IngestionMetrics();
+       controller.setIngestionMetrics(metrics);
+       when(mockAddressbook.addContact(any(ValidContact.class)))
+               .thenReturn("1").thenThrow(new InvalidContactException());
+
+       FakeHttpServletRequest fakeRequest = new FakeHttpServletRequest();
+       fakeRequest.setParameter("firstName", "Pedro");
+       controller.doPost(fakeRequest, new FakeHttpServletResponse());
+       try {
+           controller.doPost(fakeRequest, new FakeHttpServletResponse());
+           fail();
+       } catch (InvalidContactException ex) {
+           // El duplicado lo rechaza la agenda.
+       }
+       controller.doPost(new FakeHttpServletRequest(), new FakeHttpServletResponse());
+
+       assertEquals(3, metrics.getCount(IngestionMetrics.Stage.CONVERT));
+       assertEquals(1, metrics.getErrors(IngestionMetrics.Stage.CONVERT));
+       assertEquals(2, metrics.getCount(IngestionMetrics.Stage.STORE));
+       assertEquals(1, metrics.getErrors(IngestionMetrics.Stage.STORE));
+       assertTrue(metrics.getTotalNanos(IngestionMetrics.Stage.CONVERT) > 0);
+    }
+}
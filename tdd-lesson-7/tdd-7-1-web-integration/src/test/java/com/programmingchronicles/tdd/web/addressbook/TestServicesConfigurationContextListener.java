@@ -22,10 +22,16 @@
 package com.programmingchronicles.tdd.web.addressbook;
 
 import com.programmingchronicles.tdd.web.addressbook.ServicesConfigurationContextListener;
+import com.programmingchronicles.tdd.addressbook.AsyncGlobalAddressBook;
 import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.domain.Contact;
+import java.io.File;
+import java.util.List;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 /**
@@ -70,6 +76,13 @@ public class TestServicesConfigurationContextListener {
         // la API GloblalAddressBook.
         verify(context).setAttribute(eq("globalAddressBook"), isA(GlobalAddressBook.class));
 
+        // Los controladores también usan la versión asíncrona de la agenda.
+        verify(context).setAttribute(eq("asyncAddressBook"), isA(AsyncGlobalAddressBook.class));
+
+        // Y comparten las métricas del alta de contactos.
+        verify(context).setAttribute(eq("ingestionMetrics"), isA(IngestionMetrics.class));
+        listener.contextDestroyed(sce);
+
         // PREGUNTA:
         //   ¿Deberiamos verificar que el GlobalAddressBook es en realidad una
         //    instancia de MemAddressBook?
@@ -89,4 +102,48 @@ public class TestServicesConfigurationContextListener {
         //   No obstante son errores que se localizarán facilmente en un
         //   test de integración o de sistema.
     } 
-}
\ No newline at end of file
+
+    /**
+     * Los contactos añadidos se guardan al parar la aplicación y se
+     * recuperan al volver a arrancarla.
+     */
+    @Test
+    public void testSnapshotOnRestart() throws Exception {
+        File dir = File.createTempFile("addressbook", ".dir");
+        dir.delete();
+        dir.mkdir();
+        File snapshot = new File(dir, "addressbook.snapshot");
+        try {
+            ServletContextEvent sce = mock(ServletContextEvent.class);
+            ServletContext context = mock(ServletContext.class);
+            when(sce.getServletContext()).thenReturn(context);
+            when(context.getAttribute("javax.servlet.context.tempdir")).thenReturn(dir);
+
+            ServicesConfigurationContextListener listener = new ServicesConfigurationContextListener();
+            listener.contextInitialized(sce);
+
+            Contact contact = new Contact();
+            contact.setFirstName("Pedro");
+            String id = getAddressBooks(context).get(0).addContact(contact);
+
+            listener.contextDestroyed(sce);
+            assertTrue(snapshot.exists());
+
+            // Arranque de nuevo, con un listener nuevo.
+            new ServicesConfigurationContextListener().contextInitialized(sce);
+
+            GlobalAddressBook restored = getAddressBooks(context).get(1);
+            assertEquals("Pedro", restored.getContact(id).getFirstName());
+        } finally {
+            snapshot.delete();
+            dir.delete();
+        }
+    }
+
+    // Devuelve las agendas registradas en el contexto, en orden.
+    private static List<GlobalAddressBook> getAddressBooks(ServletContext context) {
+        ArgumentCaptor<GlobalAddressBook> captor = ArgumentCaptor.forClass(GlobalAddressBook.class);
+        verify(context, atLeastOnce()).setAttribute(eq("globalAddressBook"), captor.capture());
+        return captor.getAllValues();
+    }
+}
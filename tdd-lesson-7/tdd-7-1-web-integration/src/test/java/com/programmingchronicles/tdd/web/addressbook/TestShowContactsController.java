@@ -22,16 +22,21 @@
 package com.programmingchronicles.tdd.web.addressbook;
 
 import com.programmingchronicles.tdd.web.addressbook.ShowContactsController;
+import com.programmingchronicles.tdd.addressbook.AsyncCallback;
+import com.programmingchronicles.tdd.addressbook.AsyncGlobalAddressBook;
 import com.programmingchronicles.tdd.addressbook.GlobalAddressBook;
+import com.programmingchronicles.tdd.addressbook.support.ExecutorAsyncAddressBook;
 import com.programmingchronicles.tdd.domain.Contact;
 import com.programmingchronicles.tdd.testing.web.FakeHttpServletRequest;
 import com.programmingchronicles.tdd.testing.web.FakeHttpServletResponse;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import org.junit.*;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -76,9 +81,12 @@ public class TestShowContactsController {
         // Lista lista de contactos de ejemplo que devuelve la agenda.
         contactList = Arrays.asList(c1, c2);
 
-        // Mock de GlobalAddressBook que devuelve los contactos de ejemplo.
+        // Mock de GlobalAddressBook que devuelve los contactos de ejemplo
+        // como primera página. El controlador pide un contacto más del
+        // tamaño de página para saber si hay página siguiente.
         mockAddressbook = mock(GlobalAddressBook.class);
-        when(mockAddressbook.getAll()).thenReturn(contactList);
+        when(mockAddressbook.getPage(null, ShowContactsController.DEFAULT_PAGE_SIZE + 1))
+             .thenReturn(contactList);
 
         // Se configura por Direct Injection el addressbook usado
         // por el controlador.
@@ -164,11 +172,121 @@ public class TestShowContactsController {
        // Verifica que el modelo se a creado correctamente. Ahora se puede
        // verificar por estado, porque sabemos que nuestro fake devuelve
        // valores reales establecidos con el setAttribute.
-       assertSame(fakeRequest.getAttribute("contacts"), contactList);
+       assertEquals(contactList, fakeRequest.getAttribute("contacts"));
+
+       // Sin parámetros se muestra la primera página con el tamaño por
+       // defecto, y como caben todos los contactos no hay página siguiente.
+       assertEquals(ShowContactsController.DEFAULT_PAGE_SIZE, fakeRequest.getAttribute("pageSize"));
+       assertNull(fakeRequest.getAttribute("nextAfter"));
 
        // Verifica que el forward se realiza a la vista correcta, usando
        // las facilidades del Fake que permiten obtener el path del forward,
        // en lugar de realizar una validación por interacción.
        assertEquals("viewPath", fakeResponse.getForwardLocation());
     }
-}
\ No newline at end of file
+
+    /**
+     * Si la agenda devuelve más contactos que el tamaño de página, solo se
+     * muestran los de la página y el último es el cursor de la siguiente.
+     */
+    @Test
+    public void testDoGetNextPage() throws ServletException, IOException {
+       Contact c3 = new Contact();
+       c3.setId("Id3");
+       when(mockAddressbook.getPage("Id1", 2)).thenReturn(Arrays.asList(contactList.get(1), c3));
+
+       FakeHttpServletRequest fakeRequest = new FakeHttpServletRequest();
+       FakeHttpServletResponse fakeResponse = new FakeHttpServletResponse();
+       fakeRequest.setParameter("after", "Id1");
+       fakeRequest.setParameter("size", "1");
+
+       controller.doGet(fakeRequest, fakeResponse);
+
+       assertEquals(Arrays.asList(contactList.get(1)), fakeRequest.getAttribute("contacts"));
+       assertEquals(1, fakeRequest.getAttribute("pageSize"));
+       assertEquals("Id2", fakeRequest.getAttribute("nextAfter"));
+       assertEquals("viewPath", fakeResponse.getForwardLocation());
+    }
+
+    /**
+     * Un tamaño de página inválido usa el de por defecto, y uno excesivo
+     * se limita al máximo para acotar el coste de la petición.
+     */
+    @Test
+    public void testDoGetInvalidPageSize() throws ServletException, IOException {
+       FakeHttpServletRequest fakeRequest = new FakeHttpServletRequest();
+       fakeRequest.setParameter("size", "abc");
+       controller.doGet(fakeRequest, new FakeHttpServletResponse());
+       assertEquals(ShowContactsController.DEFAULT_PAGE_SIZE, fakeRequest.getAttribute("pageSize"));
+
+       fakeRequest = new FakeHttpServletRequest();
+       fakeRequest.setParameter("size", "100000");
+       controller.doGet(fakeRequest, new FakeHttpServletResponse());
+       assertEquals(ShowContactsController.MAX_PAGE_SIZE, fakeRequest.getAttribute("pageSize"));
+       verify(mockAddressbook).getPage(null, ShowContactsController.MAX_PAGE_SIZE + 1);
+    }
+
+    /**
+     * Con una agenda asíncrona el controlador libera el thread y la vista
+     * se renderiza con un dispatch al recibir los contactos.
+     */
+    @Test
+    public void testDoGetAsync() throws Exception {
+       ExecutorAsyncAddressBook asyncAddressBook = new ExecutorAsyncAddressBook(mockAddressbook, 1, 1);
+       controller.setAsyncAddressBook(asyncAddressBook);
+       try {
+           FakeHttpServletRequest fakeRequest = new FakeHttpServletRequest();
+           FakeHttpServletResponse fakeResponse = new FakeHttpServletResponse();
+           fakeRequest.setAsyncSupported(true);
+
+           controller.doGet(fakeRequest, fakeResponse);
+
+           // La petición termina en el thread de la agenda asíncrona.
+           assertTrue(fakeRequest.getAsyncContext().await(5000));
+           assertEquals("viewPath", fakeRequest.getAsyncContext().getDispatchPath());
+           assertEquals(contactList, fakeRequest.getAttribute("contacts"));
+           assertNull(fakeRequest.getAttribute("nextAfter"));
+       } finally {
+           asyncAddressBook.shutdown();
+       }
+    }
+
+    /**
+     * Si el servlet no tiene async-supported se procesa de forma síncrona
+     * aunque haya agenda asíncrona.
+     */
+    @Test
+    public void testDoGetAsyncNotSupported() throws ServletException, IOException {
+       AsyncGlobalAddressBook mockAsyncAddressBook = mock(AsyncGlobalAddressBook.class);
+       controller.setAsyncAddressBook(mockAsyncAddressBook);
+
+       FakeHttpServletRequest fakeRequest = new FakeHttpServletRequest();
+       FakeHttpServletResponse fakeResponse = new FakeHttpServletResponse();
+       controller.doGet(fakeRequest, fakeResponse);
+
+       assertFalse(fakeRequest.isAsyncStarted());
+       assertEquals("viewPath", fakeResponse.getForwardLocation());
+       verifyZeroInteractions(mockAsyncAddressBook);
+    }
+
+    /**
+     * Si la agenda asíncrona está saturada se responde 503 sin esperar.
+     */
+    @Test
+    public void testDoGetAsyncRejected() throws ServletException, IOException {
+       AsyncGlobalAddressBook mockAsyncAddressBook = mock(AsyncGlobalAddressBook.class);
+       when(mockAsyncAddressBook.getPage(anyString(), anyInt(), any(AsyncCallback.class)))
+            .thenThrow(new RejectedExecutionException());
+       controller.setAsyncAddressBook(mockAsyncAddressBook);
+
+       FakeHttpServletRequest fakeRequest = new FakeHttpServletRequest();
+       FakeHttpServletResponse fakeResponse = new FakeHttpServletResponse();
+       fakeRequest.setAsyncSupported(true);
+
+       controller.doGet(fakeRequest, fakeResponse);
+
+       assertTrue(fakeRequest.getAsyncContext().isCompleted());
+       assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, fakeResponse.getStatus());
+       assertNull(fakeResponse.getForwardLocation());
+    }
+}
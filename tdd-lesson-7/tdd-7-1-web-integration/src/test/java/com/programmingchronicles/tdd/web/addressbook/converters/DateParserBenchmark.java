@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.web.addressbook.converters;
+
+import com.programmingchronicles.addressbook.converters.DayMonthYearParser;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Medición de las fechas convertidas por segundo con el SimpleDateFormat
+ * que usaba ContactCommandConverter y con DayMonthYearParser.
+ *
+ * <p>
+ * El SimpleDateFormat compartido no es thread-safe, así que con varios
+ * threads se compara con las dos formas de usarlo correctamente: con
+ * synchronized, o creando uno nuevo en cada conversión.</p>
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class DateParserBenchmark {
+
+    private static final int DATES_PER_THREAD = 1000000;
+
+    private static final String[] DATES = {
+        "8/1/1974", "31/12/1999", "29/02/2000", "15/6/1985", "1/10/2011"
+    };
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        // Primera vuelta de calentamiento para el JIT.
+        for (int round = 0; round < 2; round++) {
+            boolean print = round > 0;
+            run("SimpleDateFormat compartido", new SharedParser(), 1, print);
+            run("SimpleDateFormat synchronized", new SynchronizedParser(), threads, print);
+            run("new SimpleDateFormat", new NewInstanceParser(), threads, print);
+            run("DayMonthYearParser", new FastParser(), 1, print);
+            run("DayMonthYearParser", new FastParser(), threads, print);
+        }
+    }
+
+    private static void run(String name, final Parser parser,
+                            int threads, boolean print) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < DATES_PER_THREAD; i++) {
+                            parser.parse(DATES[i % DATES.length]);
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        end.await();
+        long elapsed = System.nanoTime() - begin;
+
+        if (print) {
+            long total = (long) threads * DATES_PER_THREAD;
+            System.out.printf("%-30s %2d threads: %,12d fechas/s%n",
+                              name, threads, total * 1000000000L / elapsed);
+        }
+    }
+
+    private interface Parser {
+        Date parse(String text);
+    }
+
+    /**
+     * Implementación anterior: un único SimpleDateFormat. Solo es correcta
+     * con un thread.
+     */
+    private static class SharedParser implements Parser {
+        private final DateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+
+        @Override
+        public Date parse(String text) {
+            try {
+                return dateFormat.parse(text);
+            } catch (ParseException ex) {
+                return null;
+            }
+        }
+    }
+
+    private static class SynchronizedParser extends SharedParser {
+        @Override
+        public synchronized Date parse(String text) {
+            return super.parse(text);
+        }
+    }
+
+    private static class NewInstanceParser implements Parser {
+        @Override
+        public Date parse(String text) {
+            try {
+                return new SimpleDateFormat("dd/MM/yyyy").parse(text);
+            } catch (ParseException ex) {
+                return null;
+            }
+        }
+    }
+
+    private static class FastParser implements Parser {
+        private final DayMonthYearParser parser = new DayMonthYearParser();
+
+        @Override
+        public Date parse(String text) {
+            return parser.parse(text);
+        }
+    }
+}
@@ -22,6 +22,7 @@
 package com.programmingchronicles.tdd.web.addressbook.converters;
 
 import com.programmingchronicles.addressbook.converters.ContactCommandConverter;
+import com.programmingchronicles.tdd.addressbook.ValidContact;
 import com.programmingchronicles.tdd.domain.Contact;
 import java.text.DateFormat;
 import java.text.ParseException;
@@ -113,6 +114,14 @@ public class TestContactCommandConverter {
         assertEquals("Ballesteros", contact.getSurname());
         assertEquals(dateFormat.parse("8/1/1974"), contact.getBirthday());
         assertEquals("69696969", contact.getPhone());
+
+        // El comando validado tiene los mismos datos, la agenda no los
+        // vuelve a normalizar.
+        ValidContact validContact = converter.getValidCommand();
+        assertEquals("Pedro", validContact.getFirstName());
+        assertEquals("Ballesteros", validContact.getSurname());
+        assertEquals(contact.getBirthday(), validContact.getBirthday());
+        assertEquals("69696969", validContact.getPhone());
     }
 
     // Verifica el comportamiento cuando los parametros no existen.
@@ -207,4 +216,17 @@ public class TestContactCommandConverter {
         assertEquals("Ballesteros", contact.getSurname());
         assertEquals("69696969", contact.getPhone());
     }
+
+    // Las fechas inexistentes son un error, no se corrigen al día siguiente.
+    @Test
+    public void testConvertBirthDayNotExists() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("firstName")).thenReturn("Pedro");
+        when(request.getParameter("birthday")).thenReturn("31/02/1974");
+
+        assertFalse(converter.verifyAndConvert(request));
+        assertNotNull(converter.getErrors().get("birthday"));
+        assertNull(converter.getCommand().getBirthday());
+        assertNull(converter.getValidCommand());
+    }
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2010-2011, Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ *
+ * This file is part of The Programming Chronicles Test-Driven Development
+ * Exercises(http://theprogrammingchronicles.com/)
+ *
+ * This copyrighted material is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This material is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this material. This copy is available in LICENSE-GPL.txt
+ * file. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.programmingchronicles.tdd.web.addressbook.converters;
+
+import com.programmingchronicles.addressbook.converters.DayMonthYearParser;
+import com.programmingchronicles.tdd.domain.ContactValue;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.*;
+import static org.junit.Assert.*;
+
+/**
+ * Test de DayMonthYearParser.
+ *
+ * Las fechas válidas se comparan con el resultado de SimpleDateFormat,
+ * que es el conversor al que sustituye.
+ *
+ * @author Pedro Ballesteros <pedro@theprogrammingchronicles.com>
+ */
+public class TestDayMonthYearParser {
+
+    private DayMonthYearParser parser = new DayMonthYearParser();
+
+    private static Date expected(String text) throws Exception {
+        return new SimpleDateFormat("dd/MM/yyyy").parse(text);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        String[] dates = { "8/1/1974", "08/01/1974", "1/1/1970", "31/12/1969",
+                           "29/02/2000", "28/2/1900", "31/12/9999", "1/1/1583" };
+        for (String date : dates) {
+            assertEquals(date, expected(date), parser.parse(date));
+        }
+    }
+
+    @Test
+    public void testParseEpochDay() {
+        assertEquals(0, parser.parseEpochDay("1/1/1970"));
+        assertEquals(-1, parser.parseEpochDay("31/12/1969"));
+        assertEquals(ContactValue.toEpochDay(1974, 1, 8), parser.parseEpochDay("08/01/1974"));
+    }
+
+    /**
+     * Al contrario que SimpleDateFormat, no se corrigen las fechas
+     * inexistentes ni se ignoran los caracteres sobrantes.
+     */
+    @Test
+    public void testParseInvalid() {
+        String[] dates = { null, "", "fechainvalida", "8/1", "8/1/74", "8/1/19745",
+                           "31/02/2000", "29/02/1900", "0/1/2000", "1/13/2000",
+                           "1/0/2000", "001/1/2000", "1/1/2000x", "1/1/20x0",
+                           "1-1-2000", "1//2000", "/1/2000", "1/1/1582", " 1/1/2000" };
+        for (String date : dates) {
+            assertNull(date, parser.parse(date));
+            assertEquals(date, ContactValue.NO_BIRTHDAY, parser.parseEpochDay(date));
+        }
+    }
+
+    /**
+     * La fecha devuelta es la medianoche de la zona horaria del conversor.
+     * Se prueban todos los días de varias zonas con cambios de hora a
+     * medianoche, incluso días que no existen (Kiritimati en 1994).
+     */
+    @Test
+    public void testParseTimeZone() throws Exception {
+        DateFormat utcFormat = new SimpleDateFormat("dd/MM/yyyy");
+        utcFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        long millisPerDay = 24L * 60 * 60 * 1000;
+        int from = ContactValue.toEpochDay(1900, 1, 1);
+        int to = ContactValue.toEpochDay(2040, 1, 1);
+
+        String[] zones = { "UTC", "Europe/Madrid", "America/Sao_Paulo", "Pacific/Kiritimati" };
+        for (String zone : zones) {
+            TimeZone timeZone = TimeZone.getTimeZone(zone);
+            DayMonthYearParser zoneParser = new DayMonthYearParser(timeZone);
+            DateFormat format = new SimpleDateFormat("dd/MM/yyyy");
+            format.setTimeZone(timeZone);
+            for (int day = from; day < to; day++) {
+                String date = utcFormat.format(new Date(day * millisPerDay));
+                assertEquals(zone + " " + date, format.parse(date), zoneParser.parse(date));
+            }
+        }
+    }
+
+    /**
+     * Una sola instancia compartida por varios threads devuelve siempre
+     * la fecha correcta. Con un SimpleDateFormat compartido este test falla.
+     */
+    @Test
+    public void testConcurrentParse() throws InterruptedException {
+        final int threads = 8;
+        final int datesPerThread = 20000;
+        final AtomicInteger failures = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch end = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        // Cada thread usa su propio SimpleDateFormat para
+                        // calcular las fechas esperadas.
+                        DateFormat format = new SimpleDateFormat("dd/MM/yyyy");
+                        Random random = new Random(seed);
+                        start.await();
+                        for (int i = 0; i < datesPerThread; i++) {
+                            Date date = ContactValue.toDate(random.nextInt(80000) - 40000);
+                            if (!date.equals(parser.parse(format.format(date)))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        end.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        start.countDown();
+        end.await();
+        assertEquals(0, failures.get());
+    }
+}